@@ -0,0 +1,219 @@
+package com.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Заглушка Bot API для нагрузочного теста. getUpdates отдаёт подготовленные стендом события
+// (до 100 за раз и с ожиданием до timeout, как Telegram), sendMessage и sendPhoto отвечают с заданной задержкой,
+// а заданная доля из них получает 429 с retry_after. answerCallbackQuery отвечает с той же задержкой
+// и без 429. Остальные методы просто отвечают ok.
+// offset не учитывается: выданное событие считается доставленным.
+public class FakeBotApi {
+    // Получатель ответов бота: chatId, куда ушло сообщение
+    public interface Listener {
+        void onSent(long chatId);
+
+        // Бот подтвердил нажатие кнопки
+        default void onAnswered(String callbackQueryId) {
+        }
+    }
+
+    private static final int MAX_UPDATES = 100;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final BlockingQueue<String> updates = new LinkedBlockingQueue<>();
+    private final long latencyMillis;
+    private final double rateLimitShare;
+    private final int retryAfterSeconds;
+    private final Listener listener;
+    private final CountDownLatch firstPoll = new CountDownLatch(1);
+    private final AtomicLong updateIds = new AtomicLong();
+    private final AtomicLong messageIds = new AtomicLong();
+
+    private final LongAdder polls = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder answered = new LongAdder();
+
+    public FakeBotApi(int port, long latencyMillis, double rateLimitShare, int retryAfterSeconds,
+                      Listener listener) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.rateLimitShare = rateLimitShare;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.listener = listener;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        // Задержка ответа — sleep в потоке запроса, поэтому потоков столько, сколько одновременных запросов
+        this.handlers = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "fake-bot-api");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(handlers);
+        server.createContext("/", this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void shutdown() {
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    // Адрес для TELEGRAM_API_URL
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    // Событие для бота: JSON объекта Update без update_id. Номер выдаётся здесь по порядку очереди,
+    // как в Telegram: telegrambots отбрасывает события с номером меньше уже полученного
+    public synchronized void offer(String update) {
+        updates.add("{\"update_id\":" + updateIds.incrementAndGet() + "," + update.substring(1));
+    }
+
+    // Ждёт первого getUpdates: бот запущен и опрашивает
+    public boolean awaitFirstPoll(long timeout, TimeUnit unit) throws InterruptedException {
+        return firstPoll.await(timeout, unit);
+    }
+
+    public int queuedUpdates() {
+        return updates.size();
+    }
+
+    public long polls() {
+        return polls.sum();
+    }
+
+    public long sent() {
+        return sent.sum();
+    }
+
+    public long rateLimited() {
+        return rateLimited.sum();
+    }
+
+    public long answered() {
+        return answered.sum();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            // Имена методов Bot API не зависят от регистра, telegrambots пишет их строчными
+            String method = path.substring(path.lastIndexOf('/') + 1).toLowerCase(Locale.ROOT);
+            byte[] body = readAll(exchange.getRequestBody());
+            switch (method) {
+                case "getupdates":
+                    long timeout = body.length == 0 ? 0 : mapper.readTree(body).path("timeout").asLong();
+                    respond(exchange, 200, "{\"ok\":true,\"result\":[" + String.join(",", poll(timeout)) + "]}");
+                    break;
+                case "sendmessage":
+                    send(exchange, mapper.readTree(body).path("chat_id").asLong(), false);
+                    break;
+                case "sendphoto":
+                    send(exchange, Long.parseLong(multipartField(body, "chat_id")), true);
+                    break;
+                case "answercallbackquery":
+                    if (latencyMillis > 0) {
+                        Thread.sleep(latencyMillis);
+                    }
+                    respond(exchange, 200, "{\"ok\":true,\"result\":true}");
+                    answered.increment();
+                    listener.onAnswered(mapper.readTree(body).path("callback_query_id").asText());
+                    break;
+                default:
+                    respond(exchange, 200, "{\"ok\":true,\"result\":true}");
+            }
+        } catch (InterruptedException e) {
+            // Остановка заглушки во время долгого getUpdates
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            e.printStackTrace();
+            respond(exchange, 500, "{\"ok\":false,\"error_code\":500,\"description\":\"Internal Server Error\"}");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Как Telegram: ответ сразу, если события есть, иначе ждём первое до timeout секунд
+    private List<String> poll(long timeoutSeconds) throws InterruptedException {
+        polls.increment();
+        firstPoll.countDown();
+        List<String> batch = new ArrayList<>(MAX_UPDATES);
+        String first = updates.poll(timeoutSeconds, TimeUnit.SECONDS);
+        if (first != null) {
+            batch.add(first);
+            updates.drainTo(batch, MAX_UPDATES - 1);
+        }
+        return batch;
+    }
+
+    private void send(HttpExchange exchange, long chatId, boolean photo) throws Exception {
+        if (latencyMillis > 0) {
+            Thread.sleep(latencyMillis);
+        }
+        if (rateLimitShare > 0 && ThreadLocalRandom.current().nextDouble() < rateLimitShare) {
+            rateLimited.increment();
+            respond(exchange, 429, "{\"ok\":false,\"error_code\":429,\"description\":\"Too Many Requests: retry after "
+                    + retryAfterSeconds + "\",\"parameters\":{\"retry_after\":" + retryAfterSeconds + "}}");
+            return;
+        }
+        String message = "{\"message_id\":" + messageIds.incrementAndGet()
+                + ",\"date\":" + System.currentTimeMillis() / 1000
+                + ",\"chat\":{\"id\":" + chatId + ",\"type\":\"private\"}"
+                + (photo ? ",\"photo\":[{\"file_id\":\"load-test-photo\",\"file_unique_id\":\"load-test\","
+                        + "\"width\":800,\"height\":600,\"file_size\":1}]" : ",\"text\":\"ok\"")
+                + "}";
+        respond(exchange, 200, "{\"ok\":true,\"result\":" + message + "}");
+        sent.increment();
+        listener.onSent(chatId);
+    }
+
+    // Значение текстового поля multipart/form-data
+    private static String multipartField(byte[] body, String name) {
+        String text = new String(body, StandardCharsets.ISO_8859_1);
+        int header = text.indexOf("name=\"" + name + "\"");
+        if (header < 0) {
+            throw new IllegalArgumentException("Нет поля " + name);
+        }
+        int start = text.indexOf("\r\n\r\n", header) + 4;
+        return text.substring(start, text.indexOf("\r\n", start)).trim();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream body = in) {
+            return body.readAllBytes();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Постановка и отмена follow-up в FollowUpScheduler при 100 тысячах ожидающих.
+// Тикер не запускается и сроки в будущем: число ожидающих за замер не меняется.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class FollowUpSchedulerBenchmark {
+    private static final long FIRST_CHAT = 100_000_000L;
+    private static final FollowUpKind[] KINDS = FollowUpKind.values();
+
+    @Param("100000")
+    public int pending;
+
+    private FollowUpScheduler scheduler;
+    private long base;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        // Параметры колеса — как в SalesAnalyticsBot
+        scheduler = new FollowUpScheduler((chatId, kind) -> { }, 1000, 4096, 1);
+        base = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+        for (int i = 0; i < pending; i++) {
+            scheduler.scheduleAt(FIRST_CHAT + i, KINDS[i % KINDS.length], deadline(i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    // Новое сообщение для чата без ожидающих и его отмена — нажатие кнопки после /start
+    @Benchmark
+    public boolean scheduleAndCancel() {
+        long chatId = FIRST_CHAT + pending + nextIndex();
+        scheduler.scheduleAt(chatId, FollowUpKind.FOLLOW_UP, deadline(next));
+        return scheduler.cancel(chatId, FollowUpKind.FOLLOW_UP);
+    }
+
+    // Перестановка уже ожидающего сообщения на новый срок
+    @Benchmark
+    public void reschedule() {
+        int i = nextIndex();
+        scheduler.scheduleAt(FIRST_CHAT + i, KINDS[i % KINDS.length], deadline(i + next));
+    }
+
+    // Отмена всех видов по действию пользователя и возврат сообщения на место
+    @Benchmark
+    public int cancelAllAndRestore() {
+        int i = nextIndex();
+        int cancelled = scheduler.cancelAll(FIRST_CHAT + i);
+        scheduler.scheduleAt(FIRST_CHAT + i, KINDS[i % KINDS.length], deadline(i));
+        return cancelled;
+    }
+
+    private int nextIndex() {
+        int i = next;
+        next = i + 1 == pending ? 0 : i + 1;
+        return i;
+    }
+
+    // Сроки разнесены по всему колесу
+    private long deadline(int i) {
+        return base + (i % 86_400) * 1000L;
+    }
+}
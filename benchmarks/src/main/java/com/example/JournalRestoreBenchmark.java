@@ -0,0 +1,120 @@
+package com.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Старт бота после перезапуска: восстановление сессий и follow-up из журнала.
+// Журнал — снимок на sessions чатов (у каждого сессия и follow-up) и хвост сегментов с
+// изменениями после снимка. Замер — холодный старт целиком, как в SalesAnalyticsBot:
+// чтение журнала, сессии в холодный уровень, follow-up в колесо таймеров. Цель — заметно меньше
+// секунды на миллион чатов.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class JournalRestoreBenchmark {
+    @Param("1000000")
+    public int sessions;
+
+    private Path dir;
+    private Path journalDir;
+    private Set<Path> journalFiles;
+    private long now;
+
+    private InMemorySessionStore store;
+    private FollowUpScheduler followUps;
+
+    @Setup(Level.Trial)
+    public void writeJournal() throws IOException {
+        dir = Files.createTempDirectory("journal-restore");
+        journalDir = dir.resolve("journal");
+        now = System.currentTimeMillis();
+        long[] chatIds = new long[sessions];
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < sessions; i++) {
+            chatIds[i] = 100_000_000L + random.nextLong(9_000_000_000L);
+        }
+        FollowUpKind[] kinds = FollowUpKind.values();
+        SessionJournal journal = new SessionJournal(journalDir);
+        journal.restore(new JournalRestorer(null, null, now, true));
+        journal.compact(out -> {
+            for (int i = 0; i < chatIds.length; i++) {
+                out.onSession(chatIds[i], 1 + i % 3, "Консультация", "Анна", "+7 900 000-00-00", null);
+                out.onFollowUpScheduled(chatIds[i], kinds[i % kinds.length], now + TimeUnit.MINUTES.toMillis(1 + i % 1440));
+            }
+        });
+        // Хвост после снимка: каждый десятый чат прошёл шаг формы, каждый двадцатый завершил её
+        for (int i = 0; i < chatIds.length; i += 10) {
+            journal.session(chatIds[i], 4, "Консультация", "Анна", "+7 900 000-00-00", "Перезвоните после обеда");
+            journal.followUpDone(chatIds[i], 1 << kinds[i % kinds.length].ordinal());
+        }
+        for (int i = 0; i < chatIds.length; i += 20) {
+            journal.session(chatIds[i], Funnel.DEFAULT_STATE, null, null, null, null);
+        }
+        journal.shutdown();
+        journalFiles = listJournal();
+    }
+
+    @Setup(Level.Invocation)
+    public void emptyBot() throws IOException {
+        store = new InMemorySessionStore(new ColdSessionFile(dir.resolve("sessions")), TimeUnit.MINUTES.toMillis(30));
+        followUps = new FollowUpScheduler((chatId, kind) -> { }, 1000, 4096, 0);
+    }
+
+    @Benchmark
+    public int restore() throws IOException {
+        SessionJournal journal = new SessionJournal(journalDir);
+        journal.restore(new JournalRestorer(store, followUps, now, true));
+        journal.shutdown();
+        return store.coldSize() + followUps.pendingCount();
+    }
+
+    // Восстановление открывает новый сегмент для записи: убираем его, чтобы следующий замер читал тот же журнал
+    @TearDown(Level.Invocation)
+    public void dropNewSegment() throws IOException {
+        store.shutdown();
+        for (Path file : listJournal()) {
+            if (!journalFiles.contains(file)) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteJournal() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    private Set<Path> listJournal() throws IOException {
+        try (Stream<Path> files = Files.list(journalDir)) {
+            Set<Path> set = new HashSet<>();
+            files.forEach(set::add);
+            return set;
+        }
+    }
+}
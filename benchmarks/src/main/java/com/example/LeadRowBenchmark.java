@@ -0,0 +1,69 @@
+package com.example;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.services.sheets.v4.model.ValueRange;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Путь строки заявки: NDJSON-строка outbox (LeadOutbox, без fsync), её разбор пересылкой
+// и тело append в Sheets на полный пакет LeadWriter (50 строк).
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class LeadRowBenchmark {
+    private static final TypeReference<List<Object>> ROW = new TypeReference<List<Object>>() { };
+    private static final int BATCH = 50;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private List<Object> row;
+    private byte[] line;
+    private ValueRange batch;
+
+    @Setup
+    public void setUp() throws Exception {
+        // Та же строка, что собирает SalesAnalyticsBot.saveToGoogleSheets
+        row = Arrays.asList("Консультация", "Анна", "+7 900 000-00-00",
+                "Перезвоните после обеда", "Chat ID: 123456789", new Date().toString(),
+                LeadWriter.KEY_PREFIX + "123456789:987654321", "новая");
+        line = mapper.writeValueAsBytes(row);
+        List<List<Object>> rows = new ArrayList<>();
+        for (int i = 0; i < BATCH; i++) {
+            rows.add(row);
+        }
+        batch = new ValueRange().setValues(rows);
+    }
+
+    @Benchmark
+    public byte[] outboxLine() throws Exception {
+        return mapper.writeValueAsBytes(row);
+    }
+
+    @Benchmark
+    public List<Object> outboxRead() throws Exception {
+        return mapper.readValue(line, 0, line.length, ROW);
+    }
+
+    @Benchmark
+    public String sheetsBatch() throws Exception {
+        return GsonFactory.getDefaultInstance().toString(batch);
+    }
+}
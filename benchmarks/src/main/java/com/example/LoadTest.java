@@ -0,0 +1,441 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Нагрузочный тест бота целиком: настоящий бот (com.example.Main) в отдельном процессе,
+// Bot API и Google Sheets — локальные заглушки (FakeBotApi, FakeSheets).
+// Виртуальные пользователи проходят воронку /start → видео → консультация → форма из трёх полей
+// и начинают заново; следующее событие пользователь отправляет, когда получил полный ответ
+// на предыдущее. В конце — пропускная способность, перцентили задержки от события до ответа
+// по типам событий и до подтверждения нажатия, ошибки, доставка заявок в Sheets, куча и потоки бота.
+//
+//   java -cp target/benchmarks.jar com.example.LoadTest users=1000 updates=1000000 \
+//       telegramLatencyMs=20 rateLimited=0.001 sheetsLatencyMs=200
+//
+// Лимиты Telegram в боте сняты (telegramRate, chatRate): стенд меряет сам бот.
+// Остальные переменные окружения (например, SESSION_STORE=redis) передаются боту как есть.
+public class LoadTest {
+    private static final long FIRST_CHAT = 7_000_000_000L;
+    private static final String[] TYPES = {"command", "callback", "form"};
+    private static final int COMMAND = 0;
+    private static final int CALLBACK = 1;
+    private static final int FORM = 2;
+
+    private static final class Step {
+        final int type;
+        final String value;
+        // Сколько сообщений бот отправляет в ответ
+        final int replies;
+
+        Step(int type, String value, int replies) {
+            this.type = type;
+            this.value = value;
+            this.replies = replies;
+        }
+    }
+
+    // Путь пользователя по funnel.properties из сборки; последний шаг сохраняет заявку
+    private static final Step[] SCRIPT = {
+            new Step(COMMAND, "/start", 1),
+            // get_video
+            new Step(CALLBACK, "1", 1),
+            // video_want_consultation: вступление и первый вопрос формы
+            new Step(CALLBACK, "9", 2),
+            new Step(FORM, "Анна", 1),
+            new Step(FORM, "+7 900 000-00-00", 1),
+            new Step(FORM, "Нагрузочный тест", 1),
+    };
+
+    private static final class User {
+        final long chatId;
+        int step;
+        int awaiting;
+        long sentAt;
+        // Нажатие, ещё не подтверждённое ботом (answerCallbackQuery)
+        String callbackId;
+        boolean stopped;
+
+        User(long chatId) {
+            this.chatId = chatId;
+        }
+    }
+
+    // Задержки в микросекундах: 64 корзины на степень двойки, погрешность до ~1.5%
+    static final class Latencies {
+        private final AtomicLongArray counts = new AtomicLongArray(64 * 40);
+        private final LongAdder total = new LongAdder();
+
+        void record(long micros) {
+            counts.incrementAndGet(index(Math.max(1, micros)));
+            total.increment();
+        }
+
+        long count() {
+            return total.sum();
+        }
+
+        // Нижняя граница корзины квантиля q, мкс
+        long quantile(double q) {
+            long rank = Math.max(1, (long) Math.ceil(q * count()));
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return lowerBound(i);
+                }
+            }
+            return 0;
+        }
+
+        long max() {
+            for (int i = counts.length() - 1; i >= 0; i--) {
+                if (counts.get(i) > 0) {
+                    return lowerBound(i);
+                }
+            }
+            return 0;
+        }
+
+        private static int index(long value) {
+            if (value < 64) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            return (exponent - 5) * 64 + (int) ((value >>> (exponent - 6)) - 64);
+        }
+
+        private static long lowerBound(int index) {
+            if (index < 64) {
+                return index;
+            }
+            int exponent = index / 64 + 5;
+            return (64L + index % 64) << (exponent - 6);
+        }
+    }
+
+    private final Map<String, String> params;
+    private final User[] users;
+    private final long timeoutNanos;
+    private final AtomicLong budget;
+    private final AtomicLong messageIds = new AtomicLong();
+    private final AtomicInteger active;
+    private final Latencies[] latencies = {new Latencies(), new Latencies(), new Latencies()};
+    private final Latencies ackLatencies = new Latencies();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder leads = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder unexpected = new LongAdder();
+    private FakeBotApi api;
+    private long maxHeapBytes;
+    private long maxThreads;
+
+    private LoadTest(Map<String, String> params) {
+        this.params = params;
+        this.users = new User[(int) param("users", 100)];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = new User(FIRST_CHAT + i);
+        }
+        this.timeoutNanos = TimeUnit.SECONDS.toNanos(param("timeoutSeconds", 30));
+        this.budget = new AtomicLong(param("updates", 100_000));
+        this.active = new AtomicInteger(users.length);
+    }
+
+    public static void main(String[] args) throws Exception {
+        // Без TCP_NODELAY заглушки отвечают с задержкой подтверждения ~40 мс на каждый запрос
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        Map<String, String> params = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                System.err.println("Параметры задаются как имя=значение: " + arg);
+                System.exit(2);
+            }
+            params.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        new LoadTest(params).run();
+    }
+
+    private void run() throws Exception {
+        api = new FakeBotApi(0, param("telegramLatencyMs", 20), Double.parseDouble(text("rateLimited", "0")),
+                (int) param("retryAfterSeconds", 1), new FakeBotApi.Listener() {
+                    @Override
+                    public void onSent(long chatId) {
+                        LoadTest.this.onSent(chatId);
+                    }
+
+                    @Override
+                    public void onAnswered(String callbackQueryId) {
+                        LoadTest.this.onAnswered(callbackQueryId);
+                    }
+                });
+        FakeSheets sheets = new FakeSheets(0, param("sheetsLatencyMs", 100));
+        api.start();
+        sheets.start();
+        Path dataDir = Files.createTempDirectory("bot-load-test");
+        int metricsPort = freePort();
+        Process bot = startBot(sheets, dataDir, metricsPort);
+        ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "load-test-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            if (!api.awaitFirstPoll(60, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Бот не начал опрос за минуту, см. " + dataDir.resolve("bot.log"));
+            }
+            System.out.println("🚀 " + users.length + " пользователей, " + budget.get() + " событий; журнал бота: "
+                    + dataDir.resolve("bot.log"));
+            long started = System.nanoTime();
+            watchdog.scheduleWithFixedDelay(this::expireStalled, 1, 1, TimeUnit.SECONDS);
+            for (User user : users) {
+                synchronized (user) {
+                    sendNext(user);
+                }
+            }
+            long nextProgress = started + TimeUnit.SECONDS.toNanos(5);
+            while (active.get() > 0) {
+                Thread.sleep(1000);
+                sampleBot(metricsPort);
+                if (System.nanoTime() >= nextProgress) {
+                    nextProgress += TimeUnit.SECONDS.toNanos(5);
+                    double seconds = (System.nanoTime() - started) / 1e9;
+                    System.out.printf(Locale.ROOT, "  %.0f с: %d событий, %.0f/с, активных пользователей %d, "
+                                    + "в очереди getUpdates %d%n",
+                            seconds, completed.sum(), completed.sum() / seconds, active.get(), api.queuedUpdates());
+                }
+            }
+            double seconds = (System.nanoTime() - started) / 1e9;
+            // Заявки уходят в Sheets пакетами в фоне; ждём, пока они дойдут, но не дольше минуты
+            long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+            while (sheets.rows() < leads.sum() && System.nanoTime() < deadline) {
+                Thread.sleep(500);
+            }
+            Map<String, Double> metrics = scrape(metricsPort);
+            report(seconds, sheets, metrics);
+        } finally {
+            watchdog.shutdownNow();
+            bot.destroy();
+            if (!bot.waitFor(30, TimeUnit.SECONDS)) {
+                bot.destroyForcibly();
+            }
+            api.shutdown();
+            sheets.shutdown();
+        }
+    }
+
+    private Process startBot(FakeSheets sheets, Path dataDir, int metricsPort) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(Arrays.asList(text("botJvm", "-Xmx1g").trim().split("\\s+")));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("com.example.Main");
+        ProcessBuilder builder = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(dataDir.resolve("bot.log").toFile());
+        Map<String, String> env = builder.environment();
+        env.put("BOT_TOKEN", "load-test");
+        env.put("BOT_USERNAME", "load_test_bot");
+        env.put("BOT_MODE", "polling");
+        env.put("TELEGRAM_API_URL", api.url());
+        env.put("TELEGRAM_RATE", text("telegramRate", "1000000"));
+        env.put("TELEGRAM_CHAT_RATE", text("chatRate", "1000"));
+        env.put("GOOGLE_SERVICE_ACCOUNT_JSON", sheets.serviceAccountJson());
+        env.put("SHEETS_ROOT_URL", sheets.url());
+        env.put("SPREADSHEET_ID", "load-test");
+        env.put("DATA_DIR", dataDir.toString());
+        env.put("METRICS_PORT", String.valueOf(metricsPort));
+        env.remove("METRICS_HOST");
+        return builder.start();
+    }
+
+    // Ответ бота из FakeBotApi; вызывается из потоков заглушки
+    private void onSent(long chatId) {
+        long index = chatId - FIRST_CHAT;
+        if (index < 0 || index >= users.length) {
+            // Например, предзагрузка картинок в MEDIA_CACHE_CHAT_ID
+            return;
+        }
+        User user = users[(int) index];
+        synchronized (user) {
+            if (user.awaiting == 0 || user.stopped) {
+                // Ответ без события: follow-up или ответ после таймаута
+                unexpected.increment();
+                return;
+            }
+            if (--user.awaiting > 0) {
+                return;
+            }
+            Step step = SCRIPT[user.step];
+            latencies[step.type].record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - user.sentAt));
+            completed.increment();
+            if (user.step == SCRIPT.length - 1) {
+                leads.increment();
+            }
+            user.step = (user.step + 1) % SCRIPT.length;
+            sendNext(user);
+        }
+    }
+
+    // Подтверждение нажатия из FakeBotApi: id нажатия — «chatId:номер»
+    private void onAnswered(String callbackQueryId) {
+        int colon = callbackQueryId.indexOf(':');
+        if (colon < 0) {
+            return;
+        }
+        long index = Long.parseLong(callbackQueryId.substring(0, colon)) - FIRST_CHAT;
+        if (index < 0 || index >= users.length) {
+            return;
+        }
+        User user = users[(int) index];
+        synchronized (user) {
+            if (callbackQueryId.equals(user.callbackId)) {
+                ackLatencies.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - user.sentAt));
+                user.callbackId = null;
+            }
+        }
+    }
+
+    // Под монитором пользователя
+    private void sendNext(User user) {
+        if (budget.getAndDecrement() <= 0) {
+            user.stopped = true;
+            active.decrementAndGet();
+            return;
+        }
+        Step step = SCRIPT[user.step];
+        long messageId = messageIds.incrementAndGet();
+        String chat = "{\"id\":" + user.chatId + ",\"type\":\"private\",\"first_name\":\"Load\"}";
+        String from = "{\"id\":" + user.chatId + ",\"is_bot\":false,\"first_name\":\"Load\"}";
+        long date = System.currentTimeMillis() / 1000;
+        String update;
+        user.callbackId = null;
+        if (step.type == CALLBACK) {
+            user.callbackId = user.chatId + ":" + messageId;
+            update = "{\"callback_query\":{\"id\":\"" + user.callbackId + "\",\"from\":" + from
+                    + ",\"message\":{\"message_id\":" + messageId + ",\"date\":" + date + ",\"chat\":" + chat
+                    + ",\"text\":\".\"},\"chat_instance\":\"" + user.chatId + "\",\"data\":\"" + step.value + "\"}}";
+        } else {
+            update = "{\"message\":{\"message_id\":" + messageId + ",\"from\":" + from
+                    + ",\"date\":" + date + ",\"chat\":" + chat + ",\"text\":\"" + step.value + "\"}}";
+        }
+        user.awaiting = step.replies;
+        user.sentAt = System.nanoTime();
+        api.offer(update);
+    }
+
+    // Пользователь без полного ответа дольше timeoutSeconds выбывает из теста
+    private void expireStalled() {
+        long now = System.nanoTime();
+        for (User user : users) {
+            synchronized (user) {
+                if (!user.stopped && user.awaiting > 0 && now - user.sentAt > timeoutNanos) {
+                    user.stopped = true;
+                    timeouts.increment();
+                    active.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    private void sampleBot(int metricsPort) {
+        try {
+            Map<String, Double> metrics = scrape(metricsPort);
+            maxHeapBytes = Math.max(maxHeapBytes, metrics.getOrDefault("jvm_memory_heap_used_bytes", 0.0).longValue());
+            maxThreads = Math.max(maxThreads, metrics.getOrDefault("jvm_threads", 0.0).longValue());
+        } catch (IOException e) {
+            // Бот ещё поднимает сервер метрик
+        }
+    }
+
+    private void report(double seconds, FakeSheets sheets, Map<String, Double> metrics) {
+        long done = completed.sum();
+        StringBuilder out = new StringBuilder("\n📊 Итоги нагрузочного теста\n");
+        out.append(String.format(Locale.ROOT, "Событий обработано: %d за %.1f с — %.0f событий/с%n", done, seconds, done / seconds));
+        out.append("Задержка от события до полного ответа, мс:\n");
+        out.append(String.format(Locale.ROOT, "  %-9s %10s %8s %8s %8s %8s %8s%n", "тип", "событий", "p50", "p90", "p99", "p99.9", "max"));
+        for (int type = 0; type < TYPES.length; type++) {
+            Latencies l = latencies[type];
+            out.append(String.format(Locale.ROOT, "  %-9s %10d %8.1f %8.1f %8.1f %8.1f %8.1f%n", TYPES[type], l.count(),
+                    l.quantile(0.5) / 1000.0, l.quantile(0.9) / 1000.0, l.quantile(0.99) / 1000.0,
+                    l.quantile(0.999) / 1000.0, l.max() / 1000.0));
+        }
+        out.append(String.format(Locale.ROOT, "  %-9s %10d %8.1f %8.1f %8.1f %8.1f %8.1f%n", "ack", ackLatencies.count(),
+                ackLatencies.quantile(0.5) / 1000.0, ackLatencies.quantile(0.9) / 1000.0,
+                ackLatencies.quantile(0.99) / 1000.0, ackLatencies.quantile(0.999) / 1000.0, ackLatencies.max() / 1000.0));
+        out.append(String.format(Locale.ROOT, "Подтверждено нажатий: %d из %d (ack — от нажатия до answerCallbackQuery)%n",
+                api.answered(), latencies[CALLBACK].count()));
+        long requests = api.sent() + api.rateLimited();
+        out.append(String.format(Locale.ROOT, "Bot API: отправлено %d, ответов 429 %d (%.3f%%), ошибок запросов у бота %.0f%n",
+                api.sent(), api.rateLimited(), requests == 0 ? 0.0 : 100.0 * api.rateLimited() / requests,
+                metrics.getOrDefault("bot_telegram_request_errors_total", 0.0)));
+        out.append(String.format(Locale.ROOT, "Без ответа за %d с: %d пользователей (%.3f%% событий); лишних сообщений: %d%n",
+                TimeUnit.NANOSECONDS.toSeconds(timeoutNanos), timeouts.sum(),
+                done == 0 ? 0.0 : 100.0 * timeouts.sum() / (done + timeouts.sum()), unexpected.sum()));
+        out.append(String.format(Locale.ROOT, "Sheets: заявок %d, строк дошло %d за %d append, ошибок append у бота %.0f%n",
+                leads.sum(), sheets.rows(), sheets.appends(),
+                metrics.getOrDefault("bot_sheets_append_errors_total", 0.0)));
+        out.append(String.format(Locale.ROOT, "Бот: куча до %.1f МБ, потоков до %d, getUpdates %d%n",
+                maxHeapBytes / 1048576.0, maxThreads, api.polls()));
+        System.out.print(out);
+    }
+
+    // Выгрузка /metrics бота: сумма значений по имени метрики без меток
+    private static Map<String, Double> scrape(int port) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + "/metrics").openConnection();
+        connection.setConnectTimeout(1000);
+        connection.setReadTimeout(5000);
+        String text;
+        try (InputStream in = connection.getInputStream()) {
+            text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } finally {
+            connection.disconnect();
+        }
+        Map<String, Double> values = new HashMap<>();
+        for (String line : text.split("\n")) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int space = line.lastIndexOf(' ');
+            int brace = line.indexOf('{');
+            String name = line.substring(0, brace >= 0 && brace < space ? brace : space);
+            values.merge(name, Double.parseDouble(line.substring(space + 1)), Double::sum);
+        }
+        return values;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private long param(String name, long defaultValue) {
+        return Long.parseLong(text(name, String.valueOf(defaultValue)));
+    }
+
+    private String text(String name, String defaultValue) {
+        return params.getOrDefault(name, defaultValue);
+    }
+}
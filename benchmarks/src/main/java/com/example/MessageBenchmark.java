@@ -0,0 +1,70 @@
+package com.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+// Сборка исходящего сообщения с клавиатурой: из готового шаблона, с клавиатурой,
+// собранной заново (как было до MessageTemplates), и сериализация в тело запроса Bot API.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class MessageBenchmark {
+    private static final String CHAT = "123456789";
+
+    // Тем же ObjectMapper'ом telegrambots пишет тело запроса
+    private final ObjectMapper mapper = new ObjectMapper();
+    private MessageTemplate template;
+    private SendMessage message;
+
+    @Setup
+    public void setUp() {
+        template = new FunnelEngine(null).current().templates().get(MessageTemplates.VIDEO_FOLLOW_UP);
+        message = template.message(CHAT);
+    }
+
+    @Benchmark
+    public SendMessage fromTemplate() {
+        return template.message(CHAT);
+    }
+
+    @Benchmark
+    public SendMessage freshKeyboard() {
+        SendMessage message = new SendMessage(CHAT, template.getText());
+        message.setParseMode("HTML");
+        message.setReplyMarkup(new InlineKeyboardMarkup(Arrays.asList(
+                Collections.singletonList(button("📞 Консультация", "9")),
+                Collections.singletonList(button("📊 Расчёт под бизнес", "10")),
+                Collections.singletonList(button("📁 Кейс", "11")))));
+        return message;
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception {
+        return mapper.writeValueAsBytes(message);
+    }
+
+    private static InlineKeyboardButton button(String text, String data) {
+        InlineKeyboardButton button = new InlineKeyboardButton(text);
+        button.setCallbackData(data);
+        return button;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// Чтение и изменение сессии в InMemorySessionStore на миллионе чатов.
+// Чаты берутся вразброс, чтобы замер включал промахи кешей процессора, как в проде.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 2, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class SessionStoreBenchmark {
+    @Param("1000000")
+    public int sessions;
+
+    private InMemorySessionStore store;
+    private long[] chatIds;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        store = new InMemorySessionStore();
+        chatIds = new long[sessions];
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < sessions; i++) {
+            chatIds[i] = 100_000_000L + random.nextLong(9_000_000_000L);
+            store.put(chatIds[i], 1 + i % 3, "Консультация", "Анна", "+7 900 000-00-00", null);
+        }
+    }
+
+    @Benchmark
+    public int state() {
+        return store.state(nextChat());
+    }
+
+    @Benchmark
+    public SessionStore.Session get() {
+        return store.get(nextChat());
+    }
+
+    // Шаг формы: прочитать сессию, заполнить поле, записать
+    @Benchmark
+    public void update() {
+        long chatId = nextChat();
+        SessionStore.Session session = store.get(chatId);
+        store.put(chatId, session.withField("comment", "Перезвоните после обеда"));
+    }
+
+    private long nextChat() {
+        int i = next;
+        next = i + 1 == chatIds.length ? 0 : i + 1;
+        return chatIds[i];
+    }
+}
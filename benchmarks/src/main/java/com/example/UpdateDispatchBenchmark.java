@@ -0,0 +1,146 @@
+package com.example;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+import org.telegram.telegrambots.meta.api.methods.send.SendPhoto;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Обработка одного события настоящим обработчиком бота, по типам событий: разбор JSON
+// (как в WebhookServer) и SalesAnalyticsBot.handleUpdate — маршрут по воронке, сессии, журнал,
+// аналитика, постановка follow-up и сборка сообщений. Бот создаётся на виртуальных часах, как
+// в симуляции: отправка выполняется сразу и подменена, поэтому сеть и лимиты не участвуют.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class UpdateDispatchBenchmark {
+    private static final long CHAT_ID = 123456789L;
+    private static final String CHAT = "{\"id\":" + CHAT_ID + ",\"type\":\"private\",\"first_name\":\"Анна\"}";
+    private static final String FROM = "{\"id\":" + CHAT_ID + ",\"is_bot\":false,\"first_name\":\"Анна\",\"language_code\":\"ru\"}";
+    // Шаг виртуальных часов между событиями: повторное нажатие не должно считаться случайным
+    private static final long STEP_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    @Param({"command", "text", "form", "callback"})
+    public String type;
+
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final VirtualClock clock = new VirtualClock(System.currentTimeMillis());
+    private Path dataDir;
+    private BenchmarkBot bot;
+    private SessionStore.Session formStart;
+    private byte[] body;
+    private int updateId;
+
+    @Setup
+    public void setUp() throws IOException {
+        dataDir = Files.createTempDirectory("bot-dispatch-benchmark");
+        bot = new BenchmarkBot();
+        switch (type) {
+            case "command":
+                body = message("/start");
+                break;
+            case "text":
+                body = message("Сколько стоит?");
+                break;
+            case "form":
+                // Пользователь на первом шаге формы
+                Funnel.FormStep first = new FunnelEngine(null).current().firstFormStep();
+                formStart = new SessionStore.Session(first.state, "Консультация", null, null, null);
+                body = message("Анна");
+                break;
+            case "callback":
+                body = ("{\"update_id\":1,\"callback_query\":{\"id\":\"4382bfdwdsb323b2d9\",\"from\":" + FROM
+                        + ",\"message\":{\"message_id\":41,\"date\":1700000000,\"chat\":" + CHAT
+                        + ",\"text\":\"👋\"},\"chat_instance\":\"-1\",\"data\":\"1\"}}").getBytes(StandardCharsets.UTF_8);
+                break;
+            default:
+                throw new IllegalArgumentException(type);
+        }
+    }
+
+    // Форма каждый раз начинается с первого шага, иначе после последнего шага замер ушёл бы в ответ по умолчанию
+    @Setup(Level.Invocation)
+    public void resetForm() {
+        if (formStart != null) {
+            bot.getSessions().put(CHAT_ID, formStart);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        bot.onClosing();
+        try (Stream<Path> paths = Files.walk(dataDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void dispatch(Blackhole bh) throws Exception {
+        Update update = mapper.readValue(body, Update.class);
+        // Новый номер события: повтор с тем же номером бот не отправил бы второй раз
+        update.setUpdateId(++updateId);
+        clock.advance(STEP_MILLIS);
+        bot.handleUpdate(update);
+        bh.consume(bot.sent);
+    }
+
+    private static byte[] message(String text) {
+        return ("{\"update_id\":1,\"message\":{\"message_id\":42,\"from\":" + FROM + ",\"date\":1700000000,\"chat\":"
+                + CHAT + ",\"text\":\"" + text + "\"}}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Бот без Telegram и Sheets: готовые запросы только считаются
+    private final class BenchmarkBot extends SalesAnalyticsBot {
+        long sent;
+
+        BenchmarkBot() {
+            super("benchmark", "benchmark_bot", clock, dataDir.toString());
+        }
+
+        @Override
+        public <T extends Serializable, Method extends BotApiMethod<T>> T execute(Method method) {
+            sent++;
+            return null;
+        }
+
+        @Override
+        protected Message executePhoto(SendPhoto photo) {
+            sent++;
+            return null;
+        }
+
+        @Override
+        protected void submitLead(List<Object> row) {
+            sent++;
+        }
+    }
+}
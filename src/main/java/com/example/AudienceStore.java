@@ -0,0 +1,21 @@
+package com.example;
+
+import java.io.IOException;
+
+// Все чаты, когда-либо писавшие боту, — аудитория рассылок.
+// Чат добавляется по первому событию и не удаляется, когда его сессия очищена (например,
+// после заявки). FileAudienceStore — файл в каталоге данных бота,
+// RedisAudienceStore — множество в Redis, общее для всех экземпляров.
+public interface AudienceStore {
+
+    // Добавляет чат; уже известный чат — без обращения к хранилищу. true — чат новый
+    boolean add(long chatId) throws IOException;
+
+    // Все чаты аудитории на момент вызова
+    long[] snapshot() throws IOException;
+
+    // Число чатов в хранилище
+    long size() throws IOException;
+
+    void close();
+}
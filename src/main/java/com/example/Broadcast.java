@@ -0,0 +1,418 @@
+package com.example;
+
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+// Рассылка шаблона по чатам аудитории (AudienceStore).
+// Аудитория снимается один раз при запуске и вместе с состоянием каждого получателя лежит
+// в отображённом файле (8 байт chatId и байт состояния на чат): это и есть контрольная точка.
+// У каждой рассылки свой файл аудитории, и имя его записано в broadcast.properties: новая
+// рассылка становится текущей одной атомарной заменой состояния, а сбой до неё оставляет прежнюю.
+// Перед отправкой получатель помечается SENDING, по ответу Telegram — DELIVERED, BLOCKED (403:
+// бот заблокирован или пользователь удалён) или FAILED. После сбоя процесса рассылка продолжается
+// с неотправленных, а SENDING без ответа становятся UNCONFIRMED и повторно не отправляются —
+// лучше не дослать одно сообщение, чем прислать его дважды.
+// Сообщения идут через OutboundQueue с фоновым приоритетом, поэтому скорость — лимит бота в
+// Telegram (TELEGRAM_RATE), ответы пользователям обгоняют рассылку, а 429 обрабатывает очередь.
+// В очереди одновременно не больше inFlight сообщений рассылки: follow-up не ждут за всей аудиторией.
+public class Broadcast {
+    // Отправка для рассылки: сообщение получателю и отчёт администратору
+    public interface Sender {
+        CompletableFuture<?> send(long chatId, MessageTemplate template);
+
+        void report(long chatId, String text);
+    }
+
+    private static final byte PENDING = 0;
+    private static final byte SENDING = 1;
+    private static final byte DELIVERED = 2;
+    private static final byte BLOCKED = 3;
+    private static final byte FAILED = 4;
+    private static final byte UNCONFIRMED = 5;
+    private static final String[] STATUS_NAMES = {"pending", "sending", "delivered", "blocked", "failed", "unconfirmed"};
+
+    // Как часто сбрасывать состояние получателей на диск и писать прогресс в журнал
+    private static final long CHECKPOINT_MILLIS = TimeUnit.SECONDS.toMillis(1);
+    private static final long PROGRESS_LOG_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private static final long SHUTDOWN_WAIT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final Path dir;
+    private final Sender sender;
+    private final Function<String, MessageTemplate> templates;
+    private final int inFlight;
+    private final Semaphore window;
+    private final Thread feeder;
+    private volatile boolean running = true;
+
+    // Текущая рассылка; null — рассылок ещё не было. Всё ниже меняется под монитором
+    private String templateId;
+    private MessageTemplate template;
+    private String audienceFile;
+    private long adminChatId;
+    private long startedAt;
+    private boolean paused;
+    private boolean finished;
+    private int total;
+    private int cursor;
+    // Номер рассылки в этом процессе: ответы на сообщения прежней рассылки не трогают новую
+    private int generation;
+    private final int[] counts = new int[STATUS_NAMES.length];
+    private FileChannel channel;
+    private MappedByteBuffer audience;
+
+    public Broadcast(Path dir, Sender sender, Function<String, MessageTemplate> templates, int inFlight,
+                     Metrics metrics) throws IOException {
+        this.dir = dir;
+        this.sender = sender;
+        this.templates = templates;
+        this.inFlight = inFlight;
+        this.window = new Semaphore(inFlight);
+        Files.createDirectories(dir);
+        load();
+        for (byte status = PENDING; status < STATUS_NAMES.length; status++) {
+            if (status == SENDING) {
+                continue;
+            }
+            byte counted = status;
+            metrics.gauge("bot_broadcast_messages", "Получатели текущей рассылки по состоянию", "status",
+                    STATUS_NAMES[status], () -> count(counted));
+        }
+        metrics.gauge("bot_broadcast_in_flight", "Сообщения рассылки в очереди отправки", () -> count(SENDING));
+        metrics.gauge("bot_broadcast_active", "1 — рассылка идёт", () -> isActive() ? 1 : 0);
+        this.feeder = new Thread(this::runFeeder, "broadcast");
+        this.feeder.setDaemon(true);
+    }
+
+    // Запускает поток рассылки; незавершённая рассылка продолжается с контрольной точки
+    public void start() {
+        feeder.start();
+    }
+
+    // Новая рассылка шаблона по аудитории. Идущую рассылку нужно сначала приостановить
+    public synchronized String begin(String id, long[] chatIds, long admin) throws IOException {
+        if (isActive()) {
+            return "Рассылка уже идёт, сначала /broadcast pause\n" + status();
+        }
+        MessageTemplate resolved = templates.apply(id);
+        long[] unique = Arrays.stream(chatIds).sorted().distinct().toArray();
+        close();
+        generation++;
+        long now = System.currentTimeMillis();
+        String previousFile = audienceFile;
+        String file = "audience-" + now + "-" + generation + ".dat";
+        channel = FileChannel.open(dir.resolve(file), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        audience = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) unique.length * 9);
+        for (int i = 0; i < unique.length; i++) {
+            audience.putLong(i * 8, unique[i]);
+        }
+        audience.force();
+        audienceFile = file;
+        templateId = id;
+        template = resolved;
+        adminChatId = admin;
+        startedAt = now;
+        paused = false;
+        finished = unique.length == 0;
+        total = unique.length;
+        cursor = 0;
+        Arrays.fill(counts, 0);
+        counts[PENDING] = total;
+        // Аудитория уже на диске: с этого момента текущая рассылка — новая
+        saveState();
+        if (previousFile != null) {
+            Files.deleteIfExists(dir.resolve(previousFile));
+        }
+        Log.info("broadcast", "Рассылка «" + id + "» запущена: получателей " + total);
+        notifyAll();
+        return status();
+    }
+
+    public synchronized String pause() throws IOException {
+        if (isActive()) {
+            paused = true;
+            saveState();
+        }
+        return status();
+    }
+
+    public synchronized String resume() throws IOException {
+        if (templateId != null && !finished && paused) {
+            template = templates.apply(templateId);
+            paused = false;
+            saveState();
+            notifyAll();
+        }
+        return status();
+    }
+
+    public synchronized boolean isActive() {
+        return templateId != null && !finished && !paused;
+    }
+
+    public synchronized String status() {
+        if (templateId == null) {
+            return "Рассылок ещё не было";
+        }
+        int done = total - counts[PENDING] - counts[SENDING];
+        return String.format("Рассылка «%s»: %s, %d из %d (%.1f%%)%n"
+                        + "доставлено %d, заблокировали бота %d, ошибок %d, без подтверждения %d, в очереди %d",
+                templateId, finished ? "завершена" : paused ? "на паузе" : "идёт", done, total,
+                total == 0 ? 100.0 : 100.0 * done / total, counts[DELIVERED], counts[BLOCKED], counts[FAILED],
+                counts[UNCONFIRMED], counts[SENDING]);
+    }
+
+    // Перестаёт ставить сообщения и ждёт ответов на уже поставленные
+    public void shutdown() {
+        running = false;
+        feeder.interrupt();
+        try {
+            feeder.join(SHUTDOWN_WAIT_MILLIS);
+            if (window.tryAcquire(inFlight, SHUTDOWN_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                window.release(inFlight);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            close();
+        }
+    }
+
+    private synchronized int count(byte status) {
+        return counts[status];
+    }
+
+    private void runFeeder() {
+        long checkpointAt = 0;
+        long loggedAt = System.currentTimeMillis();
+        while (running) {
+            try {
+                window.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+            int index;
+            int owner;
+            long chatId;
+            MessageTemplate current;
+            String report = null;
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                if (audience != null && now - checkpointAt >= CHECKPOINT_MILLIS) {
+                    audience.force();
+                    checkpointAt = now;
+                }
+                if (isActive() && now - loggedAt >= PROGRESS_LOG_MILLIS) {
+                    Log.info("broadcast", status());
+                    loggedAt = now;
+                }
+                // Пропускаем уже обработанных получателей: после перезапуска курсор идёт с начала
+                while (cursor < total && audience.get(total * 8 + cursor) != PENDING) {
+                    cursor++;
+                }
+                if (isActive() && cursor >= total) {
+                    // Остались только получатели без подтверждения с прошлого запуска
+                    report = finishIfDone();
+                }
+                if (!isActive() || cursor >= total) {
+                    window.release();
+                    if (report != null) {
+                        sender.report(adminChatId, report);
+                        continue;
+                    }
+                    try {
+                        wait(CHECKPOINT_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    continue;
+                }
+                index = cursor++;
+                owner = generation;
+                chatId = audience.getLong(index * 8);
+                current = template;
+                mark(index, SENDING);
+            }
+            CompletableFuture<?> sent;
+            try {
+                sent = sender.send(chatId, current);
+            } catch (RuntimeException e) {
+                sent = CompletableFuture.failedFuture(e);
+            }
+            sent.whenComplete((result, error) -> onSent(owner, index, chatId, error));
+        }
+    }
+
+    private void onSent(int owner, int index, long chatId, Throwable error) {
+        try {
+            byte status = error == null ? DELIVERED : isBlocked(error) ? BLOCKED : FAILED;
+            if (status == FAILED) {
+                Log.error("broadcast.send", chatId, error);
+            }
+            String report;
+            synchronized (this) {
+                if (owner != generation || audience == null) {
+                    // Рассылку заменили или файл уже закрыт при остановке: получатель останется
+                    // SENDING и после перезапуска станет UNCONFIRMED
+                    return;
+                }
+                mark(index, status);
+                report = finishIfDone();
+            }
+            if (report != null) {
+                sender.report(adminChatId, report);
+            }
+        } catch (RuntimeException e) {
+            Log.error("broadcast", e);
+        } finally {
+            window.release();
+        }
+    }
+
+    // Под монитором. Отчёт администратору, если рассылка только что закончилась; иначе null
+    private String finishIfDone() {
+        if (finished || counts[PENDING] > 0 || counts[SENDING] > 0) {
+            return null;
+        }
+        finished = true;
+        audience.force();
+        try {
+            saveState();
+        } catch (IOException e) {
+            Log.error("broadcast", e);
+        }
+        Log.info("broadcast", status());
+        if (adminChatId == 0) {
+            return null;
+        }
+        return "Рассылка завершена за " + TimeUnit.MILLISECONDS.toMinutes(
+                System.currentTimeMillis() - startedAt) + " мин\n" + status();
+    }
+
+    // Под монитором
+    private void mark(int index, byte status) {
+        int offset = total * 8 + index;
+        byte previous = audience.get(offset);
+        audience.put(offset, status);
+        counts[previous]--;
+        counts[status]++;
+    }
+
+    private static boolean isBlocked(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error instanceof TelegramApiRequestException
+                && Integer.valueOf(403).equals(((TelegramApiRequestException) error).getErrorCode());
+    }
+
+    // Состояние с прошлого запуска: параметры рассылки и отображённая аудитория
+    private void load() throws IOException {
+        Path stateFile = dir.resolve("broadcast.properties");
+        Properties state = new Properties();
+        if (Files.exists(stateFile)) {
+            try (Reader reader = Files.newBufferedReader(stateFile, StandardCharsets.UTF_8)) {
+                state.load(reader);
+            }
+        }
+        // Файл до отдельных файлов на рассылку — audience.dat
+        String current = state.getProperty("audience", "audience.dat");
+        // Аудитории, не ставшие текущими из-за сбоя в begin, и прежние рассылки
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "audience*.dat")) {
+            for (Path file : files) {
+                if (!file.getFileName().toString().equals(current) || !Files.exists(stateFile)) {
+                    Files.delete(file);
+                }
+            }
+        }
+        Path file = dir.resolve(current);
+        if (!Files.exists(stateFile) || !Files.exists(file)) {
+            return;
+        }
+        audienceFile = current;
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        total = (int) (channel.size() / 9);
+        audience = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) total * 9);
+        templateId = state.getProperty("template");
+        adminChatId = Long.parseLong(state.getProperty("admin", "0"));
+        startedAt = Long.parseLong(state.getProperty("started", "0"));
+        paused = Boolean.parseBoolean(state.getProperty("paused"));
+        finished = Boolean.parseBoolean(state.getProperty("finished"));
+        for (int i = 0; i < total; i++) {
+            byte status = audience.get(total * 8 + i);
+            if (status == SENDING) {
+                // Процесс остановился до ответа Telegram: доставлено ли, неизвестно
+                status = UNCONFIRMED;
+                audience.put(total * 8 + i, status);
+            }
+            counts[status]++;
+        }
+        audience.force();
+        if (!finished && !paused) {
+            try {
+                template = templates.apply(templateId);
+            } catch (IllegalArgumentException e) {
+                // Шаблон пропал из конфигурации воронки: ждём /broadcast resume после исправления
+                paused = true;
+                saveState();
+                Log.error("broadcast", e);
+            }
+        }
+        if (templateId != null && !finished) {
+            Log.info("broadcast", "Продолжение после перезапуска. " + status());
+        }
+    }
+
+    // Под монитором
+    private void saveState() throws IOException {
+        Properties state = new Properties();
+        state.setProperty("template", templateId);
+        state.setProperty("audience", audienceFile);
+        state.setProperty("admin", Long.toString(adminChatId));
+        state.setProperty("started", Long.toString(startedAt));
+        state.setProperty("paused", Boolean.toString(paused));
+        state.setProperty("finished", Boolean.toString(finished));
+        Path file = dir.resolve("broadcast.properties");
+        Path tmp = dir.resolve("broadcast.properties.tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            state.store(writer, "Текущая рассылка; состояние получателей — в файле audience");
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Под монитором
+    private void close() {
+        if (audience != null) {
+            audience.force();
+            audience = null;
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.error("broadcast.close", e);
+            }
+            channel = null;
+        }
+    }
+}
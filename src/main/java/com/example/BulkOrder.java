@@ -0,0 +1,32 @@
+package com.example;
+
+// Порядок пакетной загрузки в хеш-таблицу с открытой адресацией.
+// Миллион вставок в случайные ячейки большой таблицы — миллион промахов кеша и TLB.
+// Если применять операции по возрастанию домашней ячейки, обращения к таблице идут почти подряд.
+// Сортировка подсчётом по старшим битам ячейки устойчива: операции одного ключа сохраняют порядок.
+final class BulkOrder {
+    // 64К групп: при таблице в миллионы ячеек группа — несколько соседних строк кеша
+    private static final int MAX_BITS = 16;
+
+    private BulkOrder() {
+    }
+
+    // Номера операций 0..count-1 по возрастанию homes[i] (ячейка в таблице из capacity ячеек)
+    static int[] byHome(int[] homes, int count, int capacity) {
+        int tableBits = Integer.numberOfTrailingZeros(capacity);
+        int bits = Math.min(MAX_BITS, tableBits);
+        int shift = tableBits - bits;
+        int[] starts = new int[(1 << bits) + 1];
+        for (int i = 0; i < count; i++) {
+            starts[(homes[i] >>> shift) + 1]++;
+        }
+        for (int b = 1; b < starts.length; b++) {
+            starts[b] += starts[b - 1];
+        }
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[starts[homes[i] >>> shift]++] = i;
+        }
+        return order;
+    }
+}
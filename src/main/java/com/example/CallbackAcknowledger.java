@@ -0,0 +1,113 @@
+package com.example;
+
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+// Быстрый ответ на нажатие inline-кнопки (answerCallbackQuery).
+// Пока нажатие не подтверждено, у пользователя крутится индикатор на кнопке, и он жмёт ещё раз.
+// Подтверждение ставится сразу при получении события, до полосы чата, и уходит отдельными
+// потоками — не ждёт загрузки картинок, записи в Sheets и очереди отправки. Лимиты сообщений
+// Telegram на answerCallbackQuery не распространяются, поэтому OutboundQueue он не проходит.
+// Очередь ограничена: если Telegram не успевает, лишние подтверждения отбрасываются, а поток
+// опроса никогда не ждёт.
+public class CallbackAcknowledger {
+    // Запрос подтверждения к Telegram
+    public interface Answer {
+        void answer(String callbackQueryId) throws TelegramApiException;
+    }
+
+    // Признак остановки потока, ставится в очередь после всех подтверждений
+    private static final Job STOP = new Job(null, 0);
+
+    private static final class Job {
+        final String callbackQueryId;
+        final long receivedAt;
+
+        Job(String callbackQueryId, long receivedAt) {
+            this.callbackQueryId = callbackQueryId;
+            this.receivedAt = receivedAt;
+        }
+    }
+
+    private final Answer answer;
+    private final Metrics.Histogram latency;
+    private final BlockingQueue<Job> queue;
+    private final Thread[] threads;
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean running = true;
+
+    // latency — от получения события (System.nanoTime) до ответа Telegram на подтверждение
+    public CallbackAcknowledger(Answer answer, Metrics.Histogram latency, int threadCount, int queueCapacity) {
+        this.answer = answer;
+        this.latency = latency;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(this::runAcks, "callback-ack-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+
+    // Ставит подтверждение в очередь и сразу возвращается. false — очередь заполнена или остановлена
+    public boolean acknowledge(String callbackQueryId, long receivedAt) {
+        if (!running || !queue.offer(new Job(callbackQueryId, receivedAt))) {
+            dropped.increment();
+            return false;
+        }
+        return true;
+    }
+
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    public long droppedCount() {
+        return dropped.sum();
+    }
+
+    // Перестаёт принимать подтверждения и отправляет уже поставленные
+    public void shutdown() {
+        running = false;
+        for (int i = 0; i < threads.length; i++) {
+            try {
+                queue.put(STOP);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void runAcks() {
+        while (true) {
+            Job job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (job == STOP) {
+                return;
+            }
+            try {
+                answer.answer(job.callbackQueryId);
+                latency.observeSince(job.receivedAt);
+            } catch (TelegramApiException | RuntimeException e) {
+                // Чаще всего «query is too old»: нажатие ждало дольше, чем Telegram его помнит
+                Log.warn("callback.ack", e.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.example;
+
+// Автомат защиты для внешнего сервиса с экспоненциальной задержкой повторов.
+// После failureThreshold ошибок подряд цепь размыкается; каждое следующее
+// размыкание удваивает паузу (до maxDelayMillis). По истечении паузы пропускается
+// одна пробная попытка (HALF_OPEN): успех замыкает цепь, ошибка размыкает снова.
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long retryAt;
+
+    public CircuitBreaker(int failureThreshold, long baseDelayMillis, long maxDelayMillis) {
+        this.failureThreshold = failureThreshold;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    // Сколько ждать до следующей попытки (0 — можно пробовать сейчас)
+    public synchronized long delayMillis(long now) {
+        if (now >= retryAt) {
+            if (state == State.OPEN) {
+                state = State.HALF_OPEN;
+            }
+            return 0;
+        }
+        return retryAt - now;
+    }
+
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        retryAt = 0;
+    }
+
+    public synchronized void onFailure(long now) {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+        }
+        int exponent = Math.min(consecutiveFailures - 1, 30);
+        retryAt = now + Math.min(maxDelayMillis, baseDelayMillis << exponent);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,417 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Холодный уровень сессий: давно неактивные чаты вне кучи.
+// Записи дописываются в data-файл, отображённый в память блоками по 64 МБ;
+// индекс chatId -> смещение — хеш-таблица с открытой адресацией в отдельном
+// отображённом файле, поэтому в куче не остаётся ничего на каждую сессию.
+// Уровень не переживает перезапуск: при открытии каталог очищается, а сессии
+// восстанавливаются из журнала. Класс не потокобезопасен — его вызывает InMemorySessionStore под своей блокировкой.
+public class ColdSessionFile {
+    private static final int CHUNK_SIZE = 64 << 20;
+    private static final int INITIAL_INDEX_CAPACITY = 1 << 16;
+    // 16 байт на ячейку, а один MappedByteBuffer не больше 2 ГБ
+    private static final int MAX_INDEX_CAPACITY = 1 << 26;
+    // Сжимаем данные, когда мёртвых байт больше половины и больше этого порога
+    private static final long COMPACT_THRESHOLD = 16 << 20;
+
+    // Сессия, поднятая из файла
+    public static final class Entry {
+        public final int state;
+        public final String requestType;
+        public final byte[] fields;
+
+        Entry(int state, String requestType, byte[] fields) {
+            this.state = state;
+            this.requestType = requestType;
+            this.fields = fields;
+        }
+    }
+
+    public interface Visitor {
+        void visit(long chatId, int state, String requestType, byte[] fields);
+    }
+
+    private final Path dir;
+    private int generation;
+
+    private FileChannel data;
+    private final List<MappedByteBuffer> chunks = new ArrayList<>();
+    private long dataEnd;
+    private long deadBytes;
+
+    private FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private int capacity;
+    private int size;
+
+    // Пакетная загрузка: chatId и смещение + 1 загруженных записей (0 — удаление) по порядку
+    private String lastType;
+    private byte[] lastTypeBytes;
+
+    private long[] loadChatIds = new long[0];
+    private long[] loadOffsets = new long[0];
+    private int loadCount;
+
+    public ColdSessionFile(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(dir)) {
+            for (Path file : stale) {
+                Files.delete(file);
+            }
+        }
+        openData();
+        openIndex(INITIAL_INDEX_CAPACITY);
+    }
+
+    // Кладёт сессию в файл, заменяя прежнюю запись того же чата
+    public void put(long chatId, int state, String requestType, byte[] fields) throws IOException {
+        remove(chatId);
+        if ((size + 1) * 2 > capacity) {
+            growIndex(capacity * 2);
+        }
+        long offset = append(chatId, state, requestType, fields);
+        insert(chatId, offset);
+        if (deadBytes > COMPACT_THRESHOLD && deadBytes * 2 > dataEnd) {
+            compact();
+        }
+    }
+
+    // Пакетная загрузка при восстановлении: запись сразу дописывается в файл, а в индекс сессия
+    // попадает только в finishLoad. До него загруженные сессии не видны, а put и remove не вызываются
+    public void load(long chatId, int state, String requestType, byte[] fields) throws IOException {
+        addLoad(chatId, append(chatId, state, requestType, fields) + 1);
+    }
+
+    // Пакетная загрузка: удаление сессии чата
+    public void loadRemoval(long chatId) {
+        addLoad(chatId, 0);
+    }
+
+    // Строит индекс по загруженным записям: то же, что put и remove по порядку, но индекс растёт
+    // один раз под итоговый размер, а вставки идут по порядку ячеек (BulkOrder)
+    public void finishLoad() throws IOException {
+        if (loadCount == 0) {
+            return;
+        }
+        long needed = 2L * (size + loadCount);
+        if (needed > capacity) {
+            growIndex((int) Math.min(MAX_INDEX_CAPACITY, Long.highestOneBit(needed - 1) * 2));
+        }
+        int mask = capacity - 1;
+        int[] homes = new int[loadCount];
+        for (int i = 0; i < loadCount; i++) {
+            homes[i] = hash(loadChatIds[i]) & mask;
+        }
+        for (int i : BulkOrder.byHome(homes, loadCount, capacity)) {
+            long chatId = loadChatIds[i];
+            long value = loadOffsets[i];
+            int slot = find(chatId);
+            if (slot >= 0) {
+                long old = index.getLong(slot * 16 + 8) - 1;
+                if (value == 0) {
+                    deleteSlot(slot, old);
+                } else {
+                    // Более поздняя запись того же чата заменяет прежнюю
+                    deadBytes += recordLength(old);
+                    index.putLong(slot * 16 + 8, value);
+                }
+            } else if (value != 0) {
+                if ((size + 1) * 2 > capacity) {
+                    growIndex(capacity * 2);
+                }
+                insert(chatId, value - 1);
+            }
+        }
+        loadChatIds = new long[0];
+        loadOffsets = new long[0];
+        loadCount = 0;
+        if (deadBytes > COMPACT_THRESHOLD && deadBytes * 2 > dataEnd) {
+            compact();
+        }
+    }
+
+    // Забирает сессию из файла; null — её здесь нет
+    public Entry take(long chatId) {
+        int slot = find(chatId);
+        if (slot < 0) {
+            return null;
+        }
+        long offset = index.getLong(slot * 16 + 8) - 1;
+        Entry entry = read(offset);
+        deleteSlot(slot, offset);
+        return entry;
+    }
+
+    public boolean remove(long chatId) {
+        int slot = find(chatId);
+        if (slot < 0) {
+            return false;
+        }
+        deleteSlot(slot, index.getLong(slot * 16 + 8) - 1);
+        return true;
+    }
+
+    public void forEach(Visitor visitor) {
+        for (int slot = 0; slot < capacity; slot++) {
+            long value = index.getLong(slot * 16 + 8);
+            if (value != 0) {
+                long chatId = index.getLong(slot * 16);
+                Entry entry = read(value - 1);
+                visitor.visit(chatId, entry.state, entry.requestType, entry.fields);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Размер файлов на диске (данные и индекс), байт
+    public long fileBytes() {
+        return dataEnd + (long) capacity * 16;
+    }
+
+    public void close() throws IOException {
+        data.close();
+        indexChannel.close();
+    }
+
+    // Запись: [длина][chatId][состояние][длина типа][тип UTF-8][поля]
+    private long append(long chatId, int state, String requestType, byte[] fields) throws IOException {
+        byte[] type = typeBytes(requestType);
+        int length = 4 + 8 + 1 + 2 + (type == null ? 0 : type.length) + (fields == null ? 0 : fields.length);
+        if (length > CHUNK_SIZE) {
+            throw new IOException("Сессия " + chatId + " не помещается в блок: " + length + " байт");
+        }
+        long remaining = CHUNK_SIZE - dataEnd % CHUNK_SIZE;
+        if (length > remaining) {
+            // Запись не пересекает границу блока: хвост блока пропускаем
+            deadBytes += remaining;
+            dataEnd += remaining;
+        }
+        ByteBuffer chunk = chunk(dataEnd);
+        int position = (int) (dataEnd % CHUNK_SIZE);
+        chunk.putInt(position, length);
+        chunk.putLong(position + 4, chatId);
+        chunk.put(position + 12, (byte) state);
+        // 0 — типа нет, иначе длина + 1
+        chunk.putShort(position + 13, (short) (type == null ? 0 : type.length + 1));
+        ByteBuffer body = chunk.duplicate();
+        body.position(position + 15);
+        if (type != null) {
+            body.put(type);
+        }
+        if (fields != null) {
+            body.put(fields);
+        }
+        long offset = dataEnd;
+        dataEnd += length;
+        return offset;
+    }
+
+    // Типов заявок единицы: байты последнего не кодируются заново для каждой записи
+    private byte[] typeBytes(String requestType) {
+        if (requestType == null) {
+            return null;
+        }
+        if (!requestType.equals(lastType)) {
+            lastTypeBytes = requestType.getBytes(StandardCharsets.UTF_8);
+            lastType = requestType;
+        }
+        return lastTypeBytes;
+    }
+
+    private Entry read(long offset) {
+        ByteBuffer chunk = chunks.get((int) (offset / CHUNK_SIZE));
+        int position = (int) (offset % CHUNK_SIZE);
+        int length = chunk.getInt(position);
+        int state = chunk.get(position + 12);
+        int typeLength = chunk.getShort(position + 13);
+        ByteBuffer body = chunk.duplicate();
+        body.position(position + 15);
+        String requestType = null;
+        if (typeLength > 0) {
+            byte[] type = new byte[typeLength - 1];
+            body.get(type);
+            requestType = new String(type, StandardCharsets.UTF_8);
+        }
+        int fieldsLength = length - 15 - Math.max(0, typeLength - 1);
+        byte[] fields = null;
+        if (fieldsLength > 0) {
+            fields = new byte[fieldsLength];
+            body.get(fields);
+        }
+        return new Entry(state, requestType, fields);
+    }
+
+    private ByteBuffer chunk(long offset) throws IOException {
+        int number = (int) (offset / CHUNK_SIZE);
+        while (chunks.size() <= number) {
+            chunks.add(data.map(FileChannel.MapMode.READ_WRITE, (long) chunks.size() * CHUNK_SIZE, CHUNK_SIZE));
+        }
+        return chunks.get(number);
+    }
+
+    private void addLoad(long chatId, long value) {
+        if (loadCount == loadChatIds.length) {
+            int length = Math.max(1024, loadCount * 2);
+            loadChatIds = Arrays.copyOf(loadChatIds, length);
+            loadOffsets = Arrays.copyOf(loadOffsets, length);
+        }
+        loadChatIds[loadCount] = chatId;
+        loadOffsets[loadCount] = value;
+        loadCount++;
+    }
+
+    private int recordLength(long offset) {
+        return chunks.get((int) (offset / CHUNK_SIZE)).getInt((int) (offset % CHUNK_SIZE));
+    }
+
+    private void deleteSlot(int slot, long offset) {
+        deadBytes += recordLength(offset);
+        size--;
+        // Удаление со сдвигом назад, как в InMemorySessionStore
+        int mask = capacity - 1;
+        int i = slot;
+        clearSlot(i);
+        for (int j = (i + 1) & mask; index.getLong(j * 16 + 8) != 0; j = (j + 1) & mask) {
+            int home = hash(index.getLong(j * 16)) & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                index.putLong(i * 16, index.getLong(j * 16));
+                index.putLong(i * 16 + 8, index.getLong(j * 16 + 8));
+                clearSlot(j);
+                i = j;
+            }
+        }
+    }
+
+    private void clearSlot(int slot) {
+        index.putLong(slot * 16, 0);
+        index.putLong(slot * 16 + 8, 0);
+    }
+
+    private static int hash(long chatId) {
+        long h = chatId * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int find(long chatId) {
+        int mask = capacity - 1;
+        for (int i = hash(chatId) & mask; ; i = (i + 1) & mask) {
+            if (index.getLong(i * 16 + 8) == 0) {
+                return -1;
+            }
+            if (index.getLong(i * 16) == chatId) {
+                return i;
+            }
+        }
+    }
+
+    // Значение ячейки — смещение + 1, чтобы нули свежего файла означали пустую ячейку
+    private void insert(long chatId, long offset) {
+        int mask = capacity - 1;
+        int i = hash(chatId) & mask;
+        while (index.getLong(i * 16 + 8) != 0) {
+            i = (i + 1) & mask;
+        }
+        index.putLong(i * 16, chatId);
+        index.putLong(i * 16 + 8, offset + 1);
+        size++;
+    }
+
+    private void growIndex(int newCapacity) throws IOException {
+        if (capacity >= MAX_INDEX_CAPACITY) {
+            throw new IOException("Индекс холодных сессий заполнен: " + size);
+        }
+        MappedByteBuffer old = index;
+        int oldCapacity = capacity;
+        FileChannel oldChannel = indexChannel;
+        Path oldFile = indexFile(oldCapacity);
+        openIndex(newCapacity);
+        size = 0;
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            long value = old.getLong(slot * 16 + 8);
+            if (value != 0) {
+                insert(old.getLong(slot * 16), value - 1);
+            }
+        }
+        oldChannel.close();
+        Files.delete(oldFile);
+    }
+
+    // Переписывает живые записи в новый файл данных и обновляет смещения в индексе
+    private void compact() throws IOException {
+        List<MappedByteBuffer> oldChunks = new ArrayList<>(chunks);
+        FileChannel oldData = data;
+        Path oldFile = dataFile();
+        generation++;
+        openData();
+        for (int slot = 0; slot < capacity; slot++) {
+            long value = index.getLong(slot * 16 + 8);
+            if (value != 0) {
+                long offset = value - 1;
+                ByteBuffer chunk = oldChunks.get((int) (offset / CHUNK_SIZE));
+                int position = (int) (offset % CHUNK_SIZE);
+                int length = chunk.getInt(position);
+                byte[] record = new byte[length];
+                ByteBuffer source = chunk.duplicate();
+                source.position(position);
+                source.get(record);
+                index.putLong(slot * 16 + 8, copy(record) + 1);
+            }
+        }
+        oldData.close();
+        Files.delete(oldFile);
+    }
+
+    private long copy(byte[] record) throws IOException {
+        long remaining = CHUNK_SIZE - dataEnd % CHUNK_SIZE;
+        if (record.length > remaining) {
+            deadBytes += remaining;
+            dataEnd += remaining;
+        }
+        ByteBuffer target = chunk(dataEnd).duplicate();
+        target.position((int) (dataEnd % CHUNK_SIZE));
+        target.put(record);
+        long offset = dataEnd;
+        dataEnd += record.length;
+        return offset;
+    }
+
+    private void openData() throws IOException {
+        data = FileChannel.open(dataFile(), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        chunks.clear();
+        dataEnd = 0;
+        deadBytes = 0;
+    }
+
+    private void openIndex(int newCapacity) throws IOException {
+        indexChannel = FileChannel.open(indexFile(newCapacity), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, (long) newCapacity * 16);
+        capacity = newCapacity;
+    }
+
+    private Path dataFile() {
+        return dir.resolve("cold-" + generation + ".dat");
+    }
+
+    private Path indexFile(int indexCapacity) {
+        return dir.resolve("cold-index-" + indexCapacity + ".bin");
+    }
+}
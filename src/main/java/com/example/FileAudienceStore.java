@@ -0,0 +1,81 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Аудитория в файле: chatId по 8 байт в порядке появления, только дозапись.
+// При открытии файл читается в память целиком; недописанная при сбое последняя запись отрезается.
+// Запись уходит в кеш ОС сразу и переживает падение процесса, на диск сбрасывается при закрытии.
+public class FileAudienceStore implements AudienceStore {
+    private static final int RECORD = Long.BYTES;
+
+    private final FileChannel channel;
+    private final LongSet chats = new LongSet();
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD);
+
+    public FileAudienceStore(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long whole = channel.size() - channel.size() % RECORD;
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long position = 0;
+        while (position < whole) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), whole - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+            buffer.flip();
+            while (buffer.remaining() >= RECORD) {
+                chats.add(buffer.getLong());
+            }
+            // Хвост неполной записи дочитывается со следующей страницей
+            position -= buffer.remaining();
+        }
+        if (whole != channel.size()) {
+            channel.truncate(whole);
+        }
+        channel.position(whole);
+    }
+
+    @Override
+    public synchronized boolean add(long chatId) throws IOException {
+        if (chats.contains(chatId)) {
+            return false;
+        }
+        record.clear();
+        record.putLong(chatId).flip();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        chats.add(chatId);
+        return true;
+    }
+
+    @Override
+    public synchronized long[] snapshot() {
+        return chats.toArray();
+    }
+
+    @Override
+    public synchronized long size() {
+        return chats.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            Log.error("audience", e);
+        }
+    }
+}
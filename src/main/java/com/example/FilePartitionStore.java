@@ -0,0 +1,230 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Разделы follow-up в общем каталоге: по файлу на раздел, каждая операция —
+// чтение и перезапись файла под FileLock. Годится для нескольких процессов на одной
+// машине (или каталога с честными блокировками) и для локальной проверки переключения
+// разделов; файл раздела переписывается целиком, поэтому для больших объёмов — Redis.
+// Формат: первая строка «owner expiresAt» («- 0» — свободен), далее «chatId KIND deadline».
+public class FilePartitionStore implements PartitionStore {
+    // FileLock принадлежит всей JVM и не различает потоки и каналы одного процесса
+    private static final Object JVM_LOCK = new Object();
+
+    private final Path dir;
+
+    public FilePartitionStore(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+    }
+
+    // Живые узлы — файл nodes.txt в том же формате, что первая строка раздела
+    @Override
+    public Set<String> heartbeat(String node, long ttlMillis) throws IOException {
+        return locked(dir.resolve("nodes.txt"), channel -> {
+            long now = System.currentTimeMillis();
+            StringBuilder out = new StringBuilder();
+            Set<String> nodes = new HashSet<>();
+            nodes.add(node);
+            out.append(node).append(' ').append(now + ttlMillis).append('\n');
+            for (String line : readText(channel).split("\n")) {
+                int space = line.lastIndexOf(' ');
+                if (space < 0) {
+                    continue;
+                }
+                String other = line.substring(0, space);
+                if (Long.parseLong(line.substring(space + 1)) > now && nodes.add(other)) {
+                    out.append(line).append('\n');
+                }
+            }
+            channel.truncate(0);
+            channel.write(ByteBuffer.wrap(out.toString().getBytes(StandardCharsets.UTF_8)), 0);
+            return nodes;
+        });
+    }
+
+    @Override
+    public boolean acquire(int partition, String node, long ttlMillis) throws IOException {
+        return update(partition, file -> {
+            long now = System.currentTimeMillis();
+            if (file.owner != null && file.expiresAt > now && !file.owner.equals(node)) {
+                return false;
+            }
+            file.owner = node;
+            file.expiresAt = now + ttlMillis;
+            return true;
+        });
+    }
+
+    @Override
+    public void release(int partition, String node) throws IOException {
+        update(partition, file -> {
+            if (!node.equals(file.owner)) {
+                return false;
+            }
+            file.owner = null;
+            file.expiresAt = 0;
+            return true;
+        });
+    }
+
+    @Override
+    public String owner(int partition) throws IOException {
+        PartitionFile file = read(partition);
+        return file.expiresAt > System.currentTimeMillis() ? file.owner : null;
+    }
+
+    @Override
+    public void schedule(int partition, long chatId, FollowUpKind kind, long deadline) throws IOException {
+        update(partition, file -> {
+            file.remove(chatId, kind);
+            file.pending.add(new Pending(chatId, kind, deadline));
+            return true;
+        });
+    }
+
+    @Override
+    public void cancelAll(int partition, long chatId) throws IOException {
+        update(partition, file -> file.pending.removeIf(p -> p.chatId == chatId));
+    }
+
+    @Override
+    public boolean claim(int partition, long chatId, FollowUpKind kind, long now) throws IOException {
+        return update(partition, file -> {
+            for (Pending p : file.pending) {
+                if (p.chatId == chatId && p.kind == kind) {
+                    return p.deadline <= now && file.pending.remove(p);
+                }
+            }
+            return false;
+        });
+    }
+
+    @Override
+    public void forEachDue(int partition, long until, FollowUpScheduler.PendingVisitor visitor) throws IOException {
+        for (Pending p : read(partition).pending) {
+            if (p.deadline <= until) {
+                visitor.visit(p.chatId, p.kind, p.deadline);
+            }
+        }
+    }
+
+    private interface LockedAction<T> {
+        T apply(FileChannel channel) throws IOException;
+    }
+
+    private interface Change {
+        // true — файл нужно перезаписать
+        boolean apply(PartitionFile file);
+    }
+
+    private static final class Pending {
+        final long chatId;
+        final FollowUpKind kind;
+        final long deadline;
+
+        Pending(long chatId, FollowUpKind kind, long deadline) {
+            this.chatId = chatId;
+            this.kind = kind;
+            this.deadline = deadline;
+        }
+    }
+
+    private static final class PartitionFile {
+        String owner;
+        long expiresAt;
+        final List<Pending> pending = new ArrayList<>();
+
+        void remove(long chatId, FollowUpKind kind) {
+            pending.removeIf(p -> p.chatId == chatId && p.kind == kind);
+        }
+    }
+
+    private boolean update(int partition, Change change) throws IOException {
+        return locked(file(partition), channel -> {
+            PartitionFile file = parse(channel);
+            if (!change.apply(file)) {
+                return false;
+            }
+            channel.truncate(0);
+            channel.write(ByteBuffer.wrap(format(file).getBytes(StandardCharsets.UTF_8)), 0);
+            channel.force(false);
+            return true;
+        });
+    }
+
+    private PartitionFile read(int partition) throws IOException {
+        return locked(file(partition), FilePartitionStore::parse);
+    }
+
+    // Действие над файлом под блокировкой; блокировку снимает закрытие канала
+    private static <T> T locked(Path path, LockedAction<T> action) throws IOException {
+        synchronized (JVM_LOCK) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                channel.lock();
+                return action.apply(channel);
+            }
+        }
+    }
+
+    private static String readText(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                break;
+            }
+        }
+        return new String(buffer.array(), StandardCharsets.UTF_8);
+    }
+
+    private static PartitionFile parse(FileChannel channel) throws IOException {
+        PartitionFile file = new PartitionFile();
+        String[] lines = readText(channel).split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i].isEmpty()) {
+                continue;
+            }
+            if (i == 0) {
+                // Имя узла может содержать пробелы, срок — последнее слово
+                int space = lines[i].lastIndexOf(' ');
+                String owner = lines[i].substring(0, space);
+                file.owner = "-".equals(owner) ? null : owner;
+                file.expiresAt = Long.parseLong(lines[i].substring(space + 1));
+                continue;
+            }
+            String[] parts = lines[i].split(" ");
+            try {
+                file.pending.add(new Pending(Long.parseLong(parts[0]), FollowUpKind.valueOf(parts[1]),
+                        Long.parseLong(parts[2])));
+            } catch (IllegalArgumentException e) {
+                // Вид, которого больше нет в сборке, не отправляется
+                Log.error("followup.partition.load", e);
+            }
+        }
+        return file;
+    }
+
+    private static String format(PartitionFile file) {
+        StringBuilder out = new StringBuilder();
+        out.append(file.owner == null ? "-" : file.owner).append(' ').append(file.expiresAt).append('\n');
+        for (Pending p : file.pending) {
+            out.append(p.chatId).append(' ').append(p.kind.name()).append(' ').append(p.deadline).append('\n');
+        }
+        return out.toString();
+    }
+
+    private Path file(int partition) {
+        return dir.resolve("partition-" + partition + ".txt");
+    }
+}
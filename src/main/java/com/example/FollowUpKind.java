@@ -0,0 +1,17 @@
+package com.example;
+
+// Виды отложенных сообщений воронки.
+// Задержки и содержимое задаются в funnel.properties (followup.*);
+// порядковый номер пишется в журнал, поэтому новые виды добавляются в конец.
+public enum FollowUpKind {
+    // Первый follow-up после /start
+    FOLLOW_UP,
+    // Кейс после первого follow-up
+    CASE,
+    // Кейс после отправки презентации
+    PRESENTATION_CASE,
+    // Follow-up после видео
+    VIDEO_FOLLOW_UP,
+    // Кейс после видео follow-up
+    VIDEO_CASE
+}
@@ -0,0 +1,191 @@
+package com.example;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Follow-up на нескольких узлах. Чаты разбиты по хешу chatId на разделы; каждым разделом
+// владеет один узел по продлеваемой аренде в PartitionStore. Ожидающие сообщения лежат там же,
+// поэтому поставить или отменить сообщение может любой узел, а отправляет только владелец:
+// раз в секунду он подтягивает из своих разделов сообщения с подходящим сроком в локальный
+// FollowUpScheduler, а перед отправкой атомарно забирает запись (claim) — её получит ровно один узел,
+// даже если аренда как раз переходит к другому.
+// Раздел умершего узла освобождается по истечении аренды, его забирает сосед и досылает
+// всё, что успело просрочиться. Узлы делят разделы поровну между собой.
+public class FollowUpPartitions {
+    // Сколько вперёд подтягивать сообщения в локальное колесо
+    private static final long PULL_AHEAD_MILLIS = 2000;
+
+    private final PartitionStore store;
+    private final FollowUpScheduler scheduler;
+    private final String node;
+    private final int partitions;
+    private final long leaseMillis;
+    // До какого момента аренда раздела точно наша; 0 — раздел не наш
+    private final long[] ownedUntil;
+    private long nextRenewal;
+    private ScheduledExecutorService worker;
+
+    public FollowUpPartitions(PartitionStore store, FollowUpScheduler scheduler, String node,
+                              int partitions, long leaseMillis) {
+        this.store = store;
+        this.scheduler = scheduler;
+        this.node = node;
+        this.partitions = partitions;
+        this.leaseMillis = leaseMillis;
+        this.ownedUntil = new long[partitions];
+    }
+
+    public void start() {
+        worker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "follow-up-leases");
+            t.setDaemon(true);
+            return t;
+        });
+        worker.scheduleWithFixedDelay(this::tick, 0, 1, TimeUnit.SECONDS);
+    }
+
+    // Отпускает свои разделы, чтобы соседи забрали их сразу, не дожидаясь истечения аренды
+    public void shutdown() {
+        if (worker != null) {
+            worker.shutdown();
+            try {
+                worker.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (int p = 0; p < partitions; p++) {
+            if (isOwned(p)) {
+                lose(p);
+                try {
+                    store.release(p, node);
+                } catch (IOException e) {
+                    Log.error("followup.partition.release", e);
+                }
+            }
+        }
+    }
+
+    // Ставит сообщение в общее хранилище; если раздел наш — сразу и в локальное колесо
+    public void scheduleAt(long chatId, FollowUpKind kind, long deadline) throws IOException {
+        int p = partitionOf(chatId);
+        store.schedule(p, chatId, kind, deadline);
+        if (isOwned(p)) {
+            scheduler.scheduleAt(chatId, kind, deadline);
+        }
+    }
+
+    public void cancelAll(long chatId) throws IOException {
+        store.cancelAll(partitionOf(chatId), chatId);
+        scheduler.cancelAll(chatId);
+    }
+
+    // Вызывается, когда локальное колесо сработало: true — запись наша, её нужно отправить
+    public boolean claim(long chatId, FollowUpKind kind) {
+        int p = partitionOf(chatId);
+        if (!isOwned(p)) {
+            return false;
+        }
+        try {
+            return store.claim(p, chatId, kind, System.currentTimeMillis());
+        } catch (IOException e) {
+            // Запись осталась в хранилище и подтянется снова при следующем опросе
+            Log.error("followup.partition.claim", chatId, e);
+            return false;
+        }
+    }
+
+    // Разделов у этого узла
+    public synchronized int ownedCount() {
+        int owned = 0;
+        for (int p = 0; p < partitions; p++) {
+            if (isOwned(p)) {
+                owned++;
+            }
+        }
+        return owned;
+    }
+
+    public int partitionOf(long chatId) {
+        int h = Long.hashCode(chatId) * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), partitions);
+    }
+
+    private void tick() {
+        try {
+            long now = System.currentTimeMillis();
+            if (now >= nextRenewal) {
+                rebalance(now);
+                nextRenewal = now + leaseMillis / 3;
+            }
+            pull(System.currentTimeMillis());
+        } catch (Exception e) {
+            Log.error("followup.partition.tick", e);
+        }
+    }
+
+    // Продлевает свои аренды, берёт свободные разделы до своей доли и отдаёт лишние
+    private void rebalance(long now) throws IOException {
+        Set<String> nodes = store.heartbeat(node, leaseMillis);
+        String[] owners = new String[partitions];
+        for (int p = 0; p < partitions; p++) {
+            owners[p] = store.owner(p);
+        }
+        int share = (partitions + nodes.size() - 1) / nodes.size();
+        int owned = 0;
+        for (int p = 0; p < partitions; p++) {
+            if (!node.equals(owners[p]) && !isOwned(p)) {
+                continue;
+            }
+            if (owned >= share) {
+                // Лишний раздел отдаём: сначала перестаём отправлять, потом освобождаем
+                lose(p);
+                store.release(p, node);
+            } else if (store.acquire(p, node, leaseMillis)) {
+                setOwned(p, now + leaseMillis);
+                owned++;
+            } else {
+                // Аренду успел забрать другой узел
+                lose(p);
+            }
+        }
+        for (int p = 0; p < partitions && owned < share; p++) {
+            if (owners[p] == null && !isOwned(p) && store.acquire(p, node, leaseMillis)) {
+                setOwned(p, now + leaseMillis);
+                owned++;
+                Log.info("followup.partition.acquired", "Раздел follow-up " + p + " теперь на узле " + node);
+            }
+        }
+    }
+
+    // Подтягивает из своих разделов сообщения, срок которых скоро наступит (и уже просроченные)
+    private void pull(long now) throws IOException {
+        for (int p = 0; p < partitions; p++) {
+            if (isOwned(p)) {
+                store.forEachDue(p, now + PULL_AHEAD_MILLIS, scheduler::scheduleAt);
+            }
+        }
+    }
+
+    // Аренду считаем своей с запасом на расхождение часов и задержку продления
+    private synchronized boolean isOwned(int p) {
+        return ownedUntil[p] - leaseMillis / 4 > System.currentTimeMillis();
+    }
+
+    private synchronized void setOwned(int p, long until) {
+        ownedUntil[p] = until;
+    }
+
+    private void lose(int p) {
+        synchronized (this) {
+            if (ownedUntil[p] == 0) {
+                return;
+            }
+            ownedUntil[p] = 0;
+        }
+        scheduler.cancelMatching(chatId -> partitionOf(chatId) == p);
+    }
+}
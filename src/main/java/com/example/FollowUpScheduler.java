@@ -0,0 +1,461 @@
+package com.example;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongPredicate;
+
+// Планировщик отложенных сообщений на хешированном колесе таймеров.
+// Один поток-тикер и небольшой пул исполнителей вместо отдельного java.util.Timer на каждый чат.
+// Записи хранятся в примитивных массивах (около 40 байт на ожидающее сообщение),
+// постановка и отмена по ключу (chatId, вид) выполняются за O(1).
+// Время берётся из TimeSource: в симуляции тикер не запускается, а tick() вызывает сама симуляция.
+public class FollowUpScheduler {
+
+    // Обработчик сработавшего отложенного сообщения
+    public interface Handler {
+        void onFollowUp(long chatId, FollowUpKind kind);
+    }
+
+    // Обход ожидающих сообщений (для снимков журнала)
+    public interface PendingVisitor {
+        void visit(long chatId, FollowUpKind kind, long deadline);
+    }
+
+    // Срок операции пакетной загрузки, означающий отмену
+    public static final long CANCEL = Long.MIN_VALUE;
+
+    private static final int NIL = -1;
+    private static final FollowUpKind[] KINDS = FollowUpKind.values();
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Handler handler;
+    private final TimeSource clock;
+    private final long tickMillis;
+    private final int wheelMask;
+    // Голова списка записей для каждой ячейки колеса
+    private final int[] wheel;
+    // null — обработчик выполняется прямо в потоке tick()
+    private final ExecutorService workers;
+    private final Thread ticker;
+
+    // Записи таймеров: слот -> поля; свободные слоты связаны через next
+    private long[] chatIds;
+    private long[] deadlines;
+    private byte[] kinds;
+    private int[] next;
+    private int[] prev;
+    private int[] buckets;
+    private int freeHead = NIL;
+    private int used;
+
+    // Индекс (chatId, вид) -> слот + 1, открытая адресация с линейным пробированием
+    private int[] index;
+    private int size;
+    private final int[] pendingByKind = new int[FollowUpKind.values().length];
+
+    // Последний полностью обработанный тик
+    private long lastTick;
+    private volatile boolean running = true;
+
+    public FollowUpScheduler(Handler handler, long tickMillis, int wheelSize, int workerThreads) {
+        this(handler, TimeSource.SYSTEM, tickMillis, wheelSize, workerThreads);
+    }
+
+    // workerThreads = 0 — без пула: сработавшие сообщения обрабатываются по порядку в потоке tick()
+    public FollowUpScheduler(Handler handler, TimeSource clock, long tickMillis, int wheelSize, int workerThreads) {
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("Размер колеса должен быть степенью двойки: " + wheelSize);
+        }
+        this.handler = handler;
+        this.clock = clock;
+        this.tickMillis = tickMillis;
+        this.wheel = new int[wheelSize];
+        this.wheelMask = wheelSize - 1;
+        Arrays.fill(wheel, NIL);
+
+        chatIds = new long[INITIAL_CAPACITY];
+        deadlines = new long[INITIAL_CAPACITY];
+        kinds = new byte[INITIAL_CAPACITY];
+        next = new int[INITIAL_CAPACITY];
+        prev = new int[INITIAL_CAPACITY];
+        buckets = new int[INITIAL_CAPACITY];
+        index = new int[INITIAL_CAPACITY * 2];
+        lastTick = clock.currentTimeMillis() / tickMillis - 1;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = workerThreads == 0 ? null : Executors.newFixedThreadPool(workerThreads, r -> {
+            Thread t = new Thread(r, "follow-up-worker-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.ticker = new Thread(this::runTicker, "follow-up-ticker");
+        this.ticker.setDaemon(true);
+    }
+
+    // Запускает тикер; до вызова записи только накапливаются (например, при восстановлении из журнала)
+    public void start() {
+        ticker.start();
+    }
+
+    // Ставит (или переставляет) отложенное сообщение через delayMillis
+    public void schedule(long chatId, FollowUpKind kind, long delayMillis) {
+        scheduleAt(chatId, kind, clock.currentTimeMillis() + delayMillis);
+    }
+
+    // Ставит отложенное сообщение на абсолютное время deadline (мс с эпохи)
+    public synchronized void scheduleAt(long chatId, FollowUpKind kind, long deadline) {
+        put(chatId, kind.ordinal(), deadline);
+    }
+
+    public synchronized boolean cancel(long chatId, FollowUpKind kind) {
+        int slot = find(chatId, kind.ordinal());
+        if (slot == NIL) {
+            return false;
+        }
+        remove(slot);
+        return true;
+    }
+
+    // Пакетная загрузка при восстановлении из журнала: то же, что scheduleAt (или cancel, если
+    // срок CANCEL) для каждой операции по порядку. Таблицы растут один раз под все операции,
+    // а применяются операции по порядку ячеек индекса (BulkOrder) — порядок операций одного
+    // ключа при этом сохраняется
+    public synchronized void load(long[] opChatIds, byte[] opKinds, long[] opDeadlines, int count) {
+        reserve(size + count);
+        int mask = index.length - 1;
+        int[] homes = new int[count];
+        for (int i = 0; i < count; i++) {
+            homes[i] = hash(opChatIds[i], opKinds[i]) & mask;
+        }
+        // Операции сначала переставляются в новые массивы одним проходом (чтения вразброс, но
+        // независимые), затем применяются подряд
+        int[] order = BulkOrder.byHome(homes, count, index.length);
+        long[] sortedChatIds = new long[count];
+        byte[] sortedKinds = new byte[count];
+        long[] sortedDeadlines = new long[count];
+        for (int k = 0; k < count; k++) {
+            int i = order[k];
+            sortedChatIds[k] = opChatIds[i];
+            sortedKinds[k] = opKinds[i];
+            sortedDeadlines[k] = opDeadlines[i];
+        }
+        for (int k = 0; k < count; k++) {
+            if (sortedDeadlines[k] == CANCEL) {
+                int slot = find(sortedChatIds[k], sortedKinds[k]);
+                if (slot != NIL) {
+                    remove(slot);
+                }
+            } else {
+                put(sortedChatIds[k], sortedKinds[k], sortedDeadlines[k]);
+            }
+        }
+    }
+
+    // Отменяет все виды для чата, возвращает битовую маску отменённых видов
+    public synchronized int cancelAll(long chatId) {
+        int cancelled = 0;
+        for (FollowUpKind kind : KINDS) {
+            int slot = find(chatId, kind.ordinal());
+            if (slot != NIL) {
+                remove(slot);
+                cancelled |= 1 << kind.ordinal();
+            }
+        }
+        return cancelled;
+    }
+
+    // Снимает все сообщения чатов, подходящих под фильтр (раздел ушёл другому узлу)
+    public synchronized int cancelMatching(LongPredicate chats) {
+        int cancelled = 0;
+        for (int bucket = 0; bucket < wheel.length; bucket++) {
+            int slot = wheel[bucket];
+            while (slot != NIL) {
+                int following = next[slot];
+                if (chats.test(chatIds[slot])) {
+                    remove(slot);
+                    cancelled++;
+                }
+                slot = following;
+            }
+        }
+        return cancelled;
+    }
+
+    public synchronized void forEachPending(PendingVisitor visitor) {
+        FollowUpKind[] values = FollowUpKind.values();
+        for (int bucket = 0; bucket < wheel.length; bucket++) {
+            for (int slot = wheel[bucket]; slot != NIL; slot = next[slot]) {
+                visitor.visit(chatIds[slot], values[kinds[slot]], deadlines[slot]);
+            }
+        }
+    }
+
+    public synchronized boolean isPending(long chatId, FollowUpKind kind) {
+        return find(chatId, kind.ordinal()) != NIL;
+    }
+
+    public synchronized int pendingCount() {
+        return size;
+    }
+
+    public synchronized int pendingCount(FollowUpKind kind) {
+        return pendingByKind[kind.ordinal()];
+    }
+
+    // Приблизительный объём памяти, занятый записями и индексом
+    public synchronized long estimatedBytes() {
+        long perSlot = 8 + 8 + 1 + 4 + 4 + 4;
+        return perSlot * chatIds.length + 4L * index.length + 4L * wheel.length;
+    }
+
+    // Останавливает тикер и только после этого пул: снятые с колеса записи тикер успевает передать
+    // в пул. Записи, которые пул уже не принял (tick() из другого потока), возвращаются на колесо
+    public void shutdown() {
+        running = false;
+        ticker.interrupt();
+        try {
+            ticker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (workers != null) {
+            workers.shutdown();
+        }
+    }
+
+    private void runTicker() {
+        while (running) {
+            try {
+                Thread.sleep(tickMillis);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    return;
+                }
+            }
+            tick();
+        }
+    }
+
+    // Обрабатывает все тики, завершившиеся к текущему времени источника, и передаёт сработавшие
+    // записи в пул исполнителей (без пула — выполняет их здесь же в порядке срабатывания)
+    public void tick() {
+        long now = clock.currentTimeMillis();
+        long[] firedChats;
+        byte[] firedKinds;
+        long[] firedDeadlines;
+        int fired = 0;
+        synchronized (this) {
+            long completedTick = now / tickMillis - 1;
+            if (completedTick <= lastTick) {
+                return;
+            }
+            long from = Math.max(lastTick + 1, completedTick - wheel.length + 1);
+            firedChats = new long[16];
+            firedKinds = new byte[16];
+            firedDeadlines = new long[16];
+            for (long tick = from; tick <= completedTick; tick++) {
+                int slot = wheel[(int) (tick & wheelMask)];
+                while (slot != NIL) {
+                    int following = next[slot];
+                    if (deadlines[slot] / tickMillis <= completedTick) {
+                        if (fired == firedChats.length) {
+                            firedChats = Arrays.copyOf(firedChats, fired * 2);
+                            firedKinds = Arrays.copyOf(firedKinds, fired * 2);
+                            firedDeadlines = Arrays.copyOf(firedDeadlines, fired * 2);
+                        }
+                        firedChats[fired] = chatIds[slot];
+                        firedKinds[fired] = kinds[slot];
+                        firedDeadlines[fired] = deadlines[slot];
+                        fired++;
+                        remove(slot);
+                    }
+                    slot = following;
+                }
+            }
+            lastTick = completedTick;
+        }
+
+        FollowUpKind[] values = FollowUpKind.values();
+        for (int i = 0; i < fired; i++) {
+            long chatId = firedChats[i];
+            FollowUpKind kind = values[firedKinds[i]];
+            if (workers == null) {
+                fire(chatId, kind);
+                continue;
+            }
+            try {
+                workers.execute(() -> fire(chatId, kind));
+            } catch (RejectedExecutionException e) {
+                // Пул остановлен: несработавшие записи остаются ожидающими и попадут в снимок журнала
+                synchronized (this) {
+                    for (int k = i; k < fired; k++) {
+                        put(firedChats[k], firedKinds[k], firedDeadlines[k]);
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    private void fire(long chatId, FollowUpKind kind) {
+        try {
+            handler.onFollowUp(chatId, kind);
+        } catch (Exception e) {
+            Log.error("followup.fire", chatId, e);
+        }
+    }
+
+    private void put(long chatId, int kind, long deadline) {
+        int slot = find(chatId, kind);
+        if (slot != NIL) {
+            unlink(slot);
+        } else {
+            slot = allocate();
+            chatIds[slot] = chatId;
+            kinds[slot] = (byte) kind;
+            insertIndex(slot);
+            size++;
+            pendingByKind[kind]++;
+        }
+        deadlines[slot] = deadline;
+        link(slot, bucketOf(deadline));
+    }
+
+    private int bucketOf(long deadline) {
+        long tick = Math.max(deadline / tickMillis, lastTick + 1);
+        return (int) (tick & wheelMask);
+    }
+
+    private void link(int slot, int bucket) {
+        int head = wheel[bucket];
+        buckets[slot] = bucket;
+        prev[slot] = NIL;
+        next[slot] = head;
+        if (head != NIL) {
+            prev[head] = slot;
+        }
+        wheel[bucket] = slot;
+    }
+
+    private void unlink(int slot) {
+        int p = prev[slot];
+        int n = next[slot];
+        if (p != NIL) {
+            next[p] = n;
+        } else {
+            wheel[buckets[slot]] = n;
+        }
+        if (n != NIL) {
+            prev[n] = p;
+        }
+    }
+
+    private void remove(int slot) {
+        unlink(slot);
+        removeIndex(slot);
+        size--;
+        pendingByKind[kinds[slot]]--;
+        next[slot] = freeHead;
+        freeHead = slot;
+    }
+
+    private int allocate() {
+        if (freeHead != NIL) {
+            int slot = freeHead;
+            freeHead = next[slot];
+            return slot;
+        }
+        if (used == chatIds.length) {
+            growSlots(chatIds.length * 2);
+        }
+        return used++;
+    }
+
+    private void growSlots(int capacity) {
+        chatIds = Arrays.copyOf(chatIds, capacity);
+        deadlines = Arrays.copyOf(deadlines, capacity);
+        kinds = Arrays.copyOf(kinds, capacity);
+        next = Arrays.copyOf(next, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+        buckets = Arrays.copyOf(buckets, capacity);
+    }
+
+    // Места под entries записей без роста по ходу вставки
+    private void reserve(int entries) {
+        // Свободные слоты берутся первыми: после загрузки занято не больше max(used, entries) слотов
+        if (entries > chatIds.length) {
+            growSlots(Math.max(chatIds.length * 2, entries));
+        }
+        if (entries * 2 > index.length) {
+            rehash(Integer.highestOneBit(entries * 2 - 1) * 2);
+        }
+    }
+
+    private static int hash(long chatId, int kind) {
+        long h = (chatId * 31 + kind) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int find(long chatId, int k) {
+        int mask = index.length - 1;
+        for (int i = hash(chatId, k) & mask; ; i = (i + 1) & mask) {
+            int entry = index[i];
+            if (entry == 0) {
+                return NIL;
+            }
+            int slot = entry - 1;
+            if (chatIds[slot] == chatId && kinds[slot] == k) {
+                return slot;
+            }
+        }
+    }
+
+    private void insertIndex(int slot) {
+        if ((size + 1) * 2 > index.length) {
+            rehash(index.length * 2);
+        }
+        place(slot);
+    }
+
+    private void rehash(int capacity) {
+        int[] old = index;
+        index = new int[capacity];
+        for (int entry : old) {
+            if (entry != 0) {
+                place(entry - 1);
+            }
+        }
+    }
+
+    private void place(int slot) {
+        int mask = index.length - 1;
+        int i = hash(chatIds[slot], kinds[slot]) & mask;
+        while (index[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        index[i] = slot + 1;
+    }
+
+    // Удаление со сдвигом назад, чтобы не оставлять надгробий в таблице
+    private void removeIndex(int slot) {
+        int mask = index.length - 1;
+        int i = hash(chatIds[slot], kinds[slot]) & mask;
+        while (index[i] != slot + 1) {
+            i = (i + 1) & mask;
+        }
+        index[i] = 0;
+        for (int j = (i + 1) & mask; index[j] != 0; j = (j + 1) & mask) {
+            int entry = index[j] - 1;
+            int home = hash(chatIds[entry], kinds[entry]) & mask;
+            // Запись в j можно перенести в освободившуюся i, если i лежит на пути от home к j
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                index[i] = index[j];
+                index[j] = 0;
+                i = j;
+            }
+        }
+    }
+}
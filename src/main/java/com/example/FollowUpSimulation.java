@@ -0,0 +1,287 @@
+package com.example;
+
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.methods.send.SendPhoto;
+import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
+import org.telegram.telegrambots.meta.api.objects.Chat;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.ReplyKeyboard;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Прогон воронки на виртуальных часах: настоящий бот (воронка, формы, планировщик follow-up,
+// сессии, аналитика) без Telegram, Sheets и общих хранилищ. Пользователи приходят в течение
+// первых суток с /start и отвечают на то, что им прислал бот: с заданной вероятностью жмут
+// случайную кнопку сообщения или заполняют форму, с задержкой по экспоненте. Всё выполняется
+// в одном потоке секунда за секундой, случайность — из seed, поэтому одинаковые параметры дают
+// одинаковый результат (строка «отпечаток» в отчёте).
+public class FollowUpSimulation {
+    // 2024-01-01 00:00 UTC: одинаковое начало — одинаковые даты в заявках
+    private static final long START = 1704067200000L;
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long STEP = 1000;
+    private static final long FIRST_CHAT = 1_000_000_000L;
+
+    private final int users;
+    private final int days;
+    private final double clickShare;
+    private final double answerShare;
+    private final long reactionMillis;
+    private final long answerMillis;
+    private final Random random;
+    private final VirtualClock clock = new VirtualClock(START);
+
+    // Ожидающая реакция пользователя; новая реакция заменяет старую через версию
+    private final PriorityQueue<Event> events = new PriorityQueue<>(
+            Comparator.comparingLong((Event e) -> e.at).thenComparingLong(e -> e.seq));
+    private final int[] versions;
+    private long seq;
+
+    // Счётчики по виртуальным суткам
+    private final long[] arrivals;
+    private final long[] replies;
+    private final long[] followUpMessages;
+    private final long[] clicks;
+    private final long[] answers;
+    private final long[] leads;
+    private boolean firingFollowUps;
+    private long digest = 1125899906842597L;
+    // Отчёт воронки в конце первых суток: позже окно в сутки уже не видит приход пользователей
+    private String firstDayReport;
+
+    private static final class Event {
+        final long at;
+        final long seq;
+        final int user;
+        final int version;
+        // Ровно одно из двух: текст сообщения или данные кнопки
+        final String text;
+        final String callbackData;
+
+        Event(long at, long seq, int user, int version, String text, String callbackData) {
+            this.at = at;
+            this.seq = seq;
+            this.user = user;
+            this.version = version;
+            this.text = text;
+            this.callbackData = callbackData;
+        }
+    }
+
+    public FollowUpSimulation(int users, int days, long seed, double clickShare, double answerShare,
+                              long reactionMillis, long answerMillis) {
+        this.users = users;
+        this.days = days;
+        this.clickShare = clickShare;
+        this.answerShare = answerShare;
+        this.reactionMillis = reactionMillis;
+        this.answerMillis = answerMillis;
+        this.random = new Random(seed);
+        this.versions = new int[users];
+        this.arrivals = new long[days];
+        this.replies = new long[days];
+        this.followUpMessages = new long[days];
+        this.clicks = new long[days];
+        this.answers = new long[days];
+        this.leads = new long[days];
+    }
+
+    // Прогоняет симуляцию и возвращает текстовый отчёт
+    public String run() throws IOException {
+        Path dataDir = Files.createTempDirectory("bot-simulation");
+        SimulatedBot bot = new SimulatedBot(dataDir);
+        long started = System.nanoTime();
+        try {
+            for (int user = 0; user < users; user++) {
+                push(START + (long) (random.nextDouble() * DAY), user, versions[user], "/start", null);
+            }
+            long end = START + days * DAY;
+            for (long now = START; now < end; now += STEP) {
+                clock.set(now);
+                while (!events.isEmpty() && events.peek().at <= now) {
+                    Event event = events.poll();
+                    if (event.version == versions[event.user]) {
+                        deliver(bot, event);
+                    }
+                }
+                firingFollowUps = true;
+                try {
+                    bot.runDueFollowUps();
+                } finally {
+                    firingFollowUps = false;
+                }
+                if (now + STEP == START + DAY) {
+                    firstDayReport = bot.funnelReport(24 * 60);
+                }
+            }
+            long elapsed = System.nanoTime() - started;
+            return report(bot, elapsed);
+        } finally {
+            bot.onClosing();
+            deleteRecursively(dataDir);
+        }
+    }
+
+    private void deliver(SimulatedBot bot, Event event) {
+        long chatId = FIRST_CHAT + event.user;
+        Chat chat = new Chat();
+        chat.setId(chatId);
+        chat.setType("private");
+        Message message = new Message();
+        message.setChat(chat);
+        message.setMessageId(1);
+        Update update = new Update();
+        update.setUpdateId((int) event.seq + 1);
+        int day = today();
+        if (event.callbackData != null) {
+            CallbackQuery callback = new CallbackQuery();
+            callback.setId(Long.toString(event.seq));
+            callback.setMessage(message);
+            callback.setData(event.callbackData);
+            update.setCallbackQuery(callback);
+            clicks[day]++;
+        } else {
+            message.setText(event.text);
+            update.setMessage(message);
+            if (event.text.equals("/start")) {
+                arrivals[day]++;
+            } else if (bot.inForm(chatId)) {
+                answers[day]++;
+            } else {
+                // Форма уже закончилась (последний ответ принят), отвечать некуда
+                return;
+            }
+        }
+        bot.handleUpdate(update);
+    }
+
+    // Сообщение от бота: пользователь решает, отвечать ли на него
+    private void onSent(long chatId, String text, ReplyKeyboard markup, boolean inForm) {
+        int user = (int) (chatId - FIRST_CHAT);
+        long now = clock.currentTimeMillis();
+        digest = (digest ^ now ^ chatId * 31 ^ (text == null ? 0 : text.hashCode())) * 1099511628211L;
+        if (firingFollowUps) {
+            followUpMessages[today()]++;
+        } else {
+            replies[today()]++;
+        }
+        List<String> buttons = callbackData(markup);
+        if (!buttons.isEmpty()) {
+            versions[user]++;
+            if (random.nextDouble() < clickShare) {
+                push(now + delay(reactionMillis), user, versions[user], null,
+                        buttons.get(random.nextInt(buttons.size())));
+            }
+        } else if (inForm) {
+            versions[user]++;
+            if (random.nextDouble() < answerShare) {
+                push(now + delay(answerMillis), user, versions[user], "Ответ " + user, null);
+            }
+        }
+    }
+
+    private long delay(long meanMillis) {
+        return STEP + (long) (-Math.log(1 - random.nextDouble()) * meanMillis);
+    }
+
+    private void push(long at, int user, int version, String text, String callbackData) {
+        events.add(new Event(at, seq++, user, version, text, callbackData));
+    }
+
+    private int today() {
+        return (int) Math.min(days - 1, (clock.currentTimeMillis() - START) / DAY);
+    }
+
+    private static List<String> callbackData(ReplyKeyboard markup) {
+        List<String> data = new ArrayList<>();
+        if (markup instanceof InlineKeyboardMarkup) {
+            for (List<InlineKeyboardButton> row : ((InlineKeyboardMarkup) markup).getKeyboard()) {
+                for (InlineKeyboardButton button : row) {
+                    if (button.getCallbackData() != null) {
+                        data.add(button.getCallbackData());
+                    }
+                }
+            }
+        }
+        return data;
+    }
+
+    private String report(SimulatedBot bot, long elapsedNanos) {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("Симуляция: %d пользователей, %d сут. виртуального времени за %.1f с%n",
+                users, days, elapsedNanos / 1e9));
+        out.append(String.format("%-6s %10s %10s %10s %10s %10s %10s%n",
+                "сутки", "/start", "ответы", "follow-up", "кнопки", "формы", "заявки"));
+        for (int day = 0; day < days; day++) {
+            out.append(String.format("%-6d %10d %10d %10d %10d %10d %10d%n", day + 1, arrivals[day],
+                    replies[day], followUpMessages[day], clicks[day], answers[day], leads[day]));
+        }
+        int waiting = 0;
+        for (Event event : events) {
+            if (event.version == versions[event.user]) {
+                waiting++;
+            }
+        }
+        out.append(String.format("Ждут ответа пользователя: %d%n", waiting));
+        out.append(String.format("Отпечаток: %016x%n", digest));
+        out.append("Воронка за первые сутки:\n")
+                .append(firstDayReport != null ? firstDayReport : bot.funnelReport(24 * 60));
+        return out.toString();
+    }
+
+    private static void deleteRecursively(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            Log.error("simulation.cleanup", e);
+        }
+    }
+
+    // Бот на виртуальных часах: отправка и заявки остаются в симуляции
+    private final class SimulatedBot extends SalesAnalyticsBot {
+        SimulatedBot(Path dataDir) {
+            super("simulation", "simulation_bot", clock, dataDir.toString());
+        }
+
+        @Override
+        public <T extends Serializable, Method extends BotApiMethod<T>> T execute(Method method) {
+            if (method instanceof SendMessage) {
+                SendMessage message = (SendMessage) method;
+                long chatId = Long.parseLong(message.getChatId());
+                onSent(chatId, message.getText(), message.getReplyMarkup(), inForm(chatId));
+            }
+            return null;
+        }
+
+        @Override
+        protected Message executePhoto(SendPhoto photo) {
+            long chatId = Long.parseLong(photo.getChatId());
+            onSent(chatId, photo.getCaption(), photo.getReplyMarkup(), inForm(chatId));
+            return null;
+        }
+
+        @Override
+        protected void submitLead(List<Object> row) {
+            leads[today()]++;
+            digest = (digest ^ row.hashCode()) * 1099511628211L;
+        }
+
+        boolean inForm(long chatId) {
+            return getSessions().state(chatId) != Funnel.DEFAULT_STATE;
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+// Скомпилированная воронка: неизменяемая таблица переходов из funnel.properties.
+// Кнопки ищутся по компактному коду в callback_data индексом массива, шаги формы —
+// по коду состояния сессии. Шаблоны сообщений собираются вместе с таблицей,
+// чтобы callback_data кнопок совпадали с её кодами.
+public final class Funnel {
+    public static final int DEFAULT_STATE = 0;
+    // callback_data ограничен 64 байтами, а таблица кодов должна оставаться плотной
+    private static final int MAX_CODE = 1023;
+    // Код состояния пишется в журнал одним байтом
+    private static final int MAX_STATE = 127;
+    private static final Set<String> FIELDS = new LinkedHashSet<>(Arrays.asList("name", "contact", "comment"));
+
+    // Операции шагов действия
+    public static final int SEND = 0;
+    public static final int PHOTO = 1;
+    public static final int IMAGE = 2;
+    public static final int SCHEDULE = 3;
+    public static final int FORM = 4;
+    public static final int IDLE = 5;
+
+    public static final class Step {
+        public final int op;
+        public final MessageTemplate template;
+        public final String resource;
+        public final FollowUpKind kind;
+        public final String requestType;
+
+        Step(int op, MessageTemplate template, String resource, FollowUpKind kind, String requestType) {
+            this.op = op;
+            this.template = template;
+            this.resource = resource;
+            this.kind = kind;
+            this.requestType = requestType;
+        }
+    }
+
+    public static final class Action {
+        public final String name;
+        public final Step[] steps;
+        // null — ошибка отправки пропускает только сам шаг
+        public final MessageTemplate error;
+
+        Action(String name, Step[] steps, MessageTemplate error) {
+            this.name = name;
+            this.steps = steps;
+            this.error = error;
+        }
+    }
+
+    public static final class FormStep {
+        public final int state;
+        public final String field;
+        public final MessageTemplate prompt;
+        // null — последний шаг, после него заявка сохраняется
+        public final FormStep next;
+
+        FormStep(int state, String field, MessageTemplate prompt, FormStep next) {
+            this.state = state;
+            this.field = field;
+            this.prompt = prompt;
+            this.next = next;
+        }
+    }
+
+    private final Properties config;
+    private final MessageTemplates templates;
+    private final Map<String, Integer> stateCodes = new HashMap<>();
+    private final Map<String, Integer> actionCodes = new HashMap<>();
+    private final String[] encodedCodes;
+    private final Action[] actionsByCode;
+    private final Map<String, Action> actionsByName = new HashMap<>();
+    private final Map<String, Action> commands = new HashMap<>();
+    private final Action defaultText;
+    private final Action[] followUps = new Action[FollowUpKind.values().length];
+    private final long[] followUpDelays = new long[FollowUpKind.values().length];
+    private final FormStep[] formStepsByState;
+    private final FormStep firstFormStep;
+    private final MessageTemplate formComplete;
+    private final MessageTemplate formSaveError;
+    private final Set<String> images = new LinkedHashSet<>();
+    private final List<String> analyticsPath;
+
+    private Funnel(Properties config) {
+        this.config = config;
+
+        // Состояния
+        int maxState = 0;
+        Map<Integer, String> stateNames = new HashMap<>();
+        for (String key : keys("state.", "")) {
+            int code = number("state." + key);
+            if (code > MAX_STATE) {
+                throw error("код состояния " + key + " больше " + MAX_STATE);
+            }
+            if (stateNames.put(code, key) != null) {
+                throw error("код состояния " + code + " занят дважды");
+            }
+            stateCodes.put(key, code);
+            maxState = Math.max(maxState, code);
+        }
+        if (!Integer.valueOf(DEFAULT_STATE).equals(stateCodes.get("DEFAULT"))) {
+            throw error("состояние DEFAULT должно иметь код " + DEFAULT_STATE);
+        }
+
+        // Коды кнопок нужны шаблонам до разбора шагов
+        int maxCode = 0;
+        Map<Integer, String> actionNames = new HashMap<>();
+        for (String key : keys("action.", ".code")) {
+            int code = number("action." + key + ".code");
+            if (code > MAX_CODE) {
+                throw error("код кнопки " + key + " больше " + MAX_CODE);
+            }
+            if (actionNames.put(code, key) != null) {
+                throw error("код кнопки " + code + " занят дважды");
+            }
+            actionCodes.put(key, code);
+            maxCode = Math.max(maxCode, code);
+        }
+        this.encodedCodes = new String[maxCode + 1];
+        for (Map.Entry<String, Integer> entry : actionCodes.entrySet()) {
+            encodedCodes[entry.getValue()] = Integer.toString(entry.getValue());
+        }
+        this.templates = new MessageTemplates(this::encode);
+
+        // Кнопки, команды, текст вне формы и follow-up
+        this.actionsByCode = new Action[maxCode + 1];
+        for (Map.Entry<String, Integer> entry : actionCodes.entrySet()) {
+            Action action = action("action." + entry.getKey(), entry.getKey());
+            actionsByCode[entry.getValue()] = action;
+            actionsByName.put(entry.getKey(), action);
+        }
+        for (String command : keys("command.", ".do")) {
+            commands.put(command, action("command." + command, command));
+        }
+        this.defaultText = action("text", "text");
+        for (FollowUpKind kind : FollowUpKind.values()) {
+            String prefix = "followup." + kind.name();
+            if (config.getProperty(prefix + ".do") != null) {
+                followUps[kind.ordinal()] = action(prefix, kind.name());
+                followUpDelays[kind.ordinal()] = number(prefix + ".delay");
+            }
+        }
+
+        // Форма заявки
+        this.formStepsByState = new FormStep[maxState + 1];
+        // Собираем с конца, чтобы каждый шаг уже знал следующий
+        List<String> stepNames = list(required("form.steps"));
+        FormStep next = null;
+        for (int i = stepNames.size() - 1; i >= 0; i--) {
+            String stateName = stepNames.get(i);
+            Integer state = stateCodes.get(stateName);
+            if (state == null || state == DEFAULT_STATE) {
+                throw error("шаг формы " + stateName + " не объявлен как состояние");
+            }
+            String field = required("form." + stateName + ".field");
+            if (!FIELDS.contains(field)) {
+                throw error("поле формы " + field + " не из " + FIELDS);
+            }
+            if (formStepsByState[state] != null) {
+                throw error("шаг формы " + stateName + " повторяется");
+            }
+            next = new FormStep(state, field, template(required("form." + stateName + ".prompt")), next);
+            formStepsByState[state] = next;
+        }
+        if (next == null) {
+            throw error("в форме нет шагов");
+        }
+        this.firstFormStep = next;
+        this.formComplete = template(required("form.complete"));
+        this.formSaveError = template(required("form.save_error"));
+
+        // Путь воронки для отчёта FunnelAnalytics; проверять нечего — имена событий открыты
+        String path = config.getProperty("analytics.path");
+        this.analyticsPath = path == null ? Collections.emptyList() : Collections.unmodifiableList(list(path));
+
+        // Каждый follow-up, который где-то ставится, должен знать, что отправить
+        for (FollowUpKind kind : FollowUpKind.values()) {
+            if (followUps[kind.ordinal()] == null && isScheduled(kind)) {
+                throw error("follow-up " + kind + " ставится, но не описан");
+            }
+        }
+    }
+
+    // Разбирает конфигурацию; любая ошибка — IllegalStateException с описанием
+    public static Funnel compile(Properties config) {
+        return new Funnel(config);
+    }
+
+    // Новая версия не должна переназначать коды, которые уже лежат в журнале и в отправленных кнопках
+    public void checkCompatibleWith(Funnel previous) {
+        checkCodes("состояние", previous.stateCodes, stateCodes);
+        checkCodes("кнопка", previous.actionCodes, actionCodes);
+    }
+
+    public MessageTemplates templates() {
+        return templates;
+    }
+
+    // Действие кнопки по callback_data: компактный код или старое имя. null — неизвестная кнопка
+    public Action callback(String data) {
+        int code = parseCode(data);
+        if (code >= 0) {
+            return code < actionsByCode.length ? actionsByCode[code] : null;
+        }
+        return data == null ? null : actionsByName.get(data);
+    }
+
+    // null — не команда
+    public Action command(String text) {
+        return commands.get(text);
+    }
+
+    public Action defaultText() {
+        return defaultText;
+    }
+
+    // null — для этого вида follow-up действие не описано
+    public Action followUp(FollowUpKind kind) {
+        return followUps[kind.ordinal()];
+    }
+
+    public long followUpDelay(FollowUpKind kind) {
+        return followUpDelays[kind.ordinal()];
+    }
+
+    // null — состояние не относится к форме (DEFAULT или убрано из конфигурации)
+    public FormStep formStep(int state) {
+        return state >= 0 && state < formStepsByState.length ? formStepsByState[state] : null;
+    }
+
+    public FormStep firstFormStep() {
+        return firstFormStep;
+    }
+
+    public MessageTemplate formComplete() {
+        return formComplete;
+    }
+
+    public MessageTemplate formSaveError() {
+        return formSaveError;
+    }
+
+    // События пути воронки для отчёта конверсии (analytics.path)
+    public List<String> analyticsPath() {
+        return analyticsPath;
+    }
+
+    // Картинки, которые отправляет воронка
+    public Set<String> images() {
+        return Collections.unmodifiableSet(images);
+    }
+
+    // Имя действия кнопки -> callback_data
+    private String encode(String action) {
+        Integer code = actionCodes.get(action);
+        if (code == null) {
+            throw error("кнопка " + action + " из шаблонов не описана в action.*");
+        }
+        return encodedCodes[code];
+    }
+
+    // Только цифры, не длиннее четырёх; иначе -1
+    private static int parseCode(String data) {
+        if (data == null || data.isEmpty() || data.length() > 4) {
+            return -1;
+        }
+        int code = 0;
+        for (int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            code = code * 10 + (c - '0');
+        }
+        return code;
+    }
+
+    private Action action(String prefix, String name) {
+        String errorTemplate = config.getProperty(prefix + ".error");
+        List<Step> steps = new ArrayList<>();
+        for (String line : required(prefix + ".do").split("\\|")) {
+            steps.add(step(prefix, line.trim()));
+        }
+        return new Action(name, steps.toArray(new Step[0]),
+                errorTemplate == null ? null : template(errorTemplate.trim()));
+    }
+
+    private Step step(String prefix, String line) {
+        int space = line.indexOf(' ');
+        String op = space < 0 ? line : line.substring(0, space);
+        String argument = space < 0 ? "" : line.substring(space + 1).trim();
+        switch (op) {
+            case "send":
+                return new Step(SEND, template(argument), null, null, null);
+            case "photo":
+            case "image": {
+                String[] parts = argument.split("\\s+");
+                if (parts.length != 2) {
+                    throw error(prefix + ": ожидается '" + op + " <шаблон> <картинка>'");
+                }
+                images.add(parts[1]);
+                return new Step(op.equals("photo") ? PHOTO : IMAGE, template(parts[0]), parts[1], null, null);
+            }
+            case "schedule":
+                try {
+                    return new Step(SCHEDULE, null, null, FollowUpKind.valueOf(argument), null);
+                } catch (IllegalArgumentException e) {
+                    throw error(prefix + ": неизвестный follow-up " + argument);
+                }
+            case "form":
+                if (argument.isEmpty()) {
+                    throw error(prefix + ": не указан тип заявки");
+                }
+                return new Step(FORM, null, null, null, argument);
+            case "idle":
+                return new Step(IDLE, null, null, null, null);
+            default:
+                throw error(prefix + ": неизвестный шаг '" + line + "'");
+        }
+    }
+
+    private boolean isScheduled(FollowUpKind kind) {
+        List<Action> all = new ArrayList<>(actionsByName.values());
+        all.addAll(commands.values());
+        all.add(defaultText);
+        for (Action action : followUps) {
+            if (action != null) {
+                all.add(action);
+            }
+        }
+        for (Action action : all) {
+            for (Step step : action.steps) {
+                if (step.op == SCHEDULE && step.kind == kind) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private MessageTemplate template(String id) {
+        try {
+            return templates.get(id);
+        } catch (IllegalArgumentException e) {
+            throw error("неизвестный шаблон " + id);
+        }
+    }
+
+    // Имена из ключей вида prefix + имя + suffix
+    private List<String> keys(String prefix, String suffix) {
+        List<String> names = new ArrayList<>();
+        for (String key : config.stringPropertyNames()) {
+            if (key.startsWith(prefix) && key.endsWith(suffix) && key.length() > prefix.length() + suffix.length()) {
+                names.add(key.substring(prefix.length(), key.length() - suffix.length()));
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    private String required(String key) {
+        String value = config.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            throw error("не задан " + key);
+        }
+        return value.trim();
+    }
+
+    private int number(String key) {
+        try {
+            int value = Integer.parseInt(required(key));
+            if (value < 0) {
+                throw error(key + " не может быть отрицательным");
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw error(key + " не число");
+        }
+    }
+
+    private static List<String> list(String value) {
+        List<String> items = new ArrayList<>();
+        for (String item : value.split(",")) {
+            if (!item.trim().isEmpty()) {
+                items.add(item.trim());
+            }
+        }
+        return items;
+    }
+
+    private static void checkCodes(String what, Map<String, Integer> before, Map<String, Integer> after) {
+        Map<Integer, String> namesAfter = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : after.entrySet()) {
+            namesAfter.put(entry.getValue(), entry.getKey());
+        }
+        for (Map.Entry<String, Integer> entry : before.entrySet()) {
+            String name = namesAfter.get(entry.getValue());
+            if (name != null && !name.equals(entry.getKey())) {
+                throw error(what + " " + name + ": код " + entry.getValue() + " уже принадлежал " + entry.getKey());
+            }
+            Integer code = after.get(entry.getKey());
+            if (code != null && !code.equals(entry.getValue())) {
+                throw error(what + " " + entry.getKey() + ": код изменён с " + entry.getValue() + " на " + code);
+            }
+        }
+    }
+
+    private static IllegalStateException error(String message) {
+        return new IllegalStateException("Воронка: " + message);
+    }
+}
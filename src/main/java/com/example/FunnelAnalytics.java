@@ -0,0 +1,285 @@
+package com.example;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Потоковая аналитика воронки в фиксированной памяти, без чтения таблицы.
+// Каждое событие (команда, кнопка, поле формы, заявка, сработавший follow-up) попадает
+// в поминутное кольцо счётчиков за последние сутки: сколько раз случилось и сколько чатов
+// дошло до него впервые. Путь чата — маска достигнутых событий с момента входа в воронку —
+// хранится в таблице фиксированного размера; при переполнении вытесняется давно молчащий чат.
+// Время от входа до события — логарифмические корзины по часам. Отчёт за любое окно до суток
+// собирается из колец и одного прохода по таблице путей, то есть за миллисекунды.
+public class FunnelAnalytics {
+    // Разных событий немного (кнопки воронки); лишние не учитываются.
+    // Бит 63 маски не выдаётся событиям: им в отчёте помечается ещё не встречавшийся шаг пути
+    private static final int MAX_EVENTS = 63;
+    private static final int MINUTES = 24 * 60;
+    private static final int HOURS = 24;
+    // Корзина k — от 2^(k-1) до 2^k секунд; последняя — всё дольше ~12 суток
+    private static final int TIME_BUCKETS = 22;
+    private static final int PROBES = 8;
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final Map<String, Integer> eventIndex = new HashMap<>();
+    private final String[] eventNames = new String[MAX_EVENTS];
+    private int eventCount;
+    private long dropped;
+
+    // [минута % MINUTES][событие]; minuteOf — какая минута сейчас лежит в ячейке
+    private final int[][] occurrences = new int[MINUTES][MAX_EVENTS];
+    private final int[][] firstReached = new int[MINUTES][MAX_EVENTS];
+    private final long[] minuteOf = new long[MINUTES];
+    // [час % HOURS][событие][корзина времени от входа в воронку]
+    private final int[][][] timeToReach = new int[HOURS][MAX_EVENTS][TIME_BUCKETS];
+    private final long[] hourOf = new long[HOURS];
+
+    // Пути чатов: открытая адресация с коротким пробированием и вытеснением
+    private final long[] chats;
+    private final long[] masks;
+    // Секунды от createdAt
+    private final int[] enteredAt;
+    private final int[] lastSeen;
+    private long replaced;
+    private final TimeSource clock;
+    private final long createdAt;
+
+    // chatCapacity — сколько путей чатов помнить (степень двойки), около 24 байт на чат
+    public FunnelAnalytics(int chatCapacity) {
+        this(chatCapacity, TimeSource.SYSTEM);
+    }
+
+    public FunnelAnalytics(int chatCapacity, TimeSource clock) {
+        if (Integer.bitCount(chatCapacity) != 1) {
+            throw new IllegalArgumentException("Размер таблицы чатов должен быть степенью двойки: " + chatCapacity);
+        }
+        this.clock = clock;
+        this.createdAt = clock.currentTimeMillis();
+        chats = new long[chatCapacity];
+        Arrays.fill(chats, EMPTY);
+        masks = new long[chatCapacity];
+        enteredAt = new int[chatCapacity];
+        lastSeen = new int[chatCapacity];
+        Arrays.fill(minuteOf, -1);
+        Arrays.fill(hourOf, -1);
+    }
+
+    public void record(long chatId, String event) {
+        record(chatId, event, clock.currentTimeMillis());
+    }
+
+    public synchronized void record(long chatId, String event, long nowMillis) {
+        int e = index(event);
+        if (e < 0) {
+            dropped++;
+            return;
+        }
+        int minuteSlot = minuteSlot(nowMillis / 60000);
+        occurrences[minuteSlot][e]++;
+
+        int now = (int) ((nowMillis - createdAt) / 1000);
+        int i = chatSlot(chatId, now);
+        // Путь старше суток начинается заново
+        if (chats[i] != chatId || now - enteredAt[i] > MINUTES * 60) {
+            chats[i] = chatId;
+            masks[i] = 0;
+            enteredAt[i] = now;
+        }
+        lastSeen[i] = now;
+        long bit = 1L << e;
+        if ((masks[i] & bit) == 0) {
+            masks[i] |= bit;
+            firstReached[minuteSlot][e]++;
+            timeToReach[hourSlot(nowMillis / 3600000)][e][timeBucket(now - enteredAt[i])]++;
+        }
+    }
+
+    // Текстовый отчёт за последние windowMinutes (не больше суток): путь воронки с конверсией
+    // и временем до шага, затем все события
+    public String report(int windowMinutes, List<String> path) {
+        return report(windowMinutes, path, clock.currentTimeMillis());
+    }
+
+    public synchronized String report(int windowMinutes, List<String> path, long nowMillis) {
+        int window = Math.max(1, Math.min(MINUTES, windowMinutes));
+        long currentMinute = nowMillis / 60000;
+        int[] total = new int[MAX_EVENTS];
+        int[] first = new int[MAX_EVENTS];
+        for (long minute = currentMinute - window + 1; minute <= currentMinute; minute++) {
+            int slot = (int) Math.floorMod(minute, (long) MINUTES);
+            if (minuteOf[slot] == minute) {
+                for (int e = 0; e < eventCount; e++) {
+                    total[e] += occurrences[slot][e];
+                    first[e] += firstReached[slot][e];
+                }
+            }
+        }
+
+        // Сколько чатов, вошедших в окне, прошли каждый префикс пути
+        int now = (int) ((nowMillis - createdAt) / 1000);
+        int since = now - window * 60;
+        long[] prefixMasks = new long[path.size()];
+        long prefix = 0;
+        for (int k = 0; k < path.size(); k++) {
+            Integer e = eventIndex.get(path.get(k));
+            // Событие, которого ещё не было, — недостижимый бит
+            prefix |= e == null ? Long.MIN_VALUE : 1L << e;
+            prefixMasks[k] = prefix;
+        }
+        int entered = 0;
+        int[] reached = new int[path.size()];
+        for (int i = 0; i < chats.length; i++) {
+            if (chats[i] == EMPTY || enteredAt[i] < since) {
+                continue;
+            }
+            entered++;
+            for (int k = 0; k < prefixMasks.length && (masks[i] & prefixMasks[k]) == prefixMasks[k]; k++) {
+                reached[k]++;
+            }
+        }
+
+        StringBuilder out = new StringBuilder();
+        out.append("Воронка за ").append(window).append(" мин, чатов вошло: ").append(entered).append('\n');
+        long currentHour = nowMillis / 3600000;
+        int hours = (window + 59) / 60;
+        for (int k = 0; k < path.size(); k++) {
+            out.append(path.get(k)).append(" — ").append(reached[k]);
+            if (k > 0) {
+                out.append(" (").append(percent(reached[k], reached[k - 1])).append(" от предыдущего)");
+            }
+            Integer e = eventIndex.get(path.get(k));
+            if (e != null && k > 0) {
+                int[] buckets = new int[TIME_BUCKETS];
+                for (long hour = currentHour - hours + 1; hour <= currentHour; hour++) {
+                    int slot = (int) Math.floorMod(hour, (long) HOURS);
+                    if (hourOf[slot] == hour) {
+                        for (int b = 0; b < TIME_BUCKETS; b++) {
+                            buckets[b] += timeToReach[slot][e][b];
+                        }
+                    }
+                }
+                long median = quantile(buckets, 0.5);
+                if (median >= 0) {
+                    out.append(", от входа: медиана ≤ ").append(duration(median))
+                            .append(", p90 ≤ ").append(duration(quantile(buckets, 0.9)));
+                }
+            }
+            out.append('\n');
+        }
+        out.append('\n').append("События (всего / впервые в пути чата):").append('\n');
+        for (int e = 0; e < eventCount; e++) {
+            if (total[e] > 0) {
+                out.append(eventNames[e]).append(' ').append(total[e]).append(" / ").append(first[e]).append('\n');
+            }
+        }
+        if (dropped > 0 || replaced > 0) {
+            out.append('\n').append("Не учтено событий: ").append(dropped)
+                    .append(", вытеснено путей: ").append(replaced).append('\n');
+        }
+        return out.toString();
+    }
+
+    // Память под таблицы аналитики, байт
+    public long estimatedBytes() {
+        return 24L * chats.length + 8L * MINUTES * MAX_EVENTS + 4L * HOURS * MAX_EVENTS * TIME_BUCKETS;
+    }
+
+    private int index(String event) {
+        Integer e = eventIndex.get(event);
+        if (e != null) {
+            return e;
+        }
+        if (eventCount == MAX_EVENTS) {
+            return -1;
+        }
+        eventIndex.put(event, eventCount);
+        eventNames[eventCount] = event;
+        return eventCount++;
+    }
+
+    private int minuteSlot(long minute) {
+        int slot = (int) (minute % MINUTES);
+        if (minuteOf[slot] != minute) {
+            Arrays.fill(occurrences[slot], 0);
+            Arrays.fill(firstReached[slot], 0);
+            minuteOf[slot] = minute;
+        }
+        return slot;
+    }
+
+    private int hourSlot(long hour) {
+        int slot = (int) (hour % HOURS);
+        if (hourOf[slot] != hour) {
+            for (int[] buckets : timeToReach[slot]) {
+                Arrays.fill(buckets, 0);
+            }
+            hourOf[slot] = hour;
+        }
+        return slot;
+    }
+
+    // Ячейка чата: его собственная, свободная или самая давно молчащая из PROBES соседних
+    private int chatSlot(long chatId, int now) {
+        int mask = chats.length - 1;
+        long h = chatId * 0x9E3779B97F4A7C15L;
+        int home = (int) (h ^ (h >>> 32)) & mask;
+        int victim = -1;
+        for (int p = 0; p < PROBES; p++) {
+            int i = (home + p) & mask;
+            if (chats[i] == chatId) {
+                return i;
+            }
+            if (chats[i] == EMPTY) {
+                if (victim < 0 || chats[victim] != EMPTY) {
+                    victim = i;
+                }
+            } else if (victim < 0 || (chats[victim] != EMPTY && lastSeen[i] < lastSeen[victim])) {
+                victim = i;
+            }
+        }
+        if (chats[victim] != EMPTY) {
+            replaced++;
+        }
+        return victim;
+    }
+
+    private static int timeBucket(int seconds) {
+        return Math.min(TIME_BUCKETS - 1, 32 - Integer.numberOfLeadingZeros(Math.max(0, seconds)));
+    }
+
+    // Верхняя граница корзины квантиля, секунды; -1 — наблюдений нет
+    private static long quantile(int[] buckets, double q) {
+        long count = 0;
+        for (int b : buckets) {
+            count += b;
+        }
+        if (count == 0) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(q * count);
+        long seen = 0;
+        for (int b = 0; b < buckets.length; b++) {
+            seen += buckets[b];
+            if (seen >= rank) {
+                return b == 0 ? 0 : 1L << b;
+            }
+        }
+        return 1L << (buckets.length - 1);
+    }
+
+    private static String percent(int part, int whole) {
+        return whole == 0 ? "—" : String.format("%.1f%%", 100.0 * part / whole);
+    }
+
+    private static String duration(long seconds) {
+        if (seconds < 120) {
+            return seconds + " с";
+        }
+        if (seconds < 7200) {
+            return seconds / 60 + " мин";
+        }
+        return seconds / 3600 + " ч";
+    }
+}
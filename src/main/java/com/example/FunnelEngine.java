@@ -0,0 +1,106 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Текущая версия воронки и её горячая перезагрузка.
+// Без файла используется funnel.properties из сборки. С файлом он проверяется
+// раз в несколько секунд; изменённая конфигурация компилируется заново и
+// подменяет таблицу целиком. Сессии хранят только код состояния, поэтому
+// переживают перезагрузку; ошибочная или несовместимая версия отбрасывается,
+// и бот продолжает работать на прежней.
+public class FunnelEngine {
+    private static final String RESOURCE = "/funnel.properties";
+    private static final long CHECK_INTERVAL_SECONDS = 5;
+
+    private final Path file;
+    private final ScheduledExecutorService watcher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "funnel-reloader");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile Funnel funnel;
+    private long loadedModified;
+
+    // file == null — конфигурация из ресурсов, без перезагрузки
+    public FunnelEngine(Path file) {
+        this.file = file;
+        try {
+            this.funnel = Funnel.compile(load());
+        } catch (IOException e) {
+            throw new IllegalStateException("Не удалось прочитать конфигурацию воронки", e);
+        }
+    }
+
+    public Funnel current() {
+        return funnel;
+    }
+
+    public void start() {
+        if (file != null) {
+            watcher.scheduleWithFixedDelay(this::reloadIfChanged,
+                    CHECK_INTERVAL_SECONDS, CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    // Перечитывает файл; false — версия с ошибкой, осталась прежняя
+    public synchronized boolean reload() {
+        try {
+            Funnel next = Funnel.compile(load());
+            next.checkCompatibleWith(funnel);
+            funnel = next;
+            Log.info("funnel.reload", "Воронка перезагружена из " + (file != null ? file : RESOURCE));
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            Log.error("funnel.reload", e);
+            return false;
+        }
+    }
+
+    public void shutdown() {
+        watcher.shutdown();
+    }
+
+    private void reloadIfChanged() {
+        try {
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            synchronized (this) {
+                if (modified == loadedModified) {
+                    return;
+                }
+            }
+            reload();
+        } catch (IOException e) {
+            Log.error("funnel.watch", e);
+        }
+    }
+
+    private synchronized Properties load() throws IOException {
+        Properties config = new Properties();
+        if (file != null) {
+            // Время изменения запоминаем до чтения: правка во время чтения вызовет ещё одну перезагрузку
+            loadedModified = Files.getLastModifiedTime(file).toMillis();
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                config.load(reader);
+            }
+        } else {
+            InputStream stream = FunnelEngine.class.getResourceAsStream(RESOURCE);
+            if (stream == null) {
+                throw new IOException("Нет ресурса " + RESOURCE);
+            }
+            try (Reader reader = new InputStreamReader(stream, StandardCharsets.UTF_8)) {
+                config.load(reader);
+            }
+        }
+        return config;
+    }
+}
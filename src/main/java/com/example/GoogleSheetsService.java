@@ -1,31 +1,131 @@
 package com.example;
 
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.googleapis.apache.v2.GoogleApacheHttpTransport;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpTransport;
 import com.google.api.client.json.gson.GsonFactory;
 import com.google.api.services.sheets.v4.Sheets;
 import com.google.api.services.sheets.v4.SheetsScopes;
 import com.google.auth.http.HttpCredentialsAdapter;
+import com.google.auth.oauth2.AccessToken;
 import com.google.auth.oauth2.GoogleCredentials;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+// Долгоживущий клиент Google Sheets: один транспорт с пулом keep-alive соединений,
+// токен доступа обновляется в фоне заранее, до истечения срока.
 public class GoogleSheetsService {
     private static final String APPLICATION_NAME = "Telegram Bot Google Sheets";
+    // Обновляем токен, если до истечения осталось меньше 10 минут
+    private static final long TOKEN_REFRESH_MARGIN_MILLIS = 600000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+    private static final int READ_TIMEOUT_MILLIS = 30000;
+
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "sheets-token-refresher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile Sheets sheets;
+    private GoogleCredentials credentials;
+    private HttpTransport transport;
 
     public Sheets getSheetsService() throws IOException, GeneralSecurityException {
+        Sheets result = sheets;
+        if (result == null) {
+            synchronized (this) {
+                if (sheets == null) {
+                    sheets = build();
+                }
+                result = sheets;
+            }
+        }
+        return result;
+    }
+
+    // Прогрев при старте: клиент, токен и TLS-соединение готовы до первой заявки.
+    // Затем токен обновляется в фоне раз в минуту, если срок подходит к концу.
+    public void start(String spreadsheetId) {
+        refresher.execute(() -> warmUp(spreadsheetId));
+        refresher.scheduleWithFixedDelay(this::refreshTokenIfNeeded, 1, 1, TimeUnit.MINUTES);
+    }
+
+    public void shutdown() {
+        refresher.shutdown();
+        try {
+            if (transport != null) {
+                transport.shutdown();
+            }
+        } catch (IOException e) {
+            Log.error("sheets.shutdown", e);
+        }
+    }
+
+    private void warmUp(String spreadsheetId) {
+        try {
+            Sheets client = getSheetsService();
+            credentials.refreshIfExpired();
+            if (spreadsheetId != null && !spreadsheetId.isEmpty()) {
+                // Лёгкий запрос метаданных открывает соединение, которое останется в пуле
+                client.spreadsheets().get(spreadsheetId).setFields("spreadsheetId").execute();
+            }
+        } catch (Exception e) {
+            Log.error("sheets.warmup", e);
+        }
+    }
+
+    private void refreshTokenIfNeeded() {
+        GoogleCredentials current;
+        synchronized (this) {
+            current = credentials;
+        }
+        if (current == null) {
+            return;
+        }
+        try {
+            AccessToken token = current.getAccessToken();
+            if (token == null || token.getExpirationTime() == null
+                    || token.getExpirationTime().getTime() - System.currentTimeMillis() < TOKEN_REFRESH_MARGIN_MILLIS) {
+                current.refresh();
+            }
+        } catch (IOException e) {
+            Log.error("sheets.token", e);
+        }
+    }
+
+    private Sheets build() throws IOException, GeneralSecurityException {
         String serviceAccountJson = System.getenv("GOOGLE_SERVICE_ACCOUNT_JSON");
+        if (serviceAccountJson == null || serviceAccountJson.isEmpty()) {
+            throw new IllegalStateException("GOOGLE_SERVICE_ACCOUNT_JSON не задан");
+        }
 
-        GoogleCredentials credentials = GoogleCredentials.fromStream(
-                new ByteArrayInputStream(serviceAccountJson.getBytes())
+        credentials = GoogleCredentials.fromStream(
+                new ByteArrayInputStream(serviceAccountJson.getBytes(StandardCharsets.UTF_8))
         ).createScoped(Collections.singleton(SheetsScopes.SPREADSHEETS));
+        transport = GoogleApacheHttpTransport.newTrustedTransport();
+
+        HttpCredentialsAdapter auth = new HttpCredentialsAdapter(credentials);
+        HttpRequestInitializer initializer = request -> {
+            auth.initialize(request);
+            request.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            request.setReadTimeout(READ_TIMEOUT_MILLIS);
+        };
 
-        return new Sheets.Builder(
-                GoogleNetHttpTransport.newTrustedTransport(),
-                GsonFactory.getDefaultInstance(),
-                new HttpCredentialsAdapter(credentials)
-        ).setApplicationName(APPLICATION_NAME).build();
+        Sheets.Builder builder = new Sheets.Builder(transport, GsonFactory.getDefaultInstance(), initializer)
+                .setApplicationName(APPLICATION_NAME);
+        // SHEETS_ROOT_URL — другой адрес API (заглушка нагрузочного теста), например http://127.0.0.1:8090/
+        String rootUrl = System.getenv("SHEETS_ROOT_URL");
+        if (rootUrl != null && !rootUrl.isEmpty()) {
+            builder.setRootUrl(rootUrl.endsWith("/") ? rootUrl : rootUrl + "/");
+        }
+        return builder.build();
     }
-}
\ No newline at end of file
+}
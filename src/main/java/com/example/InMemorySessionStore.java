@@ -0,0 +1,487 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Сессии всех чатов в одной таблице с примитивным ключом long.
+// Открытая адресация с линейным пробированием по параллельным массивам: ключ, код
+// состояния, тип заявки (общие экземпляры строк) и поля формы, упакованные в один byte[].
+// Хранятся только чаты, у которых есть состояние или данные формы; чат в DEFAULT без
+// данных из таблицы удаляется. Отложенные сообщения живут в FollowUpScheduler.
+// С холодным уровнем сессии, к которым давно не обращались, переезжают в ColdSessionFile
+// и возвращаются в таблицу при следующем обращении — куча растёт с активными чатами, а не со всеми.
+public class InMemorySessionStore implements SessionStore {
+    // chatId Telegram никогда не равен Long.MIN_VALUE, поэтому он помечает пустую ячейку
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int INITIAL_CAPACITY = 1024;
+    // За один захват блокировки выселяем не больше, чтобы не задерживать обработку
+    private static final int EVICT_BATCH = 10000;
+
+    private long[] keys;
+    private byte[] states;
+    private String[] requestTypes;
+    // name, contact, comment: для каждого длина + 1 (0 — null) и байты UTF-8
+    private byte[][] fields;
+    // Последнее обращение, секунды от createdAt
+    private int[] accessed;
+    private int size;
+    private final TimeSource clock;
+    private final long createdAt;
+    // null — без холодного уровня, все сессии в куче
+    private final ColdSessionFile cold;
+    private final long idleMillis;
+    private ScheduledExecutorService evictor;
+    // Типов заявок единицы, а сессий — миллионы: храним по одному экземпляру строки
+    private final Map<String, String> requestTypePool = new HashMap<>();
+
+    public InMemorySessionStore() {
+        this(null, 0);
+    }
+
+    // Сессии без обращений дольше idleMillis уходят в cold
+    public InMemorySessionStore(ColdSessionFile cold, long idleMillis) {
+        this(cold, idleMillis, TimeSource.SYSTEM);
+    }
+
+    public InMemorySessionStore(ColdSessionFile cold, long idleMillis, TimeSource clock) {
+        this.clock = clock;
+        this.createdAt = clock.currentTimeMillis();
+        this.cold = cold;
+        this.idleMillis = idleMillis;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    // Запускает фоновое выселение неактивных сессий
+    @Override
+    public void start() {
+        if (cold == null) {
+            return;
+        }
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, idleMillis / 4);
+        evictor.scheduleWithFixedDelay(() -> evictIdle(clock.currentTimeMillis()), period, period, TimeUnit.MILLISECONDS);
+    }
+
+    // Дожидается выселения, если оно идёт, и закрывает файлы холодного уровня
+    @Override
+    public void shutdown() {
+        if (evictor != null) {
+            evictor.shutdown();
+            try {
+                evictor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (cold != null) {
+            synchronized (this) {
+                try {
+                    cold.close();
+                } catch (IOException e) {
+                    Log.error("sessions.cold.close", e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized int state(long chatId) {
+        int i = load(chatId);
+        return i < 0 ? Funnel.DEFAULT_STATE : states[i];
+    }
+
+    @Override
+    public synchronized Session get(long chatId) {
+        int i = load(chatId);
+        if (i < 0) {
+            return null;
+        }
+        String[] values = unpack(fields[i], 3);
+        return new Session(states[i], requestTypes[i], values[0], values[1], values[2]);
+    }
+
+    // Сохраняет сессию целиком; DEFAULT без данных удаляет её
+    public synchronized void put(long chatId, int state, String requestType, String name, String contact, String comment) {
+        if (state == Funnel.DEFAULT_STATE && requestType == null && name == null && contact == null && comment == null) {
+            remove(chatId);
+            return;
+        }
+        int i = find(chatId);
+        if (i < 0) {
+            // Новая версия целиком заменяет холодную
+            if (cold != null) {
+                cold.remove(chatId);
+            }
+            i = insert(chatId);
+        }
+        states[i] = (byte) state;
+        requestTypes[i] = pool(requestType);
+        fields[i] = pack(name, contact, comment);
+        accessed[i] = now();
+    }
+
+    // Восстановление из журнала: сессия пишется прямо в холодный уровень пакетной загрузкой,
+    // минуя таблицу в куче, — без роста таблицы под все чаты и без последующего выселения.
+    // Повторные записи того же чата заменяют друг друга. После последней записи — finishRestore.
+    // Без холодного уровня — то же, что put
+    public void restore(long chatId, int state, String requestType, String name, String contact, String comment) {
+        restore(chatId, state, requestType, pack(name, contact, comment));
+    }
+
+    // packed — name, contact и comment, упакованные pack
+    public synchronized void restore(long chatId, int state, String requestType, byte[] packed) {
+        if (cold == null) {
+            String[] values = unpack(packed, 3);
+            put(chatId, state, requestType, values[0], values[1], values[2]);
+            return;
+        }
+        boolean empty = state == Funnel.DEFAULT_STATE && requestType == null && packed == null;
+        try {
+            if (empty) {
+                cold.loadRemoval(chatId);
+            } else {
+                cold.load(chatId, state, requestType, packed);
+            }
+        } catch (IOException e) {
+            // Файл не принял запись: сессия остаётся в куче
+            Log.error("sessions.restore", chatId, e);
+            String[] values = unpack(packed, 3);
+            put(chatId, state, requestType, values[0], values[1], values[2]);
+        }
+    }
+
+    // Восстановленные сессии становятся доступны
+    public synchronized void finishRestore() {
+        if (cold == null) {
+            return;
+        }
+        try {
+            cold.finishLoad();
+        } catch (IOException e) {
+            Log.error("sessions.restore", e);
+        }
+    }
+
+    @Override
+    public void put(long chatId, Session session) {
+        put(chatId, session.state, session.requestType, session.name, session.contact, session.comment);
+    }
+
+    @Override
+    public synchronized void remove(long chatId) {
+        if (cold != null) {
+            cold.remove(chatId);
+        }
+        int i = find(chatId);
+        if (i < 0) {
+            return;
+        }
+        removeSlot(i);
+    }
+
+    // Переносит в холодный уровень сессии без обращений дольше idleMillis.
+    // Возвращает число выселенных сессий.
+    public int evictIdle(long nowMillis) {
+        return evict((int) ((nowMillis - idleMillis - createdAt) / 1000));
+    }
+
+    // Переносит в холодный уровень все сессии (после восстановления из журнала)
+    public int evictAll() {
+        return evict(Integer.MAX_VALUE);
+    }
+
+    private int evict(int cutoff) {
+        if (cold == null) {
+            return 0;
+        }
+        int evicted = 0;
+        while (true) {
+            synchronized (this) {
+                int batch = 0;
+                for (int i = 0; i < keys.length && batch < EVICT_BATCH; i++) {
+                    // Сдвиг при удалении может перенести в i ещё не просмотренную запись — проверяем её снова
+                    while (keys[i] != EMPTY && accessed[i] <= cutoff && batch < EVICT_BATCH) {
+                        try {
+                            cold.put(keys[i], states[i], requestTypes[i], fields[i]);
+                        } catch (IOException e) {
+                            Log.error("sessions.evict", keys[i], e);
+                            shrink();
+                            return evicted;
+                        }
+                        removeSlot(i);
+                        batch++;
+                    }
+                }
+                evicted += batch;
+                if (batch < EVICT_BATCH) {
+                    shrink();
+                    return evicted;
+                }
+            }
+        }
+    }
+
+    // Удаление со сдвигом назад, чтобы не оставлять надгробий в таблице
+    private void removeSlot(int i) {
+        size--;
+        int mask = keys.length - 1;
+        clear(i);
+        for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+            int home = hash(keys[j]) & mask;
+            // Запись в j можно перенести в освободившуюся i, если i лежит на пути от home к j
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                states[i] = states[j];
+                requestTypes[i] = requestTypes[j];
+                fields[i] = fields[j];
+                accessed[i] = accessed[j];
+                clear(j);
+                i = j;
+            }
+        }
+    }
+
+    // Все сессии, включая холодные
+    @Override
+    public synchronized void forEach(Visitor visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                String[] values = unpack(fields[i], 3);
+                visitor.visit(keys[i], states[i], requestTypes[i], values[0], values[1], values[2]);
+            }
+        }
+        if (cold != null) {
+            cold.forEach((chatId, state, requestType, packed) -> {
+                String[] values = unpack(packed, 3);
+                visitor.visit(chatId, state, requestType, values[0], values[1], values[2]);
+            });
+        }
+    }
+
+    // Холодный уровень не переживает перезапуск: сессии восстанавливаются из журнала
+    @Override
+    public boolean isDurable() {
+        return false;
+    }
+
+    // Сессий в куче
+    public synchronized int size() {
+        return size;
+    }
+
+    // Сессий в холодном уровне
+    public synchronized int coldSize() {
+        return cold == null ? 0 : cold.size();
+    }
+
+    // Приблизительный объём кучи: массивы таблицы и упакованные поля форм
+    public synchronized long estimatedBytes() {
+        long perSlot = 8 + 1 + 4 + 4 + 4;
+        long bytes = perSlot * keys.length;
+        for (byte[] packed : fields) {
+            if (packed != null) {
+                // Заголовок массива и выравнивание до 8 байт
+                bytes += (16 + packed.length + 7) & ~7;
+            }
+        }
+        return bytes;
+    }
+
+    // Средний объём кучи на сессию в таблице, байт; 0 — сессий нет
+    public long bytesPerSession() {
+        long bytes;
+        int count;
+        synchronized (this) {
+            bytes = estimatedBytes();
+            count = size;
+        }
+        return count == 0 ? 0 : bytes / count;
+    }
+
+    private static int hash(long chatId) {
+        long h = chatId * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int find(long chatId) {
+        int mask = keys.length - 1;
+        for (int i = hash(chatId) & mask; ; i = (i + 1) & mask) {
+            if (keys[i] == chatId) {
+                return i;
+            }
+            if (keys[i] == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    // Слот сессии в таблице; холодная сессия сначала поднимается в таблицу. -1 — сессии нет
+    private int load(long chatId) {
+        int i = find(chatId);
+        if (i < 0 && cold != null) {
+            ColdSessionFile.Entry entry = cold.take(chatId);
+            if (entry != null) {
+                i = insert(chatId);
+                states[i] = (byte) entry.state;
+                requestTypes[i] = pool(entry.requestType);
+                fields[i] = entry.fields;
+            }
+        }
+        if (i >= 0) {
+            accessed[i] = now();
+        }
+        return i;
+    }
+
+    private int insert(long chatId) {
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        int i = slotFor(chatId);
+        keys[i] = chatId;
+        size++;
+        return i;
+    }
+
+    // После выселения таблица сжимается, чтобы не держать массивы под прошлый пик
+    private void shrink() {
+        int capacity = keys.length;
+        while (capacity > INITIAL_CAPACITY && size * 8 < capacity) {
+            capacity /= 2;
+        }
+        if (capacity < keys.length) {
+            resize(capacity);
+        }
+    }
+
+    private String pool(String requestType) {
+        return requestType == null ? null : requestTypePool.computeIfAbsent(requestType, t -> t);
+    }
+
+    private int now() {
+        return (int) ((clock.currentTimeMillis() - createdAt) / 1000);
+    }
+
+    private int slotFor(long chatId) {
+        int mask = keys.length - 1;
+        int i = hash(chatId) & mask;
+        while (keys[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void clear(int i) {
+        keys[i] = EMPTY;
+        states[i] = 0;
+        requestTypes[i] = null;
+        fields[i] = null;
+        accessed[i] = 0;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        states = new byte[capacity];
+        requestTypes = new String[capacity];
+        fields = new byte[capacity][];
+        accessed = new int[capacity];
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        byte[] oldStates = states;
+        String[] oldRequestTypes = requestTypes;
+        byte[][] oldFields = fields;
+        int[] oldAccessed = accessed;
+        allocate(capacity);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != EMPTY) {
+                int i = slotFor(oldKeys[j]);
+                keys[i] = oldKeys[j];
+                states[i] = oldStates[j];
+                requestTypes[i] = oldRequestTypes[j];
+                fields[i] = oldFields[j];
+                accessed[i] = oldAccessed[j];
+            }
+        }
+    }
+
+    // null — все значения пустые. Тот же формат использует RedisSessionStore
+    static byte[] pack(String... values) {
+        boolean empty = true;
+        int length = 0;
+        byte[][] encoded = new byte[values.length][];
+        for (int k = 0; k < values.length; k++) {
+            if (values[k] != null) {
+                empty = false;
+                encoded[k] = values[k].getBytes(StandardCharsets.UTF_8);
+                length += encoded[k].length;
+            }
+            length += varIntSize(encoded[k] == null ? 0 : encoded[k].length + 1);
+        }
+        if (empty) {
+            return null;
+        }
+        byte[] packed = new byte[length];
+        int position = 0;
+        for (byte[] value : encoded) {
+            position = putVarInt(packed, position, value == null ? 0 : value.length + 1);
+            if (value != null) {
+                System.arraycopy(value, 0, packed, position, value.length);
+                position += value.length;
+            }
+        }
+        return packed;
+    }
+
+    static String[] unpack(byte[] packed, int count) {
+        String[] values = new String[count];
+        if (packed == null) {
+            return values;
+        }
+        int position = 0;
+        for (int k = 0; k < values.length; k++) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = packed[position++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            if (value > 0) {
+                values[k] = new String(packed, position, value - 1, StandardCharsets.UTF_8);
+                position += value - 1;
+            }
+        }
+        return values;
+    }
+
+    static int varIntSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    static int putVarInt(byte[] target, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            target[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        target[position++] = (byte) value;
+        return position;
+    }
+}
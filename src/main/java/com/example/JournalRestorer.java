@@ -0,0 +1,96 @@
+package com.example;
+
+import java.util.Arrays;
+
+// Применяет записи журнала к сессиям и планировщику follow-up при старте бота.
+// Оба применяются пакетно: сессии сразу уходят в холодный уровень (InMemorySessionStore.restore) —
+// какие чаты активны, после перезапуска неизвестно, и в кучу они возвращаются по первому сообщению;
+// follow-up копятся в массивах и загружаются в планировщик одним FollowUpScheduler.load.
+// Применённым восстановление становится в onRestored, после последней записи журнала.
+public class JournalRestorer implements SessionJournal.Visitor {
+    private static final FollowUpKind[] KINDS = FollowUpKind.values();
+
+    private final InMemorySessionStore sessions;
+    private final FollowUpScheduler followUps;
+    private final long restoredAt;
+    private final boolean fireOverdue;
+
+    // Операции с follow-up по порядку журнала; срок FollowUpScheduler.CANCEL — отмена
+    private long[] chatIds = new long[1024];
+    private byte[] kinds = new byte[1024];
+    private long[] deadlines = new long[1024];
+    private int count;
+
+    // sessions == null — сессии в общем хранилище, оно новее журнала этого узла (записи могли
+    // остаться до перехода на него). followUps == null — follow-up живут в разделах общего хранилища.
+    // fireOverdue — просроченные за время простоя follow-up отправить сразу, иначе пропустить
+    public JournalRestorer(InMemorySessionStore sessions, FollowUpScheduler followUps, long restoredAt,
+                           boolean fireOverdue) {
+        this.sessions = sessions;
+        this.followUps = followUps;
+        this.restoredAt = restoredAt;
+        this.fireOverdue = fireOverdue;
+    }
+
+    @Override
+    public void onSession(long chatId, int state, String requestType, String name, String contact, String comment) {
+        if (sessions != null) {
+            // DEFAULT без данных удаляет сессию
+            sessions.restore(chatId, state, requestType, name, contact, comment);
+        }
+    }
+
+    @Override
+    public void onPackedSession(long chatId, int state, String requestType, byte[] fields) {
+        if (sessions != null) {
+            sessions.restore(chatId, state, requestType, fields);
+        }
+    }
+
+    @Override
+    public void onFollowUpScheduled(long chatId, FollowUpKind kind, long deadline) {
+        if (followUps == null) {
+            return;
+        }
+        add(chatId, kind, deadline < restoredAt && !fireOverdue ? FollowUpScheduler.CANCEL : deadline);
+    }
+
+    @Override
+    public void onFollowUpDone(long chatId, int kindMask) {
+        if (followUps == null) {
+            return;
+        }
+        for (FollowUpKind kind : KINDS) {
+            if ((kindMask & (1 << kind.ordinal())) != 0) {
+                add(chatId, kind, FollowUpScheduler.CANCEL);
+            }
+        }
+    }
+
+    @Override
+    public void onRestored() {
+        if (sessions != null) {
+            sessions.finishRestore();
+        }
+        if (followUps != null) {
+            followUps.load(chatIds, kinds, deadlines, count);
+        }
+        chatIds = new long[0];
+        kinds = new byte[0];
+        deadlines = new long[0];
+        count = 0;
+    }
+
+    private void add(long chatId, FollowUpKind kind, long deadline) {
+        if (count == chatIds.length) {
+            int length = Math.max(1024, count * 2);
+            chatIds = Arrays.copyOf(chatIds, length);
+            kinds = Arrays.copyOf(kinds, length);
+            deadlines = Arrays.copyOf(deadlines, length);
+        }
+        chatIds[count] = chatId;
+        kinds[count] = (byte) kind.ordinal();
+        deadlines[count] = deadline;
+        count++;
+    }
+}
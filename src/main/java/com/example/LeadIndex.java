@@ -0,0 +1,199 @@
+package com.example;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+// Индекс уже известных заявок: по нормализованному контакту и по чату.
+// При старте таблица читается одним запросом (столбцы контакта и чата всех строк), затем
+// индекс пополняется каждой сохранённой заявкой, а раз в refreshMillis дочитываются только
+// строки, появившиеся в таблице после прошлого чтения (в том числе добавленные вручную).
+// Проверка заявки — поиск в памяти, без запросов к Sheets.
+// Ключи хранятся 64-битными хешами в LongSet: ~16 байт на ключ.
+public class LeadIndex {
+    public enum Status {
+        NEW("новая"),
+        REPEAT("повторная"),
+        // Таблица ещё не прочитана, а в индексе совпадений нет
+        UNCHECKED("не проверена");
+
+        public final String label;
+
+        Status(String label) {
+            this.label = label;
+        }
+    }
+
+    // Столбцы строки заявки: C — контакт, E — «Chat ID: ...»
+    private static final String CONTACT_COLUMN = "C";
+    private static final String CHAT_COLUMN = "E";
+    private static final String CHAT_PREFIX = "Chat ID: ";
+    // Повтор первого чтения после ошибки
+    private static final long RETRY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final GoogleSheetsService sheetsService;
+    private final String spreadsheetId;
+    private final boolean hasSheet;
+    private final long refreshMillis;
+    private final Metrics.Labeled<Metrics.Counter> leads;
+    private final Thread loader;
+    private volatile boolean running = true;
+    private volatile boolean loaded;
+    // Первая непрочитанная строка таблицы (строка 1 — заголовки столбцов); меняет только поток loader
+    private int nextRow = 2;
+
+    // Под монитором
+    private final LongSet keys = new LongSet();
+
+    // sheetsService == null или пустой spreadsheetId — таблицы нет (симуляция), индекс сразу загружен.
+    // refreshMillis == 0 — после первого чтения таблица не перечитывается
+    public LeadIndex(GoogleSheetsService sheetsService, String spreadsheetId, long refreshMillis, Metrics metrics) {
+        this.sheetsService = sheetsService;
+        this.spreadsheetId = spreadsheetId;
+        this.refreshMillis = refreshMillis;
+        this.leads = metrics.counters("bot_leads_total", "Сохранённые заявки по статусу", "status");
+        metrics.gauge("bot_lead_index_keys", "Ключи в индексе заявок", () -> size());
+        metrics.gauge("bot_lead_index_loaded", "1 — таблица заявок прочитана", () -> loaded ? 1 : 0);
+        this.hasSheet = sheetsService != null && spreadsheetId != null && !spreadsheetId.isEmpty();
+        this.loaded = !hasSheet;
+        this.loader = new Thread(this::runLoader, "lead-index");
+        this.loader.setDaemon(true);
+    }
+
+    public void start() {
+        if (hasSheet) {
+            loader.start();
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        loader.interrupt();
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    // Новая заявка или повтор: тот же чат или тот же контакт уже оставлял заявку
+    public synchronized Status classify(long chatId, String contact) {
+        String normalized = normalizeContact(contact);
+        if (keys.contains(chatKey(chatId)) || (normalized != null && keys.contains(contactKey(normalized)))) {
+            return Status.REPEAT;
+        }
+        return loaded ? Status.NEW : Status.UNCHECKED;
+    }
+
+    // Заявка сохранена: следующая от этого чата или контакта — повтор
+    public void record(long chatId, String contact, Status status) {
+        synchronized (this) {
+            keys.add(chatKey(chatId));
+            String normalized = normalizeContact(contact);
+            if (normalized != null) {
+                keys.add(contactKey(normalized));
+            }
+        }
+        leads.get(status.name().toLowerCase(Locale.ROOT)).inc();
+    }
+
+    public synchronized int size() {
+        return keys.size();
+    }
+
+    // Телефон — только цифры, российский номер приводится к 7XXXXXXXXXX; почта и @username —
+    // в нижнем регистре без пробелов; прочее — в нижнем регистре с одиночными пробелами.
+    // null — контакта нет
+    static String normalizeContact(String contact) {
+        if (contact == null) {
+            return null;
+        }
+        String trimmed = contact.trim().toLowerCase(Locale.ROOT);
+        if (trimmed.isEmpty()) {
+            return null;
+        }
+        if (trimmed.indexOf('@') >= 0) {
+            return trimmed.replaceAll("\\s+", "");
+        }
+        StringBuilder digits = new StringBuilder(trimmed.length());
+        for (int i = 0; i < trimmed.length(); i++) {
+            char c = trimmed.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+        }
+        if (digits.length() >= 10 && digits.length() * 2 >= trimmed.replaceAll("\\s+", "").length()) {
+            if (digits.length() == 11 && digits.charAt(0) == '8') {
+                digits.setCharAt(0, '7');
+            } else if (digits.length() == 10) {
+                digits.insert(0, '7');
+            }
+            return "+" + digits;
+        }
+        return trimmed.replaceAll("\\s+", " ");
+    }
+
+    private void runLoader() {
+        while (running) {
+            long pause = refreshMillis;
+            try {
+                readNewRows();
+                loaded = true;
+            } catch (Exception e) {
+                Log.error("leads.index", e);
+                if (!loaded) {
+                    pause = RETRY_MILLIS;
+                }
+            }
+            if (pause <= 0) {
+                return;
+            }
+            try {
+                Thread.sleep(pause);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // Один запрос на все строки с nextRow: контакт и чат (строки без них приходят пустыми списками)
+    private void readNewRows() throws Exception {
+        List<List<Object>> values = sheetsService.getSheetsService().spreadsheets().values()
+                .get(spreadsheetId, CONTACT_COLUMN + nextRow + ":" + CHAT_COLUMN)
+                .execute()
+                .getValues();
+        if (values == null) {
+            return;
+        }
+        int chatIndex = CHAT_COLUMN.charAt(0) - CONTACT_COLUMN.charAt(0);
+        synchronized (this) {
+            for (List<Object> row : values) {
+                if (!row.isEmpty()) {
+                    String normalized = normalizeContact(String.valueOf(row.get(0)));
+                    if (normalized != null) {
+                        keys.add(contactKey(normalized));
+                    }
+                }
+                if (row.size() > chatIndex) {
+                    String chat = String.valueOf(row.get(chatIndex));
+                    if (chat.startsWith(CHAT_PREFIX)) {
+                        try {
+                            keys.add(chatKey(Long.parseLong(chat.substring(CHAT_PREFIX.length()).trim())));
+                        } catch (NumberFormatException e) {
+                            // Строка заполнена вручную не по формату бота
+                        }
+                    }
+                }
+            }
+        }
+        nextRow += values.size();
+        Log.info("leads.index", "Прочитано строк: " + values.size() + ", ключей в индексе: " + size());
+    }
+
+    private static long chatKey(long chatId) {
+        return RecentKeys.key(chatId, "chat");
+    }
+
+    private static long contactKey(String normalized) {
+        return RecentKeys.key(0, normalized);
+    }
+}
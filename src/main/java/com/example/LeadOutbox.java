@@ -0,0 +1,133 @@
+package com.example;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// Локальный outbox заявок: NDJSON-лог (одна строка таблицы на строку файла)
+// и смещение последней подтверждённой записи в отдельном файле.
+// Заявка сбрасывается на диск (fsync) до ответа пользователю; пересылка в
+// Sheets читает лог с подтверждённого смещения, в том числе после перезапуска.
+public class LeadOutbox {
+    private static final TypeReference<List<Object>> ROW = new TypeReference<List<Object>>() { };
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final FileChannel log;
+    private final FileChannel ack;
+    private long ackedOffset;
+    // Число записей после подтверждённого смещения
+    private int pending;
+
+    public LeadOutbox(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        this.log = FileChannel.open(dir.resolve("outbox.ndjson"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.ack = FileChannel.open(dir.resolve("outbox.ack"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        truncateTornTail();
+        ByteBuffer stored = ByteBuffer.allocate(8);
+        if (ack.read(stored, 0) == 8) {
+            ackedOffset = stored.flip().getLong();
+        }
+        // Сбой между усечением лога и записью нового смещения
+        ackedOffset = Math.min(ackedOffset, log.size());
+        pending = countLines(ackedOffset, log.size());
+    }
+
+    // Дописывает строку в лог и дожидается записи на диск
+    public synchronized void append(List<Object> row) throws IOException {
+        byte[] json = mapper.writeValueAsBytes(row);
+        ByteBuffer line = ByteBuffer.allocate(json.length + 1).put(json).put((byte) '\n');
+        line.flip();
+        long position = log.size();
+        while (line.hasRemaining()) {
+            position += log.write(line, position);
+        }
+        log.force(false);
+        pending++;
+    }
+
+    // Читает до max неподтверждённых строк; возвращает смещение конца прочитанного
+    public synchronized long readPending(int max, List<List<Object>> rows) throws IOException {
+        long end = log.size();
+        long position = ackedOffset;
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(end - position, 1 << 20));
+        log.read(buffer, position);
+        buffer.flip();
+        int lineStart = 0;
+        for (int i = 0; i < buffer.limit() && rows.size() < max; i++) {
+            if (buffer.get(i) == '\n') {
+                rows.add(mapper.readValue(buffer.array(), lineStart, i - lineStart, ROW));
+                lineStart = i + 1;
+            }
+        }
+        return position + lineStart;
+    }
+
+    // Отмечает записи до offset как доставленные; полностью доставленный лог усекается
+    public synchronized void acknowledge(long offset, int rows) throws IOException {
+        pending -= rows;
+        if (offset >= log.size()) {
+            log.truncate(0);
+            log.force(true);
+            offset = 0;
+        }
+        ackedOffset = offset;
+        ack.write(ByteBuffer.allocate(8).putLong(0, offset), 0);
+        ack.force(false);
+    }
+
+    public synchronized int pendingCount() {
+        return pending;
+    }
+
+    public synchronized void close() throws IOException {
+        log.close();
+        ack.close();
+    }
+
+    // Недописанная при сбое последняя строка отбрасывается: до fsync заявка не подтверждалась
+    private void truncateTornTail() throws IOException {
+        long size = log.size();
+        ByteBuffer one = ByteBuffer.allocate(1);
+        long end = size;
+        while (end > 0) {
+            one.clear();
+            log.read(one, end - 1);
+            if (one.get(0) == '\n') {
+                break;
+            }
+            end--;
+        }
+        if (end < size) {
+            log.truncate(end);
+        }
+    }
+
+    private int countLines(long from, long to) throws IOException {
+        int lines = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        for (long position = from; position < to; ) {
+            buffer.clear();
+            int read = log.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    lines++;
+                }
+            }
+            position += read;
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,229 @@
+package com.example;
+
+import com.google.api.services.sheets.v4.model.ValueRange;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Асинхронная пересылка заявок из локального outbox в Google Sheets.
+// Заявка сначала сбрасывается в outbox (submit), затем фоновый поток отправляет
+// накопленные строки одним append на несколько строк — по заполнению пачки или
+// по истечении времени ожидания — и подтверждает смещение в outbox.
+// Частота запросов ограничена квотой записи Sheets в минуту; при ошибках Sheets
+// пересылка идёт через CircuitBreaker с экспоненциальной паузой, ничего не теряя.
+// После перезапуска пересылка продолжается с последнего подтверждённого смещения.
+// Столбец G строки — ключ заявки (KEY_PREFIX...). После неудачного append и после перезапуска
+// с неподтверждёнными строками запрос мог дойти до Sheets без ответа, поэтому перед следующим
+// append читаются столбцы ключа G:H и уже записанные строки пропускаются.
+public class LeadWriter {
+    public static final String KEY_PREFIX = "lead:";
+    // Ключ стоит в G; у строк промежуточного формата (статус перед ключом) — в H.
+    // Имя, контакт и комментарий левее вводит пользователь, поэтому ключ ищется только здесь
+    private static final int KEY_COLUMN = 6;
+    private static final String KEY_RANGE = "G:H";
+
+    private final GoogleSheetsService sheetsService;
+    private final String spreadsheetId;
+    private final LeadOutbox outbox;
+    private final CircuitBreaker breaker;
+    private final int maxBatch;
+    private final long lingerMillis;
+    // Минимальный интервал между запросами append, вытекающий из квоты
+    private final long minIntervalMillis;
+    private final Thread forwarder;
+    private final Metrics.Histogram appendLatency;
+    private final Metrics.Counter appendErrors;
+    private volatile boolean running = true;
+    private long lastAppendAt;
+    // Время появления самой старой неотправленной строки
+    private long oldestPendingAt;
+    // Перед следующим append сверить ключи с таблицей
+    private boolean verifyNext;
+
+    public LeadWriter(GoogleSheetsService sheetsService, String spreadsheetId, LeadOutbox outbox,
+                      int maxBatch, long lingerMillis, int writesPerMinute, Metrics metrics) {
+        this.sheetsService = sheetsService;
+        this.spreadsheetId = spreadsheetId;
+        this.outbox = outbox;
+        this.breaker = new CircuitBreaker(3, 1000, 300000);
+        this.maxBatch = maxBatch;
+        this.lingerMillis = lingerMillis;
+        this.minIntervalMillis = 60000L / writesPerMinute;
+        this.appendLatency = metrics.histogram("bot_sheets_append_seconds", "Длительность append в Google Sheets");
+        this.appendErrors = metrics.counter("bot_sheets_append_errors_total", "Неудачные append в Google Sheets");
+        metrics.gauge("bot_leads_pending", "Заявки в outbox, ещё не подтверждённые Sheets", this::queueDepth);
+        metrics.gauge("bot_sheets_breaker_open", "1 — CircuitBreaker Sheets не пропускает запросы",
+                () -> breaker.getState() == CircuitBreaker.State.CLOSED ? 0 : 1);
+        this.verifyNext = outbox.pendingCount() > 0;
+        this.forwarder = new Thread(this::runForwarder, "lead-writer");
+        this.forwarder.setDaemon(true);
+        this.forwarder.start();
+    }
+
+    // Сохраняет строку в outbox с fsync; после возврата заявка не потеряется
+    public void submit(List<Object> row) throws IOException {
+        outbox.append(row);
+        synchronized (this) {
+            if (oldestPendingAt == 0) {
+                oldestPendingAt = System.currentTimeMillis();
+            }
+            notifyAll();
+        }
+    }
+
+    // Число заявок, ещё не подтверждённых Google Sheets
+    public int queueDepth() {
+        return outbox.pendingCount();
+    }
+
+    public CircuitBreaker.State breakerState() {
+        return breaker.getState();
+    }
+
+    public void shutdown() {
+        running = false;
+        synchronized (this) {
+            notifyAll();
+        }
+        try {
+            forwarder.join(10000);
+            outbox.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            Log.error("lead.shutdown", e);
+        }
+    }
+
+    private void runForwarder() {
+        List<List<Object>> batch = new ArrayList<>(maxBatch);
+        while (running) {
+            try {
+                if (!awaitBatch()) {
+                    continue;
+                }
+                batch.clear();
+                long endOffset = outbox.readPending(maxBatch, batch);
+                if (batch.isEmpty()) {
+                    resetLinger();
+                    continue;
+                }
+                List<List<Object>> rows = verifyNext ? withoutWritten(batch) : batch;
+                if (rows == null) {
+                    breaker.onFailure(System.currentTimeMillis());
+                } else if (rows.isEmpty() || append(rows)) {
+                    outbox.acknowledge(endOffset, batch.size());
+                    verifyNext = false;
+                    breaker.onSuccess();
+                    resetLinger();
+                } else {
+                    verifyNext = true;
+                    breaker.onFailure(System.currentTimeMillis());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                Log.error("lead.forward", e);
+                breaker.onFailure(System.currentTimeMillis());
+            }
+        }
+    }
+
+    // Ждёт, пока пачка готова к отправке: полная пачка или истёк linger,
+    // цепь к Sheets замкнута и квота позволяет новый запрос
+    private synchronized boolean awaitBatch() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        int pending = outbox.pendingCount();
+        if (pending == 0) {
+            wait(1000);
+            return false;
+        }
+        if (oldestPendingAt == 0) {
+            // Строки остались в outbox с прошлого запуска
+            oldestPendingAt = now - lingerMillis;
+        }
+        long wait = Math.max(breaker.delayMillis(now), lastAppendAt + minIntervalMillis - now);
+        if (pending < maxBatch) {
+            wait = Math.max(wait, oldestPendingAt + lingerMillis - now);
+        }
+        if (wait > 0) {
+            wait(wait);
+            return false;
+        }
+        return running;
+    }
+
+    // Оставшиеся строки уже отстояли своё ожидание и уходят в следующий слот квоты
+    private synchronized void resetLinger() {
+        oldestPendingAt = outbox.pendingCount() > 0 ? System.currentTimeMillis() - lingerMillis : 0;
+    }
+
+    // Строки пачки, ключей которых ещё нет в таблице; null — таблицу прочитать не удалось.
+    // Столбцы ключа читаются целиком, но только после сбоя, а не на каждый append
+    private List<List<Object>> withoutWritten(List<List<Object>> batch) {
+        Set<String> written = new HashSet<>();
+        try {
+            List<List<Object>> values = sheetsService.getSheetsService().spreadsheets().values()
+                    .get(spreadsheetId, KEY_RANGE)
+                    .execute()
+                    .getValues();
+            if (values != null) {
+                for (List<Object> cells : values) {
+                    String key = keyAt(cells, 0);
+                    if (key != null) {
+                        written.add(key);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            appendErrors.inc();
+            Log.error("sheets.verify", e);
+            return null;
+        }
+        List<List<Object>> rows = new ArrayList<>(batch.size());
+        for (List<Object> row : batch) {
+            // Заодно отсеивается повтор внутри самой пачки
+            String key = keyAt(row, KEY_COLUMN);
+            if (key == null || written.add(key)) {
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    // Ключ из столбца G (cells.get(first)) или, для промежуточного формата, из H; null — ключа нет
+    private static String keyAt(List<Object> cells, int first) {
+        for (int i = first; i < Math.min(cells.size(), first + 2); i++) {
+            String text = String.valueOf(cells.get(i));
+            if (text.startsWith(KEY_PREFIX)) {
+                return text;
+            }
+        }
+        return null;
+    }
+
+    private boolean append(List<List<Object>> batch) {
+        synchronized (this) {
+            lastAppendAt = System.currentTimeMillis();
+        }
+        long started = System.nanoTime();
+        try {
+            ValueRange body = new ValueRange().setValues(new ArrayList<>(batch));
+            sheetsService.getSheetsService().spreadsheets().values()
+                    .append(spreadsheetId, "A1", body)
+                    .setValueInputOption("RAW")
+                    .execute();
+            appendLatency.observeSince(started);
+            return true;
+        } catch (Exception e) {
+            appendLatency.observeSince(started);
+            appendErrors.inc();
+            Log.error("sheets.append", e);
+            return false;
+        }
+    }
+}
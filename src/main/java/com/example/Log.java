@@ -0,0 +1,324 @@
+package com.example;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Асинхронный структурированный журнал бота: одна JSON-строка на запись.
+// Потоки бота только заполняют заранее созданную запись в кольце (без блокировок и без
+// выделения памяти под саму запись) и сразу возвращаются; форматирует и пишет один поток
+// log-writer, пачками и через буфер. При переполнении кольца запись отбрасывается и
+// учитывается в droppedCount — журнал никогда не задерживает обработку.
+// Одинаковые исключения (класс и место) выводятся со стеком не чаще раза в минуту,
+// остальные — одной строкой, а при следующем полном стеке — сколько было пропущено.
+// Вывод — stdout или файл с ротацией по размеру (configure).
+public final class Log {
+    public enum Level { INFO, WARN, ERROR }
+
+    private static final int CAPACITY = 8192;
+    private static final int MASK = CAPACITY - 1;
+    private static final long STACK_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    // Сколько разных исключений помнить для ограничения стеков
+    private static final int MAX_SIGNATURES = 1024;
+
+    // Запись в кольце; поля пишет поток, занявший слот, и публикует её номером в published
+    private static final class Event {
+        Level level;
+        long time;
+        String thread;
+        String operation;
+        long chatId;
+        String updateType;
+        String message;
+        Throwable error;
+    }
+
+    private static final class StackState {
+        long printedAt;
+        int suppressed;
+    }
+
+    // Контекст потока: чат и тип события, которое он сейчас обрабатывает
+    private static final class Context {
+        long chatId;
+        String updateType;
+    }
+
+    private static final Event[] RING = new Event[CAPACITY];
+    // Номер записи, опубликованной в слоте; слот свободен для номера n, когда читатель прошёл n - CAPACITY
+    private static final AtomicLongArray PUBLISHED = new AtomicLongArray(CAPACITY);
+    private static final AtomicLong CLAIMED = new AtomicLong();
+    private static final LongAdder DROPPED = new LongAdder();
+    private static final ThreadLocal<Context> CONTEXT = ThreadLocal.withInitial(Context::new);
+    // Следующая запись для читателя; меняет только log-writer
+    private static volatile long consumed;
+    // Вывод меняет только log-writer: новый приходит через nextOut, прежний перед этим дописывается.
+    // stdout — через System.out: в нём могут быть перехватчики (surefire), мимо которых писать нельзя
+    private static OutputStream out = stdout();
+    private static volatile OutputStream nextOut;
+    // Время записей; тесты подменяют его, чтобы проверить ограничение стеков
+    private static volatile TimeSource clock = TimeSource.SYSTEM;
+    private static volatile boolean running = true;
+    private static final Thread WRITER;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            RING[i] = new Event();
+            PUBLISHED.set(i, i - CAPACITY);
+        }
+        WRITER = new Thread(Log::runWriter, "log-writer");
+        WRITER.setDaemon(true);
+        WRITER.start();
+    }
+
+    private Log() {
+    }
+
+    // Переключает вывод на файл с ротацией: maxBytes на файл, files — сколько старых хранить
+    public static void configure(String file, long maxBytes, int files) throws IOException {
+        output(new LogFile(file, maxBytes, files));
+    }
+
+    // Переключает вывод на stream; null — обратно на stdout
+    static void output(OutputStream stream) {
+        nextOut = stream != null ? stream : stdout();
+        LockSupport.unpark(WRITER);
+    }
+
+    static void clock(TimeSource source) {
+        clock = source;
+    }
+
+    public static void info(String operation, String message) {
+        log(Level.INFO, operation, 0, message, null);
+    }
+
+    public static void warn(String operation, String message) {
+        log(Level.WARN, operation, 0, message, null);
+    }
+
+    public static void error(String operation, Throwable error) {
+        log(Level.ERROR, operation, 0, null, error);
+    }
+
+    public static void error(String operation, String message) {
+        log(Level.ERROR, operation, 0, message, null);
+    }
+
+    // Ошибка по конкретному чату вне его полосы (поток отправки, обратный вызов future)
+    public static void error(String operation, long chatId, Throwable error) {
+        log(Level.ERROR, operation, chatId, null, error);
+    }
+
+    // Все записи этого потока до clearContext получают чат и тип события
+    public static void context(long chatId, String updateType) {
+        Context context = CONTEXT.get();
+        context.chatId = chatId;
+        context.updateType = updateType;
+    }
+
+    public static void clearContext() {
+        Context context = CONTEXT.get();
+        context.chatId = 0;
+        context.updateType = null;
+    }
+
+    // Записи, не попавшие в журнал из-за переполнения кольца
+    public static long droppedCount() {
+        return DROPPED.sum();
+    }
+
+    // Дописывает накопленное и закрывает вывод (при остановке процесса)
+    public static void shutdown() {
+        running = false;
+        LockSupport.unpark(WRITER);
+        try {
+            WRITER.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void log(Level level, String operation, long chatId, String message, Throwable error) {
+        long sequence;
+        do {
+            sequence = CLAIMED.get();
+            if (sequence - consumed >= CAPACITY) {
+                DROPPED.increment();
+                return;
+            }
+        } while (!CLAIMED.compareAndSet(sequence, sequence + 1));
+
+        Event event = RING[(int) (sequence & MASK)];
+        Context context = CONTEXT.get();
+        event.level = level;
+        event.time = clock.currentTimeMillis();
+        event.thread = Thread.currentThread().getName();
+        event.operation = operation;
+        event.chatId = chatId != 0 ? chatId : context.chatId;
+        event.updateType = context.updateType;
+        event.message = message;
+        event.error = error;
+        PUBLISHED.lazySet((int) (sequence & MASK), sequence);
+    }
+
+    private static void runWriter() {
+        StringBuilder line = new StringBuilder(1024);
+        Map<String, StackState> stacks = new HashMap<>();
+        int idle = 0;
+        while (true) {
+            OutputStream replacement = nextOut;
+            if (replacement != null) {
+                flush();
+                out = replacement;
+                nextOut = null;
+            }
+            long next = consumed;
+            int slot = (int) (next & MASK);
+            if (PUBLISHED.get(slot) != next) {
+                if (!running && next == CLAIMED.get()) {
+                    break;
+                }
+                // Всё выведено: сбрасываем буфер и ждём новых записей
+                if (idle++ == 0) {
+                    flush();
+                }
+                LockSupport.parkNanos(idle < 100 ? 100_000 : 5_000_000);
+                continue;
+            }
+            idle = 0;
+            Event event = RING[slot];
+            line.setLength(0);
+            format(event, line, stacks);
+            event.message = null;
+            event.error = null;
+            consumed = next + 1;
+            write(line);
+        }
+        flush();
+        if (out instanceof LogFile) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static void format(Event event, StringBuilder line, Map<String, StackState> stacks) {
+        line.append("{\"ts\":\"").append(Instant.ofEpochMilli(event.time))
+                .append("\",\"level\":\"").append(event.level)
+                .append("\",\"thread\":");
+        quote(line, event.thread);
+        line.append(",\"op\":");
+        quote(line, event.operation);
+        if (event.chatId != 0) {
+            line.append(",\"chat\":").append(event.chatId);
+        }
+        if (event.updateType != null) {
+            line.append(",\"update\":");
+            quote(line, event.updateType);
+        }
+        if (event.message != null) {
+            line.append(",\"msg\":");
+            quote(line, event.message);
+        }
+        Throwable error = event.error;
+        if (error != null) {
+            line.append(",\"error\":");
+            quote(line, error.toString());
+            StackState state = stackState(error, stacks);
+            if (state.printedAt == 0 || event.time - state.printedAt >= STACK_INTERVAL_MILLIS) {
+                state.printedAt = event.time;
+                if (state.suppressed > 0) {
+                    line.append(",\"suppressed\":").append(state.suppressed);
+                    state.suppressed = 0;
+                }
+                StringWriter stack = new StringWriter();
+                error.printStackTrace(new PrintWriter(stack));
+                line.append(",\"stack\":");
+                quote(line, stack.toString());
+            } else {
+                state.suppressed++;
+            }
+        }
+        line.append("}\n");
+    }
+
+    // Полный стек — первый раз и затем не чаще STACK_INTERVAL_MILLIS для того же места
+    private static StackState stackState(Throwable error, Map<String, StackState> stacks) {
+        StackTraceElement[] trace = error.getStackTrace();
+        String signature = error.getClass().getName() + (trace.length > 0 ? "@" + trace[0] : "");
+        if (stacks.size() >= MAX_SIGNATURES && !stacks.containsKey(signature)) {
+            stacks.clear();
+        }
+        return stacks.computeIfAbsent(signature, s -> new StackState());
+    }
+
+    private static void quote(StringBuilder line, String value) {
+        if (value == null) {
+            line.append("null");
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    line.append("\\\"");
+                    break;
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        line.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        line.append(c);
+                    }
+            }
+        }
+        line.append('"');
+    }
+
+    private static OutputStream stdout() {
+        return new BufferedOutputStream(System.out, 1 << 16);
+    }
+
+    private static void write(StringBuilder line) {
+        try {
+            out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // Журналу некуда сообщить о собственной ошибке, кроме stderr
+            e.printStackTrace();
+        }
+    }
+
+    private static void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
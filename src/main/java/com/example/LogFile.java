@@ -0,0 +1,80 @@
+package com.example;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Файл журнала с ротацией по размеру: bot.log -> bot.log.1 -> ... -> bot.log.<files>,
+// самый старый удаляется. Log пишет строку целиком за один вызов, поэтому файл
+// переключается только между строками. Используется одним потоком log-writer.
+class LogFile extends OutputStream {
+    private final Path path;
+    private final long maxBytes;
+    private final int files;
+    private OutputStream out;
+    private long size;
+
+    LogFile(String file, long maxBytes, int files) throws IOException {
+        this.path = Paths.get(file).toAbsolutePath();
+        this.maxBytes = maxBytes;
+        this.files = files;
+        Files.createDirectories(path.getParent());
+        open();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (size > 0 && size + length > maxBytes) {
+            rotate();
+        }
+        out.write(bytes, offset, length);
+        size += length;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void open() throws IOException {
+        out = new BufferedOutputStream(Files.newOutputStream(path,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND), 1 << 16);
+        size = Files.size(path);
+    }
+
+    private void rotate() throws IOException {
+        out.close();
+        Files.deleteIfExists(numbered(files));
+        for (int i = files - 1; i >= 1; i--) {
+            Path older = numbered(i);
+            if (Files.exists(older)) {
+                Files.move(older, numbered(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (files > 0) {
+            Files.move(path, numbered(1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(path);
+        }
+        open();
+    }
+
+    private Path numbered(int index) {
+        return path.resolveSibling(path.getFileName() + "." + index);
+    }
+}
@@ -1,31 +1,155 @@
 package com.example;
 
 import org.telegram.telegrambots.meta.TelegramBotsApi;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
 
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
 public class Main {
+    private static final String WEBHOOK_PATH = "/telegram";
+
     public static void main(String[] args) {
+        configureLog();
+
+        // BOT_MODE=simulation — прогон воронки на виртуальных часах без Telegram и Sheets
+        if ("simulation".equalsIgnoreCase(System.getenv("BOT_MODE"))) {
+            simulate();
+            return;
+        }
+
         // Чтение переменных окружения
         String botToken = System.getenv("BOT_TOKEN");
         String botUsername = System.getenv("BOT_USERNAME");
 
         // Проверка на пустые значения
         if (botToken == null || botToken.isEmpty()) {
-            System.err.println("❌ Ошибка: BOT_TOKEN не задан!");
+            Log.error("startup", "BOT_TOKEN не задан");
+            Log.shutdown();
             System.exit(1);
         }
         if (botUsername == null || botUsername.isEmpty()) {
-            System.err.println("❌ Ошибка: BOT_USERNAME не задан!");
+            Log.error("startup", "BOT_USERNAME не задан");
+            Log.shutdown();
             System.exit(1);
         }
 
+        // BOT_MODE=webhook — приём обновлений через встроенный HTTP-сервер, иначе long polling
+        boolean webhook = "webhook".equalsIgnoreCase(System.getenv("BOT_MODE"));
+        try {
+            SalesAnalyticsBot bot = new SalesAnalyticsBot(botToken, botUsername);
+            startMetrics(bot);
+            if (webhook) {
+                WebhookServer server = startWebhook(bot);
+                bot.getMetrics().gauge("bot_webhook_queue_depth", "Обновления, принятые вебхуком и ещё не переданные боту",
+                        server::queueDepth);
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    server.shutdown();
+                    bot.onClosing();
+                    Log.shutdown();
+                }));
+            } else {
+                TelegramBotsApi botsApi = new TelegramBotsApi(DefaultBotSession.class);
+                // При регистрации библиотека снимает вебхук, если он был установлен
+                botsApi.registerBot(bot);
+                // Сбрасываем журнал сессий на диск при остановке процесса
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    bot.onClosing();
+                    Log.shutdown();
+                }));
+            }
+            Log.info("startup", "Бот запущен" + (webhook ? " (webhook)" : ""));
+        } catch (TelegramApiException | IOException e) {
+            Log.error("startup", e);
+        }
+    }
+
+    // LOG_FILE — JSON-журнал в файл с ротацией: LOG_MAX_MB на файл, LOG_FILES старых файлов.
+    // Без него журнал идёт в stdout
+    private static void configureLog() {
+        String file = System.getenv("LOG_FILE");
+        if (file == null || file.isEmpty()) {
+            return;
+        }
+        try {
+            Log.configure(file,
+                    Long.parseLong(System.getenv().getOrDefault("LOG_MAX_MB", "50")) * 1024 * 1024,
+                    Integer.parseInt(System.getenv().getOrDefault("LOG_FILES", "5")));
+        } catch (IOException e) {
+            Log.error("log.configure", e);
+        }
+    }
+
+    // SIMULATION_USERS — пользователей, SIMULATION_DAYS — суток виртуального времени,
+    // SIMULATION_SEED — seed случайности; SIMULATION_CLICK и SIMULATION_ANSWER — доля сообщений
+    // с кнопками и шагов формы, на которые пользователь отвечает, SIMULATION_REACTION_MINUTES
+    // и SIMULATION_ANSWER_MINUTES — средняя задержка ответа. Воронка — из FUNNEL_CONFIG, как в работе
+    private static void simulate() {
+        FollowUpSimulation simulation = new FollowUpSimulation(
+                Integer.parseInt(System.getenv().getOrDefault("SIMULATION_USERS", "100000")),
+                Integer.parseInt(System.getenv().getOrDefault("SIMULATION_DAYS", "3")),
+                Long.parseLong(System.getenv().getOrDefault("SIMULATION_SEED", "1")),
+                Double.parseDouble(System.getenv().getOrDefault("SIMULATION_CLICK", "0.4")),
+                Double.parseDouble(System.getenv().getOrDefault("SIMULATION_ANSWER", "0.8")),
+                TimeUnit.MINUTES.toMillis(Long.parseLong(System.getenv().getOrDefault("SIMULATION_REACTION_MINUTES", "30"))),
+                TimeUnit.MINUTES.toMillis(Long.parseLong(System.getenv().getOrDefault("SIMULATION_ANSWER_MINUTES", "2"))));
         try {
-            TelegramBotsApi botsApi = new TelegramBotsApi(DefaultBotSession.class);
-            botsApi.registerBot(new SalesAnalyticsBot(botToken, botUsername));
-            System.out.println("🤖 Бот запущен!");
-        } catch (TelegramApiException e) {
-            e.printStackTrace();
+            // Отчёт — результат прогона, а не запись журнала
+            System.out.print(simulation.run());
+        } catch (IOException e) {
+            Log.error("simulation", e);
+        }
+        Log.shutdown();
+        // Потоки бота (журнал сессий, воронка) не держат процесс после отчёта
+        System.exit(0);
+    }
+
+    // METRICS_PORT — порт /metrics для Prometheus и /funnel?window=<минут> с отчётом воронки
+    // (без него сервер не запускается), METRICS_HOST — адрес, по умолчанию только локальный
+    private static void startMetrics(SalesAnalyticsBot bot) throws IOException {
+        String port = System.getenv("METRICS_PORT");
+        if (port == null || port.isEmpty()) {
+            return;
+        }
+        MetricsServer server = new MetricsServer(bot.getMetrics(),
+                System.getenv().getOrDefault("METRICS_HOST", "127.0.0.1"), Integer.parseInt(port));
+        server.addText("/funnel", query -> {
+            int window = 60;
+            if (query != null && query.startsWith("window=")) {
+                try {
+                    window = Integer.parseInt(query.substring("window=".length()));
+                } catch (NumberFormatException e) {
+                    // Неверное окно — отчёт за час по умолчанию
+                }
+            }
+            return bot.funnelReport(window);
+        });
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::shutdown));
+    }
+
+    // WEBHOOK_PORT — порт сервера, WEBHOOK_SECRET — секрет из заголовка Telegram,
+    // WEBHOOK_URL — публичный адрес; без него вебхук в Telegram не регистрируется
+    // (например, когда обновления присылает локальный стенд)
+    private static WebhookServer startWebhook(SalesAnalyticsBot bot) throws IOException, TelegramApiException {
+        int port = Integer.parseInt(System.getenv().getOrDefault("WEBHOOK_PORT", "8443"));
+        int queueCapacity = Integer.parseInt(System.getenv().getOrDefault("WEBHOOK_QUEUE", "10000"));
+        String secret = System.getenv("WEBHOOK_SECRET");
+        if (secret != null && secret.isEmpty()) {
+            secret = null;
+        }
+        WebhookServer server = new WebhookServer(bot::onUpdateReceived, port, WEBHOOK_PATH, secret, queueCapacity, 4);
+        server.start();
+
+        String publicUrl = System.getenv("WEBHOOK_URL");
+        if (publicUrl != null && !publicUrl.isEmpty()) {
+            SetWebhook setWebhook = new SetWebhook(publicUrl.replaceAll("/+$", "") + WEBHOOK_PATH);
+            setWebhook.setAllowedUpdates(SalesAnalyticsBot.ALLOWED_UPDATES);
+            setWebhook.setSecretToken(secret);
+            bot.execute(setWebhook);
         }
+        return server;
     }
 }
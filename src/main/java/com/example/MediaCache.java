@@ -0,0 +1,128 @@
+package com.example;
+
+import org.telegram.telegrambots.meta.api.objects.InputFile;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.PhotoSize;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Кеш file_id картинок из ресурсов /img.
+// После первой загрузки Telegram возвращает file_id, и дальше картинка
+// отправляется по нему, без повторной загрузки байтов. Кеш сохраняется
+// в properties-файл и переживает перезапуск.
+// Пока file_id нет, байты картинки читаются из ресурсов один раз и хранятся в памяти (картинки небольшие).
+public class MediaCache {
+    private final Path file;
+    private final Map<String, String> fileIds = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> contents = new ConcurrentHashMap<>();
+
+    public MediaCache(Path file) {
+        this.file = file;
+        if (Files.exists(file)) {
+            Properties stored = new Properties();
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                stored.load(reader);
+                for (String resource : stored.stringPropertyNames()) {
+                    fileIds.put(resource, stored.getProperty(resource));
+                }
+            } catch (IOException e) {
+                Log.error("media.load", e);
+            }
+        }
+    }
+
+    public boolean isCached(String resource) {
+        return fileIds.containsKey(resource);
+    }
+
+    // InputFile по file_id, если картинка уже загружалась; иначе байты из ресурсов.
+    // null — ресурса нет в сборке.
+    public InputFile photo(String resource) {
+        String fileId = fileIds.get(resource);
+        if (fileId != null) {
+            return new InputFile(fileId);
+        }
+        byte[] content = contents.get(resource);
+        if (content == null) {
+            content = read(resource);
+            if (content == null) {
+                return null;
+            }
+            contents.putIfAbsent(resource, content);
+        }
+        return new InputFile(new ByteArrayInputStream(content), resource.substring(resource.lastIndexOf('/') + 1));
+    }
+
+    // Запоминает file_id самой большой версии фото из ответа Telegram
+    public void remember(String resource, Message sent) {
+        if (sent == null || !sent.hasPhoto()) {
+            return;
+        }
+        List<PhotoSize> sizes = sent.getPhoto();
+        PhotoSize largest = sizes.stream()
+                .max(Comparator.comparing(size -> size.getFileSize() == null ? 0 : size.getFileSize()))
+                .orElse(null);
+        if (largest != null && !largest.getFileId().equals(fileIds.put(resource, largest.getFileId()))) {
+            // Дальше картинка идёт по file_id; байты понадобятся снова только после invalidate
+            contents.remove(resource);
+            save();
+        }
+    }
+
+    public void invalidate(String resource) {
+        if (fileIds.remove(resource) != null) {
+            save();
+        }
+    }
+
+    // Ответ Telegram на устаревший или чужой file_id
+    public static boolean isStaleFileId(TelegramApiException e) {
+        if (!(e instanceof TelegramApiRequestException)) {
+            return false;
+        }
+        TelegramApiRequestException request = (TelegramApiRequestException) e;
+        String response = request.getApiResponse();
+        return Integer.valueOf(400).equals(request.getErrorCode())
+                && response != null && response.toLowerCase().contains("file");
+    }
+
+    private static byte[] read(String resource) {
+        try (InputStream stream = MediaCache.class.getResourceAsStream(resource)) {
+            return stream == null ? null : stream.readAllBytes();
+        } catch (IOException e) {
+            Log.error("media.read", e);
+            return null;
+        }
+    }
+
+    private synchronized void save() {
+        Properties stored = new Properties();
+        stored.putAll(fileIds);
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path tmp = parent.resolve(file.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                stored.store(writer, "Telegram file_id для картинок из ресурсов");
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Log.error("media.save", e);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example;
+
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.methods.send.SendPhoto;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Неизменяемый шаблон сообщения: текст, режим разметки и общая на всех клавиатура.
+// Разметка проверяется при создании, так что ошибка в HTML видна при старте бота,
+// а не в ответе Telegram пользователю.
+public final class MessageTemplate {
+    private static final int MAX_TEXT_LENGTH = 4096;
+    private static final int MAX_CAPTION_LENGTH = 1024;
+    private static final Set<String> ALLOWED_TAGS = new HashSet<>(Arrays.asList(
+            "b", "strong", "i", "em", "u", "ins", "s", "strike", "del", "a", "code", "pre", "tg-spoiler"));
+    private static final Pattern TAG = Pattern.compile("<(/?)([a-z-]+)(\\s[^<>]*)?>");
+    private static final Pattern ENTITY = Pattern.compile("&(#\\d+|#x[0-9a-fA-F]+|lt|gt|amp|quot);");
+
+    private final String id;
+    private final String text;
+    private final boolean html;
+    private final boolean disableWebPagePreview;
+    private final InlineKeyboardMarkup keyboard;
+
+    // caption — шаблон используется как подпись к фото (лимит 1024 символа)
+    public MessageTemplate(String id, String text, boolean html, boolean disableWebPagePreview,
+                           InlineKeyboardMarkup keyboard, boolean caption) {
+        this.id = id;
+        this.text = text;
+        this.html = html;
+        this.disableWebPagePreview = disableWebPagePreview;
+        this.keyboard = keyboard;
+
+        int visibleLength = html ? validateHtml(id, text) : text.length();
+        int limit = caption ? MAX_CAPTION_LENGTH : MAX_TEXT_LENGTH;
+        if (visibleLength > limit) {
+            throw new IllegalStateException("Шаблон " + id + " длиннее " + limit + " символов: " + visibleLength);
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public InlineKeyboardMarkup getKeyboard() {
+        return keyboard;
+    }
+
+    public SendMessage message(String chatId) {
+        SendMessage message = new SendMessage(chatId, text);
+        if (html) {
+            message.setParseMode("HTML");
+        }
+        if (disableWebPagePreview) {
+            message.setDisableWebPagePreview(true);
+        }
+        message.setReplyMarkup(keyboard);
+        return message;
+    }
+
+    // Фото с текстом шаблона в подписи; саму картинку задаёт вызывающий
+    public SendPhoto photo(String chatId) {
+        SendPhoto photo = new SendPhoto();
+        photo.setChatId(chatId);
+        photo.setCaption(text);
+        if (html) {
+            photo.setParseMode("HTML");
+        }
+        photo.setReplyMarkup(keyboard);
+        return photo;
+    }
+
+    // Проверяет, что теги из списка Telegram корректно вложены, а '<' и '&'
+    // встречаются только в тегах и сущностях. Возвращает длину видимого текста.
+    private static int validateHtml(String id, String text) {
+        Deque<String> open = new ArrayDeque<>();
+        Matcher tag = TAG.matcher(text);
+        int visible = 0;
+        int position = 0;
+        while (position < text.length()) {
+            char c = text.charAt(position);
+            if (c == '<') {
+                if (!tag.find(position) || tag.start() != position) {
+                    throw new IllegalStateException("Шаблон " + id + ": неэкранированный '<' в позиции " + position);
+                }
+                String name = tag.group(2);
+                if (!ALLOWED_TAGS.contains(name)) {
+                    throw new IllegalStateException("Шаблон " + id + ": тег <" + name + "> не поддерживается Telegram");
+                }
+                if (tag.group(1).isEmpty()) {
+                    open.push(name);
+                } else if (!name.equals(open.poll())) {
+                    throw new IllegalStateException("Шаблон " + id + ": непарный закрывающий тег </" + name + ">");
+                }
+                position = tag.end();
+            } else if (c == '&') {
+                Matcher entity = ENTITY.matcher(text).region(position, text.length());
+                if (!entity.lookingAt()) {
+                    throw new IllegalStateException("Шаблон " + id + ": неэкранированный '&' в позиции " + position);
+                }
+                visible++;
+                position = entity.end();
+            } else if (c == '>') {
+                throw new IllegalStateException("Шаблон " + id + ": неэкранированный '>' в позиции " + position);
+            } else {
+                visible++;
+                position++;
+            }
+        }
+        if (!open.isEmpty()) {
+            throw new IllegalStateException("Шаблон " + id + ": не закрыт тег <" + open.peek() + ">");
+        }
+        return visible;
+    }
+}
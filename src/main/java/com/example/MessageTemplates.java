@@ -0,0 +1,236 @@
+package com.example;
+
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+// Реестр всех сообщений бота.
+// Тексты и клавиатуры собираются один раз при старте в неизменяемые объекты и
+// разделяются всеми отправками; на каждую отправку создаётся только сам запрос.
+public class MessageTemplates {
+    public static final String WELCOME = "welcome";
+    public static final String WELCOME_FALLBACK = "welcome_fallback";
+    public static final String VIDEO = "video";
+    public static final String VIDEO_ERROR = "video_error";
+    public static final String VIDEO_FOLLOW_UP = "video_follow_up";
+    public static final String VIDEO_CASE_CAPTION = "video_case_caption";
+    public static final String VIDEO_CASE = "video_case";
+    public static final String PRESENTATION = "presentation";
+    public static final String PRESENTATION_ERROR = "presentation_error";
+    public static final String PRESENTATION_CASE_CAPTION = "presentation_case_caption";
+    public static final String PRESENTATION_CASE = "presentation_case";
+    public static final String CONSULTATION_INTRO = "consultation_intro";
+    public static final String CALCULATION_INTRO = "calculation_intro";
+    public static final String AUDIT_CONFIRMATION = "audit_confirmation";
+    public static final String ASK_NAME = "ask_name";
+    public static final String ASK_CONTACT = "ask_contact";
+    public static final String ASK_COMMENT = "ask_comment";
+    public static final String CONFIRMATION = "confirmation";
+    public static final String SAVE_ERROR = "save_error";
+    public static final String DEFAULT_RESPONSE = "default_response";
+    public static final String FOLLOW_UP = "follow_up";
+    public static final String CASE = "case";
+
+    private final Map<String, MessageTemplate> templates = new HashMap<>();
+    // Переводит имя действия кнопки в callback_data
+    private final UnaryOperator<String> callbackEncoder;
+
+    public MessageTemplates() {
+        this(UnaryOperator.identity());
+    }
+
+    public MessageTemplates(UnaryOperator<String> callbackEncoder) {
+        this.callbackEncoder = callbackEncoder;
+
+        // Приветствие: фото с подписью или, если фото не отправилось, короткий текст с той же клавиатурой
+        InlineKeyboardMarkup welcomeKeyboard = keyboard(
+                button("Получить видео", "get_video"),
+                button("Получить презентацию (PDF файл)", "get_presentation"));
+        caption(WELCOME, "👋 Добро пожаловать в MirAl — это бот, который поможет вам увидеть, " +
+                "<b>что на самом деле происходит в вашем отделе продаж.</b>\n\n" +
+                "Здесь вы получите:\n" +
+                "✔️ Короткое видео от основателя проекта\n" +
+                "✔️ Презентацию с кейсами и расчётами\n" +
+                "✔️ Возможность оставить заявку на расчёт или бесплатную консультацию\n\n" +
+                "<b>Что такое MirAl?</b>\n" +
+                "Это Telegram-бот с ИИ-аналитикой звонков. Он за секунды показывает, кто из менеджеров продаёт, " +
+                "а кто просто разговаривает. Вы будете получать отчёты после каждого звонка, " +
+                "без прослушек и субъективных разборов.\n\n" +
+                "<b>Почему этому стоит доверять:</b>\n" +
+                "Валерий Елизаров — серийный предприниматель, который сам прошёл путь: " +
+                "от отдела с хаосом до выручки 500+ млн в год. Он создал MirAl не как проект \"в стол\", " +
+                "а чтобы решить собственную проблему — контролировать отдел без потерь времени и нервов.\n\n" +
+                "👇 Выберите, с чего начать:", welcomeKeyboard);
+        add(new MessageTemplate(WELCOME_FALLBACK, "Добро пожаловать! Используйте кнопки ниже для начала работы.",
+                false, false, welcomeKeyboard, false));
+
+        // Видео и follow-up после него
+        add(new MessageTemplate(VIDEO, "Отлично! Вот короткое видео — 5 минут вашего времени, но в нем самое важное:\n\n" +
+                "📌 с какой проблемой сталкиваются 90% отделов продаж\n" +
+                "📌 как ИИ решает это за 2 минуты вместо 2 часов\n" +
+                "📌 и почему выручка начинает расти уже в первый месяц\n\n" +
+                "🎥 <a href=\"https://drive.google.com/file/d/1Jdwu72HyOHrAM-KvTXRGWyzoPdkxXcZI/view?usp=drive_link\">Посмотреть видео</a>", true, true, null, false));
+        plain(VIDEO_ERROR, "Произошла ошибка при отправке видео. Пожалуйста, попробуйте позже.");
+        html(VIDEO_FOLLOW_UP, "Вы только что посмотрели, как можно получить полный контроль над звонками —\n" +
+                "<b>без прослушек</b>, без найма контролёров, без догадок.\n" +
+                "<b>MirAl — это не обещание, это цифры и результат</b>.\n" +
+                "Вы увидели, как он находит “слабые звенья”, экономит до 300 000 ₽ в месяц и даёт вам полный контроль над тем, что происходит в отделе продаж.\n\n" +
+                "📊 А теперь — выбирайте, какой следующий шаг вам ближе:", keyboard(
+                button("Хочу консультацию", "video_want_consultation"),
+                button("Хочу расчет под мой бизнес", "video_want_calculation"),
+                button("Хочу презентацию", "video_want_presentation")));
+        caption(VIDEO_CASE_CAPTION, "💸 «Мы сэкономили 240 000 ₽ за 2 недели работы с MirAl»\n", null);
+        html(VIDEO_CASE, "Владелец интернет-магазина мебели был уверен: если рекламный трафик идёт, заявки поступают, значит — дело в цене.\n" +
+                "Но выручка не росла, а затраты на аутсорс-команду продаж продолжали съедать бюджет.\n" +
+                "📉 6 менеджеров на удалёнке звонили по лидам, отчитывались в CRM, обещали результат.\n" +
+                "А по факту — клиенты “думали”, “уточняли у мужа”, “вернёмся позже”.\n\n" +
+                "После подключения MirAl картина стала резко ясной:\n" +
+                "— 4 менеджера <b>не задавали ни одного уточняющего вопроса</b>\n" +
+                "— в 60% звонков не озвучивались сроки доставки и гарантии\n" +
+                "— диалог сводился к «мы вам всё скинули на почту»\n\n" +
+                "🚫 Эти 4 сотрудника были отключены уже на второй неделе.\n" +
+                "Бизнес перестал платить за разговоры, и начал платить за результат.\n" +
+                "<b>Экономия — 240 000 ₽.</b>\n" +
+                "<b>Качество звонков выросло.</b>\n" +
+                "<b>Контроль — в Telegram, без прослушек.</b>\n\n" +
+                "📍 Хотите такую же ясность у себя? Оставляйте заявку на бесплатный аудит.", keyboard(
+                button("Нужен аудит", "video_need_audit")));
+
+        // Презентация и кейс после неё
+        add(new MessageTemplate(PRESENTATION, "<b>Презентация отправлена — теперь у вас есть цифры и кейсы</b>\n\n" +
+                "📎 <a href=\"https://drive.google.com/file/d/1rIHkpo766NkbGVl2F_Qp-oC5Ln7_5FR3/view?usp=drive_link\">Скачать презентацию</a>\n\n" +
+                "Вы получили главное:\n" +
+                "— <b>Как работает MirAl</b>\n" +
+                "— <b>Реальные кейсы</b> с ростом выручки до +41%\n" +
+                "— <b>Сколько можно сэкономить</b> на контроле и неэффективных менеджерах\n" +
+                "— Примеры расчётов и формата сотрудничества\n\n" +
+                "📌 Это не “красивая упаковка” — это <b>конкретные сценарии</b>, " +
+                "которые уже сработали у предпринимателей, таких же как вы.\n\n" +
+                "Теперь самое важное — адаптировать это под вашу ситуацию. Выберите следующий шаг:", true, true, keyboard(
+                button("Хочу консультацию", "want_consultation"),
+                button("Хочу расчет под свой бизнес", "want_calculation"),
+                button("Хочу видео", "get_video")), false));
+        html(PRESENTATION_ERROR, "Произошла ошибка при отправке презентации. " +
+                "Пожалуйста, свяжитесь с нами для получения материалов.", null);
+        // Короткая подпись, не превышающая 1024 символа
+        caption(PRESENTATION_CASE_CAPTION, "📈 +1,3 млн ₽ к выручке за 45 дней", null);
+        html(PRESENTATION_CASE, "Владелец компании по продаже кровельных материалов, Андрей, думал, что у него сильная команда.\n" +
+                "Звонки шли, CRM заполнялась, менеджеры отчитывались — но выручка стояла.\n" +
+                "💬 «Мы лили трафик, тратили на рекламу, а в итоге слышали “будем думать” или “перезвоните позже”.\n" +
+                "Хотя продукт конкурентный, цена хорошая, логистика выстроена». Что пошло не так?\n" +
+                "После подключения MirAl стало очевидно:\n" +
+                "— 3 менеджера <b>теряли клиента прямо в первом касании</b>\n" +
+                "— скрипты игнорировались\n" +
+                "— один менеджер даже <b>называл цену, не узнав объём и регион доставки</b>\n\n" +
+                "📊 Через 2 недели:\n" +
+                "— 3 слабых сотрудника заменены\n" +
+                "— Новички с первых дней получают обратную связь от MirAl\n" +
+                "— Руководитель перестал тратить часы на прослушку\n\n" +
+                "<b>Результат через 45 дней: +1,3 млн ₽ к выручке.</b>\n" +
+                "🔒 MirAl даёт результат быстро — но мы <b>ограничиваем количество подключений в месяц</b>, " +
+                "чтобы сохранить качество внедрения.\n" +
+                "<b>Стоимость запуска от 100 000 ₽</b>, подписка — от 3 ₽ за минуту.\n" +
+                "<b>Оплата — только после результата.</b>\n\n" +
+                "📥 Презентацию вы уже видели.\n" +
+                "Готовы обсудить расчёт и запуск под вашу задачу?", keyboard(
+                button("Хочу так же", "presentation_need_audit"),
+                button("Получить расчёт", "presentation_need_audit")));
+
+        // Формы заявки
+        html(CONSULTATION_INTRO, "Отличный выбор — чем быстрее разберёмся в вашей ситуации, тем быстрее вы начнёте экономить и зарабатывать больше.\n" +
+                "Наш менеджер <b>в ближайшее время свяжется с вами</b>, чтобы:\n" +
+                " — уточнить, <b>что именно у вас происходит сейчас</b> в отделе продаж\n" +
+                " — согласовать <b>удобное время для консультации</b>\n" +
+                " — и подготовить конкретные предложения под вашу задачу", null);
+        html(CALCULATION_INTRO, "Мы видим вашу боль — и понимаем, как важно <b>точно знать</b>, во сколько вам обойдётся внедрение MirAl и какие деньги вы сможете сэкономить уже в первый месяц.\n" +
+                "<b>Наш менеджер скоро свяжется с вами</b>, чтобы:\n" +
+                " — обсудить вашу текущую ситуацию\n" +
+                " — согласовать удобное время для расчёта\n" +
+                " — задать ключевые вопросы: сколько звонков, сколько менеджеров, какая CRM, какие боли вы хотите закрыть\n" +
+                "📞 <b>Пожалуйста, обязательно возьмите трубку</b> — от этого разговора зависит, как быстро вы получите контроль, цифры и результат.", null);
+        html(AUDIT_CONFIRMATION, "✅ Всё отлично! Мы получили ваш запрос на аудит звонков.\n\n" +
+                "Наш специалист в ближайшее время свяжется с вами, чтобы:\n" +
+                "— уточнить технические детали подключения\n" +
+                "— согласовать удобное время\n" +
+                "— объяснить, как именно пройдёт аудит и что вы получите на выходе\n\n" +
+                "📌 Пожалуйста, будьте на связи — от этого зависит, насколько быстро вы увидите " +
+                "реальные точки роста в вашем отделе продаж.\n\n" +
+                "До скорого!", null);
+        plain(ASK_NAME, "Отлично! Давайте познакомимся.\n\nПожалуйста, введите ваше имя:");
+        plain(ASK_CONTACT, "Теперь введите ваш телефон или Telegram для связи:");
+        plain(ASK_COMMENT, "Расскажите коротко о вашем бизнесе и какие задачи хотите решить:");
+        plain(CONFIRMATION, "✅ Отлично! Ваша заявка принята.\n\n" +
+                "Наш специалист свяжется с вами в течение 24 часов и поможет настроить MirAl под ваши задачи.\n\n" +
+                "А пока вы можете изучить презентацию или посмотреть видео, если ещё не успели это сделать.");
+        plain(SAVE_ERROR, "Произошла ошибка при сохранении заявки. Пожалуйста, отправьте комментарий ещё раз.");
+        plain(DEFAULT_RESPONSE, "Я не понимаю вашего сообщения. Пожалуйста, используйте команду /start " +
+                "или выберите одну из предложенных опций.");
+
+        // Follow-up через час после /start и медицинский кейс после него
+        html(FOLLOW_UP, "Вы тратите деньги на рекламу, платите зарплаты менеджерам, а клиенты всё равно \"не доходят\" до сделки?\n\n" +
+                "❌ Звонки есть — продаж нет.\n" +
+                "❌ Скрипты написаны — но не работают.\n" +
+                "❌ Руководитель слушает 5 звонков из 500 — и делает выводы \"на ощупь\".\n\n" +
+                "Всё это не про неудачу. Это про <b>отсутствие контроля</b>.\n\n" +
+                "👉 MirAl — ИИ-бот, который уже на третий день покажет, где теряются ваши деньги:\n" +
+                "— Кто из менеджеров сливает заявки\n" +
+                "— Где ломается воронка\n" +
+                "— Кто работает на результат, а кто просто \"отрабатывает смену\"\n\n" +
+                "Хотите увидеть это на примере <b>ваших звонков</b>?\n\n" +
+                "📩 Оставьте заявку на аудит — и получите чёткий разбор, без обязательств и продаж \"в лоб\".\n\n" +
+                "<b>Мест немного — работа с каждым клиентом индивидуальна.</b>", keyboard(
+                button("Хочу аудит моих звонков", "want_audit")));
+        caption(CASE, "<b>Кейс:</b> “+18% повторных визитов в медицинском центре”", keyboard(
+                button("Хочу так же", "want_same"),
+                button("Получить расчет", "want_calculation_case")));
+    }
+
+    public MessageTemplate get(String id) {
+        MessageTemplate template = templates.get(id);
+        if (template == null) {
+            throw new IllegalArgumentException("Неизвестный шаблон: " + id);
+        }
+        return template;
+    }
+
+    public Map<String, MessageTemplate> all() {
+        return Collections.unmodifiableMap(templates);
+    }
+
+    private void add(MessageTemplate template) {
+        templates.put(template.getId(), template);
+    }
+
+    private void plain(String id, String text) {
+        add(new MessageTemplate(id, text, false, false, null, false));
+    }
+
+    private void html(String id, String text, InlineKeyboardMarkup keyboard) {
+        add(new MessageTemplate(id, text, true, false, keyboard, false));
+    }
+
+    private void caption(String id, String text, InlineKeyboardMarkup keyboard) {
+        add(new MessageTemplate(id, text, true, false, keyboard, true));
+    }
+
+    // Клавиатура из кнопок, по одной в ряд
+    private static InlineKeyboardMarkup keyboard(InlineKeyboardButton... buttons) {
+        List<List<InlineKeyboardButton>> rows = new ArrayList<>(buttons.length);
+        for (InlineKeyboardButton button : buttons) {
+            rows.add(Collections.singletonList(button));
+        }
+        return new InlineKeyboardMarkup(Collections.unmodifiableList(rows));
+    }
+
+    private InlineKeyboardButton button(String text, String action) {
+        InlineKeyboardButton button = new InlineKeyboardButton(text);
+        button.setCallbackData(callbackEncoder.apply(action));
+        return button;
+    }
+}
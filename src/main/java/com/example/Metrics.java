@@ -0,0 +1,255 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+
+// Реестр метрик бота в текстовом формате Prometheus.
+// Запись идёт без блокировок: счётчики и корзины гистограмм — LongAdder, дочерние серии
+// с меткой лежат в ConcurrentHashMap и после первого обращения читаются без захвата.
+// Показатели, которые у компонентов уже есть (глубина очередей, число сессий),
+// не дублируются: они регистрируются функцией и читаются только при выгрузке.
+public class Metrics {
+    // Границы корзин задержек, секунды: от 5 мс (ответ Telegram из кеша) до 10 с (Sheets под нагрузкой)
+    private static final double[] LATENCY_BOUNDS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void inc() {
+            value.increment();
+        }
+
+        public void add(long delta) {
+            value.add(delta);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    public static final class Histogram {
+        private final long[] boundsNanos;
+        // Корзины не накопительные: наблюдение попадает ровно в одну, суммы считаются при выгрузке
+        private final LongAdder[] buckets;
+        private final LongAdder sumNanos = new LongAdder();
+
+        Histogram(double[] boundsSeconds) {
+            boundsNanos = new long[boundsSeconds.length];
+            for (int i = 0; i < boundsSeconds.length; i++) {
+                boundsNanos[i] = (long) (boundsSeconds[i] * 1e9);
+            }
+            buckets = new LongAdder[boundsSeconds.length + 1];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void observeNanos(long nanos) {
+            int i = 0;
+            while (i < boundsNanos.length && nanos > boundsNanos[i]) {
+                i++;
+            }
+            buckets[i].increment();
+            sumNanos.add(nanos);
+        }
+
+        // Наблюдение от момента startedAt (System.nanoTime) до сейчас
+        public void observeSince(long startedAt) {
+            observeNanos(System.nanoTime() - startedAt);
+        }
+    }
+
+    // Серии одной метрики с одной меткой
+    public static final class Labeled<T> {
+        private final ConcurrentMap<String, T> children = new ConcurrentHashMap<>();
+        private final Function<String, T> factory;
+
+        Labeled(Function<String, T> factory) {
+            this.factory = factory;
+        }
+
+        public T get(String labelValue) {
+            T child = children.get(labelValue);
+            return child != null ? child : children.computeIfAbsent(labelValue, factory);
+        }
+    }
+
+    private static final class Family {
+        final String name;
+        final String help;
+        final String type;
+        final String label;
+        // Ровно одно из трёх: счётчики/гистограммы с меткой или без, либо функции
+        Labeled<?> labeled;
+        Object single;
+        final Map<String, DoubleSupplier> samples = new LinkedHashMap<>();
+
+        Family(String name, String help, String type, String label) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.label = label;
+        }
+    }
+
+    // Порядок регистрации сохраняется в выгрузке; регистрация — только при старте компонентов
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    public Counter counter(String name, String help) {
+        Counter counter = new Counter();
+        register(name, help, "counter", null).single = counter;
+        return counter;
+    }
+
+    public Labeled<Counter> counters(String name, String help, String label) {
+        Labeled<Counter> counters = new Labeled<>(value -> new Counter());
+        register(name, help, "counter", label).labeled = counters;
+        return counters;
+    }
+
+    public Histogram histogram(String name, String help) {
+        Histogram histogram = new Histogram(LATENCY_BOUNDS);
+        register(name, help, "histogram", null).single = histogram;
+        return histogram;
+    }
+
+    public Labeled<Histogram> histograms(String name, String help, String label) {
+        Labeled<Histogram> histograms = new Labeled<>(value -> new Histogram(LATENCY_BOUNDS));
+        register(name, help, "histogram", label).labeled = histograms;
+        return histograms;
+    }
+
+    // Значение, которое читается при выгрузке
+    public void gauge(String name, String help, DoubleSupplier value) {
+        sampled(name, help, "gauge", null, null, value);
+    }
+
+    public void gauge(String name, String help, String label, String labelValue, DoubleSupplier value) {
+        sampled(name, help, "gauge", label, labelValue, value);
+    }
+
+    // Счётчик, который уже ведёт сам компонент
+    public void counter(String name, String help, String label, String labelValue, DoubleSupplier value) {
+        sampled(name, help, "counter", label, labelValue, value);
+    }
+
+    // Текст для Prometheus (формат 0.0.4)
+    public String scrape() {
+        List<Family> snapshot;
+        synchronized (families) {
+            snapshot = new ArrayList<>(families.values());
+        }
+        StringBuilder out = new StringBuilder(4096);
+        for (Family family : snapshot) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            if (family.single != null) {
+                writeValue(out, family.name, null, null, family.single);
+            } else if (family.labeled != null) {
+                for (Map.Entry<String, ?> child : family.labeled.children.entrySet()) {
+                    writeValue(out, family.name, family.label, child.getKey(), child.getValue());
+                }
+            } else {
+                Map<String, DoubleSupplier> samples;
+                synchronized (families) {
+                    samples = new LinkedHashMap<>(family.samples);
+                }
+                for (Map.Entry<String, DoubleSupplier> sample : samples.entrySet()) {
+                    double value;
+                    try {
+                        value = sample.getValue().getAsDouble();
+                    } catch (RuntimeException e) {
+                        // Недоступный источник (например, Redis) не должен ломать всю выгрузку
+                        continue;
+                    }
+                    out.append(family.name);
+                    labels(out, family.label, sample.getKey(), null);
+                    out.append(' ').append(format(value)).append('\n');
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private Family register(String name, String help, String type, String label) {
+        synchronized (families) {
+            if (families.containsKey(name)) {
+                throw new IllegalStateException("Метрика уже зарегистрирована: " + name);
+            }
+            Family family = new Family(name, help, type, label);
+            families.put(name, family);
+            return family;
+        }
+    }
+
+    private void sampled(String name, String help, String type, String label, String labelValue, DoubleSupplier value) {
+        synchronized (families) {
+            Family family = families.get(name);
+            if (family == null) {
+                family = new Family(name, help, type, label);
+                families.put(name, family);
+            } else if (family.single != null || family.labeled != null || !family.type.equals(type)) {
+                throw new IllegalStateException("Метрика уже зарегистрирована: " + name);
+            }
+            family.samples.put(labelValue, value);
+        }
+    }
+
+    private static void writeValue(StringBuilder out, String name, String label, String labelValue, Object metric) {
+        if (metric instanceof Counter) {
+            out.append(name);
+            labels(out, label, labelValue, null);
+            out.append(' ').append(((Counter) metric).get()).append('\n');
+            return;
+        }
+        Histogram histogram = (Histogram) metric;
+        long cumulative = 0;
+        for (int i = 0; i < histogram.buckets.length; i++) {
+            cumulative += histogram.buckets[i].sum();
+            String le = i < histogram.boundsNanos.length ? format(histogram.boundsNanos[i] / 1e9) : "+Inf";
+            out.append(name).append("_bucket");
+            labels(out, label, labelValue, le);
+            out.append(' ').append(cumulative).append('\n');
+        }
+        out.append(name).append("_sum");
+        labels(out, label, labelValue, null);
+        out.append(' ').append(format(histogram.sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1))).append('\n');
+        out.append(name).append("_count");
+        labels(out, label, labelValue, null);
+        out.append(' ').append(cumulative).append('\n');
+    }
+
+    private static void labels(StringBuilder out, String label, String labelValue, String le) {
+        if (label == null && le == null) {
+            return;
+        }
+        out.append('{');
+        if (label != null) {
+            out.append(label).append("=\"").append(escape(labelValue)).append('"');
+        }
+        if (le != null) {
+            out.append(label != null ? "," : "").append("le=\"").append(le).append('"');
+        }
+        out.append('}');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
@@ -0,0 +1,59 @@
+package com.example;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+// Небольшой HTTP-сервер для Prometheus: GET /metrics отдаёт текущую выгрузку реестра,
+// рядом — служебные текстовые страницы (отчёт воронки).
+// Один поток — опрос раз в несколько секунд не требует большего.
+public class MetricsServer {
+    private final HttpServer server;
+    private final Metrics metrics;
+
+    public MetricsServer(Metrics metrics, String host, int port) throws IOException {
+        this.metrics = metrics;
+        this.server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        server.createContext("/metrics", this::scrape);
+    }
+
+    // Дополнительная текстовая страница: handler получает строку запроса (или null)
+    public void addText(String path, Function<String, String> handler) {
+        server.createContext(path, exchange -> respond(exchange,
+                handler.apply(exchange.getRequestURI().getRawQuery()), "text/plain; charset=utf-8"));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void shutdown() {
+        server.stop(0);
+    }
+
+    private void scrape(HttpExchange exchange) throws IOException {
+        respond(exchange, metrics.scrape(), "text/plain; version=0.0.4; charset=utf-8");
+    }
+
+    private static void respond(HttpExchange exchange, String text, String contentType) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = text.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
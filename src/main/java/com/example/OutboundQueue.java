@@ -0,0 +1,465 @@
+package com.example;
+
+import org.telegram.telegrambots.meta.api.objects.ResponseParameters;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Единая очередь исходящих запросов к Telegram.
+// Общий token bucket держит лимит бота (~30 сообщений в секунду), а у каждого
+// чата свой bucket (1 в секунду с небольшим запасом). Внутри чата запросы уходят
+// строго по порядку и по одному; из готовых чатов сначала берутся те, у кого
+// первым стоит ответ пользователю, и только потом follow-up и кейсы.
+// На 429 запрос возвращается в голову очереди чата, и до retry_after ждут и этот чат, и общий
+// bucket: флуд-контроль Telegram действует на весь бот, поэтому другие чаты тоже не отправляют.
+// Без потоков отправки (симуляция) запрос выполняется сразу в вызывающем потоке и без лимитов.
+// Запрос с ключом идемпотентности, уже выполненный за последние минуты, повторно не ставится;
+// повтор запроса, который ещё в очереди, получает его future. Неудачный запрос ключ не занимает.
+public class OutboundQueue {
+    public enum Priority {
+        // Ответ на действие пользователя
+        INTERACTIVE,
+        // Follow-up, кейсы и прочие сообщения по таймеру
+        BACKGROUND
+    }
+
+    // Один запрос к Telegram; выполняется потоком отправки
+    public interface Call<T> {
+        T call() throws TelegramApiException;
+    }
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    // Чаты без очереди и с полным bucket забываются не чаще, чем раз в это время
+    private static final long SWEEP_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+    // Сколько помнить ключи идемпотентности выполненных запросов
+    private static final long IDEMPOTENCY_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final class Job<T> {
+        final Call<T> call;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final Priority priority;
+        final long enqueuedAt;
+
+        Job(Call<T> call, Priority priority, long enqueuedAt) {
+            this.call = call;
+            this.priority = priority;
+            this.enqueuedAt = enqueuedAt;
+        }
+
+        @SuppressWarnings("unchecked")
+        void complete(Object value) {
+            result.complete((T) value);
+        }
+    }
+
+    private static final class Chat {
+        final ArrayDeque<Job<?>> jobs = new ArrayDeque<>();
+        final TokenBucket bucket;
+        // Раньше этого момента чат не отправляет (лимит чата или retry_after)
+        long readyAt;
+        // Чат стоит в одной из очередей готовности или в отложенных
+        boolean queued;
+        boolean inFlight;
+
+        Chat(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+
+    // Классический token bucket на System.nanoTime
+    private static final class TokenBucket {
+        final double perNano;
+        final double capacity;
+        double tokens;
+        long updatedAt;
+
+        TokenBucket(double perSecond, double capacity, long now) {
+            this.perNano = perSecond / SECOND;
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.updatedAt = now;
+        }
+
+        void refill(long now) {
+            tokens = Math.min(capacity, tokens + (now - updatedAt) * perNano);
+            updatedAt = now;
+        }
+
+        // Сколько ждать до следующего токена, нс; 0 — токен есть
+        long waitNanos(long now) {
+            refill(now);
+            return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / perNano);
+        }
+
+        boolean isFull(long now) {
+            refill(now);
+            return tokens >= capacity;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<Long, Chat> chats = new HashMap<>();
+    private final ArrayDeque<Chat> interactiveReady = new ArrayDeque<>();
+    private final ArrayDeque<Chat> backgroundReady = new ArrayDeque<>();
+    private final PriorityQueue<Chat> delayed = new PriorityQueue<>((a, b) -> Long.compare(a.readyAt, b.readyAt));
+    private final TokenBucket global;
+    private final double chatPerSecond;
+    private final double chatBurst;
+    private final Thread[] senders;
+    private final RecentKeys completedKeys = new RecentKeys(1 << 16, IDEMPOTENCY_WINDOW_MILLIS);
+    // Ключи запросов в очереди и в отправке -> их future; меняется под lock
+    private final Map<Long, CompletableFuture<?>> pendingKeys = new HashMap<>();
+    private boolean running = true;
+    private long lastSweepAt;
+    // Раньше этого момента не отправляет никто (retry_after последнего 429)
+    private long pausedUntil;
+
+    // Статистика по приоритетам (индекс — ordinal), меняется под lock
+    private final int[] depth = new int[Priority.values().length];
+    private final long[] sent = new long[Priority.values().length];
+    private final long[] totalWaitNanos = new long[Priority.values().length];
+    private final long[] maxWaitNanos = new long[Priority.values().length];
+    private long rateLimited;
+    // Суммарное время общей паузы по 429 (пересекающиеся паузы не суммируются)
+    private long rateLimitedPauseNanos;
+
+    public OutboundQueue(int senderThreads, double globalPerSecond, double globalBurst,
+                         double chatPerSecond, double chatBurst) {
+        long now = System.nanoTime();
+        this.global = new TokenBucket(globalPerSecond, globalBurst, now);
+        this.chatPerSecond = chatPerSecond;
+        this.chatBurst = chatBurst;
+        this.lastSweepAt = now;
+        this.senders = new Thread[senderThreads];
+        for (int i = 0; i < senderThreads; i++) {
+            senders[i] = new Thread(this::runSender, "outbound-sender-" + i);
+            senders[i].setDaemon(true);
+            senders[i].start();
+        }
+    }
+
+    // Ставит запрос в очередь чата. Результат или ошибка Telegram приходят в future;
+    // после остановки очереди future сразу завершается с IllegalStateException.
+    public <T> CompletableFuture<T> submit(long chatId, Priority priority, Call<T> call) {
+        return submit(chatId, priority, 0, call);
+    }
+
+    // idempotencyKey — ключ побочного эффекта (0 — без ключа). Повтор уже выполненного запроса
+    // не отправляется, его future сразу завершается с null; повтор запроса, который ещё не завершён,
+    // получает future первого. Ключ запоминается только после успешной отправки, поэтому после
+    // ошибки (в том числе остановки очереди) повтор уходит заново.
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> submit(long chatId, Priority priority, long idempotencyKey, Call<T> call) {
+        long now = System.nanoTime();
+        Job<T> job = new Job<>(call, priority, now);
+        lock.lock();
+        try {
+            if (idempotencyKey != 0) {
+                CompletableFuture<?> pending = pendingKeys.get(idempotencyKey);
+                if (pending != null) {
+                    return (CompletableFuture<T>) pending;
+                }
+                if (completedKeys.contains(idempotencyKey, TimeUnit.NANOSECONDS.toMillis(now))) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                pendingKeys.put(idempotencyKey, job.result);
+                // Завершается под lock (поток отправки, shutdown) или сразу ниже, lock повторно входимый
+                job.result.whenComplete((value, error) -> settle(idempotencyKey, error == null));
+            }
+            if (!running) {
+                job.result.completeExceptionally(new IllegalStateException("Очередь отправки остановлена"));
+                return job.result;
+            }
+            if (senders.length == 0) {
+                sent[priority.ordinal()]++;
+                return callNow(job);
+            }
+            Chat chat = chats.get(chatId);
+            if (chat == null) {
+                chat = new Chat(new TokenBucket(chatPerSecond, chatBurst, now));
+                chats.put(chatId, chat);
+            }
+            chat.jobs.addLast(job);
+            depth[priority.ordinal()]++;
+            if (!chat.queued && !chat.inFlight) {
+                enqueue(chat, now);
+            }
+            // signalAll: на том же условии может ждать и shutdown
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        return job.result;
+    }
+
+    private void settle(long idempotencyKey, boolean succeeded) {
+        lock.lock();
+        try {
+            pendingKeys.remove(idempotencyKey);
+            if (succeeded) {
+                completedKeys.add(idempotencyKey, TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Отправка без потоков: вызов прямо под lock, поэтому запросы идут строго по одному
+    private <T> CompletableFuture<T> callNow(Job<T> job) {
+        try {
+            job.result.complete(job.call.call());
+        } catch (TelegramApiException | RuntimeException e) {
+            job.result.completeExceptionally(e);
+        }
+        return job.result;
+    }
+
+    public int queueDepth(Priority priority) {
+        lock.lock();
+        try {
+            return depth[priority.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Среднее ожидание от постановки до начала отправки, мс
+    public double averageWaitMillis(Priority priority) {
+        lock.lock();
+        try {
+            int i = priority.ordinal();
+            return sent[i] == 0 ? 0 : totalWaitNanos[i] / (double) sent[i] / 1e6;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long maxWaitMillis(Priority priority) {
+        lock.lock();
+        try {
+            return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos[priority.ordinal()]);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Попыток отправки, включая повторы после 429
+    public long sentCount(Priority priority) {
+        lock.lock();
+        try {
+            return sent[priority.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Сколько раз Telegram ответил 429
+    public long rateLimitedCount() {
+        lock.lock();
+        try {
+            return rateLimited;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Сколько всего очередь простояла на паузе по retry_after, мс
+    public long rateLimitedPauseMillis() {
+        lock.lock();
+        try {
+            return TimeUnit.NANOSECONDS.toMillis(rateLimitedPauseNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Перестаёт принимать запросы и до timeoutMillis досылает очередь; остаток завершается ошибкой
+    public void shutdown(long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lock();
+        try {
+            running = false;
+            changed.signalAll();
+            long left;
+            while (!chats.values().stream().allMatch(chat -> chat.jobs.isEmpty() && !chat.inFlight)
+                    && (left = deadline - System.nanoTime()) > 0) {
+                changed.awaitNanos(left);
+            }
+            for (Chat chat : chats.values()) {
+                for (Job<?> job : chat.jobs) {
+                    depth[job.priority.ordinal()]--;
+                    job.result.completeExceptionally(new IllegalStateException("Очередь отправки остановлена"));
+                }
+                chat.jobs.clear();
+                chat.queued = false;
+            }
+            interactiveReady.clear();
+            backgroundReady.clear();
+            delayed.clear();
+            changed.signalAll();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+        for (Thread sender : senders) {
+            sender.interrupt();
+        }
+    }
+
+    private void runSender() {
+        while (true) {
+            Job<?> job;
+            Chat chat;
+            lock.lock();
+            try {
+                chat = nextChat();
+                if (chat == null) {
+                    return;
+                }
+                job = chat.jobs.pollFirst();
+                chat.inFlight = true;
+                int i = job.priority.ordinal();
+                depth[i]--;
+                long wait = System.nanoTime() - job.enqueuedAt;
+                sent[i]++;
+                totalWaitNanos[i] += wait;
+                maxWaitNanos[i] = Math.max(maxWaitNanos[i], wait);
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            Object value = null;
+            Exception error = null;
+            try {
+                value = job.call.call();
+            } catch (Exception e) {
+                error = e;
+            }
+
+            lock.lock();
+            try {
+                chat.inFlight = false;
+                long now = System.nanoTime();
+                Integer retryAfter = retryAfterSeconds(error);
+                if (retryAfter != null && running) {
+                    // Запрос возвращается в голову очереди чата; чат и общий bucket ждут указанное Telegram время.
+                    // Ожидание повтора попадает и в статистику ожидания: enqueuedAt у запроса прежний
+                    rateLimited++;
+                    long until = now + TimeUnit.SECONDS.toNanos(retryAfter);
+                    if (until > pausedUntil) {
+                        rateLimitedPauseNanos += until - Math.max(now, pausedUntil);
+                        pausedUntil = until;
+                    }
+                    chat.jobs.addFirst(job);
+                    depth[job.priority.ordinal()]++;
+                    chat.readyAt = until;
+                    chat.queued = true;
+                    delayed.add(chat);
+                } else {
+                    if (error != null) {
+                        job.result.completeExceptionally(error);
+                    } else {
+                        job.complete(value);
+                    }
+                    if (!chat.jobs.isEmpty()) {
+                        enqueue(chat, now);
+                    }
+                }
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Ждёт чат, которому можно отправить: есть общий токен, токен чата и запрос в очереди.
+    // null — очередь остановлена и пуста.
+    private Chat nextChat() throws InterruptedException {
+        while (true) {
+            long now = System.nanoTime();
+            while (!delayed.isEmpty() && delayed.peek().readyAt <= now) {
+                Chat chat = delayed.poll();
+                chat.queued = false;
+                enqueue(chat, now);
+            }
+            sweep(now);
+            boolean ready = !interactiveReady.isEmpty() || !backgroundReady.isEmpty();
+            if (!ready) {
+                if (!running && delayed.isEmpty()) {
+                    return null;
+                }
+                if (delayed.isEmpty()) {
+                    changed.await();
+                } else {
+                    changed.awaitNanos(delayed.peek().readyAt - now);
+                }
+                continue;
+            }
+            long globalWait = Math.max(global.waitNanos(now), pausedUntil - now);
+            if (globalWait > 0) {
+                changed.awaitNanos(globalWait);
+                continue;
+            }
+            Chat chat = interactiveReady.isEmpty() ? backgroundReady.poll() : interactiveReady.poll();
+            chat.queued = false;
+            global.tokens--;
+            chat.bucket.tokens--;
+            return chat;
+        }
+    }
+
+    // В очередь готовности по приоритету первого запроса или в отложенные до токена чата
+    private void enqueue(Chat chat, long now) {
+        long wait = Math.max(chat.bucket.waitNanos(now), chat.readyAt - now);
+        chat.queued = true;
+        if (wait > 0) {
+            chat.readyAt = now + wait;
+            delayed.add(chat);
+        } else if (chat.jobs.peekFirst().priority == Priority.INTERACTIVE) {
+            interactiveReady.addLast(chat);
+        } else {
+            backgroundReady.addLast(chat);
+        }
+    }
+
+    // Забываем чаты без запросов, у которых bucket уже полон: новый чат получил бы такой же
+    private void sweep(long now) {
+        if (now - lastSweepAt < SWEEP_INTERVAL) {
+            return;
+        }
+        lastSweepAt = now;
+        Iterator<Chat> it = chats.values().iterator();
+        while (it.hasNext()) {
+            Chat chat = it.next();
+            if (chat.jobs.isEmpty() && !chat.inFlight && !chat.queued && chat.bucket.isFull(now)) {
+                it.remove();
+            }
+        }
+    }
+
+    // retry_after из ответа 429; null — другая ошибка или её нет
+    private static Integer retryAfterSeconds(Exception error) {
+        if (!(error instanceof TelegramApiRequestException)) {
+            return null;
+        }
+        TelegramApiRequestException request = (TelegramApiRequestException) error;
+        ResponseParameters parameters = request.getParameters();
+        if (!Integer.valueOf(429).equals(request.getErrorCode())) {
+            return null;
+        }
+        return parameters != null && parameters.getRetryAfter() != null ? parameters.getRetryAfter() : 1;
+    }
+}
@@ -0,0 +1,36 @@
+package com.example;
+
+import java.io.IOException;
+import java.util.Set;
+
+// Общее хранилище для разделов follow-up: аренда раздела узлом и ожидающие
+// сообщения раздела. Им пользуются все экземпляры бота через FollowUpPartitions.
+// FilePartitionStore — общий каталог (локальный запуск нескольких процессов),
+// RedisPartitionStore — Redis.
+public interface PartitionStore {
+
+    // Отмечает node живым на ttlMillis и возвращает все живые узлы (для деления разделов)
+    Set<String> heartbeat(String node, long ttlMillis) throws IOException;
+
+    // Берёт свободный или продлевает свой раздел на ttlMillis; false — раздел у другого узла
+    boolean acquire(int partition, String node, long ttlMillis) throws IOException;
+
+    // Отпускает раздел, если он ещё принадлежит node
+    void release(int partition, String node) throws IOException;
+
+    // Владелец действующей аренды; null — раздел свободен
+    String owner(int partition) throws IOException;
+
+    // Ставит или переставляет сообщение (chatId, вид) на deadline
+    void schedule(int partition, long chatId, FollowUpKind kind, long deadline) throws IOException;
+
+    // Отменяет все виды сообщений чата
+    void cancelAll(int partition, long chatId) throws IOException;
+
+    // Атомарно забирает сообщение на отправку, если его срок наступил к now.
+    // false — его отменили, перенесли на потом или уже забрал другой узел
+    boolean claim(int partition, long chatId, FollowUpKind kind, long now) throws IOException;
+
+    // Сообщения раздела со сроком не позже until
+    void forEachDue(int partition, long until, FollowUpScheduler.PendingVisitor visitor) throws IOException;
+}
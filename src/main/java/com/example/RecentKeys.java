@@ -0,0 +1,85 @@
+package com.example;
+
+// Недавно встреченные 64-битные ключи в фиксированной памяти (16 байт на слот).
+// Ячейки по 4 слота, как в cuckoo-фильтре, но без перекладывания: ключ хранится целиком,
+// поэтому ложных совпадений нет и новое событие никогда не принимается за повтор.
+// При переполнении ячейки вытесняется самый старый ключ — под нагрузкой окно может стать
+// короче заданного, и тогда повтор пропускается, а не наоборот.
+public class RecentKeys {
+    private static final int WAYS = 4;
+    // 0 помечает пустой слот
+    private static final long EMPTY = 0;
+
+    private final long[] keys;
+    private final long[] seenAt;
+    private final int bucketMask;
+    private final long windowMillis;
+
+    // capacity — число слотов (степень двойки, не меньше 4)
+    public RecentKeys(int capacity, long windowMillis) {
+        if (Integer.bitCount(capacity) != 1 || capacity < WAYS) {
+            throw new IllegalArgumentException("Ёмкость должна быть степенью двойки не меньше 4: " + capacity);
+        }
+        this.keys = new long[capacity];
+        this.seenAt = new long[capacity];
+        this.bucketMask = capacity / WAYS - 1;
+        this.windowMillis = windowMillis;
+    }
+
+    // true — ключ не встречался последние windowMillis (теперь запомнен), false — повтор
+    public synchronized boolean add(long key, long nowMillis) {
+        if (key == EMPTY) {
+            key = Long.MIN_VALUE;
+        }
+        int base = (int) (mix(key) & bucketMask) * WAYS;
+        int victim = base;
+        for (int slot = base; slot < base + WAYS; slot++) {
+            if (keys[slot] == key) {
+                if (nowMillis - seenAt[slot] < windowMillis) {
+                    return false;
+                }
+                seenAt[slot] = nowMillis;
+                return true;
+            }
+            if (keys[victim] != EMPTY && (keys[slot] == EMPTY || seenAt[slot] < seenAt[victim])) {
+                victim = slot;
+            }
+        }
+        keys[victim] = key;
+        seenAt[victim] = nowMillis;
+        return true;
+    }
+
+    // true — ключ встречался последние windowMillis; ничего не запоминает
+    public synchronized boolean contains(long key, long nowMillis) {
+        if (key == EMPTY) {
+            key = Long.MIN_VALUE;
+        }
+        int base = (int) (mix(key) & bucketMask) * WAYS;
+        for (int slot = base; slot < base + WAYS; slot++) {
+            if (keys[slot] == key) {
+                return nowMillis - seenAt[slot] < windowMillis;
+            }
+        }
+        return false;
+    }
+
+    // FNV-1a по chatId и строке: ключ события «чат нажал кнопку с такими данными»
+    public static long key(long chatId, String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < 8; i++) {
+            hash = (hash ^ ((chatId >>> (i * 8)) & 0xff)) * 0x100000001b3L;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -0,0 +1,60 @@
+package com.example;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.LongStream;
+
+// Аудитория в множестве Redis <prefix>audience: её видят все экземпляры бота.
+// Чаты, уже добавленные этим процессом, помнятся в куче, поэтому SADD уходит один раз
+// на чат за время жизни процесса, а не на каждое событие.
+public class RedisAudienceStore implements AudienceStore {
+    private final RespClient redis;
+    private final String key;
+    private final LongSet added = new LongSet();
+
+    public RedisAudienceStore(RespClient redis, String prefix) {
+        this.redis = redis;
+        this.key = prefix + "audience";
+    }
+
+    // Чат запоминается только после ответа Redis: при ошибке следующее событие повторит SADD
+    @Override
+    public boolean add(long chatId) throws IOException {
+        synchronized (this) {
+            if (added.contains(chatId)) {
+                return false;
+            }
+        }
+        Object reply = redis.call("SADD", key, chatId);
+        synchronized (this) {
+            added.add(chatId);
+        }
+        return Long.valueOf(1).equals(reply);
+    }
+
+    // SSCAN страницами: SMEMBERS на большой аудитории надолго занял бы Redis
+    @Override
+    public long[] snapshot() throws IOException {
+        LongStream.Builder chats = LongStream.builder();
+        String cursor = "0";
+        do {
+            List<?> page = (List<?>) redis.call("SSCAN", key, cursor, "COUNT", 1000);
+            cursor = RespClient.text(page.get(0));
+            for (Object member : (List<?>) page.get(1)) {
+                chats.add(Long.parseLong(RespClient.text(member)));
+            }
+        } while (!"0".equals(cursor));
+        // SSCAN может вернуть элемент дважды, если множество менялось во время обхода
+        return chats.build().distinct().toArray();
+    }
+
+    @Override
+    public long size() throws IOException {
+        return (Long) redis.call("SCARD", key);
+    }
+
+    @Override
+    public void close() {
+        redis.close();
+    }
+}
@@ -0,0 +1,121 @@
+package com.example;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+// Разделы follow-up в Redis. Аренда — ключ <prefix>lease:<раздел> со значением-узлом и PX,
+// ожидающие сообщения — сортированное множество <prefix>followups:<раздел>
+// (элемент «chatId:KIND», вес — срок). Проверка владельца и забор сообщения
+// выполняются Lua-скриптами, чтобы два узла не прошли проверку одновременно.
+public class RedisPartitionStore implements PartitionStore {
+    private static final String ACQUIRE =
+            "local owner = redis.call('get', KEYS[1]) "
+            + "if owner == false or owner == ARGV[1] then "
+            + "redis.call('set', KEYS[1], ARGV[1], 'PX', ARGV[2]) return 1 end "
+            + "return 0";
+    private static final String RELEASE =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) end "
+            + "return 0";
+    private static final String CLAIM =
+            "local deadline = redis.call('zscore', KEYS[1], ARGV[1]) "
+            + "if deadline and tonumber(deadline) <= tonumber(ARGV[2]) then "
+            + "return redis.call('zrem', KEYS[1], ARGV[1]) end "
+            + "return 0";
+
+    private final RespClient redis;
+    private final String prefix;
+
+    public RedisPartitionStore(RespClient redis, String prefix) {
+        this.redis = redis;
+        this.prefix = prefix;
+    }
+
+    // Живые узлы — сортированное множество <prefix>nodes с весом-сроком; три команды одним конвейером
+    @Override
+    public Set<String> heartbeat(String node, long ttlMillis) throws IOException {
+        long now = System.currentTimeMillis();
+        String key = prefix + "nodes";
+        List<CompletableFuture<Object>> replies = redis.pipeline(Arrays.asList(
+                new Object[]{"ZADD", key, now + ttlMillis, node},
+                new Object[]{"ZREMRANGEBYSCORE", key, "-inf", now},
+                new Object[]{"ZRANGE", key, 0, -1}));
+        Set<String> nodes = new HashSet<>();
+        for (Object member : (List<?>) redis.await(replies.get(2))) {
+            nodes.add(RespClient.text(member));
+        }
+        return nodes;
+    }
+
+    @Override
+    public boolean acquire(int partition, String node, long ttlMillis) throws IOException {
+        return Long.valueOf(1).equals(redis.call("EVAL", ACQUIRE, 1, leaseKey(partition), node, ttlMillis));
+    }
+
+    @Override
+    public void release(int partition, String node) throws IOException {
+        redis.call("EVAL", RELEASE, 1, leaseKey(partition), node);
+    }
+
+    @Override
+    public String owner(int partition) throws IOException {
+        Object owner = redis.call("GET", leaseKey(partition));
+        return owner == null ? null : RespClient.text(owner);
+    }
+
+    @Override
+    public void schedule(int partition, long chatId, FollowUpKind kind, long deadline) throws IOException {
+        redis.call("ZADD", pendingKey(partition), deadline, member(chatId, kind));
+    }
+
+    @Override
+    public void cancelAll(int partition, long chatId) throws IOException {
+        FollowUpKind[] kinds = FollowUpKind.values();
+        Object[] command = new Object[kinds.length + 2];
+        command[0] = "ZREM";
+        command[1] = pendingKey(partition);
+        for (int k = 0; k < kinds.length; k++) {
+            command[k + 2] = member(chatId, kinds[k]);
+        }
+        redis.call(command);
+    }
+
+    @Override
+    public boolean claim(int partition, long chatId, FollowUpKind kind, long now) throws IOException {
+        return Long.valueOf(1).equals(redis.call("EVAL", CLAIM, 1, pendingKey(partition), member(chatId, kind), now));
+    }
+
+    @Override
+    public void forEachDue(int partition, long until, FollowUpScheduler.PendingVisitor visitor) throws IOException {
+        List<?> reply = (List<?>) redis.call("ZRANGEBYSCORE", pendingKey(partition), "-inf", until, "WITHSCORES");
+        for (int i = 0; i + 1 < reply.size(); i += 2) {
+            String member = RespClient.text(reply.get(i));
+            int colon = member.indexOf(':');
+            FollowUpKind kind;
+            try {
+                kind = FollowUpKind.valueOf(member.substring(colon + 1));
+            } catch (IllegalArgumentException e) {
+                // Вид, которого больше нет в сборке, не отправляется
+                Log.error("followup.partition.load", e);
+                continue;
+            }
+            visitor.visit(Long.parseLong(member.substring(0, colon)), kind,
+                    (long) Double.parseDouble(RespClient.text(reply.get(i + 1))));
+        }
+    }
+
+    private String leaseKey(int partition) {
+        return prefix + "lease:" + partition;
+    }
+
+    private String pendingKey(int partition) {
+        return prefix + "followups:" + partition;
+    }
+
+    private static String member(long chatId, FollowUpKind kind) {
+        return chatId + ":" + kind.name();
+    }
+}
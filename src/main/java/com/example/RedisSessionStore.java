@@ -0,0 +1,232 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Сессии в общем Redis: их видят все экземпляры бота, и они переживают перезапуск без журнала.
+// Значение ключа <prefix>session:<chatId> — байт состояния и упакованные поля
+// (формат InMemorySessionStore.pack); ключ живёт ttl после последней записи.
+// Горячие чаты читаются из ближнего кеша в куче. Запись идёт сквозь кеш, а в канал
+// <prefix>session-invalidate публикуется chatId, чтобы остальные узлы выбросили свою копию —
+// иначе узел, получивший следующее сообщение чата, мог бы повторить уже пройденный шаг формы.
+// Запись и публикация уходят одним конвейером.
+public class RedisSessionStore implements SessionStore {
+    // Чем помечен в кеше чат без сессии: такие чаты — большинство, и их тоже стоит кешировать
+    private static final Session ABSENT = new Session(Funnel.DEFAULT_STATE, null, null, null, null);
+
+    private final RespClient redis;
+    private final String prefix;
+    private final String channel;
+    private final long ttlMillis;
+    private final long nearCacheMillis;
+    // Узел помечает свои публикации, чтобы не сбрасывать только что записанное
+    private final String node = UUID.randomUUID().toString();
+    private final Map<Long, Cached> nearCache;
+    // Растёт на каждое чужое изменение: чтение, начатое до него, не кладёт ответ в кеш
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private static final class Cached {
+        final Session session;
+        final long loadedAt;
+
+        Cached(Session session, long loadedAt) {
+            this.session = session;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    // nearCacheSize — сколько чатов держать в куче; nearCacheMillis — предел жизни копии
+    // на случай потерянного сообщения об изменении
+    public RedisSessionStore(RespClient redis, String prefix, long ttlMillis, int nearCacheSize, long nearCacheMillis) {
+        this.redis = redis;
+        this.prefix = prefix;
+        this.channel = prefix + "session-invalidate";
+        this.ttlMillis = ttlMillis;
+        this.nearCacheMillis = nearCacheMillis;
+        this.nearCache = new LinkedHashMap<Long, Cached>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Cached> eldest) {
+                return size() > nearCacheSize;
+            }
+        };
+    }
+
+    @Override
+    public void start() {
+        redis.subscribe(channel, this::onInvalidate, this::invalidateAll);
+    }
+
+    @Override
+    public void shutdown() {
+        redis.close();
+    }
+
+    @Override
+    public int state(long chatId) {
+        Session session = get(chatId);
+        return session == null ? Funnel.DEFAULT_STATE : session.state;
+    }
+
+    @Override
+    public Session get(long chatId) {
+        long now = System.currentTimeMillis();
+        synchronized (nearCache) {
+            Cached cached = nearCache.get(chatId);
+            if (cached != null && now - cached.loadedAt < nearCacheMillis) {
+                return cached.session == ABSENT ? null : cached.session;
+            }
+        }
+        long seen = invalidations.get();
+        Session session;
+        try {
+            session = decode((byte[]) redis.call("GET", key(chatId)));
+        } catch (IOException e) {
+            throw new IllegalStateException("Не удалось прочитать сессию " + chatId + " из Redis", e);
+        }
+        cache(chatId, session, now, seen);
+        return session;
+    }
+
+    @Override
+    public void put(long chatId, Session session) {
+        if (session.isEmpty()) {
+            remove(chatId);
+            return;
+        }
+        write(chatId, session, new Object[]{"SET", key(chatId), encode(session), "PX", ttlMillis});
+    }
+
+    @Override
+    public void remove(long chatId) {
+        write(chatId, null, new Object[]{"DEL", key(chatId)});
+    }
+
+    // Обходит все сессии: SCAN по префиксу, значения страницы — одним MGET
+    @Override
+    public void forEach(Visitor visitor) {
+        String cursor = "0";
+        String pattern = prefix + "session:*";
+        int offset = (prefix + "session:").length();
+        try {
+            do {
+                List<?> page = (List<?>) redis.call("SCAN", cursor, "MATCH", pattern, "COUNT", 1000);
+                cursor = RespClient.text(page.get(0));
+                List<?> keys = (List<?>) page.get(1);
+                if (keys.isEmpty()) {
+                    continue;
+                }
+                Object[] mget = new Object[keys.size() + 1];
+                mget[0] = "MGET";
+                for (int k = 0; k < keys.size(); k++) {
+                    mget[k + 1] = keys.get(k);
+                }
+                List<?> values = (List<?>) redis.call(mget);
+                for (int k = 0; k < keys.size(); k++) {
+                    Session session = decode((byte[]) values.get(k));
+                    if (session != null) {
+                        long chatId = Long.parseLong(RespClient.text(keys.get(k)).substring(offset));
+                        visitor.visit(chatId, session.state, session.requestType,
+                                session.name, session.contact, session.comment);
+                    }
+                }
+            } while (!"0".equals(cursor));
+        } catch (IOException e) {
+            throw new IllegalStateException("Не удалось обойти сессии в Redis", e);
+        }
+    }
+
+    @Override
+    public boolean isDurable() {
+        return true;
+    }
+
+    // Чатов в ближнем кеше
+    public int nearCacheSize() {
+        synchronized (nearCache) {
+            return nearCache.size();
+        }
+    }
+
+    // Команда и уведомление других узлов — одной записью; ждём подтверждения записи
+    private void write(long chatId, Session session, Object[] command) {
+        byte[] message = (node + ":" + chatId).getBytes(StandardCharsets.UTF_8);
+        List<CompletableFuture<Object>> replies = redis.pipeline(Arrays.asList(
+                command, new Object[]{"PUBLISH", channel, message}));
+        try {
+            redis.await(replies.get(0));
+        } catch (IOException e) {
+            // Что записалось, неизвестно: свою копию выбрасываем, следующее чтение пойдёт в Redis
+            synchronized (nearCache) {
+                nearCache.remove(chatId);
+            }
+            throw new IllegalStateException("Не удалось записать сессию " + chatId + " в Redis", e);
+        }
+        synchronized (nearCache) {
+            nearCache.put(chatId, new Cached(session == null ? ABSENT : session, System.currentTimeMillis()));
+        }
+        replies.get(1).whenComplete((result, error) -> {
+            if (error != null) {
+                Log.error("sessions.redis.put", chatId, error);
+            }
+        });
+    }
+
+    private void cache(long chatId, Session session, long loadedAt, long seen) {
+        synchronized (nearCache) {
+            // Пока шёл GET, другой узел мог изменить сессию: такой ответ не кешируем
+            if (invalidations.get() == seen) {
+                nearCache.put(chatId, new Cached(session == null ? ABSENT : session, loadedAt));
+            }
+        }
+    }
+
+    private void onInvalidate(byte[] message) {
+        String text = new String(message, StandardCharsets.UTF_8);
+        int colon = text.lastIndexOf(':');
+        if (colon < 0 || text.substring(0, colon).equals(node)) {
+            return;
+        }
+        long chatId = Long.parseLong(text.substring(colon + 1));
+        synchronized (nearCache) {
+            invalidations.incrementAndGet();
+            nearCache.remove(chatId);
+        }
+    }
+
+    // После (пере)подключения подписки пропущенные изменения неизвестны — сбрасываем всё
+    private void invalidateAll() {
+        synchronized (nearCache) {
+            invalidations.incrementAndGet();
+            nearCache.clear();
+        }
+    }
+
+    private String key(long chatId) {
+        return prefix + "session:" + chatId;
+    }
+
+    private static byte[] encode(Session session) {
+        byte[] packed = InMemorySessionStore.pack(session.requestType, session.name, session.contact, session.comment);
+        byte[] value = new byte[1 + (packed == null ? 0 : packed.length)];
+        value[0] = (byte) session.state;
+        if (packed != null) {
+            System.arraycopy(packed, 0, value, 1, packed.length);
+        }
+        return value;
+    }
+
+    private static Session decode(byte[] value) {
+        if (value == null) {
+            return null;
+        }
+        String[] values = InMemorySessionStore.unpack(value.length > 1 ? Arrays.copyOfRange(value, 1, value.length) : null, 4);
+        return new Session(value[0], values[0], values[1], values[2], values[3]);
+    }
+}
@@ -0,0 +1,376 @@
+package com.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+// Минимальный клиент протокола Redis (RESP2) без сторонних библиотек.
+// Одно соединение на всех: команды из разных потоков пишутся подряд, не дожидаясь
+// ответов, а поток-читатель раздаёт ответы по порядку отправки (конвейер).
+// Ответы: простая строка — String, число — Long, bulk — byte[] (null — нет значения),
+// массив — List<Object>, ошибка сервера — RespException.
+// При обрыве все ждущие команды завершаются ошибкой, следующая команда открывает соединение заново.
+public class RespClient {
+
+    // Ошибка, которую вернул сервер (или обрыв соединения)
+    public static class RespException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public RespException(String message) {
+            super(message);
+        }
+
+        public RespException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private final String host;
+    private final int port;
+    private final String password;
+    private final int database;
+    private final int timeoutMillis;
+    private Connection connection;
+    private volatile boolean closed;
+
+    // redis://[:пароль@]хост[:порт][/база]
+    public RespClient(URI uri, int timeoutMillis) {
+        this.host = uri.getHost() == null ? "localhost" : uri.getHost();
+        this.port = uri.getPort() < 0 ? 6379 : uri.getPort();
+        String userInfo = uri.getUserInfo();
+        // Пароль без пользователя записывают как ":пароль@"
+        this.password = userInfo == null || userInfo.isEmpty() ? null
+                : userInfo.substring(userInfo.indexOf(':') + 1);
+        String path = uri.getPath();
+        this.database = path == null || path.length() <= 1 ? 0 : Integer.parseInt(path.substring(1));
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    // Отправляет команду, не дожидаясь ответа. Аргументы: String, byte[] или число
+    public CompletableFuture<Object> send(Object... command) {
+        return pipeline(Collections.singletonList(command)).get(0);
+    }
+
+    // Отправляет команды одной записью в сокет; ответы придут в том же порядке
+    public synchronized List<CompletableFuture<Object>> pipeline(List<Object[]> commands) {
+        List<CompletableFuture<Object>> replies = new ArrayList<>(commands.size());
+        try {
+            Connection current = connection();
+            for (Object[] command : commands) {
+                replies.add(current.write(command));
+            }
+            current.flush();
+        } catch (IOException e) {
+            RespException error = new RespException("Redis " + host + ":" + port + " недоступен", e);
+            for (CompletableFuture<Object> reply : replies) {
+                reply.completeExceptionally(error);
+            }
+            while (replies.size() < commands.size()) {
+                CompletableFuture<Object> failed = new CompletableFuture<>();
+                failed.completeExceptionally(error);
+                replies.add(failed);
+            }
+        }
+        return replies;
+    }
+
+    // Отправляет команду и ждёт ответ не дольше таймаута
+    public Object call(Object... command) throws IOException {
+        return await(send(command));
+    }
+
+    public Object await(CompletableFuture<Object> reply) throws IOException {
+        try {
+            return reply.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RespException("Redis: " + e.getCause(), e.getCause());
+        } catch (TimeoutException e) {
+            // Опоздавший ответ достанется уже брошенной команде, порядок не сбивается
+            throw new RespException("Redis не ответил за " + timeoutMillis + " мс", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RespException("Ожидание Redis прервано", e);
+        }
+    }
+
+    // Подписка на канал в отдельном соединении и потоке. Сообщения приходят в listener,
+    // а после каждого (пере)подключения вызывается onConnect: пока подписки не было,
+    // сообщения могли потеряться. Поток переподключается, пока клиент не закрыт.
+    public void subscribe(String channel, Consumer<byte[]> listener, Runnable onConnect) {
+        Thread subscriber = new Thread(() -> {
+            while (!closed) {
+                try (Socket socket = open()) {
+                    OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+                    InputStream in = new BufferedInputStream(socket.getInputStream());
+                    if (password != null) {
+                        writeCommand(out, new Object[]{"AUTH", password});
+                        out.flush();
+                        check(readReply(in));
+                    }
+                    writeCommand(out, new Object[]{"SUBSCRIBE", channel});
+                    out.flush();
+                    check(readReply(in));
+                    onConnect.run();
+                    while (!closed) {
+                        Object message = check(readReply(in));
+                        if (message instanceof List && ((List<?>) message).size() == 3
+                                && "message".equals(text(((List<?>) message).get(0)))) {
+                            listener.accept((byte[]) ((List<?>) message).get(2));
+                        }
+                    }
+                } catch (IOException e) {
+                    if (closed) {
+                        return;
+                    }
+                    Log.error("redis.read", e);
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException interrupted) {
+                        return;
+                    }
+                }
+            }
+        }, "redis-subscriber");
+        subscriber.setDaemon(true);
+        subscriber.start();
+    }
+
+    public synchronized void close() {
+        closed = true;
+        if (connection != null) {
+            connection.close();
+            connection = null;
+        }
+    }
+
+    public static String text(Object reply) {
+        return reply instanceof byte[] ? new String((byte[]) reply, StandardCharsets.UTF_8) : (String) reply;
+    }
+
+    private Connection connection() throws IOException {
+        if (closed) {
+            throw new IOException("Клиент Redis закрыт");
+        }
+        if (connection == null || connection.broken) {
+            connection = new Connection(open());
+            // AUTH и SELECT идут первыми в конвейере; их ошибка всплывёт в ответах следующих команд
+            if (password != null) {
+                logFailure(connection.write(new Object[]{"AUTH", password}));
+            }
+            if (database != 0) {
+                logFailure(connection.write(new Object[]{"SELECT", database}));
+            }
+        }
+        return connection;
+    }
+
+    private Socket open() throws IOException {
+        Socket socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+        return socket;
+    }
+
+    private static void logFailure(CompletableFuture<Object> reply) {
+        reply.whenComplete((result, error) -> {
+            if (error != null) {
+                Log.error("redis.reply", error);
+            }
+        });
+    }
+
+    private static Object check(Object reply) throws RespException {
+        if (reply instanceof RespException) {
+            throw (RespException) reply;
+        }
+        return reply;
+    }
+
+    // Одно TCP-соединение: очередь ждущих ответа команд и поток, который их завершает
+    private static final class Connection {
+        private final Socket socket;
+        private final OutputStream out;
+        private final InputStream in;
+        private final ArrayDeque<CompletableFuture<Object>> pending = new ArrayDeque<>();
+        private volatile boolean broken;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 1 << 16);
+            this.in = new BufferedInputStream(socket.getInputStream(), 1 << 16);
+            Thread reader = new Thread(this::read, "redis-reader");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        // Вызывается под блокировкой клиента, поэтому порядок в pending совпадает с порядком в сокете
+        CompletableFuture<Object> write(Object[] command) throws IOException {
+            CompletableFuture<Object> reply = new CompletableFuture<>();
+            synchronized (pending) {
+                if (broken) {
+                    throw new EOFException("Соединение с Redis закрыто");
+                }
+                pending.add(reply);
+            }
+            try {
+                writeCommand(out, command);
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            }
+            return reply;
+        }
+
+        void flush() throws IOException {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            }
+        }
+
+        void close() {
+            fail(new EOFException("Соединение с Redis закрыто"));
+        }
+
+        private void read() {
+            try {
+                while (true) {
+                    Object reply = readReply(in);
+                    CompletableFuture<Object> waiting;
+                    synchronized (pending) {
+                        waiting = pending.poll();
+                    }
+                    if (waiting == null) {
+                        throw new IOException("Ответ Redis без команды");
+                    }
+                    if (reply instanceof RespException) {
+                        waiting.completeExceptionally((RespException) reply);
+                    } else {
+                        waiting.complete(reply);
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private void fail(IOException cause) {
+            List<CompletableFuture<Object>> failed;
+            synchronized (pending) {
+                if (broken && pending.isEmpty()) {
+                    return;
+                }
+                broken = true;
+                failed = new ArrayList<>(pending);
+                pending.clear();
+            }
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Соединение и так уже потеряно
+            }
+            RespException error = new RespException("Соединение с Redis потеряно", cause);
+            for (CompletableFuture<Object> reply : failed) {
+                reply.completeExceptionally(error);
+            }
+        }
+    }
+
+    private static void writeCommand(OutputStream out, Object[] command) throws IOException {
+        out.write('*');
+        writeNumber(out, command.length);
+        for (Object argument : command) {
+            byte[] bytes = argument instanceof byte[] ? (byte[]) argument
+                    : String.valueOf(argument).getBytes(StandardCharsets.UTF_8);
+            out.write('$');
+            writeNumber(out, bytes.length);
+            out.write(bytes);
+            out.write('\r');
+            out.write('\n');
+        }
+    }
+
+    private static void writeNumber(OutputStream out, long value) throws IOException {
+        out.write(Long.toString(value).getBytes(StandardCharsets.US_ASCII));
+        out.write('\r');
+        out.write('\n');
+    }
+
+    private static Object readReply(InputStream in) throws IOException {
+        int type = in.read();
+        switch (type) {
+            case '+':
+                return readLine(in);
+            case '-':
+                return new RespException(readLine(in));
+            case ':':
+                return Long.parseLong(readLine(in));
+            case '$': {
+                int length = Integer.parseInt(readLine(in));
+                if (length < 0) {
+                    return null;
+                }
+                byte[] bytes = new byte[length];
+                int read = 0;
+                while (read < length) {
+                    int n = in.read(bytes, read, length - read);
+                    if (n < 0) {
+                        throw new EOFException("Redis закрыл соединение");
+                    }
+                    read += n;
+                }
+                readLine(in);
+                return bytes;
+            }
+            case '*': {
+                int count = Integer.parseInt(readLine(in));
+                if (count < 0) {
+                    return null;
+                }
+                List<Object> items = new ArrayList<>(count);
+                for (int k = 0; k < count; k++) {
+                    items.add(readReply(in));
+                }
+                return items;
+            }
+            case -1:
+                throw new EOFException("Redis закрыл соединение");
+            default:
+                throw new IOException("Неизвестный тип ответа Redis: " + (char) type);
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\r') {
+            if (b < 0) {
+                throw new EOFException("Redis закрыл соединение");
+            }
+            line.append((char) b);
+        }
+        in.read();
+        return line.toString();
+    }
+}
@@ -1,1015 +1,897 @@
 package com.example;
 
-import com.google.api.services.sheets.v4.model.ValueRange;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.telegram.telegrambots.bots.DefaultAbsSender;
 import org.telegram.telegrambots.bots.TelegramLongPollingBot;
+import org.telegram.telegrambots.meta.api.methods.AnswerCallbackQuery;
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.methods.send.SendPhoto;
 import org.telegram.telegrambots.meta.api.objects.InputFile;
 import org.telegram.telegrambots.meta.api.objects.Message;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
-import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
-import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
 
-import java.io.InputStream;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.nio.file.Paths;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class SalesAnalyticsBot extends TelegramLongPollingBot {
+    // Бот обрабатывает только сообщения и нажатия кнопок; остальное Telegram не присылает
+    public static final List<String> ALLOWED_UPDATES = Collections.unmodifiableList(
+            Arrays.asList("message", "callback_query"));
+
     private final String botToken;
     private final String botUsername;
+    // Время воронки: сроки follow-up, время заявок и аналитики, простой сессий
+    private final TimeSource clock;
+    // Симуляция на виртуальных часах (FollowUpSimulation): всё выполняется в её потоке,
+    // общие хранилища, Telegram и Sheets не используются
+    private final boolean simulated;
     private final String spreadsheetId = System.getenv("SPREADSHEET_ID");
     private final GoogleSheetsService sheetsService;
+    // Воронка из funnel.properties: переходы, тексты и клавиатуры, собранные один раз при загрузке
+    private final FunnelEngine funnelEngine;
+    // file_id уже загруженных в Telegram картинок
+    private final MediaCache mediaCache;
+    // Фоновая пакетная запись заявок в Google Sheets
+    private final LeadWriter leadWriter;
+    // Известные заявки: новая или повторная, без чтения Sheets на каждую
+    private final LeadIndex leadIndex;
+    // Рассылка шаблона по всем чатам аудитории (/broadcast для администраторов)
+    private final Broadcast broadcast;
+    // Все чаты, писавшие боту, в том числе без незавершённой формы, — аудитория рассылок
+    private final AudienceStore audience;
+
+    // Состояния и данные форм всех чатов; меняются только в полосе своего чата
+    private final SessionStore sessions;
+    // Все исходящие сообщения: лимиты Telegram, приоритет ответов, повтор после 429
+    private final OutboundQueue outbound;
+    // Обработка событий: порядок внутри чата, параллельно между чатами
+    private final UpdateDispatcher dispatcher;
+    // Общий планировщик всех follow-up сообщений (один поток-тикер на весь бот)
+    private final FollowUpScheduler followUps;
+    // Разделы follow-up между узлами; null — один узел, follow-up в журнале
+    private final FollowUpPartitions partitions;
+    // Журнал сессий и follow-up на диске, переживает перезапуск
+    private final SessionJournal journal;
+    // Повторно доставленные события и повторные нажатия кнопок
+    private final UpdateDeduplicator dedup;
+    // Подтверждения нажатий кнопок, в обход полос и очереди отправки
+    private final CallbackAcknowledger callbackAcks;
+    // Конверсия воронки по событиям; ANALYTICS_CHATS — сколько путей чатов помнить
+    private final FunnelAnalytics analytics;
+    // Чаты, которым доступна команда /stats (ADMIN_CHAT_IDS через запятую)
+    private final Set<Long> adminChatIds = parseChatIds(System.getenv("ADMIN_CHAT_IDS"));
+    // Метрики для Prometheus (METRICS_PORT)
+    private final Metrics metrics = new Metrics();
+    private final Metrics.Labeled<Metrics.Histogram> updateLatency = metrics.histograms(
+            "bot_update_seconds", "От получения события до конца его обработки", "type");
+    private final Metrics.Labeled<Metrics.Histogram> telegramLatency = metrics.histograms(
+            "bot_telegram_request_seconds", "Длительность запросов к Bot API", "method");
+    private final Metrics.Labeled<Metrics.Counter> telegramErrors = metrics.counters(
+            "bot_telegram_request_errors_total", "Ошибки запросов к Bot API", "method");
+    private final Metrics.Labeled<Metrics.Counter> duplicates = metrics.counters(
+            "bot_updates_duplicate_total", "Отброшенные повторы событий", "kind");
+    private final Metrics.Histogram callbackAckLatency = metrics.histogram(
+            "bot_callback_ack_seconds", "От получения нажатия кнопки до ответа Telegram на answerCallbackQuery");
+    // Просроченные за время простоя follow-up: отправить сразу (fire) или пропустить (skip)
+    private final boolean fireOverdueFollowUps = !"skip".equalsIgnoreCase(System.getenv("FOLLOW_UP_OVERDUE_POLICY"));
 
-    // Map для хранения состояний пользователей
-    private final Map<Long, UserState> userStates = new HashMap<>();
-    // Map для хранения данных пользователей
-    private final Map<Long, UserData> userData = new HashMap<>();
-    // Timer для первого follow-up (1 час)
-    private final Map<Long, Timer> userTimers = new HashMap<>();
-    // Timer для case follow-up (5 минут после первого follow-up)
-    private final Map<Long, Timer> userCaseTimers = new HashMap<>();
-    // Timer для case после презентации (5 минут после отправки презентации)
-    private final Map<Long, Timer> userPresentationTimers = new HashMap<>();
-    // Timer для follow-up после видео (5 минут)
-    private final Map<Long, Timer> userVideoFollowUpTimers = new HashMap<>();
-    // Timer для case после видео follow-up (5 минут)
-    private final Map<Long, Timer> userVideoCaseTimers = new HashMap<>();
-
-    // Состояния пользователя
-    private enum UserState {
-        DEFAULT,
-        AWAITING_NAME,
-        AWAITING_CONTACT,
-        AWAITING_COMMENT
-    }
-
-    // Данные пользователя для формы
-    private static class UserData {
-        String name;
-        String contact;
-        String comment;
-        String requestType; // консультация, расчет или аудит
+    public SalesAnalyticsBot(String botToken, String botUsername) {
+        this(botToken, botUsername, TimeSource.SYSTEM, System.getenv().getOrDefault("DATA_DIR", "data"));
     }
 
-    public SalesAnalyticsBot(String botToken, String botUsername) {
+    // Часы, отличные от системных, включают режим симуляции
+    SalesAnalyticsBot(String botToken, String botUsername, TimeSource clock, String dataDir) {
         this.botToken = botToken;
         this.botUsername = botUsername;
+        this.clock = clock;
+        this.simulated = clock != TimeSource.SYSTEM;
+        this.analytics = new FunnelAnalytics(
+                Integer.parseInt(System.getenv().getOrDefault("ANALYTICS_CHATS", "131072")), clock);
+        // Последние 64К номеров событий (8 КБ) и 64К нажатий (1 МБ); CALLBACK_DEDUP_SECONDS —
+        // в течение скольких секунд повторное нажатие той же кнопки считается случайным
+        this.dedup = new UpdateDeduplicator(1 << 16, 1 << 16, TimeUnit.SECONDS.toMillis(
+                Long.parseLong(System.getenv().getOrDefault("CALLBACK_DEDUP_SECONDS", "3"))), clock);
+        getOptions().setAllowedUpdates(ALLOWED_UPDATES);
+        // TELEGRAM_API_URL — свой сервер Bot API (локальный telegram-bot-api или стенд нагрузочного теста)
+        String apiUrl = System.getenv("TELEGRAM_API_URL");
+        if (apiUrl != null && !apiUrl.isEmpty()) {
+            getOptions().setBaseUrl(apiUrl.replaceAll("/+$", "") + "/bot");
+        }
         this.sheetsService = new GoogleSheetsService();
-    }
-
-    @Override
-    public String getBotUsername() {
-        return botUsername;
-    }
-
-    @Override
-    public String getBotToken() {
-        return botToken;
-    }
-
-    @Override
-    public void onUpdateReceived(Update update) {
-        // Обработка обычных сообщений
-        if (update.hasMessage() && update.getMessage().hasText()) {
-            Message message = update.getMessage();
-            Long chatId = message.getChatId();
-            String text = message.getText();
-
-            // Обработка команд
-            if (text.equals("/start")) {
-                sendWelcomeMessage(chatId);
-                // Запускаем таймер для первого follow-up через 1 час
-                scheduleFollowUpMessage(chatId);
+        // FUNNEL_CONFIG — файл воронки с горячей перезагрузкой; без него — конфигурация из сборки
+        String funnelConfig = System.getenv("FUNNEL_CONFIG");
+        this.funnelEngine = new FunnelEngine(funnelConfig == null || funnelConfig.isEmpty()
+                ? null : Paths.get(funnelConfig));
+        // Потоки в основном ждут Telegram и диск, поэтому полос больше, чем ядер
+        int workers = Integer.parseInt(System.getenv().getOrDefault("UPDATE_WORKERS",
+                String.valueOf(Math.max(4, Runtime.getRuntime().availableProcessors() * 2))));
+        this.dispatcher = new UpdateDispatcher(workers, 1024);
+        // Лимиты Telegram: ~30 сообщений в секунду на бота и 1 в секунду в чат (запас — 3 подряд).
+        // TELEGRAM_RATE, TELEGRAM_CHAT_RATE и OUTBOUND_SENDERS меняют их для своего сервера Bot API
+        // и нагрузочного стенда
+        double rate = Double.parseDouble(System.getenv().getOrDefault("TELEGRAM_RATE", "30"));
+        double chatRate = Double.parseDouble(System.getenv().getOrDefault("TELEGRAM_CHAT_RATE", "1"));
+        // В симуляции без потоков отправки: запрос выполняется сразу, лимиты не действуют
+        int senders = simulated ? 0 : Integer.parseInt(System.getenv().getOrDefault("OUTBOUND_SENDERS", "8"));
+        this.outbound = new OutboundQueue(senders, rate, rate / 3, chatRate, chatRate * 3);
+        // CALLBACK_ACK_THREADS — потоки подтверждений; симуляция событий через onUpdateReceived не шлёт
+        int ackThreads = simulated ? 0 : Integer.parseInt(System.getenv().getOrDefault("CALLBACK_ACK_THREADS", "4"));
+        this.callbackAcks = new CallbackAcknowledger(
+                id -> execute(AnswerCallbackQuery.builder().callbackQueryId(id).build()),
+                callbackAckLatency, ackThreads, 4096);
+        // По соединению на поток отправки и подтверждений и запас для служебных запросов
+        widenConnectionPool(senders + ackThreads + 2);
+        // В симуляции follow-up срабатывают по runDueFollowUps в её же потоке
+        this.followUps = new FollowUpScheduler(this::routeFollowUp, clock, 1000, 4096, simulated ? 0 : 2);
+
+        // Восстанавливаем сессии и отложенные сообщения из журнала, затем запускаем таймеры
+        try {
+            InMemorySessionStore local = null;
+            if (!simulated && "redis".equalsIgnoreCase(System.getenv("SESSION_STORE"))) {
+                this.sessions = openRedisSessions();
+                // Аудитория там же, где сессии: её видят все экземпляры бота
+                this.audience = new RedisAudienceStore(new RespClient(URI.create(
+                        System.getenv().getOrDefault("REDIS_URL", "redis://localhost:6379")), 2000),
+                        System.getenv().getOrDefault("REDIS_PREFIX", "salesbot:"));
             } else {
-                // Обработка состояний формы
-                UserState state = getUserState(chatId);
-                switch (state) {
-                    case AWAITING_NAME:
-                        UserData data = getUserData(chatId);
-                        data.name = text;
-                        setUserState(chatId, UserState.AWAITING_CONTACT);
-                        askForContact(chatId);
-                        break;
-                    case AWAITING_CONTACT:
-                        data = getUserData(chatId);
-                        data.contact = text;
-                        setUserState(chatId, UserState.AWAITING_COMMENT);
-                        askForComment(chatId);
-                        break;
-                    case AWAITING_COMMENT:
-                        data = getUserData(chatId);
-                        data.comment = text;
-                        saveToGoogleSheets(chatId, data);
-                        sendConfirmation(chatId);
-                        clearUserData(chatId);
-                        break;
-                    default:
-                        sendDefaultResponse(chatId);
-                }
+                // Сессии без активности дольше SESSION_IDLE_MINUTES уходят из кучи в отображённый файл
+                long idleMillis = TimeUnit.MINUTES.toMillis(
+                        Long.parseLong(System.getenv().getOrDefault("SESSION_IDLE_MINUTES", "30")));
+                local = new InMemorySessionStore(new ColdSessionFile(Paths.get(dataDir, "sessions")), idleMillis, clock);
+                this.sessions = local;
+                this.audience = new FileAudienceStore(Paths.get(dataDir, "audience.bin"));
             }
-        }
-        // Обработка нажатий на inline кнопки
-        else if (update.hasCallbackQuery()) {
-            String callbackData = update.getCallbackQuery().getData();
-            Long chatId = update.getCallbackQuery().getMessage().getChatId();
+            this.partitions = simulated ? null : openPartitions(dataDir);
+            this.journal = new SessionJournal(Paths.get(dataDir, "journal"));
+            // Сессии восстанавливаются сразу в холодный уровень, в кучу возвращаются по первому сообщению
+            journal.restore(new JournalRestorer(local, partitions == null ? followUps : null,
+                    clock.currentTimeMillis(), fireOverdueFollowUps));
+            seedAudience();
+            // До 50 строк в одном append, не чаще 60 запросов в минуту (квота записи Sheets);
+            // неподтверждённые заявки из outbox досылаются после перезапуска
+            this.leadWriter = new LeadWriter(sheetsService, spreadsheetId,
+                    new LeadOutbox(Paths.get(dataDir, "leads")), 50, 2000, 60, metrics);
+            // BROADCAST_IN_FLIGHT — сколько сообщений рассылки одновременно стоят в очереди отправки
+            this.broadcast = new Broadcast(Paths.get(dataDir, "broadcast"), new Broadcast.Sender() {
+                @Override
+                public CompletableFuture<?> send(long chatId, MessageTemplate template) {
+                    return outbound.submit(chatId, OutboundQueue.Priority.BACKGROUND,
+                            () -> execute(template.message(Long.toString(chatId))));
+                }
 
-            // Отменяем все таймеры при любом действии пользователя
-            cancelFollowUpMessage(chatId);
-            cancelCaseTimer(chatId);
-            cancelPresentationTimer(chatId);
-            cancelVideoFollowUpTimer(chatId);
-            cancelVideoCaseTimer(chatId);
-
-            switch (callbackData) {
-                case "get_video":
-                    sendVideo(chatId);
-                    break;
-                case "get_presentation":
-                    sendPresentation(chatId);
-                    break;
-                case "want_consultation":
-                    startConsultationForm(chatId);
-                    break;
-                case "want_calculation":
-                    startCalculationForm(chatId);
-                    break;
-                case "want_audit":
-                    startAuditForm(chatId);
-                    break;
-                case "want_same":
-                    startCaseForm(chatId, "Хочу так же (медкейс)");
-                    break;
-                case "want_calculation_case":
-                    startCaseForm(chatId, "Расчет (медкейс)");
-                    break;
-                case "want_presentation":
-                    sendPresentation(chatId);
-                    break;
-                case "video_want_consultation":
-                    sendVideoConsultationForm(chatId);
-                    break;
-                case "video_want_calculation":
-                    sendVideoCalculationForm(chatId);
-                    break;
-                case "video_want_presentation":
-                    sendPresentation(chatId);
-                    break;
-                case "video_need_audit":
-                    sendVideoCaseCalculationForm(chatId);
-                    break;
-                case "presentation_need_audit":
-                    sendPresentationCaseCalculationForm(chatId);
-                    break;
-            }
+                @Override
+                public void report(long chatId, String text) {
+                    sendText(chatId, text);
+                }
+            }, id -> funnelEngine.current().templates().get(id),
+                    Integer.parseInt(System.getenv().getOrDefault("BROADCAST_IN_FLIGHT", "64")), metrics);
+        } catch (IOException e) {
+            throw new IllegalStateException("Не удалось открыть данные бота в " + dataDir, e);
+        }
+        // LEAD_INDEX_REFRESH_MINUTES — как часто дочитывать из таблицы строки, добавленные не ботом (0 — никогда)
+        this.leadIndex = new LeadIndex(simulated ? null : sheetsService, spreadsheetId, TimeUnit.MINUTES.toMillis(
+                Long.parseLong(System.getenv().getOrDefault("LEAD_INDEX_REFRESH_MINUTES", "10"))), metrics);
+        this.mediaCache = new MediaCache(Paths.get(dataDir, "media-cache.properties"));
+        registerMetrics();
+        sessions.start();
+        funnelEngine.start();
+        journal.start(this::writeSnapshot);
+        if (simulated) {
+            return;
+        }
+        followUps.start();
+        if (partitions != null) {
+            partitions.start();
         }
+        // Клиент Sheets и токен готовим заранее, чтобы первая заявка не ждала TLS и авторизацию
+        sheetsService.start(spreadsheetId);
+        leadIndex.start();
+        // Незавершённая рассылка продолжается с контрольной точки
+        broadcast.start();
+        // Картинки заранее загружаем в служебный чат, чтобы у первых пользователей уже были file_id
+        String mediaChatId = System.getenv("MEDIA_CACHE_CHAT_ID");
+        if (mediaChatId != null && !mediaChatId.isEmpty()) {
+            Thread preload = new Thread(() -> preloadMedia(Long.parseLong(mediaChatId)), "media-preload");
+            preload.setDaemon(true);
+            preload.start();
+        }
+    }
+
+    // SESSION_STORE=redis — общие сессии для нескольких экземпляров бота.
+    // REDIS_URL — адрес (redis://[:пароль@]хост:порт/база), REDIS_PREFIX — префикс ключей,
+    // SESSION_TTL_DAYS — срок жизни сессии без изменений, NEAR_CACHE_SIZE — горячих чатов в куче
+    private static SessionStore openRedisSessions() {
+        RespClient redis = new RespClient(URI.create(
+                System.getenv().getOrDefault("REDIS_URL", "redis://localhost:6379")), 2000);
+        long ttlMillis = TimeUnit.DAYS.toMillis(
+                Long.parseLong(System.getenv().getOrDefault("SESSION_TTL_DAYS", "30")));
+        int nearCacheSize = Integer.parseInt(System.getenv().getOrDefault("NEAR_CACHE_SIZE", "10000"));
+        return new RedisSessionStore(redis, System.getenv().getOrDefault("REDIS_PREFIX", "salesbot:"),
+                ttlMillis, nearCacheSize, 30000);
     }
 
-    private void sendWelcomeMessage(Long chatId) {
+    // Аудитория появилась позже сессий: при первом запуске в неё попадают чаты из хранилища сессий,
+    // остальные старые чаты — по своему следующему событию
+    private void seedAudience() {
         try {
-            // Текст приветственного сообщения
-            String text = "👋 Добро пожаловать в MirAl — это бот, который поможет вам увидеть, " +
-                    "<b>что на самом деле происходит в вашем отделе продаж.</b>\n\n" +
-                    "Здесь вы получите:\n" +
-                    "✔️ Короткое видео от основателя проекта\n" +
-                    "✔️ Презентацию с кейсами и расчётами\n" +
-                    "✔️ Возможность оставить заявку на расчёт или бесплатную консультацию\n\n" +
-                    "<b>Что такое MirAl?</b>\n" +
-                    "Это Telegram-бот с ИИ-аналитикой звонков. Он за секунды показывает, кто из менеджеров продаёт, " +
-                    "а кто просто разговаривает. Вы будете получать отчёты после каждого звонка, " +
-                    "без прослушек и субъективных разборов.\n\n" +
-                    "<b>Почему этому стоит доверять:</b>\n" +
-                    "Валерий Елизаров — серийный предприниматель, который сам прошёл путь: " +
-                    "от отдела с хаосом до выручки 500+ млн в год. Он создал MirAl не как проект \"в стол\", " +
-                    "а чтобы решить собственную проблему — контролировать отдел без потерь времени и нервов.\n\n" +
-                    "👇 Выберите, с чего начать:";
-
-            // Создаем inline клавиатуру
-            InlineKeyboardMarkup markupInline = new InlineKeyboardMarkup();
-            List<List<InlineKeyboardButton>> rowsInline = new ArrayList<>();
-
-            // Первая кнопка - Получить видео
-            List<InlineKeyboardButton> row1 = new ArrayList<>();
-            InlineKeyboardButton videoButton = new InlineKeyboardButton();
-            videoButton.setText("Получить видео");
-            videoButton.setCallbackData("get_video");
-            row1.add(videoButton);
-
-            // Вторая кнопка - Получить презентацию
-            List<InlineKeyboardButton> row2 = new ArrayList<>();
-            InlineKeyboardButton presentationButton = new InlineKeyboardButton();
-            presentationButton.setText("Получить презентацию (PDF файл)");
-            presentationButton.setCallbackData("get_presentation");
-            row2.add(presentationButton);
-
-            rowsInline.add(row1);
-            rowsInline.add(row2);
-            markupInline.setKeyboard(rowsInline);
-
-            // Пытаемся отправить с изображением
-            InputStream imageStream = getClass().getResourceAsStream("/img/welcome.jpg");
-            if (imageStream != null) {
-                // Отправляем фото с текстом (HTML-разметка)
-                SendPhoto photo = new SendPhoto();
-                photo.setChatId(chatId.toString());
-                photo.setPhoto(new InputFile(imageStream, "welcome.jpg"));
-                photo.setCaption(text);
-                photo.setParseMode("HTML");
-                photo.setReplyMarkup(markupInline);
-                execute(photo);
-            } else {
-                // Если изображения нет, отправляем только текст
-                SendMessage message = new SendMessage();
-                message.setChatId(chatId.toString());
-                message.setText(text);
-                message.setParseMode("HTML");
-                message.setReplyMarkup(markupInline);
-                execute(message);
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-            // В случае ошибки отправляем сообщение без изображения
-            try {
-                SendMessage message = new SendMessage();
-                message.setChatId(chatId.toString());
-                message.setText("Добро пожаловать! Используйте кнопки ниже для начала работы.");
-
-                // Создаем inline клавиатуру
-                InlineKeyboardMarkup markupInline = new InlineKeyboardMarkup();
-                List<List<InlineKeyboardButton>> rowsInline = new ArrayList<>();
-
-                List<InlineKeyboardButton> row1 = new ArrayList<>();
-                InlineKeyboardButton videoButton = new InlineKeyboardButton();
-                videoButton.setText("Получить видео");
-                videoButton.setCallbackData("get_video");
-                row1.add(videoButton);
-
-                List<InlineKeyboardButton> row2 = new ArrayList<>();
-                InlineKeyboardButton presentationButton = new InlineKeyboardButton();
-                presentationButton.setText("Получить презентацию (PDF файл)");
-                presentationButton.setCallbackData("get_presentation");
-                row2.add(presentationButton);
-
-                rowsInline.add(row1);
-                rowsInline.add(row2);
-                markupInline.setKeyboard(rowsInline);
-
-                message.setReplyMarkup(markupInline);
-                execute(message);
-            } catch (TelegramApiException ex) {
-                ex.printStackTrace();
+            if (audience.size() == 0) {
+                sessions.forEach((id, state, requestType, name, contact, comment) -> addToAudience(id));
             }
+        } catch (IOException e) {
+            Log.error("audience", e);
         }
     }
 
-    private void sendVideo(Long chatId) {
+    private void addToAudience(long chatId) {
         try {
-            // Текст к видео
-            String text = "Отлично! Вот короткое видео — 5 минут вашего времени, но в нем самое важное:\n\n" +
-                    "📌 с какой проблемой сталкиваются 90% отделов продаж\n" +
-                    "📌 как ИИ решает это за 2 минуты вместо 2 часов\n" +
-                    "📌 и почему выручка начинает расти уже в первый месяц\n\n" +
-                    "🎥 <a href=\"https://drive.google.com/file/d/1Jdwu72HyOHrAM-KvTXRGWyzoPdkxXcZI/view?usp=drive_link\">Посмотреть видео</a>";
-
-            SendMessage message = new SendMessage();
-            message.setChatId(chatId.toString());
-            message.setText(text);
-            message.setParseMode("HTML");
-            message.setDisableWebPagePreview(true);
-            execute(message);
-
-            // Запускаем таймер на 5 минут, чтобы через 5 минут отправить follow-up
-            scheduleVideoFollowUp(chatId);
-
-        } catch (Exception e) {
-            e.printStackTrace();
-            // Отправляем сообщение об ошибке пользователю
-            try {
-                SendMessage errorMessage = new SendMessage();
-                errorMessage.setChatId(chatId.toString());
-                errorMessage.setText("Произошла ошибка при отправке видео. Пожалуйста, попробуйте позже.");
-                execute(errorMessage);
-            } catch (TelegramApiException ex) {
-                ex.printStackTrace();
-            }
+            audience.add(chatId);
+        } catch (IOException e) {
+            // Чат будет добавлен по следующему событию
+            Log.error("audience", chatId, e);
         }
     }
 
-    private void scheduleVideoFollowUp(Long chatId) {
-        // Отменяем предыдущий, если он был
-        cancelVideoFollowUpTimer(chatId);
-
-        Timer timer = new Timer();
-        TimerTask task = new TimerTask() {
-            @Override
-            public void run() {
-                sendVideoFollowUpMessage(chatId);
-                userVideoFollowUpTimers.remove(chatId);
+    // FOLLOW_UP_STORE=redis|file — follow-up делятся между узлами по разделам с арендой.
+    // file — общий каталог FOLLOW_UP_DIR (несколько процессов на одной машине),
+    // redis — REDIS_URL и REDIS_PREFIX, как у сессий. NODE_ID — имя узла в арендах.
+    private FollowUpPartitions openPartitions(String dataDir) throws IOException {
+        String kind = System.getenv("FOLLOW_UP_STORE");
+        if (kind == null || kind.isEmpty()) {
+            return null;
+        }
+        PartitionStore store;
+        if ("redis".equalsIgnoreCase(kind)) {
+            store = new RedisPartitionStore(new RespClient(URI.create(
+                    System.getenv().getOrDefault("REDIS_URL", "redis://localhost:6379")), 2000),
+                    System.getenv().getOrDefault("REDIS_PREFIX", "salesbot:"));
+        } else if ("file".equalsIgnoreCase(kind)) {
+            store = new FilePartitionStore(Paths.get(System.getenv().getOrDefault("FOLLOW_UP_DIR",
+                    Paths.get(dataDir, "partitions").toString())));
+        } else {
+            throw new IllegalStateException("Неизвестное хранилище follow-up: " + kind);
+        }
+        String node = System.getenv().getOrDefault("NODE_ID", ManagementFactory.getRuntimeMXBean().getName());
+        int count = Integer.parseInt(System.getenv().getOrDefault("FOLLOW_UP_PARTITIONS", "64"));
+        long leaseMillis = TimeUnit.SECONDS.toMillis(
+                Long.parseLong(System.getenv().getOrDefault("FOLLOW_UP_LEASE_SECONDS", "15")));
+        return new FollowUpPartitions(store, followUps, node, count, leaseMillis);
+    }
+
+    // Показатели, которые компоненты уже считают сами, читаются только при выгрузке
+    private void registerMetrics() {
+        metrics.gauge("bot_dispatcher_queue_depth", "События в очередях полос", dispatcher::queueDepth);
+        metrics.gauge("bot_dispatcher_max_lag_seconds", "Отставание самой медленной полосы", () -> {
+            long max = 0;
+            for (long lag : dispatcher.stripeLagMillis()) {
+                max = Math.max(max, lag);
             }
-        };
+            return max / 1000.0;
+        });
+        for (OutboundQueue.Priority priority : OutboundQueue.Priority.values()) {
+            String name = priority.name().toLowerCase();
+            metrics.gauge("bot_outbound_queue_depth", "Сообщения в очереди отправки", "priority", name,
+                    () -> outbound.queueDepth(priority));
+            metrics.gauge("bot_outbound_wait_avg_seconds", "Среднее ожидание в очереди отправки", "priority", name,
+                    () -> outbound.averageWaitMillis(priority) / 1000.0);
+            metrics.gauge("bot_outbound_wait_max_seconds", "Наибольшее ожидание в очереди отправки", "priority", name,
+                    () -> outbound.maxWaitMillis(priority) / 1000.0);
+            metrics.counter("bot_outbound_attempts_total", "Попытки отправки из очереди", "priority", name,
+                    () -> outbound.sentCount(priority));
+        }
+        metrics.counter("bot_outbound_rate_limited_total", "Ответы 429 от Telegram", null, null,
+                outbound::rateLimitedCount);
+        metrics.counter("bot_outbound_rate_limited_seconds_total", "Время общей паузы отправки по retry_after", null, null,
+                () -> outbound.rateLimitedPauseMillis() / 1000.0);
+        metrics.gauge("bot_callback_ack_queue_depth", "Подтверждения нажатий в очереди", callbackAcks::queueDepth);
+        metrics.counter("bot_callback_ack_dropped_total", "Подтверждения нажатий, не поставленные в переполненную очередь",
+                null, null, callbackAcks::droppedCount);
+        metrics.counter("bot_log_dropped_total", "Записи журнала, отброшенные при переполнении кольца", null, null,
+                Log::droppedCount);
+        for (FollowUpKind kind : FollowUpKind.values()) {
+            metrics.gauge("bot_follow_ups_pending", "Отложенные сообщения в локальном планировщике", "kind", kind.name(),
+                    () -> followUps.pendingCount(kind));
+        }
+        if (sessions instanceof InMemorySessionStore) {
+            InMemorySessionStore local = (InMemorySessionStore) sessions;
+            metrics.gauge("bot_sessions", "Сессии чатов", "tier", "heap", local::size);
+            metrics.gauge("bot_sessions", "Сессии чатов", "tier", "cold", local::coldSize);
+            metrics.gauge("bot_sessions_heap_bytes", "Оценка объёма таблицы сессий в куче", local::estimatedBytes);
+            metrics.gauge("bot_sessions_bytes_per_session", "Средний объём сессии в куче", local::bytesPerSession);
+        } else if (sessions instanceof RedisSessionStore) {
+            metrics.gauge("bot_sessions_near_cache", "Чаты в ближнем кеше Redis",
+                    ((RedisSessionStore) sessions)::nearCacheSize);
+        }
+        if (partitions != null) {
+            metrics.gauge("bot_follow_up_partitions_owned", "Разделы follow-up у этого узла", partitions::ownedCount);
+        }
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        metrics.gauge("jvm_threads", "Живые потоки JVM", threads::getThreadCount);
+        metrics.gauge("jvm_memory_heap_used_bytes", "Занятая куча JVM",
+                () -> ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+    }
 
-        // Запускаем таймер на 5 минут (300000 мс)
-        timer.schedule(task, 300000);
-        userVideoFollowUpTimers.put(chatId, timer);
+    public Metrics getMetrics() {
+        return metrics;
     }
 
-    private void cancelVideoFollowUpTimer(Long chatId) {
-        Timer timer = userVideoFollowUpTimers.get(chatId);
-        if (timer != null) {
-            timer.cancel();
-            userVideoFollowUpTimers.remove(chatId);
-        }
+    // Отчёт конверсии за последние windowMinutes по пути analytics.path из воронки
+    public String funnelReport(int windowMinutes) {
+        return analytics.report(windowMinutes, funnelEngine.current().analyticsPath());
     }
 
-    private void sendVideoFollowUpMessage(Long chatId) {
-        try {
-            String text = "Вы только что посмотрели, как можно получить полный контроль над звонками —\n" +
-                    "<b>без прослушек</b>, без найма контролёров, без догадок.\n" +
-                    "<b>MirAl — это не обещание, это цифры и результат</b>.\n" +
-                    "Вы увидели, как он находит “слабые звенья”, экономит до 300 000 ₽ в месяц и даёт вам полный контроль над тем, что происходит в отделе продаж.\n\n" +
-                    "📊 А теперь — выбирайте, какой следующий шаг вам ближе:";
-
-            // Создаем inline-клавиатуру с тремя кнопками
-            InlineKeyboardMarkup markupInline = new InlineKeyboardMarkup();
-            List<List<InlineKeyboardButton>> rowsInline = new ArrayList<>();
-
-            // Кнопка "Хочу консультацию"
-            List<InlineKeyboardButton> row1 = new ArrayList<>();
-            InlineKeyboardButton consultButton = new InlineKeyboardButton();
-            consultButton.setText("Хочу консультацию");
-            consultButton.setCallbackData("video_want_consultation");
-            row1.add(consultButton);
-
-            // Кнопка "Хочу расчёт под мой бизнес"
-            List<InlineKeyboardButton> row2 = new ArrayList<>();
-            InlineKeyboardButton calcButton = new InlineKeyboardButton();
-            calcButton.setText("Хочу расчет под мой бизнес");
-            calcButton.setCallbackData("video_want_calculation");
-            row2.add(calcButton);
-
-            // Кнопка "Хочу презентацию"
-            List<InlineKeyboardButton> row3 = new ArrayList<>();
-            InlineKeyboardButton presButton = new InlineKeyboardButton();
-            presButton.setText("Хочу презентацию");
-            presButton.setCallbackData("video_want_presentation");
-            row3.add(presButton);
-
-            rowsInline.add(row1);
-            rowsInline.add(row2);
-            rowsInline.add(row3);
-            markupInline.setKeyboard(rowsInline);
-
-            // Отправляем follow-up сообщение
-            SendMessage message = new SendMessage();
-            message.setChatId(chatId.toString());
-            message.setText(text);
-            message.setParseMode("HTML");
-            message.setReplyMarkup(markupInline);
-            execute(message);
-
-            // После отправки follow-up запускаем таймер на 5 минут для "кейса"
-            scheduleVideoCaseTimer(chatId);
-
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    private void scheduleVideoCaseTimer(Long chatId) {
-        // Отменяем предыдущий, если он был
-        cancelVideoCaseTimer(chatId);
-
-        Timer timer = new Timer();
-        TimerTask task = new TimerTask() {
-            @Override
-            public void run() {
-                if (getUserState(chatId) == UserState.DEFAULT) {
-                    sendVideoCaseMessage(chatId);
+    private static Set<Long> parseChatIds(String value) {
+        Set<Long> ids = new HashSet<>();
+        if (value != null) {
+            for (String id : value.split(",")) {
+                if (!id.trim().isEmpty()) {
+                    ids.add(Long.parseLong(id.trim()));
                 }
-                userVideoCaseTimers.remove(chatId);
             }
-        };
-
-        // Запускаем таймер на 5 минут (300000 мс)
-        timer.schedule(task, 300000);
-        userVideoCaseTimers.put(chatId, timer);
-    }
-
-    private void cancelVideoCaseTimer(Long chatId) {
-        Timer timer = userVideoCaseTimers.get(chatId);
-        if (timer != null) {
-            timer.cancel();
-            userVideoCaseTimers.remove(chatId);
         }
+        return ids;
     }
 
-    private void sendVideoCaseMessage(Long chatId) {
-        try {
-            String text =
-                    "Владелец интернет-магазина мебели был уверен: если рекламный трафик идёт, заявки поступают, значит — дело в цене.\n" +
-                    "Но выручка не росла, а затраты на аутсорс-команду продаж продолжали съедать бюджет.\n" +
-                    "📉 6 менеджеров на удалёнке звонили по лидам, отчитывались в CRM, обещали результат.\n" +
-                    "А по факту — клиенты “думали”, “уточняли у мужа”, “вернёмся позже”.\n\n" +
-                    "После подключения MirAl картина стала резко ясной:\n" +
-                    "— 4 менеджера <b>не задавали ни одного уточняющего вопроса</b>\n" +
-                    "— в 60% звонков не озвучивались сроки доставки и гарантии\n" +
-                    "— диалог сводился к «мы вам всё скинули на почту»\n\n" +
-                    "🚫 Эти 4 сотрудника были отключены уже на второй неделе.\n" +
-                    "Бизнес перестал платить за разговоры, и начал платить за результат.\n" +
-                    "<b>Экономия — 240 000 ₽.</b>\n" +
-                    "<b>Качество звонков выросло.</b>\n" +
-                    "<b>Контроль — в Telegram, без прослушек.</b>\n\n" +
-                    "📍 Хотите такую же ясность у себя? Оставляйте заявку на бесплатный аудит.";
-
-            // 1) Отправляем изображение без длинного текста в caption (опционально можно добавить короткую подпись)
-            InputStream caseImageStream = getClass().getResourceAsStream("/img/furniture_case.jpg");
-            if (caseImageStream != null) {
-                SendPhoto photo = new SendPhoto();
-                photo.setChatId(chatId.toString());
-                photo.setPhoto(new InputFile(caseImageStream, "furniture_case.jpg"));
-                photo.setCaption("💸 «Мы сэкономили 240 000 ₽ за 2 недели работы с MirAl»\n");
-                photo.setParseMode("HTML");
-                execute(photo);
+    private void preloadMedia(long mediaChatId) {
+        for (String resource : funnelEngine.current().images()) {
+            if (mediaCache.isCached(resource)) {
+                continue;
+            }
+            SendPhoto photo = new SendPhoto();
+            photo.setChatId(mediaChatId);
+            photo.setDisableNotification(true);
+            try {
+                outbound.submit(mediaChatId, OutboundQueue.Priority.BACKGROUND,
+                        () -> sendCachedPhoto(photo, resource)).get();
+            } catch (ExecutionException e) {
+                Log.error("media.preload", mediaChatId, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
             }
-
-            // 2) Формируем inline-клавиатуру с кнопкой "Нужен аудит"
-            InlineKeyboardMarkup markupInline = new InlineKeyboardMarkup();
-            List<List<InlineKeyboardButton>> rowsInline = new ArrayList<>();
-            List<InlineKeyboardButton> row1 = new ArrayList<>();
-            InlineKeyboardButton auditButton = new InlineKeyboardButton();
-            auditButton.setText("Нужен аудит");
-            auditButton.setCallbackData("video_need_audit");
-            row1.add(auditButton);
-            rowsInline.add(row1);
-            markupInline.setKeyboard(rowsInline);
-
-            // 3) Отправляем текст кейса вместе с кнопкой
-            SendMessage message = new SendMessage();
-            message.setChatId(chatId.toString());
-            message.setText(text);
-            message.setParseMode("HTML");
-            message.setReplyMarkup(markupInline);
-            execute(message);
-
-        } catch (Exception e) {
-            e.printStackTrace();
         }
     }
 
-
-    private void sendPresentation(Long chatId) {
+    // telegrambots держит запросы в пуле Apache с двумя соединениями на хост, и потоки отправки
+    // ждут друг друга (нагрузочный тест упирается в ~2 запроса одновременно). Настроек пула
+    // библиотека не открывает, поэтому размер меняется через её поля; не вышло — остаётся как есть
+    private void widenConnectionPool(int connections) {
         try {
-            // Текст с ссылкой на презентацию
-            String text = "<b>Презентация отправлена — теперь у вас есть цифры и кейсы</b>\n\n" +
-                    "📎 <a href=\"https://drive.google.com/file/d/1rIHkpo766NkbGVl2F_Qp-oC5Ln7_5FR3/view?usp=drive_link\">Скачать презентацию</a>\n\n" +
-                    "Вы получили главное:\n" +
-                    "— <b>Как работает MirAl</b>\n" +
-                    "— <b>Реальные кейсы</b> с ростом выручки до +41%\n" +
-                    "— <b>Сколько можно сэкономить</b> на контроле и неэффективных менеджерах\n" +
-                    "— Примеры расчётов и формата сотрудничества\n\n" +
-                    "📌 Это не “красивая упаковка” — это <b>конкретные сценарии</b>, " +
-                    "которые уже сработали у предпринимателей, таких же как вы.\n\n" +
-                    "Теперь самое важное — адаптировать это под вашу ситуацию. Выберите следующий шаг:";
-
-            // Создаем inline-клавиатуру
-            InlineKeyboardMarkup markupInline = new InlineKeyboardMarkup();
-            List<List<InlineKeyboardButton>> rowsInline = new ArrayList<>();
-
-            // Кнопка "Хочу консультацию"
-            List<InlineKeyboardButton> row1 = new ArrayList<>();
-            InlineKeyboardButton consultButton = new InlineKeyboardButton();
-            consultButton.setText("Хочу консультацию");
-            consultButton.setCallbackData("want_consultation");
-            row1.add(consultButton);
-
-            // Кнопка "Хочу расчет под свой бизнес"
-            List<InlineKeyboardButton> row2 = new ArrayList<>();
-            InlineKeyboardButton calcButton = new InlineKeyboardButton();
-            calcButton.setText("Хочу расчет под свой бизнес");
-            calcButton.setCallbackData("want_calculation");
-            row2.add(calcButton);
-
-            // Кнопка "Хочу видео"
-            List<InlineKeyboardButton> row3 = new ArrayList<>();
-            InlineKeyboardButton videoButton = new InlineKeyboardButton();
-            videoButton.setText("Хочу видео");
-            videoButton.setCallbackData("get_video");
-            row3.add(videoButton);
-
-            rowsInline.add(row1);
-            rowsInline.add(row2);
-            rowsInline.add(row3);
-            markupInline.setKeyboard(rowsInline);
-
-            // Отправляем сообщение с кнопками
-            SendMessage message = new SendMessage();
-            message.setChatId(chatId.toString());
-            message.setText(text);
-            message.setParseMode("HTML");
-            message.setDisableWebPagePreview(true);
-            message.setReplyMarkup(markupInline);
-            execute(message);
-
-            // После отправки презентации запускаем таймер на 5 минут для case
-            schedulePresentationTimer(chatId);
-
-        } catch (Exception e) {
-            e.printStackTrace();
-            try {
-                SendMessage errorMessage = new SendMessage();
-                errorMessage.setChatId(chatId.toString());
-                errorMessage.setText("Произошла ошибка при отправке презентации. " +
-                        "Пожалуйста, свяжитесь с нами для получения материалов.");
-                errorMessage.setParseMode("HTML");
-                execute(errorMessage);
-            } catch (TelegramApiException ex) {
-                ex.printStackTrace();
+            Field clientField = DefaultAbsSender.class.getDeclaredField("httpClient");
+            clientField.setAccessible(true);
+            Object client = clientField.get(this);
+            Field managerField = client.getClass().getDeclaredField("connManager");
+            managerField.setAccessible(true);
+            Object manager = managerField.get(client);
+            if (manager instanceof PoolingHttpClientConnectionManager) {
+                PoolingHttpClientConnectionManager pool = (PoolingHttpClientConnectionManager) manager;
+                pool.setMaxTotal(Math.max(pool.getMaxTotal(), connections));
+                pool.setDefaultMaxPerRoute(connections);
             }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            Log.error("telegram.pool", e);
         }
     }
 
-    private void schedulePresentationTimer(Long chatId) {
-        // Отменяем предыдущий, если он был
-        cancelPresentationTimer(chatId);
-
-        Timer timer = new Timer();
-        TimerTask task = new TimerTask() {
-            @Override
-            public void run() {
-                // Если пользователь не нажал ни одну из кнопок после презентации, отправляем новый кейс
-                if (getUserState(chatId) == UserState.DEFAULT) {
-                    sendPresentationCaseMessage(chatId);
-                }
-                userPresentationTimers.remove(chatId);
+    // Отправляет картинку из ресурсов по кешированному file_id (или загружает и запоминает его).
+    // Выполняется в потоке очереди отправки. Устаревший file_id прозрачно заменяется повторной загрузкой. false — картинки нет в сборке.
+    private boolean sendCachedPhoto(SendPhoto photo, String resource) throws TelegramApiException {
+        InputFile file = mediaCache.photo(resource);
+        if (file == null) {
+            return false;
+        }
+        photo.setPhoto(file);
+        try {
+            mediaCache.remember(resource, executePhoto(photo));
+        } catch (TelegramApiException e) {
+            if (file.isNew() || !MediaCache.isStaleFileId(e)) {
+                throw e;
             }
-        };
-
-        // Запускаем таймер на 5 минут (300000 мс)
-        timer.schedule(task, 300000);
-        userPresentationTimers.put(chatId, timer);
+            mediaCache.invalidate(resource);
+            photo.setPhoto(mediaCache.photo(resource));
+            mediaCache.remember(resource, executePhoto(photo));
+        }
+        return true;
     }
 
-    private void cancelPresentationTimer(Long chatId) {
-        Timer timer = userPresentationTimers.get(chatId);
-        if (timer != null) {
-            timer.cancel();
-            userPresentationTimers.remove(chatId);
+    // Все запросы к Bot API, кроме отправки файлов, проходят здесь: задержка и ошибки по методу
+    @Override
+    public <T extends Serializable, Method extends BotApiMethod<T>> T execute(Method method) throws TelegramApiException {
+        long started = System.nanoTime();
+        try {
+            return super.execute(method);
+        } catch (TelegramApiException e) {
+            telegramErrors.get(method.getMethod()).inc();
+            throw e;
+        } finally {
+            telegramLatency.get(method.getMethod()).observeSince(started);
         }
     }
 
-    private void sendPresentationCaseMessage(Long chatId) {
+    // execute(SendPhoto) в библиотеке final, поэтому замер снаружи; симуляция подменяет отправку здесь
+    protected Message executePhoto(SendPhoto photo) throws TelegramApiException {
+        long started = System.nanoTime();
         try {
-            // Основной текст кейса
-            String longText =
-                    "Владелец компании по продаже кровельных материалов, Андрей, думал, что у него сильная команда.\n" +
-                            "Звонки шли, CRM заполнялась, менеджеры отчитывались — но выручка стояла.\n" +
-                            "💬 «Мы лили трафик, тратили на рекламу, а в итоге слышали “будем думать” или “перезвоните позже”.\n" +
-                            "Хотя продукт конкурентный, цена хорошая, логистика выстроена». Что пошло не так?\n" +
-                            "После подключения MirAl стало очевидно:\n" +
-                            "— 3 менеджера <b>теряли клиента прямо в первом касании</b>\n" +
-                            "— скрипты игнорировались\n" +
-                            "— один менеджер даже <b>называл цену, не узнав объём и регион доставки</b>\n\n" +
-                            "📊 Через 2 недели:\n" +
-                            "— 3 слабых сотрудника заменены\n" +
-                            "— Новички с первых дней получают обратную связь от MirAl\n" +
-                            "— Руководитель перестал тратить часы на прослушку\n\n" +
-                            "<b>Результат через 45 дней: +1,3 млн ₽ к выручке.</b>\n" +
-                            "🔒 MirAl даёт результат быстро — но мы <b>ограничиваем количество подключений в месяц</b>, " +
-                            "чтобы сохранить качество внедрения.\n" +
-                            "<b>Стоимость запуска от 100 000 ₽</b>, подписка — от 3 ₽ за минуту.\n" +
-                            "<b>Оплата — только после результата.</b>\n\n" +
-                            "📥 Презентацию вы уже видели.\n" +
-                            "Готовы обсудить расчёт и запуск под вашу задачу?";
-
-            // Отправляем короткую подпись вместе с фотографией (опционально)
-            InputStream caseImageStream = getClass().getResourceAsStream("/img/roof_case.jpg");
-            if (caseImageStream != null) {
-                SendPhoto photo = new SendPhoto();
-                photo.setChatId(chatId.toString());
-                photo.setPhoto(new InputFile(caseImageStream, "roof_case.jpg"));
-                // Делаем короткую подпись, не превышающую 1024 символа
-                photo.setCaption("📈 +1,3 млн ₽ к выручке за 45 дней");
-                photo.setParseMode("HTML");
-                execute(photo);
-            }
-
-            // Формируем inline-клавиатуру для дальнейших действий
-            InlineKeyboardMarkup markupInline = new InlineKeyboardMarkup();
-            List<List<InlineKeyboardButton>> rowsInline = new ArrayList<>();
-
-            List<InlineKeyboardButton> row1 = new ArrayList<>();
-            InlineKeyboardButton sameButton = new InlineKeyboardButton();
-            sameButton.setText("Хочу так же");
-            sameButton.setCallbackData("presentation_need_audit");
-            row1.add(sameButton);
+            return execute(photo);
+        } catch (TelegramApiException e) {
+            telegramErrors.get(SendPhoto.PATH).inc();
+            throw e;
+        } finally {
+            telegramLatency.get(SendPhoto.PATH).observeSince(started);
+        }
+    }
 
-            List<InlineKeyboardButton> row2 = new ArrayList<>();
-            InlineKeyboardButton calcButton = new InlineKeyboardButton();
-            calcButton.setText("Получить расчёт");
-            calcButton.setCallbackData("presentation_need_audit");
-            row2.add(calcButton);
+    @Override
+    public void onClosing() {
+        if (partitions != null) {
+            partitions.shutdown();
+        }
+        followUps.shutdown();
+        callbackAcks.shutdown();
+        leadIndex.shutdown();
+        // Дорабатываем уже принятые события до закрытия журнала и outbox
+        dispatcher.shutdown();
+        // Рассылка ждёт ответов на уже поставленные сообщения, пока очередь отправки работает
+        broadcast.shutdown();
+        outbound.shutdown(10000);
+        audience.close();
+        funnelEngine.shutdown();
+        journal.shutdown();
+        // После журнала: его сжатие читает сессии, в том числе холодные
+        sessions.shutdown();
+        leadWriter.shutdown();
+        sheetsService.shutdown();
+    }
 
-            rowsInline.add(row1);
-            rowsInline.add(row2);
-            markupInline.setKeyboard(rowsInline);
+    @Override
+    public String getBotUsername() {
+        return botUsername;
+    }
 
-            // Отправляем полный текст кейса вместе с кнопками
-            SendMessage fullCaseMessage = new SendMessage();
-            fullCaseMessage.setChatId(chatId.toString());
-            fullCaseMessage.setText(longText);
-            fullCaseMessage.setParseMode("HTML");
-            fullCaseMessage.setReplyMarkup(markupInline);
-            execute(fullCaseMessage);
+    @Override
+    public String getBotToken() {
+        return botToken;
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+    @Override
+    public void onUpdateReceived(Update update) {
+        // Повторная доставка уже принятого события не обрабатывается. Номер запоминается только
+        // после того, как событие принято: отклонённое полосой должно пройти при повторной доставке.
+        // Проверка и отметка не атомарны — события приходят из одного потока (опрос или вебхук)
+        Integer updateId = update.getUpdateId();
+        if (updateId != null && dedup.isDuplicate(updateId)) {
+            duplicates.get("update").inc();
+            return;
+        }
+        long receivedAt = System.nanoTime();
+        // Нажатие подтверждаем сразу, ещё до полосы чата: индикатор на кнопке гаснет, пока
+        // действие выполняется. Повторные нажатия той же кнопки тоже подтверждаются
+        if (update.hasCallbackQuery()) {
+            callbackAcks.acknowledge(update.getCallbackQuery().getId(), receivedAt);
+        }
+        String type = update.hasMessage() ? "message" : update.hasCallbackQuery() ? "callback_query" : "other";
+        Metrics.Histogram latency = updateLatency.get(type);
+        Long chatId = chatIdOf(update);
+        if (chatId == null) {
+            // Событие без чата бот не обрабатывает, порядок ему не нужен
+            markAccepted(updateId);
+            handleUpdate(update);
+            latency.observeSince(receivedAt);
+        } else if (dispatcher.submit(chatId, () -> {
+            // Записи журнала из обработки получают чат и тип события
+            Log.context(chatId, type);
+            try {
+                handleUpdate(update);
+            } finally {
+                Log.clearContext();
+                latency.observeSince(receivedAt);
+            }
+        })) {
+            markAccepted(updateId);
+        } else {
+            Log.warn("dispatch", "Событие " + updateId + " не принято: обработчик остановлен");
         }
     }
 
-    private void startConsultationForm(Long chatId) {
-        try {
-            // Сначала отправляем дополнительное сообщение перед началом формы
-            String preFormText = "Отличный выбор — чем быстрее разберёмся в вашей ситуации, тем быстрее вы начнёте экономить и зарабатывать больше.\n" +
-                    "Наш менеджер <b>в ближайшее время свяжется с вами</b>, чтобы:\n" +
-                    " — уточнить, <b>что именно у вас происходит сейчас</b> в отделе продаж\n" +
-                    " — согласовать <b>удобное время для консультации</b>\n" +
-                    " — и подготовить конкретные предложения под вашу задачу";
-
-            SendMessage preFormMessage = new SendMessage();
-            preFormMessage.setChatId(chatId.toString());
-            preFormMessage.setText(preFormText);
-            preFormMessage.setParseMode("HTML");
-            execute(preFormMessage);
-        } catch (TelegramApiException e) {
-            e.printStackTrace();
+    private void markAccepted(Integer updateId) {
+        if (updateId != null) {
+            dedup.markAccepted(updateId);
         }
-
-        // Создаем объект для хранения данных
-        UserData data = new UserData();
-        data.requestType = "Консультация";
-        setUserData(chatId, data);
-
-        // Устанавливаем состояние и запрашиваем имя
-        setUserState(chatId, UserState.AWAITING_NAME);
-        askForName(chatId);
     }
 
-    private void sendVideoConsultationForm(Long chatId) {
-        // Повторяем логику формы консультации после видео
-        startConsultationForm(chatId);
+    public UpdateDispatcher getDispatcher() {
+        return dispatcher;
     }
 
-    private void startCalculationForm(Long chatId) {
-        try {
-            // Сначала отправляем дополнительное сообщение перед началом формы
-            String preFormText = "Мы видим вашу боль — и понимаем, как важно <b>точно знать</b>, во сколько вам обойдётся внедрение MirAl и какие деньги вы сможете сэкономить уже в первый месяц.\n" +
-                    "<b>Наш менеджер скоро свяжется с вами</b>, чтобы:\n" +
-                    " — обсудить вашу текущую ситуацию\n" +
-                    " — согласовать удобное время для расчёта\n" +
-                    " — задать ключевые вопросы: сколько звонков, сколько менеджеров, какая CRM, какие боли вы хотите закрыть\n" +
-                    "📞 <b>Пожалуйста, обязательно возьмите трубку</b> — от этого разговора зависит, как быстро вы получите контроль, цифры и результат.";
-
-            SendMessage preFormMessage = new SendMessage();
-            preFormMessage.setChatId(chatId.toString());
-            preFormMessage.setText(preFormText);
-            preFormMessage.setParseMode("HTML");
-            execute(preFormMessage);
-        } catch (TelegramApiException e) {
-            e.printStackTrace();
+    private static Long chatIdOf(Update update) {
+        if (update.hasMessage()) {
+            return update.getMessage().getChatId();
         }
+        if (update.hasCallbackQuery() && update.getCallbackQuery().getMessage() != null) {
+            return update.getCallbackQuery().getMessage().getChatId();
+        }
+        return null;
+    }
+
+    // Выполняется в полосе чата: события одного чата сюда приходят строго по очереди.
+    // Симуляция вызывает напрямую из своего потока
+    void handleUpdate(Update update) {
+        // Одна версия воронки на всю обработку, даже если рядом идёт перезагрузка
+        Funnel funnel = funnelEngine.current();
+        // Ключи побочных эффектов события: повтор не даёт второго сообщения или заявки
+        long updateId = update.getUpdateId() == null ? 0 : update.getUpdateId();
+        // Первое событие чата добавляет его в аудиторию рассылок
+        Long eventChatId = chatIdOf(update);
+        if (eventChatId != null) {
+            addToAudience(eventChatId);
+        }
+        // Обработка обычных сообщений
+        if (update.hasMessage() && update.getMessage().hasText()) {
+            Message message = update.getMessage();
+            Long chatId = message.getChatId();
+            String text = message.getText();
 
-        // Создаем объект для хранения данных
-        UserData data = new UserData();
-        data.requestType = "Расчет под бизнес";
-        setUserData(chatId, data);
+            // /stats [минут] — отчёт конверсии, только для администраторов
+            if (adminChatIds.contains(chatId) && (text.equals("/stats") || text.startsWith("/stats "))) {
+                sendStats(chatId, text.substring("/stats".length()).trim());
+                return;
+            }
+            if (adminChatIds.contains(chatId) && (text.equals("/broadcast") || text.startsWith("/broadcast "))) {
+                handleBroadcast(chatId, text.substring("/broadcast".length()).trim());
+                return;
+            }
+            Funnel.Action command = funnel.command(text);
+            if (command != null) {
+                analytics.record(chatId, text);
+                run(chatId, funnel, command, OutboundQueue.Priority.INTERACTIVE, updateId);
+                return;
+            }
+            // Шаг формы по состоянию пользователя; вне формы — ответ по умолчанию
+            Funnel.FormStep step = funnel.formStep(getUserState(chatId));
+            if (step == null) {
+                run(chatId, funnel, funnel.defaultText(), OutboundQueue.Priority.INTERACTIVE, updateId);
+            } else {
+                fillForm(chatId, funnel, step, text, updateId);
+            }
+        }
+        // Обработка нажатий на inline кнопки
+        else if (update.hasCallbackQuery()) {
+            String callbackData = update.getCallbackQuery().getData();
+            Long chatId = update.getCallbackQuery().getMessage().getChatId();
 
-        // Устанавливаем состояние и запрашиваем имя
-        setUserState(chatId, UserState.AWAITING_NAME);
-        askForName(chatId);
-    }
+            // Второе и третье нажатие той же кнопки подряд — нетерпение, а не новое действие
+            if (callbackData != null && !dedup.firstCallback(chatId, callbackData)) {
+                duplicates.get("callback").inc();
+                return;
+            }
 
-    private void sendVideoCalculationForm(Long chatId) {
-        // Повторяем логику формы расчёта после видео
-        startCalculationForm(chatId);
-    }
+            // Отменяем все таймеры при любом действии пользователя
+            cancelFollowUps(chatId);
 
-    private void sendVideoCaseCalculationForm(Long chatId) {
-        // Логика формы расчёта после видео-кейса
-        startCalculationForm(chatId);
+            Funnel.Action action = funnel.callback(callbackData);
+            if (action != null) {
+                analytics.record(chatId, action.name);
+                run(chatId, funnel, action, OutboundQueue.Priority.INTERACTIVE, updateId);
+            }
+        }
     }
 
-    private void sendPresentationCaseCalculationForm(Long chatId) {
-        // Логика формы расчёта после презентационного кейса
-        startCalculationForm(chatId);
+    // Выполняет шаги действия воронки по порядку. Сообщения уходят через очередь отправки
+    // в порядке постановки. Если у действия есть шаблон ошибки, остальные шаги ждут ответа на
+    // отправку — не в потоке полосы, а продолжением чата (UpdateDispatcher.continueAfter), чтобы
+    // медленная загрузка фото не задерживала другие чаты полосы; при ошибке отправляем этот шаблон
+    // и останавливаемся. Иначе не ждём, ошибка только в лог.
+    // updateId — событие, вызвавшее действие (0 — follow-up): из него и номера шага ключи отправок.
+    private void run(Long chatId, Funnel funnel, Funnel.Action action, OutboundQueue.Priority priority, long updateId) {
+        run(chatId, funnel, action, priority, updateId, 0);
     }
 
-    private void askForName(Long chatId) {
-        SendMessage message = new SendMessage();
-        message.setChatId(chatId.toString());
-        message.setText("Отлично! Давайте познакомимся.\n\nПожалуйста, введите ваше имя:");
-        try {
-            execute(message);
-        } catch (TelegramApiException e) {
-            e.printStackTrace();
+    private void run(Long chatId, Funnel funnel, Funnel.Action action, OutboundQueue.Priority priority, long updateId,
+                     int from) {
+        String chat = chatId.toString();
+        for (int i = from; i < action.steps.length; i++) {
+            Funnel.Step step = action.steps[i];
+            long key = sendKey(updateId, i);
+            try {
+                CompletableFuture<?> sent = null;
+                switch (step.op) {
+                    case Funnel.SEND:
+                        sent = outbound.submit(chatId, priority, key, () -> execute(step.template.message(chat)));
+                        break;
+                    case Funnel.PHOTO:
+                        sent = outbound.submit(chatId, priority, key, () -> {
+                            // Если изображения нет в сборке, отправляем только текст
+                            if (!sendCachedPhoto(step.template.photo(chat), step.resource)) {
+                                execute(step.template.message(chat));
+                            }
+                            return null;
+                        });
+                        break;
+                    case Funnel.IMAGE:
+                        sent = outbound.submit(chatId, priority, key,
+                                () -> sendCachedPhoto(step.template.photo(chat), step.resource));
+                        break;
+                    case Funnel.SCHEDULE:
+                        scheduleFollowUp(chatId, step.kind, funnel.followUpDelay(step.kind));
+                        break;
+                    case Funnel.FORM:
+                        startForm(chatId, funnel, step.requestType, priority, key);
+                        break;
+                    case Funnel.IDLE:
+                        // Пользователь уже заполняет форму — не перебиваем его
+                        if (getUserState(chatId) != Funnel.DEFAULT_STATE) {
+                            return;
+                        }
+                        break;
+                }
+                if (sent != null) {
+                    if (action.error != null) {
+                        CompletableFuture<?> pending = sent;
+                        int next = i + 1;
+                        dispatcher.continueAfter(chatId, pending,
+                                () -> afterSend(chatId, funnel, action, priority, updateId, pending, next));
+                        return;
+                    }
+                    logFailure(chatId, sent);
+                }
+            } catch (Exception e) {
+                Log.error("funnel.step", chatId, e);
+                if (action.error != null) {
+                    send(chatId, action.error, priority, sendKey(updateId, action.steps.length));
+                    return;
+                }
+            }
         }
     }
 
-    private void askForContact(Long chatId) {
-        SendMessage message = new SendMessage();
-        message.setChatId(chatId.toString());
-        message.setText("Теперь введите ваш телефон или Telegram для связи:");
+    // Продолжение действия после ответа на отправку: ошибка — шаблон ошибки, иначе следующие шаги
+    private void afterSend(Long chatId, Funnel funnel, Funnel.Action action, OutboundQueue.Priority priority,
+                           long updateId, CompletableFuture<?> sent, int next) {
         try {
-            execute(message);
-        } catch (TelegramApiException e) {
-            e.printStackTrace();
+            sent.join();
+        } catch (CompletionException | CancellationException e) {
+            Log.error("funnel.step", chatId, e.getCause() != null ? e.getCause() : e);
+            send(chatId, action.error, priority, sendKey(updateId, action.steps.length));
+            return;
+        }
+        run(chatId, funnel, action, priority, updateId, next);
+    }
+
+    private void startForm(Long chatId, Funnel funnel, String requestType, OutboundQueue.Priority priority, long key) {
+        // Новая заявка с первым шагом формы (консультация, расчет или аудит)
+        Funnel.FormStep first = funnel.firstFormStep();
+        saveSession(chatId, new SessionStore.Session(first.state, requestType, null, null, null));
+        send(chatId, first.prompt, priority, key);
+    }
+
+    private void fillForm(Long chatId, Funnel funnel, Funnel.FormStep step, String text, long updateId) {
+        SessionStore.Session data = sessions.get(chatId).withField(step.field, text);
+        analytics.record(chatId, "form." + step.field);
+        long key = sendKey(updateId, 0);
+        if (step.next != null) {
+            saveSession(chatId, data.withState(step.next.state));
+            send(chatId, step.next.prompt, OutboundQueue.Priority.INTERACTIVE, key);
+        } else if (saveToGoogleSheets(chatId, data, updateId)) {
+            // Подтверждаем заявку только после записи на диск;
+            // при ошибке состояние сохраняется, и последний ответ можно отправить ещё раз
+            analytics.record(chatId, "lead");
+            send(chatId, funnel.formComplete(), OutboundQueue.Priority.INTERACTIVE, key);
+            clearSession(chatId);
+        } else {
+            send(chatId, funnel.formSaveError(), OutboundQueue.Priority.INTERACTIVE, key);
         }
     }
 
-    private void askForComment(Long chatId) {
-        SendMessage message = new SendMessage();
-        message.setChatId(chatId.toString());
-        message.setText("Расскажите коротко о вашем бизнесе и какие задачи хотите решить:");
+    // Ключ отправки: событие и номер шага; у follow-up и служебных сообщений ключа нет
+    private static long sendKey(long updateId, int step) {
+        return updateId == 0 ? 0 : updateId << 8 | step;
+    }
+
+    // Сохраняет заявку в локальный outbox (с fsync); в Google Sheets она уйдёт в фоне.
+    // Столбец G — ключ заявки (чат и событие, завершившее форму): по нему LeadWriter
+    // не дописывает строку повторно, если append мог пройти, но ответа не было.
+    // Столбец H — новая заявка или повторная (тот же чат или контакт уже в таблице); он добавлен
+    // после ключа, чтобы ключ остался в том же столбце, что и в строках, записанных раньше.
+    // Возвращает false, если заявку не удалось записать на диск.
+    private boolean saveToGoogleSheets(Long chatId, SessionStore.Session data, long updateId) {
+        LeadIndex.Status status = leadIndex.classify(chatId, data.contact);
+        // Подготовка данных для Google Sheets
+        List<Object> row = Arrays.asList(
+                data.requestType,
+                data.name,
+                data.contact,
+                data.comment,
+                "Chat ID: " + chatId,
+                new java.util.Date(clock.currentTimeMillis()).toString(),
+                LeadWriter.KEY_PREFIX + chatId + ":" + updateId,
+                status.label
+        );
+
         try {
-            execute(message);
-        } catch (TelegramApiException e) {
-            e.printStackTrace();
+            submitLead(row);
+            leadIndex.record(chatId, data.contact, status);
+            return true;
+        } catch (IOException e) {
+            Log.error("lead.save", chatId, e);
+            return false;
         }
     }
 
-    private void saveToGoogleSheets(Long chatId, UserData data) {
-        try {
-            // Подготовка данных для Google Sheets
-            List<List<Object>> values = Arrays.asList(
-                    Arrays.asList(
-                            data.requestType,
-                            data.name,
-                            data.contact,
-                            data.comment,
-                            "Chat ID: " + chatId,
-                            new java.util.Date().toString()
-                    )
-            );
-
-            ValueRange body = new ValueRange()
-                    .setValues(values);
-
-            // Сохранение в Google Sheets
-            sheetsService.getSheetsService().spreadsheets().values()
-                    .append(spreadsheetId, "A1", body)
-                    .setValueInputOption("RAW")
-                    .execute();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    private void sendConfirmation(Long chatId) {
-        SendMessage message = new SendMessage();
-        message.setChatId(chatId.toString());
-        message.setText("✅ Отлично! Ваша заявка принята.\n\n" +
-                "Наш специалист свяжется с вами в течение 24 часов и поможет настроить MirAl под ваши задачи.\n\n" +
-                "А пока вы можете изучить презентацию или посмотреть видео, если ещё не успели это сделать.");
-        try {
-            execute(message);
-        } catch (TelegramApiException e) {
-            e.printStackTrace();
-        }
+    // Заявка в outbox; симуляция забирает её себе, не трогая диск и Sheets
+    protected void submitLead(List<Object> row) throws IOException {
+        leadWriter.submit(row);
     }
 
     // Методы для работы с состояниями пользователя
-    private UserState getUserState(Long chatId) {
-        return userStates.getOrDefault(chatId, UserState.DEFAULT);
+    private int getUserState(Long chatId) {
+        return sessions.state(chatId);
     }
 
-    private void setUserState(Long chatId, UserState state) {
-        userStates.put(chatId, state);
+    // Сохраняет сессию и, если хранилище не переживает перезапуск само, пишет её в журнал
+    private void saveSession(Long chatId, SessionStore.Session session) {
+        sessions.put(chatId, session);
+        if (!sessions.isDurable()) {
+            journal.session(chatId, session.state, session.requestType, session.name, session.contact, session.comment);
+        }
     }
 
-    private UserData getUserData(Long chatId) {
-        return userData.getOrDefault(chatId, new UserData());
+    private void clearSession(Long chatId) {
+        sessions.remove(chatId);
+        if (!sessions.isDurable()) {
+            journal.session(chatId, Funnel.DEFAULT_STATE, null, null, null, null);
+        }
     }
 
-    private void setUserData(Long chatId, UserData data) {
-        userData.put(chatId, data);
+    public SessionStore getSessions() {
+        return sessions;
     }
 
-    private void clearUserData(Long chatId) {
-        userData.remove(chatId);
-        userStates.put(chatId, UserState.DEFAULT);
+    // Снимок живого состояния для сжатия журнала
+    private void writeSnapshot(SessionJournal.Visitor out) {
+        if (!sessions.isDurable()) {
+            sessions.forEach(out::onSession);
+        }
+        if (partitions == null) {
+            followUps.forEachPending(out::onFollowUpScheduled);
+        }
     }
 
-    private void sendDefaultResponse(Long chatId) {
-        SendMessage message = new SendMessage();
-        message.setChatId(chatId.toString());
-        message.setText("Я не понимаю вашего сообщения. Пожалуйста, используйте команду /start " +
-                "или выберите одну из предложенных опций.");
+    private void sendStats(Long chatId, String argument) {
+        int window = 60;
         try {
-            execute(message);
-        } catch (TelegramApiException e) {
-            e.printStackTrace();
+            if (!argument.isEmpty()) {
+                window = Integer.parseInt(argument);
+            }
+        } catch (NumberFormatException e) {
+            // Неверное окно — отчёт за час по умолчанию
         }
+        sendText(chatId, funnelReport(window));
     }
 
-    // Методы для первого follow-up (1 час)
-    private void scheduleFollowUpMessage(Long chatId) {
-        // Отменяем предыдущий таймер, если он был
-        cancelFollowUpMessage(chatId);
-
-        Timer timer = new Timer();
-        TimerTask task = new TimerTask() {
-            @Override
-            public void run() {
-                sendFollowUpMessage(chatId);
-                userTimers.remove(chatId);
+    // /broadcast — состояние рассылки; /broadcast <шаблон> — рассылка шаблона всем чатам
+    // аудитории (снимок на момент команды); /broadcast pause и /broadcast resume
+    private void handleBroadcast(Long chatId, String argument) {
+        String reply;
+        try {
+            if (argument.isEmpty()) {
+                reply = broadcast.status();
+            } else if (argument.equals("pause")) {
+                reply = broadcast.pause();
+            } else if (argument.equals("resume")) {
+                reply = broadcast.resume();
+            } else {
+                reply = broadcast.begin(argument, audience.snapshot(), chatId);
             }
-        };
+        } catch (IllegalArgumentException e) {
+            // Неизвестный шаблон
+            reply = e.getMessage();
+        } catch (IOException e) {
+            Log.error("broadcast", chatId, e);
+            reply = "Не удалось прочитать аудиторию или сохранить состояние рассылки: " + e.getMessage();
+        }
+        sendText(chatId, reply);
+    }
 
-        // Запускаем таймер на 1 час (3600000 мс)
-        timer.schedule(task, 3600000);
-        userTimers.put(chatId, timer);
+    // Служебный ответ администратору
+    private void sendText(long chatId, String text) {
+        SendMessage message = new SendMessage(Long.toString(chatId), text);
+        logFailure(chatId, outbound.submit(chatId, OutboundQueue.Priority.INTERACTIVE, () -> execute(message)));
     }
 
-    private void cancelFollowUpMessage(Long chatId) {
-        Timer timer = userTimers.get(chatId);
-        if (timer != null) {
-            timer.cancel();
-            userTimers.remove(chatId);
-        }
+    // Ставит готовый шаблон без картинки в очередь отправки
+    private void send(Long chatId, MessageTemplate template, OutboundQueue.Priority priority, long key) {
+        logFailure(chatId, outbound.submit(chatId, priority, key, () -> execute(template.message(chatId.toString()))));
     }
 
-    private void sendFollowUpMessage(Long chatId) {
-        try {
-            String text = "Вы тратите деньги на рекламу, платите зарплаты менеджерам, а клиенты всё равно \"не доходят\" до сделки?\n\n" +
-                    "❌ Звонки есть — продаж нет.\n" +
-                    "❌ Скрипты написаны — но не работают.\n" +
-                    "❌ Руководитель слушает 5 звонков из 500 — и делает выводы \"на ощупь\".\n\n" +
-                    "Всё это не про неудачу. Это про <b>отсутствие контроля</b>.\n\n" +
-                    "👉 MirAl — ИИ-бот, который уже на третий день покажет, где теряются ваши деньги:\n" +
-                    "— Кто из менеджеров сливает заявки\n" +
-                    "— Где ломается воронка\n" +
-                    "— Кто работает на результат, а кто просто \"отрабатывает смену\"\n\n" +
-                    "Хотите увидеть это на примере <b>ваших звонков</b>?\n\n" +
-                    "📩 Оставьте заявку на аудит — и получите чёткий разбор, без обязательств и продаж \"в лоб\".\n\n" +
-                    "<b>Мест немного — работа с каждым клиентом индивидуальна.</b>";
-
-            // Создаем inline-клавиатуру с одной кнопкой
-            InlineKeyboardMarkup markupInline = new InlineKeyboardMarkup();
-            List<List<InlineKeyboardButton>> rowsInline = new ArrayList<>();
-
-            List<InlineKeyboardButton> row1 = new ArrayList<>();
-            InlineKeyboardButton auditButton = new InlineKeyboardButton();
-            auditButton.setText("Хочу аудит моих звонков");
-            auditButton.setCallbackData("want_audit");
-            row1.add(auditButton);
-
-            rowsInline.add(row1);
-            markupInline.setKeyboard(rowsInline);
-
-            // Отправляем сообщение
-            SendMessage message = new SendMessage();
-            message.setChatId(chatId.toString());
-            message.setText(text);
-            message.setParseMode("HTML");
-            message.setReplyMarkup(markupInline);
-            execute(message);
-
-            // После отправки первого follow-up запускаем таймер на 5 минут для case
-            scheduleCaseTimer(chatId);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    // Методы для case follow-up (5 минут после первого follow-up)
-    private void scheduleCaseTimer(Long chatId) {
-        // Отменяем предыдущий, если он был
-        cancelCaseTimer(chatId);
-
-        Timer timer = new Timer();
-        TimerTask task = new TimerTask() {
-            @Override
-            public void run() {
-                // Если пользователь не нажал кнопку (состояние всё ещё DEFAULT), отправляем кейс
-                if (getUserState(chatId) == UserState.DEFAULT) {
-                    sendCaseMessage(chatId);
-                }
-                userCaseTimers.remove(chatId);
+    private static void logFailure(long chatId, CompletableFuture<?> sent) {
+        sent.whenComplete((result, error) -> {
+            if (error != null) {
+                Log.error("telegram.send", chatId, error);
             }
-        };
-
-        // Запускаем таймер на 5 минут (300000 мс)
-        timer.schedule(task, 300000);
-        userCaseTimers.put(chatId, timer);
+        });
     }
 
-    private void cancelCaseTimer(Long chatId) {
-        Timer timer = userCaseTimers.get(chatId);
-        if (timer != null) {
-            timer.cancel();
-            userCaseTimers.remove(chatId);
+    // Методы для follow-up сообщений
+    private void scheduleFollowUp(Long chatId, FollowUpKind kind, long delayMillis) {
+        // Повторная постановка заменяет предыдущий таймер того же вида
+        long deadline = clock.currentTimeMillis() + delayMillis;
+        if (partitions != null) {
+            try {
+                partitions.scheduleAt(chatId, kind, deadline);
+            } catch (IOException e) {
+                Log.error("followup.schedule", chatId, e);
+            }
+            return;
         }
+        followUps.scheduleAt(chatId, kind, deadline);
+        journal.followUpScheduled(chatId, kind, deadline);
     }
 
-    private void sendCaseMessage(Long chatId) {
-        try {
-            String text = "<b>Кейс:</b> “+18% повторных визитов в медицинском центре”";
-
-            // Создаем inline-клавиатуру
-            InlineKeyboardMarkup markupInline = new InlineKeyboardMarkup();
-            List<List<InlineKeyboardButton>> rowsInline = new ArrayList<>();
-
-            // Кнопка "Хочу так же"
-            List<InlineKeyboardButton> row1 = new ArrayList<>();
-            InlineKeyboardButton sameButton = new InlineKeyboardButton();
-            sameButton.setText("Хочу так же");
-            sameButton.setCallbackData("want_same");
-            row1.add(sameButton);
-
-            // Кнопка "Получить расчет"
-            List<InlineKeyboardButton> row2 = new ArrayList<>();
-            InlineKeyboardButton calcButton = new InlineKeyboardButton();
-            calcButton.setText("Получить расчет");
-            calcButton.setCallbackData("want_calculation_case");
-            row2.add(calcButton);
-
-            rowsInline.add(row1);
-            rowsInline.add(row2);
-            markupInline.setKeyboard(rowsInline);
-
-            // Пытаемся отправить с изображением кейса
-            InputStream caseImageStream = getClass().getResourceAsStream("/img/medical_case.jpg");
-            if (caseImageStream != null) {
-                SendPhoto photo = new SendPhoto();
-                photo.setChatId(chatId.toString());
-                photo.setPhoto(new InputFile(caseImageStream, "medical_case.jpg"));
-                photo.setCaption(text);
-                photo.setParseMode("HTML");
-                photo.setReplyMarkup(markupInline);
-                execute(photo);
-            } else {
-                // Если изображения нет, отправляем только текст
-                SendMessage message = new SendMessage();
-                message.setChatId(chatId.toString());
-                message.setText(text);
-                message.setParseMode("HTML");
-                message.setReplyMarkup(markupInline);
-                execute(message);
+    private void cancelFollowUps(Long chatId) {
+        if (partitions != null) {
+            try {
+                partitions.cancelAll(chatId);
+            } catch (IOException e) {
+                Log.error("followup.cancel", chatId, e);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            return;
         }
+        journal.followUpDone(chatId, followUps.cancelAll(chatId));
     }
 
-    private void startAuditForm(Long chatId) {
-        try {
-            // Отправляем подтверждающее сообщение
-            String confirmText = "✅ Всё отлично! Мы получили ваш запрос на аудит звонков.\n\n" +
-                    "Наш специалист в ближайшее время свяжется с вами, чтобы:\n" +
-                    "— уточнить технические детали подключения\n" +
-                    "— согласовать удобное время\n" +
-                    "— объяснить, как именно пройдёт аудит и что вы получите на выходе\n\n" +
-                    "📌 Пожалуйста, будьте на связи — от этого зависит, насколько быстро вы увидите " +
-                    "реальные точки роста в вашем отделе продаж.\n\n" +
-                    "До скорого!";
-
-            SendMessage confirmMessage = new SendMessage();
-            confirmMessage.setChatId(chatId.toString());
-            confirmMessage.setText(confirmText);
-            confirmMessage.setParseMode("HTML");
-            execute(confirmMessage);
-
-            // Создаем объект для хранения данных
-            UserData data = new UserData();
-            data.requestType = "Аудит звонков";
-            setUserData(chatId, data);
-
-            // Устанавливаем состояние и запрашиваем имя
-            setUserState(chatId, UserState.AWAITING_NAME);
-            askForName(chatId);
-
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    private void startCaseForm(Long chatId, String requestType) {
-        // Если пользователь уже в процессе заполнения формы, не начинаем новую
-        if (getUserState(chatId) != UserState.DEFAULT) {
+    // Вызывается пулом планировщика: отложенное сообщение встаёт в очередь своего чата,
+    // чтобы не обгонять и не перебивать обработку его нажатий
+    private void routeFollowUp(long chatId, FollowUpKind kind) {
+        // С разделами сообщение отправляет тот узел, который забрал его из общего хранилища
+        if (partitions != null && !partitions.claim(chatId, kind)) {
             return;
         }
+        if (simulated) {
+            onFollowUp(chatId, kind);
+        } else {
+            dispatcher.submit(chatId, () -> {
+                Log.context(chatId, "follow_up");
+                try {
+                    onFollowUp(chatId, kind);
+                } finally {
+                    Log.clearContext();
+                }
+            });
+        }
+    }
 
-        // Создаем объект для хранения данных
-        UserData data = new UserData();
-        data.requestType = requestType;
-        setUserData(chatId, data);
+    // Симуляция: отправляет follow-up, срок которых наступил по часам бота
+    void runDueFollowUps() {
+        followUps.tick();
+    }
 
-        // Устанавливаем состояние и запрашиваем имя
-        setUserState(chatId, UserState.AWAITING_NAME);
-        askForName(chatId);
+    // Выполняется в полосе чата, когда срабатывает отложенное сообщение
+    private void onFollowUp(long chatId, FollowUpKind kind) {
+        if (partitions == null) {
+            journal.followUpDone(chatId, 1 << kind.ordinal());
+        }
+        Funnel funnel = funnelEngine.current();
+        Funnel.Action action = funnel.followUp(kind);
+        // Вид, убранный из конфигурации после постановки, просто не отправляется
+        if (action != null) {
+            analytics.record(chatId, "followup." + kind.name());
+            run(chatId, funnel, action, OutboundQueue.Priority.BACKGROUND, 0);
+        }
     }
 }
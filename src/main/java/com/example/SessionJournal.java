@@ -0,0 +1,463 @@
+package com.example;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Журнал переходов сессий и отложенных сообщений.
+// Записи добавляются в отображённые в память сегменты journal-N.log; периодически
+// снимается сжатый снимок snapshot-N.bin, после чего сегменты младше N удаляются.
+// Все записи идемпотентны (полное состояние сессии, постановка/снятие follow-up),
+// поэтому снимок можно снимать без остановки записи.
+public class SessionJournal {
+
+    // Получатель записей при восстановлении и источник записей для снимка
+    public interface Visitor {
+        void onSession(long chatId, int state, String requestType, String name, String contact, String comment);
+
+        // Сессия при восстановлении: name, contact и comment уже упакованы в формат
+        // InMemorySessionStore.pack прямо из байтов записи, без декодирования строк
+        default void onPackedSession(long chatId, int state, String requestType, byte[] fields) {
+            String[] values = InMemorySessionStore.unpack(fields, 3);
+            onSession(chatId, state, requestType, values[0], values[1], values[2]);
+        }
+
+        void onFollowUpScheduled(long chatId, FollowUpKind kind, long deadline);
+
+        // kindMask — битовая маска снятых видов (отмена или срабатывание)
+        void onFollowUpDone(long chatId, int kindMask);
+
+        // Все записи восстановления прочитаны
+        default void onRestored() {
+        }
+    }
+
+    // Источник живого состояния для снимка
+    public interface SnapshotSource {
+        void writeTo(Visitor out);
+    }
+
+    private static final byte SESSION = 1;
+    private static final byte FOLLOW_UP_SCHEDULED = 2;
+    private static final byte FOLLOW_UP_DONE = 3;
+    private static final FollowUpKind[] KINDS = FollowUpKind.values();
+
+    // Заголовок записи: длина тела (int) + CRC32 тела (int)
+    private static final int HEADER = 8;
+    private static final int FOLLOW_UP_SIZE = 1 + 8 + 1 + 8;
+    private static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final long COMPACT_THRESHOLD = 4L * SEGMENT_SIZE;
+
+    private final Path dir;
+    private final CRC32 crc = new CRC32();
+    private final ScheduledExecutorService background;
+    private ByteBuffer scratch = ByteBuffer.allocate(4096);
+    // Тип заявки последней восстановленной сессии: типов единицы, строка декодируется один раз
+    private byte[] lastRequestTypeBytes;
+    private String lastRequestType;
+    private byte[] requestTypeScratch = new byte[64];
+
+    private FileChannel segmentChannel;
+    private MappedByteBuffer segment;
+    private long segmentSeq;
+    // Объём журнала, записанный после последнего снимка
+    private long bytesSinceSnapshot;
+
+    public SessionJournal(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        this.background = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-journal");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Восстанавливает состояние: последний снимок, затем сегменты журнала по порядку.
+    // После восстановления открывает новый сегмент для записи.
+    public synchronized void restore(Visitor visitor) throws IOException {
+        long snapshotSeq = -1;
+        Path snapshot = null;
+        List<Long> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.startsWith("snapshot-") && name.endsWith(".bin")) {
+                    long seq = parseSeq(name, "snapshot-", ".bin");
+                    if (seq > snapshotSeq) {
+                        snapshotSeq = seq;
+                        snapshot = file;
+                    }
+                } else if (name.startsWith("journal-") && name.endsWith(".log")) {
+                    segments.add(parseSeq(name, "journal-", ".log"));
+                }
+            }
+        }
+        segments.sort(null);
+
+        if (snapshot != null) {
+            replay(snapshot, visitor);
+        }
+        long lastSeq = snapshotSeq;
+        for (long seq : segments) {
+            if (seq >= snapshotSeq) {
+                replay(segmentPath(seq), visitor);
+            }
+            lastSeq = Math.max(lastSeq, seq);
+        }
+        visitor.onRestored();
+        openSegment(lastSeq + 1);
+        bytesSinceSnapshot = COMPACT_THRESHOLD;
+    }
+
+    // Запускает фоновую синхронизацию на диск и периодическое сжатие
+    public void start(SnapshotSource source) {
+        background.scheduleWithFixedDelay(this::force, 1, 1, TimeUnit.SECONDS);
+        background.scheduleWithFixedDelay(() -> {
+            try {
+                if (pendingCompaction()) {
+                    compact(source);
+                }
+            } catch (IOException e) {
+                Log.error("journal.flush", e);
+            }
+        }, 10, 600, TimeUnit.SECONDS);
+    }
+
+    public synchronized void session(long chatId, int state, String requestType,
+                                     String name, String contact, String comment) {
+        scratch = ensure(scratch, sessionSize(requestType, name, contact, comment));
+        putSession(scratch, chatId, state, requestType, name, contact, comment);
+        append(scratch);
+    }
+
+    public synchronized void followUpScheduled(long chatId, FollowUpKind kind, long deadline) {
+        scratch = ensure(scratch, FOLLOW_UP_SIZE);
+        putFollowUp(scratch, chatId, kind, deadline);
+        append(scratch);
+    }
+
+    public synchronized void followUpDone(long chatId, int kindMask) {
+        if (kindMask == 0) {
+            return;
+        }
+        scratch = ensure(scratch, 1 + 8 + 1);
+        scratch.put(FOLLOW_UP_DONE).putLong(chatId).put((byte) kindMask);
+        append(scratch);
+    }
+
+    // Снимает снимок живого состояния и удаляет покрытые им сегменты
+    public void compact(SnapshotSource source) throws IOException {
+        long snapshotSeq;
+        synchronized (this) {
+            // Все записи после этой точки попадут в новый сегмент и будут повторены поверх снимка
+            openSegment(segmentSeq + 1);
+            snapshotSeq = segmentSeq;
+            bytesSinceSnapshot = 0;
+        }
+
+        Path tmp = dir.resolve("snapshot-" + snapshotSeq + ".bin.tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            SnapshotWriter writer = new SnapshotWriter(out);
+            source.writeTo(writer);
+            if (writer.failure != null) {
+                throw writer.failure;
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(tmp, dir.resolve("snapshot-" + snapshotSeq + ".bin"),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if ((name.startsWith("journal-") && name.endsWith(".log")
+                        && parseSeq(name, "journal-", ".log") < snapshotSeq)
+                        || (name.startsWith("snapshot-") && name.endsWith(".bin")
+                        && parseSeq(name, "snapshot-", ".bin") < snapshotSeq)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    public synchronized void force() {
+        if (segment != null) {
+            segment.force();
+        }
+    }
+
+    public void shutdown() {
+        background.shutdown();
+        synchronized (this) {
+            force();
+            closeSegment();
+        }
+    }
+
+    private synchronized boolean pendingCompaction() {
+        return bytesSinceSnapshot >= COMPACT_THRESHOLD;
+    }
+
+    private void append(ByteBuffer body) {
+        body.flip();
+        int length = body.remaining();
+        if (segment.remaining() < HEADER + length + 4) {
+            openSegment(segmentSeq + 1);
+        }
+        crc.reset();
+        crc.update(body.array(), 0, length);
+        segment.putInt(length).putInt((int) crc.getValue()).put(body);
+        bytesSinceSnapshot += HEADER + length;
+    }
+
+    private void openSegment(long seq) {
+        closeSegment();
+        try {
+            segmentChannel = FileChannel.open(segmentPath(seq),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+            segmentSeq = seq;
+        } catch (IOException e) {
+            throw new IllegalStateException("Не удалось открыть сегмент журнала " + seq, e);
+        }
+    }
+
+    private void closeSegment() {
+        if (segmentChannel != null) {
+            segment.force();
+            try {
+                segmentChannel.close();
+            } catch (IOException e) {
+                Log.error("journal.segment.close", e);
+            }
+            segmentChannel = null;
+            segment = null;
+        }
+    }
+
+    // Читает записи до первой пустой или повреждённой (оборванный хвост после сбоя)
+    private void replay(Path file, Visitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize == 0) {
+                return;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            CRC32 check = new CRC32();
+            while (buffer.remaining() >= HEADER) {
+                int length = buffer.getInt();
+                int expectedCrc = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {
+                    return;
+                }
+                // Запись читается прямо из отображения, ограниченного её концом, без срезов на каждую
+                int start = buffer.position();
+                int end = start + length;
+                buffer.limit(end);
+                check.reset();
+                check.update(buffer);
+                if ((int) check.getValue() != expectedCrc) {
+                    return;
+                }
+                buffer.position(start);
+                dispatch(buffer, visitor);
+                buffer.limit(buffer.capacity()).position(end);
+            }
+        }
+    }
+
+    private void dispatch(ByteBuffer body, Visitor visitor) {
+        byte type = body.get();
+        long chatId = body.getLong();
+        switch (type) {
+            case SESSION:
+                int state = body.get();
+                String requestType = getRequestType(body);
+                visitor.onPackedSession(chatId, state, requestType, getPacked(body, 3));
+                break;
+            case FOLLOW_UP_SCHEDULED:
+                FollowUpKind kind = KINDS[body.get()];
+                visitor.onFollowUpScheduled(chatId, kind, body.getLong());
+                break;
+            case FOLLOW_UP_DONE:
+                visitor.onFollowUpDone(chatId, body.get());
+                break;
+            default:
+                break;
+        }
+    }
+
+    private Path segmentPath(long seq) {
+        return dir.resolve("journal-" + seq + ".log");
+    }
+
+    private static long parseSeq(String name, String prefix, String suffix) {
+        return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+    }
+
+    private static ByteBuffer ensure(ByteBuffer buffer, int length) {
+        if (buffer.capacity() < length) {
+            buffer = ByteBuffer.allocate(Math.max(length, buffer.capacity() * 2));
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private static int sessionSize(String requestType, String name, String contact, String comment) {
+        return 1 + 8 + 1 + size(requestType) + size(name) + size(contact) + size(comment);
+    }
+
+    private static void putSession(ByteBuffer b, long chatId, int state, String requestType,
+                                   String name, String contact, String comment) {
+        b.put(SESSION).putLong(chatId).put((byte) state);
+        putString(b, requestType);
+        putString(b, name);
+        putString(b, contact);
+        putString(b, comment);
+    }
+
+    private static void putFollowUp(ByteBuffer b, long chatId, FollowUpKind kind, long deadline) {
+        b.put(FOLLOW_UP_SCHEDULED).putLong(chatId).put((byte) kind.ordinal()).putLong(deadline);
+    }
+
+    private static int size(String value) {
+        return value == null ? 4 : 4 + value.length() * 3;
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    private String getRequestType(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (requestTypeScratch.length < length) {
+            requestTypeScratch = new byte[length];
+        }
+        buffer.get(requestTypeScratch, 0, length);
+        byte[] cached = lastRequestTypeBytes;
+        if (cached != null && Arrays.equals(cached, 0, cached.length, requestTypeScratch, 0, length)) {
+            return lastRequestType;
+        }
+        byte[] bytes = Arrays.copyOf(requestTypeScratch, length);
+        lastRequestTypeBytes = bytes;
+        lastRequestType = new String(bytes, StandardCharsets.UTF_8);
+        return lastRequestType;
+    }
+
+    // count строк записи (длина int и UTF-8) в формате InMemorySessionStore.pack: байты копируются как есть
+    private static byte[] getPacked(ByteBuffer buffer, int count) {
+        int length = 0;
+        boolean empty = true;
+        int position = buffer.position();
+        for (int k = 0; k < count; k++) {
+            int size = buffer.getInt(position);
+            position += 4;
+            if (size >= 0) {
+                empty = false;
+                length += size;
+                position += size;
+            }
+            length += InMemorySessionStore.varIntSize(size < 0 ? 0 : size + 1);
+        }
+        if (empty) {
+            buffer.position(position);
+            return null;
+        }
+        byte[] packed = new byte[length];
+        int offset = 0;
+        for (int k = 0; k < count; k++) {
+            int size = buffer.getInt();
+            offset = InMemorySessionStore.putVarInt(packed, offset, size < 0 ? 0 : size + 1);
+            if (size > 0) {
+                buffer.get(packed, offset, size);
+                offset += size;
+            }
+        }
+        return packed;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Пишет снимок в том же формате записей, что и сегменты журнала
+    private static class SnapshotWriter implements Visitor {
+        private final DataOutputStream out;
+        private final CRC32 crc = new CRC32();
+        private ByteBuffer body = ByteBuffer.allocate(4096);
+        private IOException failure;
+
+        SnapshotWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void onSession(long chatId, int state, String requestType, String name, String contact, String comment) {
+            body = ensure(body, sessionSize(requestType, name, contact, comment));
+            putSession(body, chatId, state, requestType, name, contact, comment);
+            write(body);
+        }
+
+        @Override
+        public void onFollowUpScheduled(long chatId, FollowUpKind kind, long deadline) {
+            body = ensure(body, FOLLOW_UP_SIZE);
+            putFollowUp(body, chatId, kind, deadline);
+            write(body);
+        }
+
+        @Override
+        public void onFollowUpDone(long chatId, int kindMask) {
+            // В снимке только живое состояние
+        }
+
+        private void write(ByteBuffer b) {
+            if (failure != null) {
+                return;
+            }
+            b.flip();
+            crc.reset();
+            crc.update(b.array(), 0, b.limit());
+            try {
+                out.writeInt(b.limit());
+                out.writeInt((int) crc.getValue());
+                out.write(b.array(), 0, b.limit());
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.example;
+
+// Хранилище сессий чатов: состояние воронки и данные незаполненной формы.
+// InMemorySessionStore держит их в куче процесса (с холодным уровнем на диске),
+// RedisSessionStore — в общем Redis, чтобы один бот обслуживали несколько экземпляров.
+public interface SessionStore {
+
+    // Снимок сессии одного чата
+    final class Session {
+        public final int state;
+        public final String requestType;
+        public final String name;
+        public final String contact;
+        public final String comment;
+
+        public Session(int state, String requestType, String name, String contact, String comment) {
+            this.state = state;
+            this.requestType = requestType;
+            this.name = name;
+            this.contact = contact;
+            this.comment = comment;
+        }
+
+        public Session withState(int state) {
+            return new Session(state, requestType, name, contact, comment);
+        }
+
+        // Поле по имени из шага формы воронки
+        public Session withField(String field, String value) {
+            switch (field) {
+                case "name":
+                    return new Session(state, requestType, value, contact, comment);
+                case "contact":
+                    return new Session(state, requestType, name, value, comment);
+                case "comment":
+                    return new Session(state, requestType, name, contact, value);
+                default:
+                    throw new IllegalArgumentException("Неизвестное поле формы: " + field);
+            }
+        }
+
+        // DEFAULT без данных — сессии нет
+        public boolean isEmpty() {
+            return state == Funnel.DEFAULT_STATE && requestType == null
+                    && name == null && contact == null && comment == null;
+        }
+    }
+
+    // Обход сессий (для снимков журнала)
+    interface Visitor {
+        void visit(long chatId, int state, String requestType, String name, String contact, String comment);
+    }
+
+    void start();
+
+    void shutdown();
+
+    // Код состояния чата; Funnel.DEFAULT_STATE, если сессии нет
+    int state(long chatId);
+
+    // null — сессии нет
+    Session get(long chatId);
+
+    // Сохраняет сессию целиком; пустая сессия удаляется
+    void put(long chatId, Session session);
+
+    void remove(long chatId);
+
+    void forEach(Visitor visitor);
+
+    // true — хранилище само переживает перезапуск, и журнал бота сессии не пишет
+    boolean isDurable();
+}
@@ -0,0 +1,11 @@
+package com.example;
+
+// Источник времени для всего, что зависит от времени воронки: сроки follow-up, время заявок
+// и событий аналитики, простой сессий. В работе — системные часы, в симуляции — VirtualClock.
+// Аренды разделов, лимиты Telegram и пакетная запись в Sheets живут по настоящему времени.
+public interface TimeSource {
+    TimeSource SYSTEM = System::currentTimeMillis;
+
+    // Текущее время, мс с эпохи
+    long currentTimeMillis();
+}
@@ -0,0 +1,75 @@
+package com.example;
+
+import java.util.Arrays;
+
+// Отсев повторов до обработки. Повторная доставка события (getUpdates после сбоя, вебхук
+// после таймаута) узнаётся по update_id, повторные нажатия одной кнопки — по (чат, данные
+// кнопки) в коротком окне. Память фиксирована и не растёт с числом чатов.
+public class UpdateDeduplicator {
+    // Номера update_id растут, поэтому хватает окна последних номеров: бит на номер в кольце слов.
+    // Номер старше окна считается повтором (telegrambots в режиме polling отбрасывает такие и сам)
+    private final long[] window;
+    private final int windowBits;
+    private long highest = -1;
+    private final RecentKeys callbacks;
+    private final TimeSource clock;
+
+    // updateWindow — сколько последних номеров помнить (кратно 64), callbackCapacity — слотов
+    // для нажатий (степень двойки), callbackWindowMillis — окно повторного нажатия
+    public UpdateDeduplicator(int updateWindow, int callbackCapacity, long callbackWindowMillis, TimeSource clock) {
+        if (updateWindow <= 0 || updateWindow % 64 != 0) {
+            throw new IllegalArgumentException("Окно update_id должно быть кратно 64: " + updateWindow);
+        }
+        this.window = new long[updateWindow / 64];
+        this.windowBits = updateWindow;
+        this.callbacks = new RecentKeys(callbackCapacity, callbackWindowMillis);
+        this.clock = clock;
+    }
+
+    // true — событие с этим номером уже принято в обработку (или старше окна). Номер не запоминается:
+    // это делает markAccepted, когда событие действительно принято
+    public synchronized boolean isDuplicate(long updateId) {
+        if (updateId > highest) {
+            return false;
+        }
+        return highest - updateId >= windowBits || isSet(updateId);
+    }
+
+    // Событие принято в обработку: его повторная доставка будет отброшена
+    public synchronized void markAccepted(long updateId) {
+        if (updateId > highest) {
+            // Сдвигаем окно: номера между прежним максимумом и новым ещё не встречались
+            if (highest < 0 || updateId - highest >= windowBits) {
+                Arrays.fill(window, 0);
+            } else {
+                for (long id = highest + 1; id < updateId; id++) {
+                    clear(id);
+                }
+            }
+            highest = updateId;
+        } else if (highest - updateId >= windowBits) {
+            return;
+        }
+        set(updateId);
+    }
+
+    // true — чат не нажимал кнопку с такими данными в пределах окна
+    public boolean firstCallback(long chatId, String data) {
+        return callbacks.add(RecentKeys.key(chatId, data), clock.currentTimeMillis());
+    }
+
+    private void set(long id) {
+        int bit = (int) (id % windowBits);
+        window[bit >>> 6] |= 1L << bit;
+    }
+
+    private void clear(long id) {
+        int bit = (int) (id % windowBits);
+        window[bit >>> 6] &= ~(1L << bit);
+    }
+
+    private boolean isSet(long id) {
+        int bit = (int) (id % windowBits);
+        return (window[bit >>> 6] & (1L << bit)) != 0;
+    }
+}
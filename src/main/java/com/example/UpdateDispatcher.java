@@ -0,0 +1,221 @@
+package com.example;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Параллельная обработка по чатам с сохранением порядка внутри чата.
+// Каждый чат закреплён за одной полосой (stripe) — очередью с собственным потоком,
+// поэтому события одного чата выполняются строго по очереди, а разные чаты — параллельно.
+// Очереди ограничены: при переполнении отправитель ждёт, и long polling сам притормаживает.
+// Задача может дождаться асинхронной операции, не занимая поток полосы (continueAfter):
+// чат «паркуется», его новые задачи откладываются до продолжения, а полоса обслуживает другие чаты.
+public class UpdateDispatcher {
+    // Признак остановки полосы, ставится в очередь после всех задач
+    private static final Job STOP = new Job(null, 0, 0, false);
+    // Сколько после остановки ждать продолжений запаркованных чатов
+    private static final long STOP_WAIT_MILLIS = 10000;
+
+    private static final class Job {
+        final Runnable task;
+        final long enqueuedAt;
+        final long chatId;
+        // Продолжение запаркованного чата: выполняется сразу, вне места в очереди
+        final boolean resume;
+
+        Job(Runnable task, long enqueuedAt, long chatId, boolean resume) {
+            this.task = task;
+            this.enqueuedAt = enqueuedAt;
+            this.chatId = chatId;
+            this.resume = resume;
+        }
+    }
+
+    private static final class Stripe {
+        // Сама очередь без предела, чтобы продолжение никогда не ждало; предел для новых задач — slots
+        final BlockingQueue<Job> queue = new LinkedBlockingQueue<>();
+        final Semaphore slots;
+        // Запаркованные чаты и их отложенные задачи; только поток полосы
+        final Map<Long, ArrayDeque<Job>> parked = new HashMap<>();
+        Thread thread;
+        // Время постановки выполняемой задачи; 0 — поток свободен
+        volatile long runningSince;
+
+        Stripe(int capacity) {
+            this.slots = new Semaphore(capacity);
+        }
+    }
+
+    private final Stripe[] stripes;
+    private volatile boolean running = true;
+
+    public UpdateDispatcher(int stripeCount, int queueCapacity) {
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            Stripe stripe = new Stripe(queueCapacity);
+            stripe.thread = new Thread(() -> runStripe(stripe), "update-stripe-" + i);
+            stripe.thread.setDaemon(true);
+            stripes[i] = stripe;
+        }
+        for (Stripe stripe : stripes) {
+            stripe.thread.start();
+        }
+    }
+
+    // Ставит задачу в полосу чата; ждёт, если очередь полосы заполнена.
+    // false — диспетчер уже остановлен, задача не принята.
+    public boolean submit(long chatId, Runnable task) {
+        if (!running) {
+            return false;
+        }
+        Stripe stripe = stripes[stripeOf(chatId)];
+        try {
+            stripe.slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        stripe.queue.add(new Job(task, System.nanoTime(), chatId, false));
+        return true;
+    }
+
+    // Вызывается из задачи чата в его полосе: continuation выполнится в той же полосе, когда
+    // завершится future, а задачи чата, пришедшие до этого, — после него и в своём порядке.
+    // Уже завершённая операция (и вызов не из полосы чата, например в симуляции) продолжается сразу.
+    public void continueAfter(long chatId, CompletableFuture<?> future, Runnable continuation) {
+        Stripe stripe = stripes[stripeOf(chatId)];
+        if (Thread.currentThread() != stripe.thread) {
+            future.handle((result, error) -> null).join();
+            continuation.run();
+            return;
+        }
+        if (future.isDone()) {
+            continuation.run();
+            return;
+        }
+        stripe.parked.putIfAbsent(chatId, new ArrayDeque<>());
+        future.whenComplete((result, error) ->
+                stripe.queue.add(new Job(continuation, System.nanoTime(), chatId, true)));
+    }
+
+    // Всего задач в очередях, без выполняемых
+    public int queueDepth() {
+        int depth = 0;
+        for (Stripe stripe : stripes) {
+            depth += stripe.queue.size();
+        }
+        return depth;
+    }
+
+    // Отставание каждой полосы: сколько ждёт самая старая незавершённая задача, мс
+    public long[] stripeLagMillis() {
+        long now = System.nanoTime();
+        long[] lag = new long[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            long since = stripes[i].runningSince;
+            if (since == 0) {
+                Job head = stripes[i].queue.peek();
+                since = head == null || head == STOP ? now : head.enqueuedAt;
+            }
+            lag[i] = TimeUnit.NANOSECONDS.toMillis(now - since);
+        }
+        return lag;
+    }
+
+    public int stripeCount() {
+        return stripes.length;
+    }
+
+    // Перестаёт принимать задачи и дорабатывает уже поставленные
+    public void shutdown() {
+        running = false;
+        for (Stripe stripe : stripes) {
+            stripe.queue.add(STOP);
+        }
+        for (Stripe stripe : stripes) {
+            try {
+                stripe.thread.join(10000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void runStripe(Stripe stripe) {
+        long stopDeadline = 0;
+        while (true) {
+            Job job;
+            try {
+                if (stopDeadline == 0) {
+                    job = stripe.queue.take();
+                } else {
+                    // Остановка: ждём только продолжений запаркованных чатов
+                    job = stripe.queue.poll(stopDeadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                    if (job == null) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (job == STOP) {
+                if (stripe.parked.isEmpty()) {
+                    return;
+                }
+                stopDeadline = System.currentTimeMillis() + STOP_WAIT_MILLIS;
+                continue;
+            }
+            if (job.resume) {
+                resume(stripe, job);
+            } else {
+                stripe.slots.release();
+                ArrayDeque<Job> deferred = stripe.parked.get(job.chatId);
+                if (deferred != null) {
+                    deferred.addLast(job);
+                } else {
+                    execute(stripe, job);
+                }
+            }
+            if (stopDeadline != 0 && stripe.parked.isEmpty()) {
+                return;
+            }
+        }
+    }
+
+    // Продолжение запаркованного чата, затем его отложенные задачи — пока чат снова не запаркуется
+    private void resume(Stripe stripe, Job job) {
+        ArrayDeque<Job> deferred = stripe.parked.remove(job.chatId);
+        execute(stripe, job);
+        while (deferred != null && !deferred.isEmpty()) {
+            ArrayDeque<Job> parkedAgain = stripe.parked.get(job.chatId);
+            if (parkedAgain != null) {
+                parkedAgain.addAll(deferred);
+                return;
+            }
+            execute(stripe, deferred.pollFirst());
+        }
+    }
+
+    private void execute(Stripe stripe, Job job) {
+        stripe.runningSince = job.enqueuedAt;
+        try {
+            job.task.run();
+        } catch (Exception e) {
+            Log.error("dispatch", job.chatId, e);
+        } finally {
+            stripe.runningSince = 0;
+        }
+    }
+
+    // Перемешиваем биты, чтобы соседние chatId расходились по разным полосам
+    private int stripeOf(long chatId) {
+        int h = Long.hashCode(chatId) * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), stripes.length);
+    }
+}
@@ -0,0 +1,30 @@
+package com.example;
+
+// Часы, которые двигает вызывающий код: симуляция проходит дни воронки за секунды
+// и при одинаковых входных данных даёт одинаковый результат.
+public class VirtualClock implements TimeSource {
+    private volatile long now;
+
+    public VirtualClock(long startMillis) {
+        this.now = startMillis;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return now;
+    }
+
+    // Время назад не идёт: более раннее значение игнорируется
+    public synchronized void set(long millis) {
+        if (millis > now) {
+            now = millis;
+        }
+    }
+
+    public synchronized void advance(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Время назад не идёт: " + millis);
+        }
+        now += millis;
+    }
+}
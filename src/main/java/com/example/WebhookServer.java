@@ -0,0 +1,121 @@
+package com.example;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Приём обновлений через webhook вместо long polling.
+// HTTP-поток только проверяет секрет, разбирает JSON и кладёт Update в ограниченную
+// очередь; отдельный поток передаёт их обработчику бота. Если очередь заполнена,
+// отвечаем 503 — Telegram повторит доставку позже, а бот не копит лишнее в памяти.
+public class WebhookServer {
+    private static final String SECRET_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final HttpServer server;
+    private final BlockingQueue<Update> queue;
+    private final Consumer<Update> handler;
+    private final String secret;
+    private final Thread feeder;
+    private volatile boolean running = true;
+
+    // secret == null — заголовок секрета не проверяется (локальный стенд)
+    public WebhookServer(Consumer<Update> handler, int port, String path, String secret,
+                         int queueCapacity, int httpThreads) throws IOException {
+        this.handler = handler;
+        this.secret = secret;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext(path, this::accept);
+        server.setExecutor(Executors.newFixedThreadPool(httpThreads, r -> {
+            Thread t = new Thread(r, "webhook-http");
+            t.setDaemon(true);
+            return t;
+        }));
+        this.feeder = new Thread(this::feed, "webhook-feeder");
+        this.feeder.setDaemon(true);
+    }
+
+    public void start() {
+        feeder.start();
+        server.start();
+    }
+
+    // Фактический порт (при port == 0 выбирается свободный)
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    // Обновлений принято, но ещё не передано боту
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    public void shutdown() {
+        // Новые запросы не принимаем; ждём ответы на уже начатые, затем дорабатываем очередь
+        server.stop(1);
+        running = false;
+        try {
+            feeder.join(10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void accept(HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            if (secret != null && !secret.equals(exchange.getRequestHeaders().getFirst(SECRET_HEADER))) {
+                exchange.sendResponseHeaders(401, -1);
+                return;
+            }
+            Update update;
+            try {
+                update = mapper.readValue(body, Update.class);
+            } catch (IOException e) {
+                // Повтор не поможет: подтверждаем, чтобы Telegram не слал это обновление снова
+                Log.error("webhook.parse", e);
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            // Бот обрабатывает только сообщения и нажатия кнопок (как и allowed_updates вебхука)
+            if (!update.hasMessage() && !update.hasCallbackQuery()) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(queue.offer(update) ? 200 : 503, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void feed() {
+        while (running || !queue.isEmpty()) {
+            try {
+                Update update = queue.poll(1, TimeUnit.SECONDS);
+                if (update != null) {
+                    handler.accept(update);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                Log.error("webhook.deliver", e);
+            }
+        }
+    }
+}
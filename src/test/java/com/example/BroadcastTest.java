@@ -0,0 +1,198 @@
+package com.example;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BroadcastTest {
+    private static final long ADMIN = 999;
+
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    private final List<Broadcast> opened = new ArrayList<>();
+
+    @After
+    public void stop() {
+        for (Broadcast broadcast : opened) {
+            broadcast.shutdown();
+        }
+    }
+
+    @Test
+    public void restartDoesNotResendUnconfirmed() throws Exception {
+        FakeSender first = new FakeSender();
+        Broadcast broadcast = open(first, 2);
+        broadcast.begin("promo", new long[]{5, 4, 3, 2, 1, 1}, ADMIN);
+        broadcast.start();
+        first.awaitSends(2);
+        first.complete(1);
+        first.awaitSends(3);
+        // Процесс упал: ответов на сообщения чатам 2 и 3 не было, файл не закрыт
+        assertEquals(List.of(1L, 2L, 3L), first.chats());
+        opened.remove(broadcast);
+
+        FakeSender second = new FakeSender();
+        Broadcast restarted = open(second, 2);
+        assertTrue(restarted.status(), restarted.status().contains("без подтверждения 2"));
+        restarted.start();
+        second.awaitSends(2);
+        second.complete(4);
+        second.complete(5);
+        second.awaitReports(1);
+
+        assertEquals("получившие и неподтверждённые пропущены", List.of(4L, 5L), second.chats());
+        String status = restarted.status();
+        assertTrue(status, status.contains("завершена, 5 из 5"));
+        assertTrue(status, status.contains("доставлено 3"));
+        assertTrue(status, status.contains("без подтверждения 2"));
+        assertEquals(ADMIN, (long) second.reportChats.get(0));
+    }
+
+    @Test
+    public void answersToReplacedBroadcastAreIgnored() throws Exception {
+        FakeSender sender = new FakeSender();
+        Broadcast broadcast = open(sender, 2);
+        broadcast.begin("old", new long[]{1, 2}, 0);
+        broadcast.start();
+        sender.awaitSends(2);
+        broadcast.pause();
+        broadcast.begin("new", new long[]{3}, 0);
+        // Ответы на сообщения прежней рассылки приходят уже после замены
+        sender.complete(1);
+        sender.fail(2);
+        sender.awaitSends(3);
+        sender.complete(3);
+
+        waitFor(() -> broadcast.status().contains("завершена"));
+        String status = broadcast.status();
+        assertTrue(status, status.contains("«new»: завершена, 1 из 1"));
+        assertTrue(status, status.contains("доставлено 1, заблокировали бота 0, ошибок 0"));
+        try (Stream<Path> files = Files.list(dir.getRoot().toPath())) {
+            assertEquals("файл прежней аудитории удалён", 1,
+                    files.filter(f -> f.getFileName().toString().startsWith("audience")).count());
+        }
+    }
+
+    @Test
+    public void crashInBeginKeepsPreviousBroadcast() throws Exception {
+        FakeSender sender = new FakeSender();
+        Broadcast broadcast = open(sender, 1);
+        broadcast.begin("old", new long[]{1}, 0);
+        broadcast.start();
+        sender.awaitSends(1);
+        sender.complete(1);
+        waitFor(() -> broadcast.status().contains("завершена"));
+        broadcast.shutdown();
+        opened.remove(broadcast);
+        // Процесс упал в begin: аудитория новой рассылки записана, состояние — ещё нет
+        Path stray = dir.getRoot().toPath().resolve("audience-1-1.dat");
+        Files.write(stray, new byte[9 * 3]);
+
+        Broadcast restarted = open(new FakeSender(), 1);
+        assertTrue(restarted.status(), restarted.status().contains("«old»: завершена, 1 из 1"));
+        assertFalse(Files.exists(stray));
+    }
+
+    @Test
+    public void pauseSurvivesRestartUntilResume() throws Exception {
+        FakeSender first = new FakeSender();
+        Broadcast broadcast = open(first, 1);
+        broadcast.begin("promo", new long[]{1, 2, 3}, 0);
+        broadcast.start();
+        first.awaitSends(1);
+        broadcast.pause();
+        first.complete(1);
+        Thread.sleep(200);
+        assertEquals("на паузе новые сообщения не ставятся", 1, first.sends.size());
+        broadcast.shutdown();
+        opened.remove(broadcast);
+
+        FakeSender second = new FakeSender();
+        Broadcast restarted = open(second, 1);
+        restarted.start();
+        assertTrue(restarted.status(), restarted.status().contains("на паузе, 1 из 3"));
+        Thread.sleep(200);
+        assertEquals(0, second.sends.size());
+
+        restarted.resume();
+        second.awaitSends(1);
+        second.complete(2);
+        second.awaitSends(2);
+        second.complete(3);
+        waitFor(() -> restarted.status().contains("завершена"));
+        assertEquals(List.of(2L, 3L), second.chats());
+    }
+
+    private Broadcast open(FakeSender sender, int inFlight) throws Exception {
+        Broadcast broadcast = new Broadcast(dir.getRoot().toPath(), sender,
+                id -> new MessageTemplate(id, "Новости " + id, false, false, null, false), inFlight, new Metrics());
+        opened.add(broadcast);
+        return broadcast;
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Не дождались условия");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    // Отправка без Telegram: ответ на сообщение приходит, когда тест завершит его future
+    private static class FakeSender implements Broadcast.Sender {
+        final List<Long> sends = new CopyOnWriteArrayList<>();
+        final List<CompletableFuture<Void>> futures = new CopyOnWriteArrayList<>();
+        final List<Long> reportChats = new CopyOnWriteArrayList<>();
+
+        @Override
+        public CompletableFuture<?> send(long chatId, MessageTemplate template) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            futures.add(future);
+            sends.add(chatId);
+            return future;
+        }
+
+        @Override
+        public void report(long chatId, String text) {
+            reportChats.add(chatId);
+        }
+
+        List<Long> chats() {
+            return new ArrayList<>(sends);
+        }
+
+        void complete(long chatId) {
+            futures.get(sends.indexOf(chatId)).complete(null);
+        }
+
+        void fail(long chatId) {
+            futures.get(sends.indexOf(chatId)).completeExceptionally(new IllegalStateException("сбой сети"));
+        }
+
+        void awaitSends(int count) throws InterruptedException {
+            waitFor(() -> sends.size() >= count);
+        }
+
+        void awaitReports(int count) throws InterruptedException {
+            waitFor(() -> reportChats.size() >= count);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FileAudienceStoreTest {
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    @Test
+    public void chatIsWrittenOnce() throws Exception {
+        Path file = dir.getRoot().toPath().resolve("audience.bin");
+        FileAudienceStore store = new FileAudienceStore(file);
+        assertTrue(store.add(1));
+        assertFalse(store.add(1));
+        assertTrue(store.add(0));
+        store.close();
+
+        assertEquals(2 * Long.BYTES, Files.size(file));
+    }
+
+    @Test
+    public void audienceSurvivesRestart() throws Exception {
+        Path file = dir.getRoot().toPath().resolve("audience.bin");
+        FileAudienceStore store = new FileAudienceStore(file);
+        // Больше страницы чтения при открытии
+        for (long chatId = 1; chatId <= 20000; chatId++) {
+            store.add(chatId);
+        }
+        store.close();
+
+        FileAudienceStore reopened = new FileAudienceStore(file);
+        assertEquals(20000, reopened.size());
+        assertFalse(reopened.add(20000));
+        assertTrue(reopened.add(20001));
+        long[] chats = reopened.snapshot();
+        Arrays.sort(chats);
+        assertEquals(1, chats[0]);
+        assertEquals(20001, chats[chats.length - 1]);
+        reopened.close();
+    }
+
+    @Test
+    public void tornLastRecordIsDropped() throws Exception {
+        Path file = dir.getRoot().toPath().resolve("audience.bin");
+        FileAudienceStore store = new FileAudienceStore(file);
+        store.add(7);
+        store.close();
+        // Процесс упал посреди записи следующего чата
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[3]));
+        }
+
+        FileAudienceStore reopened = new FileAudienceStore(file);
+        assertArrayEquals(new long[]{7}, reopened.snapshot());
+        reopened.add(8);
+        reopened.close();
+
+        long[] chats = new FileAudienceStore(file).snapshot();
+        Arrays.sort(chats);
+        assertArrayEquals(new long[]{7, 8}, chats);
+    }
+}
@@ -0,0 +1,121 @@
+package com.example;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FilePartitionStoreTest {
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    private FilePartitionStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        store = new FilePartitionStore(dir.getRoot().toPath());
+    }
+
+    @Test
+    public void leaseIsExclusiveAndRenewable() throws Exception {
+        assertNull(store.owner(0));
+        assertTrue(store.acquire(0, "a", 300));
+        assertEquals("a", store.owner(0));
+        assertFalse(store.acquire(0, "b", 300));
+
+        // Продление сдвигает срок: без него аренда истекла бы на второй паузе
+        Thread.sleep(200);
+        assertTrue(store.acquire(0, "a", 300));
+        Thread.sleep(200);
+        assertEquals("a", store.owner(0));
+        assertFalse(store.acquire(0, "b", 300));
+    }
+
+    @Test
+    public void expiredLeaseIsTakenOver() throws Exception {
+        assertTrue(store.acquire(0, "a", 100));
+        Thread.sleep(150);
+        assertNull(store.owner(0));
+
+        assertTrue(store.acquire(0, "b", 10000));
+        assertEquals("b", store.owner(0));
+        // Прежний владелец не может продлить аренду, ушедшую другому
+        assertFalse(store.acquire(0, "a", 10000));
+    }
+
+    @Test
+    public void onlyOwnerReleases() throws IOException {
+        assertTrue(store.acquire(0, "a", 10000));
+        store.release(0, "b");
+        assertEquals("a", store.owner(0));
+        store.release(0, "a");
+        assertNull(store.owner(0));
+        assertTrue(store.acquire(0, "b", 10000));
+    }
+
+    @Test
+    public void heartbeatForgetsSilentNodes() throws Exception {
+        store.heartbeat("dead", 100);
+        assertEquals(Set.of("alive", "dead"), store.heartbeat("alive", 10000));
+        Thread.sleep(150);
+        assertEquals(Set.of("alive"), store.heartbeat("alive", 10000));
+    }
+
+    @Test
+    public void pendingSurvivesReopen() throws IOException {
+        store.acquire(0, "a", 10000);
+        store.schedule(0, 1, FollowUpKind.FOLLOW_UP, 1000);
+        store.schedule(0, 2, FollowUpKind.CASE, 2000);
+        store.schedule(0, 3, FollowUpKind.VIDEO_CASE, 5000);
+        // Повторная постановка переносит срок, а не добавляет вторую запись
+        store.schedule(0, 1, FollowUpKind.FOLLOW_UP, 1500);
+
+        FilePartitionStore reopened = new FilePartitionStore(dir.getRoot().toPath());
+        List<String> due = due(reopened, 0, 2000);
+        Collections.sort(due);
+        assertEquals(List.of("1 FOLLOW_UP 1500", "2 CASE 2000"), due);
+        assertEquals("a", reopened.owner(0));
+    }
+
+    @Test
+    public void claimTakesEachFollowUpOnce() throws IOException {
+        store.schedule(0, 1, FollowUpKind.FOLLOW_UP, 1000);
+        // Срок ещё не наступил
+        assertFalse(store.claim(0, 1, FollowUpKind.FOLLOW_UP, 999));
+        assertTrue(store.claim(0, 1, FollowUpKind.FOLLOW_UP, 1000));
+        // Второй узел с тем же каталогом запись уже не получит
+        FilePartitionStore other = new FilePartitionStore(dir.getRoot().toPath());
+        assertFalse(other.claim(0, 1, FollowUpKind.FOLLOW_UP, 1000));
+        assertFalse(store.claim(0, 1, FollowUpKind.FOLLOW_UP, 1000));
+        assertTrue(due(store, 0, Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    public void cancelledFollowUpCannotBeClaimed() throws IOException {
+        store.schedule(0, 1, FollowUpKind.FOLLOW_UP, 1000);
+        store.schedule(0, 1, FollowUpKind.CASE, 1000);
+        store.schedule(0, 2, FollowUpKind.CASE, 1000);
+        store.cancelAll(0, 1);
+
+        assertFalse(store.claim(0, 1, FollowUpKind.FOLLOW_UP, 1000));
+        assertFalse(store.claim(0, 1, FollowUpKind.CASE, 1000));
+        assertEquals(List.of("2 CASE 1000"), due(store, 0, 1000));
+    }
+
+    private static List<String> due(PartitionStore store, int partition, long until) throws IOException {
+        List<String> due = new ArrayList<>();
+        store.forEachDue(partition, until, (chatId, kind, deadline) -> due.add(chatId + " " + kind + " " + deadline));
+        return due;
+    }
+}
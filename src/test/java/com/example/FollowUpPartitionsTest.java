@@ -0,0 +1,187 @@
+package com.example;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FollowUpPartitionsTest {
+    private static final int PARTITIONS = 4;
+    private static final long LEASE_MILLIS = 2000;
+
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    private final List<Node> nodes = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (Node node : nodes) {
+            node.stop();
+        }
+    }
+
+    @Test
+    public void survivorDeliversFollowUpsOfDeadNode() throws Exception {
+        Node a = node("a");
+        await(() -> a.partitions.ownedCount() == PARTITIONS, "узел a не взял разделы");
+        long deadline = System.currentTimeMillis() + 500;
+        for (long chatId = 1; chatId <= 20; chatId++) {
+            a.partitions.scheduleAt(chatId, FollowUpKind.FOLLOW_UP, deadline);
+        }
+
+        // Узел падает до срока: не продлевает аренду и ничего не отправляет
+        a.crash();
+        Node b = node("b");
+        await(() -> b.sent.size() == 20, "узел b не дослал сообщения упавшего узла");
+        assertEquals(PARTITIONS, b.partitions.ownedCount());
+        assertTrue(a.sent.isEmpty());
+        assertEquals("каждое сообщение — ровно один раз", 20, new HashSet<>(b.sent).size());
+    }
+
+    @Test
+    public void followUpIsSentOnceByTheOwner() throws Exception {
+        Node a = node("a");
+        await(() -> a.partitions.ownedCount() == PARTITIONS, "узел a не взял разделы");
+        Node b = node("b");
+        // Разделы делятся поровну
+        await(() -> a.partitions.ownedCount() == PARTITIONS / 2 && b.partitions.ownedCount() == PARTITIONS / 2,
+                "разделы не поделились между узлами");
+
+        // Ставит любой узел, отправляет владелец раздела
+        long deadline = System.currentTimeMillis() + 300;
+        for (long chatId = 1; chatId <= 20; chatId++) {
+            (chatId % 2 == 0 ? a : b).partitions.scheduleAt(chatId, FollowUpKind.CASE, deadline);
+        }
+        await(() -> a.sent.size() + b.sent.size() == 20, "отправлены не все сообщения");
+        Thread.sleep(1500);
+        assertEquals(20, a.sent.size() + b.sent.size());
+        PartitionStore shared = new FilePartitionStore(dir.getRoot().toPath());
+        for (long chatId : a.sent) {
+            assertEquals("a", shared.owner(a.partitions.partitionOf(chatId)));
+        }
+        for (long chatId : b.sent) {
+            assertEquals("b", shared.owner(b.partitions.partitionOf(chatId)));
+        }
+        Set<Long> all = new HashSet<>(a.sent);
+        all.addAll(b.sent);
+        assertEquals(20, all.size());
+    }
+
+    private Node node(String name) throws IOException {
+        Node node = new Node(name, new FilePartitionStore(dir.getRoot().toPath()));
+        nodes.add(node);
+        return node;
+    }
+
+    private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(message, System.nanoTime() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    // Узел бота: локальное колесо и разделы поверх общего хранилища, которое можно «отключить»
+    private static final class Node {
+        final List<Long> sent = new CopyOnWriteArrayList<>();
+        final FollowUpScheduler scheduler;
+        final FollowUpPartitions partitions;
+        private volatile boolean crashed;
+
+        Node(String name, PartitionStore shared) {
+            PartitionStore store = new PartitionStore() {
+                @Override
+                public Set<String> heartbeat(String node, long ttlMillis) throws IOException {
+                    check();
+                    return shared.heartbeat(node, ttlMillis);
+                }
+
+                @Override
+                public boolean acquire(int partition, String node, long ttlMillis) throws IOException {
+                    check();
+                    return shared.acquire(partition, node, ttlMillis);
+                }
+
+                @Override
+                public void release(int partition, String node) throws IOException {
+                    check();
+                    shared.release(partition, node);
+                }
+
+                @Override
+                public String owner(int partition) throws IOException {
+                    check();
+                    return shared.owner(partition);
+                }
+
+                @Override
+                public void schedule(int partition, long chatId, FollowUpKind kind, long deadline) throws IOException {
+                    check();
+                    shared.schedule(partition, chatId, kind, deadline);
+                }
+
+                @Override
+                public void cancelAll(int partition, long chatId) throws IOException {
+                    check();
+                    shared.cancelAll(partition, chatId);
+                }
+
+                @Override
+                public boolean claim(int partition, long chatId, FollowUpKind kind, long now) throws IOException {
+                    check();
+                    return shared.claim(partition, chatId, kind, now);
+                }
+
+                @Override
+                public void forEachDue(int partition, long until, FollowUpScheduler.PendingVisitor visitor)
+                        throws IOException {
+                    check();
+                    shared.forEachDue(partition, until, visitor);
+                }
+            };
+            FollowUpPartitions[] self = new FollowUpPartitions[1];
+            this.scheduler = new FollowUpScheduler((chatId, kind) -> {
+                if (self[0].claim(chatId, kind)) {
+                    sent.add(chatId);
+                }
+            }, 10, 256, 0);
+            this.partitions = new FollowUpPartitions(store, scheduler, name, PARTITIONS, LEASE_MILLIS);
+            self[0] = partitions;
+            scheduler.start();
+            partitions.start();
+        }
+
+        // Связь с хранилищем потеряна: аренды не продлеваются, claim не проходит
+        void crash() {
+            crashed = true;
+            scheduler.shutdown();
+        }
+
+        void stop() {
+            if (!crashed) {
+                partitions.shutdown();
+            }
+            crashed = true;
+            scheduler.shutdown();
+        }
+
+        private void check() throws IOException {
+            if (crashed) {
+                throw new IOException("Узел остановлен");
+            }
+        }
+    }
+}
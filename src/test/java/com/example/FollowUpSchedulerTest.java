@@ -0,0 +1,140 @@
+package com.example;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FollowUpSchedulerTest {
+    private static final long START = TimeUnit.DAYS.toMillis(20000);
+    private static final long TICK = 1000;
+    // Один оборот колеса — 64 с
+    private static final int WHEEL = 64;
+
+    private final VirtualClock clock = new VirtualClock(START);
+    private final List<String> fired = new ArrayList<>();
+    private final FollowUpScheduler scheduler = new FollowUpScheduler(
+            (chatId, kind) -> fired.add(chatId + ":" + kind + "@" + (clock.currentTimeMillis() - START) / TICK),
+            clock, TICK, WHEEL, 0);
+
+    @Test
+    public void cancelRemovesOnlyThatKind() {
+        scheduler.schedule(1, FollowUpKind.FOLLOW_UP, 5000);
+        scheduler.schedule(1, FollowUpKind.CASE, 5000);
+        scheduler.schedule(2, FollowUpKind.FOLLOW_UP, 5000);
+
+        assertTrue(scheduler.cancel(1, FollowUpKind.FOLLOW_UP));
+        assertFalse(scheduler.cancel(1, FollowUpKind.FOLLOW_UP));
+        assertFalse(scheduler.isPending(1, FollowUpKind.FOLLOW_UP));
+        assertTrue(scheduler.isPending(1, FollowUpKind.CASE));
+        assertTrue(scheduler.isPending(2, FollowUpKind.FOLLOW_UP));
+        assertEquals(2, scheduler.pendingCount());
+
+        advance(10);
+        assertEquals(List.of("1:CASE@6", "2:FOLLOW_UP@6"), sorted(fired));
+    }
+
+    @Test
+    public void cancelAllReturnsMaskOfCancelledKinds() {
+        scheduler.schedule(1, FollowUpKind.FOLLOW_UP, 5000);
+        scheduler.schedule(1, FollowUpKind.VIDEO_CASE, 5000);
+
+        int mask = scheduler.cancelAll(1);
+        assertEquals((1 << FollowUpKind.FOLLOW_UP.ordinal()) | (1 << FollowUpKind.VIDEO_CASE.ordinal()), mask);
+        assertEquals(0, scheduler.pendingCount());
+        assertEquals(0, scheduler.cancelAll(1));
+    }
+
+    @Test
+    public void rescheduleReplacesPreviousDeadline() {
+        scheduler.schedule(1, FollowUpKind.FOLLOW_UP, 5000);
+        scheduler.schedule(1, FollowUpKind.FOLLOW_UP, 10_000);
+        assertEquals(1, scheduler.pendingCount());
+        assertEquals(1, scheduler.pendingCount(FollowUpKind.FOLLOW_UP));
+
+        advance(20);
+        assertEquals(List.of("1:FOLLOW_UP@11"), fired);
+        assertEquals(0, scheduler.pendingCount());
+    }
+
+    @Test
+    public void deadlineLongerThanWheelTurnWaitsForItsRound() {
+        scheduler.schedule(1, FollowUpKind.CASE, 150_000);
+        scheduler.schedule(2, FollowUpKind.CASE, 22_000);
+
+        advance(200);
+        // Ячейка 150 с совпадает с ячейками 22 с и 86 с, но срок проверяется у каждой записи
+        assertEquals(List.of("2:CASE@23", "1:CASE@151"), fired);
+    }
+
+    @Test
+    public void stalledTickerFiresEverythingOverdue() {
+        scheduler.schedule(1, FollowUpKind.FOLLOW_UP, 30_000);
+        scheduler.schedule(2, FollowUpKind.FOLLOW_UP, 3000);
+        scheduler.schedule(3, FollowUpKind.FOLLOW_UP, 100_000);
+        scheduler.schedule(4, FollowUpKind.FOLLOW_UP, 500_000);
+
+        // Тикер не работал 200 с — дольше оборота колеса
+        clock.advance(200_000);
+        scheduler.tick();
+        assertEquals(List.of("1:FOLLOW_UP@200", "2:FOLLOW_UP@200", "3:FOLLOW_UP@200"), sorted(fired));
+        assertTrue(scheduler.isPending(4, FollowUpKind.FOLLOW_UP));
+    }
+
+    @Test
+    public void countsPerKindFollowScheduleCancelAndFire() {
+        for (long chatId = 1; chatId <= 10_000; chatId++) {
+            scheduler.schedule(chatId, FollowUpKind.FOLLOW_UP, 5000);
+            scheduler.schedule(chatId, chatId % 2 == 0 ? FollowUpKind.CASE : FollowUpKind.VIDEO_CASE, 60_000);
+        }
+        assertEquals(20_000, scheduler.pendingCount());
+        assertEquals(10_000, scheduler.pendingCount(FollowUpKind.FOLLOW_UP));
+        assertEquals(5000, scheduler.pendingCount(FollowUpKind.CASE));
+        assertEquals(5000, scheduler.pendingCount(FollowUpKind.VIDEO_CASE));
+
+        for (long chatId = 1; chatId <= 10_000; chatId += 2) {
+            scheduler.cancel(chatId, FollowUpKind.VIDEO_CASE);
+        }
+        advance(10);
+        assertEquals(10_000, fired.size());
+        assertEquals(0, scheduler.pendingCount(FollowUpKind.FOLLOW_UP));
+        assertEquals(5000, scheduler.pendingCount(FollowUpKind.CASE));
+        assertEquals(0, scheduler.pendingCount(FollowUpKind.VIDEO_CASE));
+        assertEquals(5000, scheduler.pendingCount());
+    }
+
+    @Test
+    public void entriesRejectedByStoppedPoolStayPending() {
+        FollowUpScheduler pooled = new FollowUpScheduler((chatId, kind) -> fired.add(chatId + ":" + kind),
+                clock, TICK, WHEEL, 1);
+        pooled.schedule(1, FollowUpKind.FOLLOW_UP, 5000);
+        pooled.schedule(2, FollowUpKind.CASE, 5000);
+        pooled.shutdown();
+
+        clock.advance(10_000);
+        pooled.tick();
+        assertEquals(List.of(), fired);
+        assertEquals(2, pooled.pendingCount());
+        assertTrue(pooled.isPending(1, FollowUpKind.FOLLOW_UP));
+        assertTrue(pooled.isPending(2, FollowUpKind.CASE));
+    }
+
+    // Тикер по секунде: как поток follow-up-ticker при исправных часах
+    private void advance(int seconds) {
+        for (int i = 0; i < seconds; i++) {
+            clock.advance(TICK);
+            scheduler.tick();
+        }
+    }
+
+    private static List<String> sorted(List<String> values) {
+        List<String> copy = new ArrayList<>(values);
+        copy.sort(null);
+        return copy;
+    }
+}
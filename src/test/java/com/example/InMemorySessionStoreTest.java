@@ -0,0 +1,154 @@
+package com.example;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InMemorySessionStoreTest {
+    private static final long IDLE = TimeUnit.MINUTES.toMillis(30);
+
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    private final VirtualClock clock = new VirtualClock(TimeUnit.DAYS.toMillis(20000));
+    private InMemorySessionStore store;
+
+    @After
+    public void close() {
+        if (store != null) {
+            store.shutdown();
+        }
+    }
+
+    @Test
+    public void tableGrowsAndKeepsEverySession() {
+        store = new InMemorySessionStore();
+        for (long chatId = 1; chatId <= 20_000; chatId++) {
+            store.put(chatId, 2, "Демо", "Чат " + chatId, null, null);
+        }
+        assertEquals(20_000, store.size());
+        for (long chatId = 1; chatId <= 20_000; chatId++) {
+            assertEquals("Чат " + chatId, store.get(chatId).name);
+        }
+        assertNull(store.get(20_001));
+        assertEquals(Funnel.DEFAULT_STATE, store.state(20_001));
+    }
+
+    @Test
+    public void removalKeepsProbeChainsIntact() {
+        // Удаление сдвигом назад: после каждого удаления все оставшиеся ключи находятся,
+        // включая цепочки, перешедшие через конец массива
+        store = new InMemorySessionStore();
+        SplittableRandom random = new SplittableRandom(7);
+        Map<Long, String> expected = new HashMap<>();
+        for (int round = 0; round < 20_000; round++) {
+            long chatId = random.nextLong(3000) - 1500;
+            if (random.nextInt(3) == 0) {
+                store.remove(chatId);
+                expected.remove(chatId);
+            } else {
+                String name = "Имя " + round;
+                store.put(chatId, 3, null, name, null, null);
+                expected.put(chatId, name);
+            }
+        }
+        assertEquals(expected.size(), store.size());
+        for (long chatId = -1500; chatId < 1500; chatId++) {
+            SessionStore.Session session = store.get(chatId);
+            assertEquals("chat " + chatId, expected.get(chatId), session == null ? null : session.name);
+        }
+    }
+
+    @Test
+    public void defaultWithoutDataRemovesSession() {
+        store = new InMemorySessionStore();
+        store.put(1, 2, "Демо", null, null, null);
+        store.put(1, Funnel.DEFAULT_STATE, null, null, null, null);
+        assertEquals(0, store.size());
+        assertNull(store.get(1));
+    }
+
+    @Test
+    public void idleSessionsSpillToFileAndComeBackOnAccess() throws Exception {
+        store = coldStore();
+        store.put(1, 2, "Демо", "Анна", "+79990000001", null);
+        store.put(2, 3, "Аудит", "Борис", null, "после обеда");
+        store.put(3, 4, "Демо", "Вера", null, null);
+        clock.advance(TimeUnit.MINUTES.toMillis(20));
+        assertNotNull(store.get(3));
+        clock.advance(TimeUnit.MINUTES.toMillis(15));
+
+        assertEquals(2, store.evictIdle(clock.currentTimeMillis()));
+        assertEquals(1, store.size());
+        assertEquals(2, store.coldSize());
+
+        SessionStore.Session session = store.get(2);
+        assertEquals(3, session.state);
+        assertEquals("Аудит", session.requestType);
+        assertEquals("Борис", session.name);
+        assertNull(session.contact);
+        assertEquals("после обеда", session.comment);
+        assertEquals(2, store.size());
+        assertEquals(1, store.coldSize());
+        assertEquals(2, store.state(1));
+        assertEquals(0, store.coldSize());
+    }
+
+    @Test
+    public void writeAndRemoveReplaceColdCopy() throws Exception {
+        store = coldStore();
+        store.put(1, 2, "Демо", "Анна", null, null);
+        store.put(2, 2, "Демо", "Борис", null, null);
+        store.evictAll();
+        assertEquals(2, store.coldSize());
+
+        store.put(1, 5, "Демо", "Анна", "+79990000001", null);
+        store.remove(2);
+        assertEquals(0, store.coldSize());
+        assertEquals(5, store.get(1).state);
+        assertNull(store.get(2));
+
+        Set<Long> visited = new HashSet<>();
+        store.evictAll();
+        store.forEach((chatId, state, requestType, name, contact, comment) -> visited.add(chatId));
+        assertEquals(Set.of(1L), visited);
+    }
+
+    @Test
+    public void manySessionsSpillAndLoadBack() throws Exception {
+        store = coldStore();
+        // Больше одной пачки выселения и больше начального индекса файла
+        int count = 50_000;
+        for (long chatId = 1; chatId <= count; chatId++) {
+            store.put(chatId, 2, "Демо", "Чат " + chatId, null, null);
+        }
+        assertEquals(count, store.evictAll());
+        assertEquals(0, store.size());
+        assertEquals(count, store.coldSize());
+        assertTrue("таблица сжата после выселения", store.estimatedBytes() < 100_000);
+
+        for (long chatId = 1; chatId <= count; chatId += 7) {
+            assertEquals("Чат " + chatId, store.get(chatId).name);
+        }
+        assertEquals((count + 6) / 7, store.size());
+        assertEquals(count - (count + 6) / 7, store.coldSize());
+    }
+
+    private InMemorySessionStore coldStore() throws IOException {
+        return new InMemorySessionStore(new ColdSessionFile(dir.getRoot().toPath().resolve("cold")), IDLE, clock);
+    }
+}
@@ -0,0 +1,63 @@
+package com.example;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LeadIndexTest {
+    private final SheetsStub sheets = new SheetsStub(Arrays.asList(
+            "Тип", "Имя", "Контакт", "Комментарий", "Чат", "Дата", "Ключ", "Статус"));
+    private LeadIndex index;
+
+    @After
+    public void tearDown() {
+        if (index != null) {
+            index.shutdown();
+        }
+    }
+
+    @Test
+    public void readsRowsBelowHeader() throws Exception {
+        sheets.addRow("Демо", "Анна", "8 (999) 000-00-01", "", "Chat ID: 42", "date", "lead:42:1", "новая");
+        load();
+
+        assertEquals(List.of("GET C2:E"), sheets.requests);
+        assertEquals(2, index.size());
+        assertEquals(LeadIndex.Status.REPEAT, index.classify(1, "+7 999 000 00 01"));
+        assertEquals(LeadIndex.Status.REPEAT, index.classify(42, null));
+        // Заголовок столбца контакта — не заявка
+        assertEquals(LeadIndex.Status.NEW, index.classify(1, "Контакт"));
+    }
+
+    @Test
+    public void emptySheetHasOnlyHeader() throws Exception {
+        load();
+        assertEquals(0, index.size());
+        assertEquals(LeadIndex.Status.NEW, index.classify(1, "+79990000001"));
+    }
+
+    @Test
+    public void recordedLeadIsRepeat() throws Exception {
+        load();
+        assertEquals(LeadIndex.Status.NEW, index.classify(7, "anna@example.com"));
+        index.record(7, "anna@example.com", LeadIndex.Status.NEW);
+        assertEquals(LeadIndex.Status.REPEAT, index.classify(8, " Anna@Example.com "));
+        assertEquals(LeadIndex.Status.REPEAT, index.classify(7, null));
+    }
+
+    private void load() throws InterruptedException {
+        index = new LeadIndex(sheets, "sheet", 0, new Metrics());
+        index.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!index.isLoaded()) {
+            assertTrue("таблица не прочитана", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
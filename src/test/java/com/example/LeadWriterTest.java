@@ -0,0 +1,112 @@
+package com.example;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LeadWriterTest {
+    private static final List<Object> HEADER = Arrays.asList(
+            "Тип", "Имя", "Контакт", "Комментарий", "Чат", "Дата", "Ключ", "Статус");
+
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    private final SheetsStub sheets = new SheetsStub(HEADER);
+    private LeadWriter writer;
+
+    @After
+    public void tearDown() {
+        if (writer != null) {
+            writer.shutdown();
+        }
+    }
+
+    @Test
+    public void appendsWithoutReadingKeys() throws Exception {
+        writer = writer();
+        writer.submit(row(1, 10));
+
+        awaitDrained();
+        assertEquals(List.of("APPEND 1"), sheets.requests);
+        assertEquals("lead:1:10", sheets.sheet.get(1).get(6));
+        assertEquals("новая", sheets.sheet.get(1).get(7));
+    }
+
+    @Test
+    public void skipsRowsWrittenBeforeRestartInEitherLayout() throws Exception {
+        // Строка без статуса (ключ в G) и строка с промежуточным порядком столбцов (ключ в H)
+        sheets.addRow("Демо", "Анна", "+79990000001", "", "Chat ID: 1", "date", "lead:1:10");
+        sheets.addRow("Демо", "Борис", "+79990000002", "", "Chat ID: 2", "date", "новая", "lead:2:20");
+        LeadOutbox outbox = new LeadOutbox(dir.getRoot().toPath());
+        outbox.append(row(1, 10));
+        outbox.append(row(2, 20));
+        outbox.append(row(3, 30));
+        outbox.close();
+
+        writer = writer();
+        awaitDrained();
+        assertEquals(List.of("GET G:H", "APPEND 1"), sheets.requests);
+        assertEquals(4, sheets.sheet.size());
+        assertEquals("lead:3:30", sheets.sheet.get(3).get(6));
+    }
+
+    @Test
+    public void keyIsTakenOnlyFromKeyColumn() throws Exception {
+        // Имя вводит пользователь: оно может начинаться с префикса ключа
+        sheets.addRow("Демо", "lead:3:30", "+79990000001", "", "Chat ID: 1", "date", "lead:1:10", "новая");
+        List<Object> third = Arrays.asList("Демо", "lead:1:10", "+79990000003", "", "Chat ID: 3", "date",
+                "lead:3:30", "новая");
+        LeadOutbox outbox = new LeadOutbox(dir.getRoot().toPath());
+        outbox.append(row(1, 10));
+        outbox.append(third);
+        outbox.close();
+
+        writer = writer();
+        awaitDrained();
+        assertEquals(List.of("GET G:H", "APPEND 1"), sheets.requests);
+        assertEquals(3, sheets.sheet.size());
+        assertEquals("lead:3:30", sheets.sheet.get(2).get(6));
+    }
+
+    @Test
+    public void appendWithLostResponseIsNotRepeated() throws Exception {
+        sheets.failNextAppends = 1;
+        writer = writer();
+        writer.submit(row(1, 10));
+        writer.submit(row(2, 20));
+
+        awaitDrained();
+        // После ошибки строки сверяются с таблицей, и уже дошедшая второй раз не пишется
+        assertTrue(sheets.requests.toString(), sheets.requests.contains("GET G:H"));
+        assertEquals(3, sheets.sheet.size());
+        assertEquals("lead:1:10", sheets.sheet.get(1).get(6));
+        assertEquals("lead:2:20", sheets.sheet.get(2).get(6));
+    }
+
+    private LeadWriter writer() throws IOException {
+        return new LeadWriter(sheets, "sheet", new LeadOutbox(dir.getRoot().toPath()), 50, 0, 6000, new Metrics());
+    }
+
+    private void awaitDrained() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (writer.queueDepth() > 0) {
+            assertTrue("заявки не ушли в таблицу", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    // Строка в порядке SalesAnalyticsBot.saveToGoogleSheets
+    private static List<Object> row(long chatId, long updateId) {
+        return Arrays.asList("Демо", "Анна", "+7999000000" + chatId, "", "Chat ID: " + chatId, "date",
+                LeadWriter.KEY_PREFIX + chatId + ":" + updateId, "новая");
+    }
+}
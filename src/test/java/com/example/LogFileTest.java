@@ -0,0 +1,58 @@
+package com.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class LogFileTest {
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    @Test
+    public void rotatesBySizeAndKeepsConfiguredFiles() throws Exception {
+        Path path = dir.getRoot().toPath().resolve("logs").resolve("bot.log");
+        LogFile file = new LogFile(path.toString(), 20, 2);
+        for (int i = 1; i <= 4; i++) {
+            write(file, "строка " + i + "\n");
+        }
+        file.close();
+
+        // Каждая строка больше половины лимита: по одной на файл, самая старая удалена
+        assertEquals("строка 4\n", read(path));
+        assertEquals("строка 3\n", read(path.resolveSibling("bot.log.1")));
+        assertEquals("строка 2\n", read(path.resolveSibling("bot.log.2")));
+        assertFalse(Files.exists(path.resolveSibling("bot.log.3")));
+    }
+
+    @Test
+    public void reopenedFileCountsExistingSize() throws Exception {
+        Path path = dir.getRoot().toPath().resolve("bot.log");
+        LogFile file = new LogFile(path.toString(), 40, 1);
+        write(file, "до перезапуска\n");
+        file.close();
+
+        file = new LogFile(path.toString(), 40, 1);
+        write(file, "после\n");
+        write(file, "перезапуска\n");
+        file.close();
+
+        assertEquals("до перезапуска\nпосле\n", read(path.resolveSibling("bot.log.1")));
+        assertEquals("перезапуска\n", read(path));
+    }
+
+    private static void write(LogFile file, String line) throws Exception {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        file.write(bytes, 0, bytes.length);
+    }
+
+    private static String read(Path path) throws Exception {
+        return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,138 @@
+package com.example;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LogTest {
+    @After
+    public void restore() {
+        Log.clock(TimeSource.SYSTEM);
+        Log.output(null);
+    }
+
+    @Test
+    public void messageIsEscapedAsJsonString() throws Exception {
+        Sink sink = new Sink();
+        Log.output(sink);
+        Log.context(42, "message");
+        Log.info("log.test.escape", "«Кавычки» \"в\" тексте\\путь\nстрока\tтаб\u0001");
+        Log.clearContext();
+
+        String line = sink.await("log.test.escape", 1).get(0);
+        assertTrue(line, line.startsWith("{\"ts\":\""));
+        assertTrue(line, line.endsWith("}"));
+        assertTrue(line, line.contains(",\"level\":\"INFO\""));
+        assertTrue(line, line.contains(",\"chat\":42,\"update\":\"message\""));
+        assertTrue(line, line.contains(
+                ",\"msg\":\"«Кавычки» \\\"в\\\" тексте\\\\путь\\nстрока\\tтаб\\u0001\""));
+    }
+
+    @Test
+    public void sameErrorPrintsStackOncePerMinute() throws Exception {
+        VirtualClock clock = new VirtualClock(TimeUnit.DAYS.toMillis(20000));
+        Log.clock(clock);
+        Sink sink = new Sink();
+        Log.output(sink);
+        for (int i = 0; i < 3; i++) {
+            Log.error("log.test.stack", failure());
+        }
+        clock.advance(TimeUnit.MINUTES.toMillis(1));
+        Log.error("log.test.stack", failure());
+
+        List<String> lines = sink.await("log.test.stack", 4);
+        assertTrue(lines.get(0), lines.get(0).contains(",\"stack\":\"java.lang.IllegalStateException: сбой\\n\\tat "));
+        assertFalse(lines.get(1), lines.get(1).contains("\"stack\""));
+        assertFalse(lines.get(2), lines.get(2).contains("\"stack\""));
+        assertTrue(lines.get(1), lines.get(1).contains(",\"error\":\"java.lang.IllegalStateException: сбой\""));
+        // Через минуту — снова стек и сколько стеков было пропущено
+        assertTrue(lines.get(3), lines.get(3).contains(",\"suppressed\":2,\"stack\":"));
+    }
+
+    @Test
+    public void overflowIsDroppedAndCounted() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Sink blocked = new Sink() {
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.write(bytes, offset, length);
+            }
+        };
+        Log.output(blocked);
+        Log.info("log.test.overflow", "первая");
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        // Поток записи стоит в write: кольцо заполняется, остальное отбрасывается
+        long droppedBefore = Log.droppedCount();
+        int logged = 8192 + 100;
+        for (int i = 0; i < logged; i++) {
+            Log.info("log.test.overflow", "запись " + i);
+        }
+        long dropped = Log.droppedCount() - droppedBefore;
+        assertTrue("отброшено " + dropped, dropped >= 100);
+        release.countDown();
+
+        // Всё, что попало в кольцо, дописывается
+        blocked.await("log.test.overflow", (int) (1 + logged - dropped));
+    }
+
+    private static IllegalStateException failure() {
+        return new IllegalStateException("сбой");
+    }
+
+    // Вывод журнала в память: строки ждутся с таймаутом, записи других потоков отфильтровываются
+    private static class Sink extends OutputStream {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        @Override
+        public synchronized void write(int b) {
+            bytes.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int offset, int length) {
+            bytes.write(b, offset, length);
+        }
+
+        List<String> await(String operation, int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (true) {
+                List<String> lines = lines(operation);
+                if (lines.size() >= count) {
+                    return lines;
+                }
+                if (System.nanoTime() > deadline) {
+                    throw new AssertionError("Строк " + operation + ": " + lines.size() + " из " + count);
+                }
+                Thread.sleep(10);
+            }
+        }
+
+        private synchronized List<String> lines(String operation) {
+            List<String> lines = new ArrayList<>();
+            for (String line : new String(bytes.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+                if (line.contains("\"op\":\"" + operation + "\"")) {
+                    lines.add(line);
+                }
+            }
+            return lines;
+        }
+    }
+}
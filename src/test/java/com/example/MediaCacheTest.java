@@ -0,0 +1,45 @@
+package com.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.telegram.telegrambots.meta.api.objects.InputFile;
+
+import java.io.InputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MediaCacheTest {
+    private static final String RESOURCE = "/img/roof_case.jpg";
+
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    @Test
+    public void everyUploadGetsItsOwnCopyOfResourceBytes() throws Exception {
+        MediaCache cache = new MediaCache(dir.getRoot().toPath().resolve("media.properties"));
+        byte[] expected;
+        try (InputStream stream = MediaCache.class.getResourceAsStream(RESOURCE)) {
+            expected = stream.readAllBytes();
+        }
+
+        InputFile first = cache.photo(RESOURCE);
+        InputFile second = cache.photo(RESOURCE);
+        assertTrue(first.isNew());
+        assertEquals("roof_case.jpg", first.getMediaName());
+        // Повторная отправка после ошибки читает картинку с начала, а не дочитывает чужой поток
+        assertArrayEquals(expected, first.getNewMediaStream().readAllBytes());
+        assertArrayEquals(expected, second.getNewMediaStream().readAllBytes());
+        assertFalse(cache.isCached(RESOURCE));
+    }
+
+    @Test
+    public void missingResourceIsNull() {
+        MediaCache cache = new MediaCache(dir.getRoot().toPath().resolve("media.properties"));
+        assertNull(cache.photo("/img/missing.jpg"));
+    }
+}
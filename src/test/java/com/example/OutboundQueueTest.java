@@ -0,0 +1,130 @@
+package com.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Test;
+import org.telegram.telegrambots.meta.api.objects.ApiResponse;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OutboundQueueTest {
+    private OutboundQueue queue;
+
+    @After
+    public void tearDown() {
+        if (queue != null) {
+            queue.shutdown(1000);
+        }
+    }
+
+    @Test
+    public void tooManyRequestsPausesAllChats() throws Exception {
+        // Лимиты с запасом: ждать можно только из-за retry_after
+        queue = new OutboundQueue(2, 1000, 1000, 1000, 1000);
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<String> first = queue.submit(1, OutboundQueue.Priority.INTERACTIVE, () -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw tooManyRequests(1);
+            }
+            return "first";
+        });
+        // Ждём, пока поток отправки разберёт ответ 429
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (queue.rateLimitedCount() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        long pausedAt = System.nanoTime();
+        CompletableFuture<Long> other = queue.submit(2, OutboundQueue.Priority.INTERACTIVE, System::nanoTime);
+
+        long otherSentAt = other.get(5, TimeUnit.SECONDS);
+        assertEquals("first", first.get(5, TimeUnit.SECONDS));
+        assertTrue("другой чат отправил до конца retry_after",
+                otherSentAt - pausedAt >= TimeUnit.MILLISECONDS.toNanos(900));
+        assertEquals(2, attempts.get());
+        assertEquals(1, queue.rateLimitedCount());
+        assertEquals(1000, queue.rateLimitedPauseMillis(), 50);
+    }
+
+    @Test
+    public void failedRequestDoesNotTakeItsKey() throws Exception {
+        queue = new OutboundQueue(1, 1000, 1000, 1000, 1000);
+        AtomicInteger attempts = new AtomicInteger();
+        OutboundQueue.Call<String> flaky = () -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new TelegramApiException("Bad Gateway");
+            }
+            return "sent";
+        };
+        try {
+            queue.submit(1, OutboundQueue.Priority.INTERACTIVE, 77, flaky).get(5, TimeUnit.SECONDS);
+            fail("первая попытка должна завершиться ошибкой");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TelegramApiException);
+        }
+
+        // Повтор после ошибки уходит заново, а после успеха — уже нет
+        assertEquals("sent", queue.submit(1, OutboundQueue.Priority.INTERACTIVE, 77, flaky).get(5, TimeUnit.SECONDS));
+        assertNull(queue.submit(1, OutboundQueue.Priority.INTERACTIVE, 77, flaky).get(5, TimeUnit.SECONDS));
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void duplicateOfPendingRequestSharesItsResult() throws Exception {
+        queue = new OutboundQueue(1, 1000, 1000, 1000, 1000);
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        OutboundQueue.Call<String> slow = () -> {
+            attempts.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "sent";
+        };
+        CompletableFuture<String> first = queue.submit(1, OutboundQueue.Priority.INTERACTIVE, 77, slow);
+        CompletableFuture<String> duplicate = queue.submit(1, OutboundQueue.Priority.INTERACTIVE, 77, slow);
+        release.countDown();
+
+        assertSame(first, duplicate);
+        assertEquals("sent", duplicate.get(5, TimeUnit.SECONDS));
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void requestRejectedOnShutdownDoesNotTakeItsKey() {
+        queue = new OutboundQueue(0, 1000, 1000, 1000, 1000);
+        queue.shutdown(0);
+        CompletableFuture<String> rejected = queue.submit(1, OutboundQueue.Priority.INTERACTIVE, 77, () -> "sent");
+        CompletableFuture<String> retried = queue.submit(1, OutboundQueue.Priority.INTERACTIVE, 77, () -> "sent");
+
+        // Повтор не выдаётся за уже отправленный: он тоже получает ошибку остановки
+        assertTrue(rejected.isCompletedExceptionally());
+        assertNotSame(rejected, retried);
+        assertTrue(retried.isCompletedExceptionally());
+    }
+
+    private static TelegramApiRequestException tooManyRequests(int retryAfter) {
+        try {
+            ApiResponse<?> response = new ObjectMapper().readValue("{\"ok\":false,\"error_code\":429,"
+                    + "\"description\":\"Too Many Requests\",\"parameters\":{\"retry_after\":" + retryAfter + "}}",
+                    ApiResponse.class);
+            return new TelegramApiRequestException("Too Many Requests", response);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.example;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RedisAudienceStoreTest {
+    private static final String PREFIX = "bot:";
+
+    private final List<RedisAudienceStore> stores = new ArrayList<>();
+    private RespServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        // Страница SSCAN в 2 элемента: снимок проходит несколько курсоров
+        server = new RespServer(null, 2);
+    }
+
+    @After
+    public void tearDown() {
+        for (RedisAudienceStore store : stores) {
+            store.close();
+        }
+        server.close();
+    }
+
+    @Test
+    public void knownChatDoesNotGoToRedisAgain() throws Exception {
+        RedisAudienceStore store = store();
+        assertTrue(store.add(1));
+        int commands = server.commandCount();
+        assertFalse(store.add(1));
+        assertEquals(commands, server.commandCount());
+    }
+
+    @Test
+    public void audienceIsSharedBetweenInstances() throws Exception {
+        RedisAudienceStore first = store();
+        RedisAudienceStore second = store();
+        first.add(1);
+        first.add(2);
+        second.add(2);
+        second.add(3);
+        second.add(4);
+        second.add(5);
+
+        assertEquals(5, first.size());
+        long[] chats = first.snapshot();
+        Arrays.sort(chats);
+        assertArrayEquals(new long[]{1, 2, 3, 4, 5}, chats);
+    }
+
+    @Test
+    public void failedAddIsRetried() throws Exception {
+        RedisAudienceStore store = new RedisAudienceStore(new RespClient(server.uri(), 200), PREFIX);
+        stores.add(store);
+        server.stall(true);
+        try {
+            store.add(1);
+        } catch (IOException expected) {
+            // Redis не ответил вовремя
+        }
+        server.stall(false);
+
+        // Чат не записан как добавленный: следующее событие снова отправит SADD
+        int commands = server.commandCount();
+        store.add(1);
+        assertTrue(server.commandCount() > commands);
+        assertArrayEquals(new long[]{1}, store.snapshot());
+    }
+
+    private RedisAudienceStore store() {
+        RedisAudienceStore store = new RedisAudienceStore(new RespClient(server.uri(), 2000), PREFIX);
+        stores.add(store);
+        return store;
+    }
+}
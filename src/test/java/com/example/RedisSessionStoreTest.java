@@ -0,0 +1,177 @@
+package com.example;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RedisSessionStoreTest {
+    private static final String PREFIX = "bot:";
+    private static final long TTL_MILLIS = TimeUnit.DAYS.toMillis(1);
+    // Копия в кеше живёт дольше любого теста: обновить её может только уведомление
+    private static final long NEAR_CACHE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final List<RedisSessionStore> stores = new ArrayList<>();
+    private RespServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new RespServer();
+    }
+
+    @After
+    public void tearDown() {
+        for (RedisSessionStore store : stores) {
+            store.shutdown();
+        }
+        server.close();
+    }
+
+    @Test
+    public void sessionRoundTripsThroughRedis() {
+        RedisSessionStore writer = store();
+        writer.put(1, new SessionStore.Session(4, "Демо", "Анна", "+79990000000", "после 18:00"));
+
+        SessionStore.Session read = store().get(1);
+        assertNotNull(read);
+        assertEquals(4, read.state);
+        assertEquals("Демо", read.requestType);
+        assertEquals("Анна", read.name);
+        assertEquals("+79990000000", read.contact);
+        assertEquals("после 18:00", read.comment);
+        assertNotNull("ключ без срока жизни", server.expiresAt(PREFIX + "session:1"));
+    }
+
+    @Test
+    public void emptySessionDeletesTheKey() {
+        RedisSessionStore store = store();
+        store.put(1, new SessionStore.Session(2, null, null, null, null));
+        assertNotNull(server.value(PREFIX + "session:1"));
+
+        store.put(1, new SessionStore.Session(Funnel.DEFAULT_STATE, null, null, null, null));
+        assertNull(server.value(PREFIX + "session:1"));
+        assertNull(store.get(1));
+        assertEquals(Funnel.DEFAULT_STATE, store.state(1));
+    }
+
+    @Test
+    public void repeatedReadsComeFromNearCache() {
+        RedisSessionStore store = store();
+        server.setQuietly(PREFIX + "session:1", new byte[]{3});
+
+        assertEquals(3, store.state(1));
+        int commands = server.commandCount();
+        assertEquals(3, store.state(1));
+        // Чат без сессии тоже кешируется
+        assertNull(store.get(2));
+        assertNull(store.get(2));
+        assertEquals(commands + 1, server.commandCount());
+    }
+
+    @Test
+    public void writeOnOneNodeInvalidatesOtherNodes() throws Exception {
+        RedisSessionStore first = started();
+        RedisSessionStore second = started();
+        awaitSubscribers(2);
+        first.put(1, new SessionStore.Session(2, null, null, null, null));
+        assertEquals(2, second.state(1));
+
+        first.put(1, new SessionStore.Session(5, null, null, null, null));
+        await(() -> second.state(1) == 5, "второй узел не сбросил копию после записи первого");
+        first.remove(1);
+        await(() -> second.get(1) == null, "второй узел не сбросил копию после удаления");
+    }
+
+    @Test
+    public void ownWriteKeepsNearCacheCopy() throws Exception {
+        RedisSessionStore store = started();
+        awaitSubscribers(1);
+        store.put(1, new SessionStore.Session(2, null, null, null, null));
+        // Своё уведомление приходит обратно и не должно сбросить только что записанное
+        Thread.sleep(200);
+        int commands = server.commandCount();
+        assertEquals(2, store.state(1));
+        assertEquals(commands, server.commandCount());
+    }
+
+    @Test
+    public void resubscribeDropsWholeNearCache() throws Exception {
+        RedisSessionStore store = started();
+        awaitSubscribers(1);
+        store.put(1, new SessionStore.Session(2, null, null, null, null));
+        assertEquals(2, store.state(1));
+
+        // Другой узел записал, а уведомление потерялось: копия устарела
+        server.setQuietly(PREFIX + "session:1", new byte[]{6});
+        assertEquals(2, store.state(1));
+
+        // После обрыва подписки пропущенные изменения неизвестны — кеш сбрасывается целиком
+        server.dropConnections();
+        await(() -> server.subscriberCount(PREFIX + "session-invalidate") == 1, "подписка не восстановилась");
+        await(() -> stateOrMinusOne(store, 1) == 6, "кеш не сброшен после переподключения");
+    }
+
+    @Test
+    public void forEachWalksAllScanPages() {
+        RedisSessionStore store = store();
+        for (long chatId = 1; chatId <= 250; chatId++) {
+            store.put(chatId, new SessionStore.Session(4, "Демо", "Имя " + chatId, null, null));
+        }
+        // Ключ другого бота с похожим именем не попадает в обход
+        server.setQuietly("other:session:9999", new byte[]{4});
+
+        Map<Long, String> names = new HashMap<>();
+        store.forEach((chatId, state, requestType, name, contact, comment) -> {
+            assertEquals(4, state);
+            names.put(chatId, name);
+        });
+        assertEquals(250, names.size());
+        assertEquals("Имя 137", names.get(137L));
+    }
+
+    private RedisSessionStore store() {
+        RedisSessionStore store = new RedisSessionStore(new RespClient(server.uri(), 2000),
+                PREFIX, TTL_MILLIS, 1000, NEAR_CACHE_MILLIS);
+        stores.add(store);
+        return store;
+    }
+
+    private RedisSessionStore started() {
+        RedisSessionStore store = store();
+        store.start();
+        return store;
+    }
+
+    private void awaitSubscribers(int count) throws InterruptedException {
+        await(() -> server.subscriberCount(PREFIX + "session-invalidate") == count, "подписчики не подключились");
+    }
+
+    // Обрыв соединения команд может уронить одно чтение
+    private static int stateOrMinusOne(RedisSessionStore store, long chatId) {
+        try {
+            return store.state(chatId);
+        } catch (IllegalStateException e) {
+            return -1;
+        }
+    }
+
+    private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(message, System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.example;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RespClientTest {
+    private RespServer server;
+    private RespClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new RespServer();
+        client = new RespClient(server.uri(), 2000);
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void parsesEveryReplyType() throws IOException {
+        assertEquals("PONG", client.call("PING"));
+        assertEquals("OK", client.call("SET", "a", "1"));
+        assertArrayEquals(bytes("1"), (byte[]) client.call("GET", "a"));
+        assertNull(client.call("GET", "missing"));
+        assertEquals(1L, client.call("DEL", "a", "missing"));
+        client.call("SET", "b", "2");
+        List<?> values = (List<?>) client.call("MGET", "b", "missing");
+        assertEquals(2, values.size());
+        assertArrayEquals(bytes("2"), (byte[]) values.get(0));
+        assertNull(values.get(1));
+    }
+
+    @Test
+    public void valuesAreBinarySafe() throws IOException {
+        byte[] value = {0, '\r', '\n', '$', '*', -1, 'x'};
+        client.call("SET", "binary", value);
+        assertArrayEquals(value, (byte[]) client.call("GET", "binary"));
+        String text = "заявка\r\nвторая строка";
+        client.call("SET", "text", text);
+        assertEquals(text, RespClient.text(client.call("GET", "text")));
+    }
+
+    @Test
+    public void serverErrorFailsOnlyItsCommand() throws IOException {
+        List<CompletableFuture<Object>> replies = client.pipeline(Arrays.asList(
+                new Object[]{"SET", "k", "v"}, new Object[]{"NOPE"}, new Object[]{"GET", "k"}));
+        assertEquals("OK", client.await(replies.get(0)));
+        try {
+            client.await(replies.get(1));
+            fail("ожидалась ошибка сервера");
+        } catch (RespClient.RespException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("ERR unknown command"));
+        }
+        assertArrayEquals(bytes("v"), (byte[]) client.await(replies.get(2)));
+    }
+
+    @Test
+    public void pipelineKeepsReplyOrder() throws IOException {
+        List<Object[]> commands = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            commands.add(new Object[]{"SET", "key:" + i, i});
+            commands.add(new Object[]{"GET", "key:" + i});
+        }
+        List<CompletableFuture<Object>> replies = client.pipeline(commands);
+        for (int i = 0; i < 500; i++) {
+            assertEquals("OK", client.await(replies.get(2 * i)));
+            assertEquals(String.valueOf(i), RespClient.text(client.await(replies.get(2 * i + 1))));
+        }
+    }
+
+    @Test
+    public void concurrentCallersGetTheirOwnReplies() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int thread = t;
+                workers.add(pool.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        String key = "t" + thread + ":" + i;
+                        client.call("SET", key, key);
+                        assertEquals(key, RespClient.text(client.call("GET", key)));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void reconnectsAfterConnectionLoss() throws Exception {
+        client.call("SET", "k", "before");
+        server.dropConnections();
+        // Команда, ушедшая в оборванное соединение, может завершиться ошибкой; следующая открывает новое
+        try {
+            client.call("GET", "k");
+        } catch (RespClient.RespException e) {
+            // Ожидаемо: обрыв заметили на этой команде
+        }
+        assertArrayEquals(bytes("before"), (byte[]) client.call("GET", "k"));
+    }
+
+    @Test
+    public void pendingCommandsFailWhenConnectionDrops() throws Exception {
+        client.call("PING");
+        server.stall(true);
+        CompletableFuture<Object> reply = client.send("GET", "k");
+        Thread.sleep(50);
+        server.dropConnections();
+        server.stall(false);
+        try {
+            reply.get(2, TimeUnit.SECONDS);
+            fail("команда должна завершиться ошибкой при обрыве");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RespClient.RespException);
+        }
+        assertNull(client.call("GET", "k"));
+    }
+
+    @Test
+    public void authenticatesWithPasswordFromUri() throws IOException {
+        try (RespServer secured = new RespServer("secret", 100)) {
+            RespClient authorized = new RespClient(secured.uri(), 2000);
+            RespClient anonymous = new RespClient(URI.create(secured.uri().toString().replace(":secret@", "")), 2000);
+            try {
+                assertEquals("OK", authorized.call("SET", "k", "v"));
+                try {
+                    anonymous.call("GET", "k");
+                    fail("без пароля команда должна быть отклонена");
+                } catch (RespClient.RespException e) {
+                    assertTrue(e.getMessage(), e.getMessage().startsWith("NOAUTH"));
+                }
+            } finally {
+                authorized.close();
+                anonymous.close();
+            }
+        }
+    }
+
+    @Test
+    public void subscriptionReceivesMessagesAndResubscribes() throws Exception {
+        LinkedBlockingQueue<String> messages = new LinkedBlockingQueue<>();
+        AtomicInteger connects = new AtomicInteger();
+        CountDownLatch firstConnect = new CountDownLatch(1);
+        CountDownLatch secondConnect = new CountDownLatch(2);
+        client.subscribe("events", message -> messages.add(new String(message, StandardCharsets.UTF_8)), () -> {
+            connects.incrementAndGet();
+            firstConnect.countDown();
+            secondConnect.countDown();
+        });
+        assertTrue(firstConnect.await(5, TimeUnit.SECONDS));
+        assertEquals(1L, client.call("PUBLISH", "events", "one"));
+        assertEquals("one", messages.poll(5, TimeUnit.SECONDS));
+
+        server.dropConnections();
+        assertTrue("подписка не восстановилась", secondConnect.await(5, TimeUnit.SECONDS));
+        // Соединение команд тоже оборвано: первая публикация может уйти в него и упасть
+        try {
+            client.call("PUBLISH", "events", "two");
+        } catch (RespClient.RespException e) {
+            client.call("PUBLISH", "events", "two");
+        }
+        assertEquals("two", messages.poll(5, TimeUnit.SECONDS));
+        assertEquals(2, connects.get());
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,452 @@
+package com.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+// Сервер RESP2 в процессе теста: GET/SET (PX)/DEL/SCAN/MGET/PUBLISH/SUBSCRIBE,
+// множества (SADD/SCARD/SSCAN), AUTH и SELECT.
+// Каждое соединение — свой поток; команды выполняются по одной в порядке прихода,
+// поэтому конвейер клиента получает ответы в порядке отправки. SCAN и SSCAN отдают страницы
+// не больше pageSize элементов, чтобы клиент проходил несколько курсоров.
+final class RespServer implements AutoCloseable {
+    private final ServerSocket socket;
+    private final String password;
+    private final int pageSize;
+    private final Map<String, byte[]> values = new TreeMap<>();
+    private final Map<String, Long> expiresAt = new TreeMap<>();
+    private final Map<String, Set<String>> sets = new TreeMap<>();
+    private final Map<String, List<Client>> channels = new ConcurrentHashMap<>();
+    private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger commands = new AtomicInteger();
+    private volatile boolean closed;
+    private boolean stalled;
+
+    RespServer() throws IOException {
+        this(null, 100);
+    }
+
+    // password == null — AUTH не требуется
+    RespServer(String password, int pageSize) throws IOException {
+        this.password = password;
+        this.pageSize = pageSize;
+        this.socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptLoop, "resp-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    URI uri() {
+        return URI.create("redis://" + (password == null ? "" : ":" + password + "@")
+                + "127.0.0.1:" + socket.getLocalPort());
+    }
+
+    // Выполненных команд с момента запуска
+    int commandCount() {
+        return commands.get();
+    }
+
+    int subscriberCount(String channel) {
+        List<Client> subscribers = channels.get(channel);
+        return subscribers == null ? 0 : subscribers.size();
+    }
+
+    // Значение в обход команд: другой узел записал, а уведомление потерялось
+    synchronized void setQuietly(String key, byte[] value) {
+        values.put(key, value);
+        expiresAt.remove(key);
+    }
+
+    synchronized byte[] value(String key) {
+        return live(key, System.currentTimeMillis()) ? values.get(key) : null;
+    }
+
+    synchronized Long expiresAt(String key) {
+        return expiresAt.get(key);
+    }
+
+    // Пока stalled, команды читаются, но не выполняются: ответы не приходят
+    synchronized void stall(boolean stalled) {
+        this.stalled = stalled;
+        notifyAll();
+    }
+
+    // Обрывает все соединения, сервер продолжает принимать новые
+    void dropConnections() {
+        for (Client client : clients) {
+            client.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Уже закрыт
+        }
+        dropConnections();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Client client = new Client(socket.accept());
+                clients.add(client);
+                Thread thread = new Thread(client::serve, "resp-server-client");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private final class Client {
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+        boolean authenticated = password == null;
+
+        Client(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        void serve() {
+            try {
+                while (true) {
+                    List<byte[]> command = readCommand(in);
+                    commands.incrementAndGet();
+                    awaitUnstalled();
+                    synchronized (this) {
+                        execute(command);
+                        // Следующая команда конвейера уже в буфере — ответы уходят одной записью
+                        if (in.available() == 0) {
+                            out.flush();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void close() {
+            clients.remove(this);
+            for (List<Client> subscribers : channels.values()) {
+                subscribers.remove(this);
+            }
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Уже закрыт
+            }
+        }
+
+        synchronized void push(String channel, byte[] message) {
+            try {
+                out.write('*');
+                writeNumber(out, 3);
+                writeBulk(out, "message".getBytes(StandardCharsets.UTF_8));
+                writeBulk(out, channel.getBytes(StandardCharsets.UTF_8));
+                writeBulk(out, message);
+                out.flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void execute(List<byte[]> command) throws IOException {
+            String name = text(command.get(0)).toUpperCase();
+            if (name.equals("AUTH")) {
+                authenticated = password == null || password.equals(text(command.get(1)));
+                writeStatusOrError(authenticated, "WRONGPASS invalid password");
+                return;
+            }
+            if (!authenticated) {
+                writeError("NOAUTH Authentication required.");
+                return;
+            }
+            long now = System.currentTimeMillis();
+            switch (name) {
+                case "PING":
+                    writeStatus("PONG");
+                    return;
+                case "SELECT":
+                    writeStatus("OK");
+                    return;
+                case "GET":
+                    synchronized (RespServer.this) {
+                        String key = text(command.get(1));
+                        writeBulk(out, live(key, now) ? values.get(key) : null);
+                    }
+                    return;
+                case "SET":
+                    synchronized (RespServer.this) {
+                        String key = text(command.get(1));
+                        values.put(key, command.get(2));
+                        expiresAt.remove(key);
+                        if (command.size() == 5 && text(command.get(3)).equalsIgnoreCase("PX")) {
+                            expiresAt.put(key, now + Long.parseLong(text(command.get(4))));
+                        }
+                    }
+                    writeStatus("OK");
+                    return;
+                case "DEL": {
+                    long removed = 0;
+                    synchronized (RespServer.this) {
+                        for (int i = 1; i < command.size(); i++) {
+                            String key = text(command.get(i));
+                            if (live(key, now) && values.remove(key) != null) {
+                                removed++;
+                            }
+                            expiresAt.remove(key);
+                        }
+                    }
+                    writeInteger(removed);
+                    return;
+                }
+                case "MGET":
+                    synchronized (RespServer.this) {
+                        out.write('*');
+                        writeNumber(out, command.size() - 1);
+                        for (int i = 1; i < command.size(); i++) {
+                            String key = text(command.get(i));
+                            writeBulk(out, live(key, now) ? values.get(key) : null);
+                        }
+                    }
+                    return;
+                case "SCAN":
+                    scan(command, now);
+                    return;
+                case "SADD": {
+                    long added = 0;
+                    synchronized (RespServer.this) {
+                        Set<String> members = sets.computeIfAbsent(text(command.get(1)), k -> new TreeSet<>());
+                        for (int i = 2; i < command.size(); i++) {
+                            if (members.add(text(command.get(i)))) {
+                                added++;
+                            }
+                        }
+                    }
+                    writeInteger(added);
+                    return;
+                }
+                case "SCARD":
+                    synchronized (RespServer.this) {
+                        writeInteger(sets.getOrDefault(text(command.get(1)), Set.of()).size());
+                    }
+                    return;
+                case "SSCAN": {
+                    List<String> members;
+                    synchronized (RespServer.this) {
+                        members = new ArrayList<>(sets.getOrDefault(text(command.get(1)), Set.of()));
+                    }
+                    writePage(members, Integer.parseInt(text(command.get(2))), pageSize);
+                    return;
+                }
+                case "PUBLISH": {
+                    String channel = text(command.get(1));
+                    List<Client> subscribers = channels.getOrDefault(channel, List.of());
+                    for (Client subscriber : subscribers) {
+                        subscriber.push(channel, command.get(2));
+                    }
+                    writeInteger(subscribers.size());
+                    return;
+                }
+                case "SUBSCRIBE": {
+                    String channel = text(command.get(1));
+                    channels.computeIfAbsent(channel, c -> new CopyOnWriteArrayList<>()).add(this);
+                    out.write('*');
+                    writeNumber(out, 3);
+                    writeBulk(out, "subscribe".getBytes(StandardCharsets.UTF_8));
+                    writeBulk(out, command.get(1));
+                    writeInteger(1);
+                    return;
+                }
+                default:
+                    writeError("ERR unknown command '" + name + "'");
+            }
+        }
+
+        // SCAN курсор MATCH шаблон COUNT n: курсор — номер ключа в отсортированном списке подходящих
+        private void scan(List<byte[]> command, long now) throws IOException {
+            int cursor = Integer.parseInt(text(command.get(1)));
+            Pattern match = Pattern.compile(".*");
+            int count = 10;
+            for (int i = 2; i + 1 < command.size(); i += 2) {
+                String option = text(command.get(i)).toUpperCase();
+                if (option.equals("MATCH")) {
+                    match = glob(text(command.get(i + 1)));
+                } else if (option.equals("COUNT")) {
+                    count = Integer.parseInt(text(command.get(i + 1)));
+                }
+            }
+            List<String> keys = new ArrayList<>();
+            synchronized (RespServer.this) {
+                for (String key : values.keySet()) {
+                    if (live(key, now) && match.matcher(key).matches()) {
+                        keys.add(key);
+                    }
+                }
+            }
+            writePage(keys, cursor, Math.min(count, pageSize));
+        }
+
+        // Ответ курсорной команды: следующий курсор (0 — конец) и элементы страницы
+        private void writePage(List<String> items, int cursor, int count) throws IOException {
+            int end = Math.min(items.size(), cursor + count);
+            out.write('*');
+            writeNumber(out, 2);
+            writeBulk(out, String.valueOf(end >= items.size() ? 0 : end).getBytes(StandardCharsets.UTF_8));
+            out.write('*');
+            writeNumber(out, Math.max(0, end - cursor));
+            for (int i = cursor; i < end; i++) {
+                writeBulk(out, items.get(i).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        private void writeStatusOrError(boolean ok, String error) throws IOException {
+            if (ok) {
+                writeStatus("OK");
+            } else {
+                writeError(error);
+            }
+        }
+
+        private void writeStatus(String status) throws IOException {
+            out.write('+');
+            out.write(status.getBytes(StandardCharsets.UTF_8));
+            out.write('\r');
+            out.write('\n');
+        }
+
+        private void writeError(String error) throws IOException {
+            out.write('-');
+            out.write(error.getBytes(StandardCharsets.UTF_8));
+            out.write('\r');
+            out.write('\n');
+        }
+
+        private void writeInteger(long value) throws IOException {
+            out.write(':');
+            writeNumber(out, value);
+        }
+    }
+
+    private synchronized void awaitUnstalled() throws IOException {
+        try {
+            while (stalled && !closed) {
+                wait(100);
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    // Под монитором сервера
+    private boolean live(String key, long now) {
+        Long deadline = expiresAt.get(key);
+        if (deadline != null && deadline <= now) {
+            values.remove(key);
+            expiresAt.remove(key);
+            return false;
+        }
+        return values.containsKey(key);
+    }
+
+    private static Pattern glob(String pattern) {
+        StringBuilder regex = new StringBuilder();
+        for (char c : pattern.toCharArray()) {
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    private static List<byte[]> readCommand(InputStream in) throws IOException {
+        int type = in.read();
+        if (type < 0) {
+            throw new EOFException();
+        }
+        if (type != '*') {
+            throw new IOException("Ожидался массив, пришло: " + (char) type);
+        }
+        int count = Integer.parseInt(readLine(in));
+        List<byte[]> arguments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (in.read() != '$') {
+                throw new IOException("Ожидалась bulk-строка");
+            }
+            int length = Integer.parseInt(readLine(in));
+            byte[] bytes = in.readNBytes(length);
+            if (bytes.length < length) {
+                throw new EOFException();
+            }
+            readLine(in);
+            arguments.add(bytes);
+        }
+        return arguments;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\r') {
+            if (b < 0) {
+                throw new EOFException();
+            }
+            line.append((char) b);
+        }
+        in.read();
+        return line.toString();
+    }
+
+    private static void writeBulk(OutputStream out, byte[] value) throws IOException {
+        out.write('$');
+        if (value == null) {
+            writeNumber(out, -1);
+            return;
+        }
+        writeNumber(out, value.length);
+        out.write(value);
+        out.write('\r');
+        out.write('\n');
+    }
+
+    private static void writeNumber(OutputStream out, long value) throws IOException {
+        out.write(Long.toString(value).getBytes(StandardCharsets.US_ASCII));
+        out.write('\r');
+        out.write('\n');
+    }
+
+    private static String text(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,188 @@
+package com.example;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SessionJournalTest {
+    private static final long NOW = TimeUnit.DAYS.toMillis(20000);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    private final VirtualClock clock = new VirtualClock(NOW);
+    private final List<String> fired = new ArrayList<>();
+
+    @Test
+    public void sessionsAndFollowUpsSurviveRestart() throws Exception {
+        SessionJournal journal = open();
+        journal.session(1, 2, "Демо", "Анна", null, null);
+        journal.session(1, 3, "Демо", "Анна", "+79990000001", null);
+        journal.session(2, 2, "Аудит", "Борис", null, null);
+        journal.session(2, Funnel.DEFAULT_STATE, null, null, null, null);
+        journal.followUpScheduled(1, FollowUpKind.FOLLOW_UP, NOW + HOUR);
+        journal.followUpScheduled(1, FollowUpKind.FOLLOW_UP, NOW + 2 * HOUR);
+        journal.followUpScheduled(2, FollowUpKind.FOLLOW_UP, NOW + HOUR);
+        journal.followUpDone(2, 1 << FollowUpKind.FOLLOW_UP.ordinal());
+        journal.shutdown();
+
+        Restored restored = restore(true);
+        SessionStore.Session session = restored.sessions.get(1);
+        assertNotNull(session);
+        assertEquals(3, session.state);
+        assertEquals("Демо", session.requestType);
+        assertEquals("Анна", session.name);
+        assertEquals("+79990000001", session.contact);
+        assertNull(session.comment);
+        assertNull("сессия сброшена в DEFAULT", restored.sessions.get(2));
+        assertEquals(1, restored.followUps.pendingCount());
+        assertTrue(restored.followUps.isPending(1, FollowUpKind.FOLLOW_UP));
+
+        // Перестановка заменила прежний срок: через час ничего, через два — сообщение
+        clock.advance(HOUR + 1000);
+        restored.followUps.tick();
+        assertEquals(List.of(), fired);
+        clock.advance(HOUR);
+        restored.followUps.tick();
+        assertEquals(List.of("1:FOLLOW_UP"), fired);
+    }
+
+    @Test
+    public void restoredSessionsStartInColdTier() throws Exception {
+        SessionJournal journal = open();
+        for (long chatId = 1; chatId <= 1000; chatId++) {
+            journal.session(chatId, 2, "Демо", "Чат " + chatId, null, null);
+        }
+        journal.shutdown();
+
+        Restored restored = restore(true);
+        assertEquals(0, restored.sessions.size());
+        assertEquals(1000, restored.sessions.coldSize());
+        assertEquals("Чат 500", restored.sessions.get(500).name);
+        assertEquals(1, restored.sessions.size());
+        assertEquals(999, restored.sessions.coldSize());
+    }
+
+    @Test
+    public void snapshotReplacesCoveredSegments() throws Exception {
+        SessionJournal journal = open();
+        journal.session(1, 2, "Демо", "Анна", null, null);
+        journal.session(2, 2, "Демо", "Борис", null, null);
+        journal.followUpScheduled(1, FollowUpKind.FOLLOW_UP, NOW + HOUR);
+        // Снимок — живое состояние на момент сжатия
+        journal.compact(out -> {
+            out.onSession(1, 2, "Демо", "Анна", null, null);
+            out.onSession(2, 2, "Демо", "Борис", null, null);
+            out.onFollowUpScheduled(1, FollowUpKind.FOLLOW_UP, NOW + HOUR);
+        });
+        // Записи после снимка повторяются поверх него
+        journal.session(1, 4, "Демо", "Анна", "+79990000001", "вечером");
+        journal.session(2, Funnel.DEFAULT_STATE, null, null, null, null);
+        journal.followUpDone(1, 1 << FollowUpKind.FOLLOW_UP.ordinal());
+        journal.shutdown();
+
+        assertFalse("сегмент до снимка удалён", Files.exists(journalDir().resolve("journal-0.log")));
+        assertTrue(Files.exists(journalDir().resolve("snapshot-1.bin")));
+
+        Restored restored = restore(true);
+        assertEquals(4, restored.sessions.get(1).state);
+        assertEquals("вечером", restored.sessions.get(1).comment);
+        assertNull(restored.sessions.get(2));
+        assertEquals(0, restored.followUps.pendingCount());
+    }
+
+    @Test
+    public void tornTailIsIgnored() throws Exception {
+        SessionJournal journal = open();
+        journal.session(1, 2, "Демо", "Анна", null, null);
+        journal.shutdown();
+        // После перезапуска записи идут в следующий сегмент
+        journal = new SessionJournal(journalDir());
+        journal.restore(new JournalRestorer(null, null, NOW, true));
+        journal.session(2, 2, "Демо", "Борис", null, null);
+        journal.session(3, 2, "Демо", "Вера", null, null);
+        journal.shutdown();
+        // Процесс упал посреди второй записи сегмента: её тело не совпадает с контрольной суммой
+        Path segment = journalDir().resolve("journal-1.log");
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            channel.read(header, 0);
+            long damaged = 8 + header.getInt(0) + 8 + 12;
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, damaged);
+            b.put(0, (byte) ~b.get(0)).rewind();
+            channel.write(b, damaged);
+        }
+
+        Restored restored = restore(true);
+        assertNotNull(restored.sessions.get(1));
+        assertNotNull(restored.sessions.get(2));
+        assertNull("запись после обрыва не читается", restored.sessions.get(3));
+    }
+
+    @Test
+    public void overdueFollowUpsFireOrSkipByPolicy() throws Exception {
+        SessionJournal journal = open();
+        journal.followUpScheduled(1, FollowUpKind.FOLLOW_UP, NOW - HOUR);
+        journal.followUpScheduled(2, FollowUpKind.FOLLOW_UP, NOW + HOUR);
+        journal.shutdown();
+
+        Restored skipped = restore(false);
+        assertFalse(skipped.followUps.isPending(1, FollowUpKind.FOLLOW_UP));
+        assertTrue(skipped.followUps.isPending(2, FollowUpKind.FOLLOW_UP));
+
+        Restored fire = restore(true);
+        assertEquals(2, fire.followUps.pendingCount());
+        clock.advance(1000);
+        fire.followUps.tick();
+        assertEquals("просроченное уходит первым тиком", List.of("1:FOLLOW_UP"), fired);
+    }
+
+    private SessionJournal open() throws IOException {
+        SessionJournal journal = new SessionJournal(journalDir());
+        journal.restore(new JournalRestorer(null, null, NOW, true));
+        return journal;
+    }
+
+    // Новый процесс: пустые хранилища, восстановление и закрытие журнала
+    private Restored restore(boolean fireOverdue) throws IOException {
+        Restored restored = new Restored();
+        SessionJournal journal = new SessionJournal(journalDir());
+        journal.restore(new JournalRestorer(restored.sessions, restored.followUps, clock.currentTimeMillis(), fireOverdue));
+        journal.shutdown();
+        return restored;
+    }
+
+    private Path journalDir() {
+        return dir.getRoot().toPath().resolve("journal");
+    }
+
+    private class Restored {
+        final InMemorySessionStore sessions;
+        final FollowUpScheduler followUps = new FollowUpScheduler(
+                (chatId, kind) -> fired.add(chatId + ":" + kind), clock, 1000, 64, 0);
+
+        Restored() throws IOException {
+            sessions = new InMemorySessionStore(
+                    new ColdSessionFile(dir.getRoot().toPath().resolve("cold-" + System.nanoTime())),
+                    TimeUnit.MINUTES.toMillis(30), clock);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.example;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.Json;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.sheets.v4.Sheets;
+import com.google.api.services.sheets.v4.model.ValueRange;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Google Sheets в памяти теста: values.get по диапазону вида «C2:E» или «G:H» и values.append.
+// failNextAppends — сколько следующих append записать в лист, но ответить ошибкой 500
+// (запрос дошёл, ответ потерян).
+final class SheetsStub extends GoogleSheetsService {
+    private static final Pattern RANGE = Pattern.compile("([A-Z])(\\d*):([A-Z])");
+
+    final List<List<Object>> sheet = new CopyOnWriteArrayList<>();
+    // «GET диапазон» или «APPEND число строк» по порядку запросов
+    final List<String> requests = new CopyOnWriteArrayList<>();
+    volatile int failNextAppends;
+
+    private final Sheets sheets = new Sheets.Builder(new MockHttpTransport() {
+        @Override
+        public LowLevelHttpRequest buildRequest(String method, String url) {
+            return new MockLowLevelHttpRequest(url) {
+                @Override
+                public LowLevelHttpResponse execute() throws IOException {
+                    return respond(url, getContentAsString());
+                }
+            };
+        }
+    }, GsonFactory.getDefaultInstance(), null).setApplicationName("test").build();
+
+    SheetsStub(List<Object> header) {
+        sheet.add(header);
+    }
+
+    void addRow(Object... cells) {
+        sheet.add(Arrays.asList(cells));
+    }
+
+    @Override
+    public Sheets getSheetsService() {
+        return sheets;
+    }
+
+    private LowLevelHttpResponse respond(String url, String body) throws IOException {
+        String path = URLDecoder.decode(url.replaceAll("\\?.*", ""), StandardCharsets.UTF_8);
+        MockLowLevelHttpResponse response = new MockLowLevelHttpResponse().setContentType(Json.MEDIA_TYPE);
+        if (path.endsWith(":append")) {
+            ValueRange values = GsonFactory.getDefaultInstance().fromString(body, ValueRange.class);
+            sheet.addAll(values.getValues());
+            requests.add("APPEND " + values.getValues().size());
+            if (failNextAppends > 0) {
+                failNextAppends--;
+                return response.setStatusCode(500)
+                        .setContent("{\"error\":{\"code\":500,\"message\":\"Internal error\"}}");
+            }
+            return response.setContent("{\"updates\":{\"updatedRows\":" + values.getValues().size() + "}}");
+        }
+        String range = path.substring(path.lastIndexOf('/') + 1);
+        requests.add("GET " + range);
+        return response.setContent(GsonFactory.getDefaultInstance().toString(
+                new ValueRange().setRange(range).setValues(read(range))));
+    }
+
+    private List<List<Object>> read(String range) {
+        Matcher m = RANGE.matcher(range);
+        if (!m.matches()) {
+            throw new IllegalArgumentException("Диапазон не поддерживается: " + range);
+        }
+        int from = m.group(1).charAt(0) - 'A';
+        int firstRow = m.group(2).isEmpty() ? 1 : Integer.parseInt(m.group(2));
+        int to = m.group(3).charAt(0) - 'A';
+        List<List<Object>> values = new ArrayList<>();
+        for (int r = firstRow - 1; r < sheet.size(); r++) {
+            List<Object> row = sheet.get(r);
+            List<Object> cells = new ArrayList<>();
+            for (int c = from; c <= to && c < row.size(); c++) {
+                cells.add(row.get(c));
+            }
+            values.add(cells);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,50 @@
+package com.example;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UpdateDeduplicatorTest {
+    private final VirtualClock clock = new VirtualClock(0);
+    private final UpdateDeduplicator dedup = new UpdateDeduplicator(128, 64, 3000, clock);
+
+    @Test
+    public void updateIsDuplicateOnlyAfterItWasAccepted() {
+        assertFalse(dedup.isDuplicate(10));
+        // Проверка ничего не запоминает: отклонённое событие пройдёт при повторной доставке
+        assertFalse(dedup.isDuplicate(10));
+        dedup.markAccepted(10);
+        assertTrue(dedup.isDuplicate(10));
+    }
+
+    @Test
+    public void skippedNumbersStayNew() {
+        dedup.markAccepted(10);
+        dedup.markAccepted(15);
+        assertFalse(dedup.isDuplicate(12));
+        dedup.markAccepted(12);
+        assertTrue(dedup.isDuplicate(12));
+        assertTrue(dedup.isDuplicate(15));
+    }
+
+    @Test
+    public void numbersOlderThanWindowAreDuplicates() {
+        dedup.markAccepted(1);
+        dedup.markAccepted(1000);
+        assertTrue(dedup.isDuplicate(1000 - 128));
+        assertFalse(dedup.isDuplicate(1000 - 127));
+        // Старые номера не портят окно
+        dedup.markAccepted(1);
+        assertFalse(dedup.isDuplicate(1000 - 127));
+    }
+
+    @Test
+    public void repeatedClickIsDroppedWithinWindow() {
+        assertTrue(dedup.firstCallback(1, "demo"));
+        assertFalse(dedup.firstCallback(1, "demo"));
+        assertTrue(dedup.firstCallback(2, "demo"));
+        clock.advance(3000);
+        assertTrue(dedup.firstCallback(1, "demo"));
+    }
+}
@@ -0,0 +1,81 @@
+package com.example;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UpdateDispatcherTest {
+    private UpdateDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        // Одна полоса: все чаты делят один поток
+        dispatcher = new UpdateDispatcher(1, 16);
+    }
+
+    @After
+    public void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void parkedChatDoesNotHoldUpOtherChats() throws Exception {
+        CompletableFuture<Void> upload = new CompletableFuture<>();
+        CountDownLatch otherChat = new CountDownLatch(1);
+        dispatcher.submit(1, () -> dispatcher.continueAfter(1, upload, () -> { }));
+        dispatcher.submit(2, otherChat::countDown);
+
+        assertTrue("задача другого чата ждёт незавершённую отправку", otherChat.await(5, TimeUnit.SECONDS));
+        upload.complete(null);
+    }
+
+    @Test
+    public void parkedChatKeepsItsOrder() throws Exception {
+        List<String> events = new CopyOnWriteArrayList<>();
+        CompletableFuture<Void> upload = new CompletableFuture<>();
+        CountDownLatch done = new CountDownLatch(1);
+        dispatcher.submit(1, () -> {
+            events.add("action");
+            dispatcher.continueAfter(1, upload, () -> events.add("continuation"));
+        });
+        dispatcher.submit(1, () -> events.add("next update"));
+        dispatcher.submit(2, () -> events.add("other chat"));
+        dispatcher.submit(2, () -> upload.complete(null));
+        dispatcher.submit(1, done::countDown);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("action", "other chat", "continuation", "next update"), events);
+    }
+
+    @Test
+    public void shutdownWaitsForParkedContinuations() throws Exception {
+        List<String> events = new CopyOnWriteArrayList<>();
+        CompletableFuture<Void> upload = new CompletableFuture<>();
+        CountDownLatch parked = new CountDownLatch(1);
+        dispatcher.submit(1, () -> {
+            dispatcher.continueAfter(1, upload, () -> events.add("continuation"));
+            parked.countDown();
+        });
+        assertTrue(parked.await(5, TimeUnit.SECONDS));
+        CompletableFuture.runAsync(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            upload.complete(null);
+        });
+
+        dispatcher.shutdown();
+        assertEquals(List.of("continuation"), events);
+    }
+}
@@ -0,0 +1,159 @@
+package com.example;
+
+import org.junit.After;
+import org.junit.Test;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WebhookServerTest {
+    private static final String PATH = "/webhook";
+    private static final String SECRET = "s3cret";
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final List<Update> received = new CopyOnWriteArrayList<>();
+    private WebhookServer server;
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void deliversMessagesAndCallbacks() throws Exception {
+        CountDownLatch delivered = new CountDownLatch(2);
+        start(update -> {
+            received.add(update);
+            delivered.countDown();
+        }, 16);
+
+        assertEquals(200, post(message(1), SECRET));
+        assertEquals(200, post(callback(2), SECRET));
+
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertEquals(1, (int) received.get(0).getUpdateId());
+        assertEquals(Long.valueOf(42), received.get(0).getMessage().getChatId());
+        assertEquals("data", received.get(1).getCallbackQuery().getData());
+    }
+
+    @Test
+    public void skipsUpdatesOutsideAllowedTypes() throws Exception {
+        CountDownLatch delivered = new CountDownLatch(1);
+        start(update -> {
+            received.add(update);
+            delivered.countDown();
+        }, 16);
+
+        // edited_message бот не обрабатывает: подтверждаем, но не передаём
+        assertEquals(200, post("{\"update_id\":1,\"edited_message\":" + messageBody() + "}", SECRET));
+        assertEquals(200, post(message(2), SECRET));
+
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertEquals(1, received.size());
+        assertEquals(2, (int) received.get(0).getUpdateId());
+    }
+
+    @Test
+    public void acknowledgesMalformedJson() throws Exception {
+        start(received::add, 16);
+
+        assertEquals(200, post("{not json", SECRET));
+        assertEquals(0, server.queueDepth());
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    public void rejectsWrongOrMissingSecret() throws Exception {
+        start(received::add, 16);
+
+        assertEquals(401, post(message(1), "wrong"));
+        assertEquals(401, post(message(2), null));
+        assertEquals(0, server.queueDepth());
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    public void rejectsNonPost() throws Exception {
+        start(received::add, 16);
+
+        HttpRequest request = HttpRequest.newBuilder(uri())
+                .header("X-Telegram-Bot-Api-Secret-Token", SECRET)
+                .GET()
+                .build();
+        assertEquals(405, client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode());
+    }
+
+    @Test
+    public void answers503WhenQueueIsFull() throws Exception {
+        CountDownLatch handling = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        start(update -> {
+            handling.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            received.add(update);
+        }, 1);
+
+        // Первое обновление забирает обработчик и зависает на нём, второе занимает очередь
+        assertEquals(200, post(message(1), SECRET));
+        assertTrue(handling.await(5, TimeUnit.SECONDS));
+        assertEquals(200, post(message(2), SECRET));
+        assertEquals(503, post(message(3), SECRET));
+
+        release.countDown();
+        server.shutdown();
+        server = null;
+        assertEquals(2, received.size());
+    }
+
+    private void start(Consumer<Update> handler, int queueCapacity) throws IOException {
+        server = new WebhookServer(handler, 0, PATH, SECRET, queueCapacity, 2);
+        server.start();
+    }
+
+    private int post(String json, String secret) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri())
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json));
+        if (secret != null) {
+            request.header("X-Telegram-Bot-Api-Secret-Token", secret);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private URI uri() {
+        return URI.create("http://127.0.0.1:" + server.port() + PATH);
+    }
+
+    private static String message(int updateId) {
+        return "{\"update_id\":" + updateId + ",\"message\":" + messageBody() + "}";
+    }
+
+    private static String messageBody() {
+        return "{\"message_id\":7,\"date\":1700000000,\"chat\":{\"id\":42,\"type\":\"private\"},"
+                + "\"from\":{\"id\":42,\"is_bot\":false,\"first_name\":\"Ann\"},\"text\":\"/start\"}";
+    }
+
+    private static String callback(int updateId) {
+        return "{\"update_id\":" + updateId + ",\"callback_query\":{\"id\":\"cb1\",\"chat_instance\":\"1\","
+                + "\"from\":{\"id\":42,\"is_bot\":false,\"first_name\":\"Ann\"},\"data\":\"data\","
+                + "\"message\":" + messageBody() + "}}";
+    }
+}